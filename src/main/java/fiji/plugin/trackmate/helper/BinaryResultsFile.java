@@ -0,0 +1,774 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.CSVWriter;
+import com.opencsv.exceptions.CsvValidationException;
+
+/**
+ * A binary, column-oriented format for results files, that can be written
+ * next to or instead of the CSV results files.
+ * <p>
+ * A binary results file <code>name.tmhr</code> is made of:
+ * <ul>
+ * <li>a header: a magic number, the format version, the offset of the first
+ * line, the number of metrics and of settings columns, then the name of each
+ * column, metrics first;
+ * <li>fixed-width lines: one <code>double</code> per metric, then one
+ * <code>int</code> dictionary code per settings column.
+ * </ul>
+ * Detector and tracker keys, parameter values and filter values are
+ * dictionary-encoded. The dictionary is stored in a companion file
+ * <code>name.tmhr.dict</code>, where new values are appended before the
+ * lines that use them. Because lines have a fixed width, the file can be
+ * appended to line by line, and is read by memory-mapping it and copying
+ * each column into a primitive array (see
+ * {@link ColumnarTrackingMetricsTable}).
+ * <p>
+ * The {@link #main(String[])} method exports binary results files to CSV.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class BinaryResultsFile
+{
+
+	public static final String EXTENSION = "tmhr";
+
+	private static final String DICT_EXTENSION = ".dict";
+
+	private static final int MAGIC = 0x544D4852; // 'TMHR'
+
+	private static final int VERSION = 1;
+
+	private BinaryResultsFile()
+	{}
+
+	/**
+	 * Returns the binary results file that goes with a CSV results file.
+	 *
+	 * @param csvFile
+	 *            the CSV file.
+	 * @return the binary file.
+	 */
+	public static File binaryFileFor( final File csvFile )
+	{
+		return new File( replaceExtension( csvFile.getPath(), EXTENSION ) );
+	}
+
+	/**
+	 * Returns the CSV results file that goes with a binary results file.
+	 *
+	 * @param binFile
+	 *            the binary file.
+	 * @return the CSV file.
+	 */
+	public static File csvFileFor( final File binFile )
+	{
+		return new File( replaceExtension( binFile.getPath(), "csv" ) );
+	}
+
+	private static String replaceExtension( final String path, final String extension )
+	{
+		final int dot = path.lastIndexOf( '.' );
+		final int sep = path.lastIndexOf( File.separatorChar );
+		final String base = ( dot > sep ) ? path.substring( 0, dot ) : path;
+		return base + '.' + extension;
+	}
+
+	private static File dictFileFor( final File binFile )
+	{
+		return new File( binFile.getPath() + DICT_EXTENSION );
+	}
+
+	/**
+	 * Creates an empty binary results file with the specified header.
+	 *
+	 * @param binFile
+	 *            the file to create.
+	 * @param header
+	 *            the header, metrics first.
+	 * @param nMetrics
+	 *            the number of metrics in the header.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static void create( final File binFile, final String[] header, final int nMetrics ) throws IOException
+	{
+		final ByteArrayOutputStream names = new ByteArrayOutputStream();
+		try (DataOutputStream dos = new DataOutputStream( names ))
+		{
+			for ( final String col : header )
+				dos.writeUTF( col );
+		}
+		try (DataOutputStream dos = new DataOutputStream( new FileOutputStream( binFile ) ))
+		{
+			dos.writeInt( MAGIC );
+			dos.writeInt( VERSION );
+			dos.writeInt( 5 * Integer.BYTES + names.size() );
+			dos.writeInt( nMetrics );
+			dos.writeInt( header.length - nMetrics );
+			names.writeTo( dos );
+		}
+		new FileOutputStream( dictFileFor( binFile ) ).close();
+	}
+
+	/**
+	 * Reads the header of a binary results file.
+	 *
+	 * @param binFile
+	 *            the file.
+	 * @return the header, metrics first.
+	 * @throws IOException
+	 *             if the file cannot be read or is not a binary results file.
+	 */
+	public static String[] readHeader( final File binFile ) throws IOException
+	{
+		return Header.read( binFile ).columns;
+	}
+
+	/**
+	 * Reads a binary results file.
+	 *
+	 * @param binFile
+	 *            the file.
+	 * @param type
+	 *            the tracking metrics type of the file.
+	 * @return a new table.
+	 * @throws IOException
+	 *             if the file cannot be read or is not a results file of the
+	 *             specified type.
+	 */
+	public static ColumnarTrackingMetricsTable read( final File binFile, final TrackingMetricsType type ) throws IOException
+	{
+		return new Reader( binFile, type ).read();
+	}
+
+	private static String[] readDictionary( final File binFile ) throws IOException
+	{
+		final List< String > dictionary = new ArrayList<>();
+		final File dictFile = dictFileFor( binFile );
+		if ( !dictFile.exists() )
+			return new String[ 0 ];
+
+		try (DataInputStream dis = new DataInputStream( new BufferedInputStream( new FileInputStream( dictFile ) ) ))
+		{
+			while ( true )
+				dictionary.add( dis.readUTF() );
+		}
+		catch ( final EOFException e )
+		{
+			// Done, possibly with a partially written last entry.
+		}
+		return dictionary.toArray( new String[ dictionary.size() ] );
+	}
+
+	/**
+	 * Creates a binary results file with the content of a CSV results file.
+	 *
+	 * @param csvFile
+	 *            the CSV file to read.
+	 * @param binFile
+	 *            the binary file to write. Overwritten if it exists.
+	 * @param nMetrics
+	 *            the number of metrics in the CSV file.
+	 * @throws IOException
+	 *             if the files cannot be read or written.
+	 */
+	public static void fromCSV( final File csvFile, final File binFile, final int nMetrics ) throws IOException
+	{
+		try (CSVReader csvReader = new CSVReaderBuilder( new FileReader( csvFile ) ).build())
+		{
+			final String[] header = csvReader.readNext();
+			create( binFile, header, nMetrics );
+			try (Writer writer = Writer.open( binFile, false ))
+			{
+				final double[] metrics = new double[ nMetrics ];
+				String[] line;
+				int nLines = 0;
+				while ( ( line = csvReader.readNext() ) != null )
+				{
+					for ( int i = 0; i < nMetrics; i++ )
+						metrics[ i ] = Double.parseDouble( line[ i ] );
+					writer.append( metrics, Arrays.copyOfRange( line, nMetrics, line.length ) );
+					if ( ++nLines % 1000 == 0 )
+						writer.flush();
+				}
+			}
+		}
+		catch ( final CsvValidationException e )
+		{
+			throw new IOException( e );
+		}
+	}
+
+	/**
+	 * Exports a binary results file to a CSV results file.
+	 *
+	 * @param binFile
+	 *            the binary file to read.
+	 * @param csvFile
+	 *            the CSV file to write. Overwritten if it exists.
+	 * @throws IOException
+	 *             if the files cannot be read or written.
+	 */
+	public static void exportToCSV( final File binFile, final File csvFile ) throws IOException
+	{
+		final Header header = Header.read( binFile );
+		final String[] dictionary = readDictionary( binFile );
+		final int nCols = header.columns.length - header.nMetrics;
+		final int lineWidth = header.nMetrics * Double.BYTES + nCols * Integer.BYTES;
+
+		try (DataInputStream dis = new DataInputStream( new BufferedInputStream( new FileInputStream( binFile ) ) );
+				CSVWriter csvWriter = new CSVWriter( new FileWriter( csvFile ),
+						CSVWriter.DEFAULT_SEPARATOR,
+						CSVWriter.NO_QUOTE_CHARACTER,
+						CSVWriter.DEFAULT_ESCAPE_CHARACTER,
+						CSVWriter.DEFAULT_LINE_END ))
+		{
+			csvWriter.writeNext( header.columns );
+			dis.skipBytes( header.offset );
+			final long nLines = ( binFile.length() - header.offset ) / lineWidth;
+			final String[] line = new String[ header.columns.length ];
+			for ( long l = 0; l < nLines; l++ )
+			{
+				for ( int m = 0; m < header.nMetrics; m++ )
+					line[ m ] = Double.toString( dis.readDouble() );
+				for ( int c = 0; c < nCols; c++ )
+				{
+					final int code = dis.readInt();
+					if ( code < 0 || code >= dictionary.length )
+						return;
+					line[ header.nMetrics + c ] = dictionary[ code ];
+				}
+				csvWriter.writeNext( line );
+			}
+		}
+	}
+
+	/**
+	 * Exports binary results files to CSV.
+	 * <p>
+	 * Usage: <code>BinaryResultsFile file.tmhr [file.csv]</code>, or
+	 * <code>BinaryResultsFile folder</code> to export all the binary results
+	 * files in a folder that do not have a CSV file next to them.
+	 *
+	 * @param args
+	 *            the command line arguments.
+	 * @throws IOException
+	 *             if a file cannot be read or written.
+	 */
+	public static void main( final String[] args ) throws IOException
+	{
+		if ( args.length < 1 )
+		{
+			System.out.println( "Usage: BinaryResultsFile file." + EXTENSION + " [file.csv]" );
+			System.out.println( "   or: BinaryResultsFile folder" );
+			return;
+		}
+
+		final File in = new File( args[ 0 ] );
+		if ( in.isDirectory() )
+		{
+			final File[] files = in.listFiles( ( dir, name ) -> name.endsWith( '.' + EXTENSION ) );
+			if ( files == null )
+				return;
+			for ( final File binFile : files )
+			{
+				final File csvFile = csvFileFor( binFile );
+				if ( csvFile.exists() )
+					continue;
+				exportToCSV( binFile, csvFile );
+				System.out.println( "Exported " + binFile + " to " + csvFile );
+			}
+		}
+		else
+		{
+			final File csvFile = ( args.length > 1 ) ? new File( args[ 1 ] ) : csvFileFor( in );
+			exportToCSV( in, csvFile );
+			System.out.println( "Exported " + in + " to " + csvFile );
+		}
+	}
+
+	private static class Header
+	{
+
+		private final int offset;
+
+		private final int nMetrics;
+
+		private final String[] columns;
+
+		private Header( final int offset, final int nMetrics, final String[] columns )
+		{
+			this.offset = offset;
+			this.nMetrics = nMetrics;
+			this.columns = columns;
+		}
+
+		private static Header read( final File binFile ) throws IOException
+		{
+			try (DataInputStream dis = new DataInputStream( new BufferedInputStream( new FileInputStream( binFile ) ) ))
+			{
+				if ( dis.readInt() != MAGIC )
+					throw new IOException( "File " + binFile + " is not a binary results file." );
+				final int version = dis.readInt();
+				if ( version != VERSION )
+					throw new IOException( "Unsupported binary results file version: " + version );
+				final int offset = dis.readInt();
+				final int nMetrics = dis.readInt();
+				final int nCols = dis.readInt();
+				final String[] columns = new String[ nMetrics + nCols ];
+				for ( int i = 0; i < columns.length; i++ )
+					columns[ i ] = dis.readUTF();
+				return new Header( offset, nMetrics, columns );
+			}
+		}
+	}
+
+	/**
+	 * Reads a binary results file incrementally.
+	 * <p>
+	 * Each call to {@link #read()} only decodes the lines and the dictionary
+	 * entries appended since the previous call, and returns a table over all
+	 * the lines read so far. The columns and the dictionary grow by
+	 * reallocation, and lines are only written past the size of the tables
+	 * already returned, so a table returned earlier is not affected by later
+	 * reads.
+	 */
+	public static class Reader
+	{
+
+		private final File binFile;
+
+		private final TrackingMetricsType type;
+
+		private final Header header;
+
+		private final int nCols;
+
+		private final int lineWidth;
+
+		private final String[] columns;
+
+		private String[] dictionary = new String[ 0 ];
+
+		private int nEntries = 0;
+
+		/**
+		 * Length of the part of the dictionary file already read.
+		 */
+		private long dictRead = 0;
+
+		private double[][] metricColumns;
+
+		private int[][] codeColumns;
+
+		private int size = 0;
+
+		private int capacity = 0;
+
+		/**
+		 * Opens a binary results file for reading.
+		 *
+		 * @param binFile
+		 *            the file.
+		 * @param type
+		 *            the tracking metrics type of the file.
+		 * @throws IOException
+		 *             if the file cannot be read or is not a results file of
+		 *             the specified type.
+		 */
+		public Reader( final File binFile, final TrackingMetricsType type ) throws IOException
+		{
+			this.binFile = binFile;
+			this.type = type;
+			this.header = Header.read( binFile );
+			if ( header.nMetrics != type.countMetricColumns( header.columns ) || !type.isHeader( header.columns ) )
+				throw new IOException( "File " + binFile + " is not a " + type.name() + " results file." );
+			this.nCols = header.columns.length - header.nMetrics;
+			this.lineWidth = header.nMetrics * Double.BYTES + nCols * Integer.BYTES;
+			this.columns = Arrays.copyOfRange( header.columns, header.nMetrics, header.columns.length );
+			this.metricColumns = new double[ type.metrics().size() ][ 0 ];
+			this.codeColumns = new int[ nCols ][ 0 ];
+		}
+
+		/**
+		 * Returns the number of lines read so far.
+		 *
+		 * @return the number of lines.
+		 */
+		public int size()
+		{
+			return size;
+		}
+
+		/**
+		 * Reads the lines and dictionary entries appended since the last call.
+		 *
+		 * @return a table over all the lines read so far.
+		 * @throws IOException
+		 *             if the file cannot be read.
+		 */
+		public ColumnarTrackingMetricsTable read() throws IOException
+		{
+			readNewEntries();
+			try (RandomAccessFile raf = new RandomAccessFile( binFile, "r" );
+					FileChannel channel = raf.getChannel())
+			{
+				final long length = channel.size() - header.offset;
+				final int nLines = ( int ) ( Math.max( 0, length ) / lineWidth );
+				if ( nLines > size )
+				{
+					ensureCapacity( nLines );
+					final long start = header.offset + ( long ) size * lineWidth;
+					final MappedByteBuffer buffer = channel.map( MapMode.READ_ONLY, start, ( long ) ( nLines - size ) * lineWidth );
+					LINE: for ( int l = 0; size < nLines; l++ )
+					{
+						final int pos = l * lineWidth;
+						for ( int c = 0; c < nCols; c++ )
+						{
+							final int code = buffer.getInt( pos + header.nMetrics * Double.BYTES + c * Integer.BYTES );
+							// Dictionary not written yet for this line?
+							if ( code < 0 || code >= nEntries )
+								break LINE;
+							codeColumns[ c ][ size ] = code;
+						}
+						for ( int m = 0; m < header.nMetrics; m++ )
+							metricColumns[ m ][ size ] = buffer.getDouble( pos + m * Double.BYTES );
+						size++;
+					}
+				}
+			}
+			return new ColumnarTrackingMetricsTable( type, columns, metricColumns, codeColumns, dictionary, size );
+		}
+
+		private void readNewEntries() throws IOException
+		{
+			final File dictFile = dictFileFor( binFile );
+			if ( !dictFile.exists() )
+				return;
+
+			try (RandomAccessFile raf = new RandomAccessFile( dictFile, "r" ))
+			{
+				final long length = raf.length();
+				if ( length <= dictRead )
+					return;
+
+				final byte[] bytes = new byte[ ( int ) ( length - dictRead ) ];
+				raf.seek( dictRead );
+				raf.readFully( bytes );
+				final List< String > entries = new ArrayList<>();
+				try (DataInputStream dis = new DataInputStream( new ByteArrayInputStream( bytes ) ))
+				{
+					int pos = 0;
+					while ( pos + 2 <= bytes.length )
+					{
+						final int n = ( ( bytes[ pos ] & 0xFF ) << 8 ) | ( bytes[ pos + 1 ] & 0xFF );
+						// Partially written last entry.
+						if ( pos + 2 + n > bytes.length )
+							break;
+						entries.add( dis.readUTF() );
+						pos += 2 + n;
+					}
+					dictRead += pos;
+				}
+				if ( entries.isEmpty() )
+					return;
+
+				// New array, so that earlier tables keep their own.
+				final String[] newDictionary = Arrays.copyOf( dictionary, nEntries + entries.size() );
+				for ( final String entry : entries )
+					newDictionary[ nEntries++ ] = entry;
+				dictionary = newDictionary;
+			}
+		}
+
+		private void ensureCapacity( final int nLines )
+		{
+			if ( capacity >= nLines )
+				return;
+
+			// New arrays, so that earlier tables keep their own.
+			capacity = Math.max( nLines, capacity + ( capacity >> 1 ) );
+			final double[][] newMetricColumns = new double[ metricColumns.length ][];
+			for ( int m = 0; m < metricColumns.length; m++ )
+			{
+				newMetricColumns[ m ] = Arrays.copyOf( metricColumns[ m ], capacity );
+				// Metrics missing from older files are NaN.
+				if ( m >= header.nMetrics )
+					Arrays.fill( newMetricColumns[ m ], size, capacity, Double.NaN );
+			}
+			final int[][] newCodeColumns = new int[ codeColumns.length ][];
+			for ( int c = 0; c < codeColumns.length; c++ )
+				newCodeColumns[ c ] = Arrays.copyOf( codeColumns[ c ], capacity );
+			metricColumns = newMetricColumns;
+			codeColumns = newCodeColumns;
+		}
+	}
+
+	/**
+	 * Appends lines to an existing binary results file.
+	 * <p>
+	 * There is one writer per file in a JVM, shared by all the users that
+	 * open it with {@link #open(File, boolean)}, and closed when the last of
+	 * them closes it. Lines are buffered until {@link #flush()} is called.
+	 * Flushing holds a lock on the dictionary file, so that several processes
+	 * can append to the same file: under the lock, the writer reads the
+	 * dictionary entries written by others, encodes the pending lines, then
+	 * appends the new dictionary entries before the lines that use them.
+	 */
+	public static class Writer implements Closeable
+	{
+
+		private static final Map< File, Writer > OPEN = new HashMap<>();
+
+		private final File binFile;
+
+		private final int nMetrics;
+
+		private final int nCols;
+
+		private final int offset;
+
+		private final int lineWidth;
+
+		/**
+		 * Code of each dictionary entry read or written so far.
+		 */
+		private final Map< String, Integer > codes = new HashMap<>();
+
+		private int nEntries = 0;
+
+		/**
+		 * Length of the part of the dictionary file already read.
+		 */
+		private long dictRead = 0;
+
+		private final RandomAccessFile linesOut;
+
+		private final RandomAccessFile dictOut;
+
+		private final List< double[] > pendingMetrics = new ArrayList<>();
+
+		private final List< String[] > pendingColumns = new ArrayList<>();
+
+		private boolean fsync = false;
+
+		private int users = 0;
+
+		/**
+		 * Opens the specified binary results file for appending. Returns the
+		 * writer already open on this file in this JVM, if any.
+		 *
+		 * @param binFile
+		 *            the file. Must exist.
+		 * @param fsync
+		 *            whether to force the file content to the storage device
+		 *            after each flush.
+		 * @return the writer for this file.
+		 * @throws IOException
+		 *             if the file cannot be opened.
+		 */
+		public static Writer open( final File binFile, final boolean fsync ) throws IOException
+		{
+			final File key = binFile.getCanonicalFile();
+			synchronized ( OPEN )
+			{
+				Writer writer = OPEN.get( key );
+				if ( writer == null )
+				{
+					writer = new Writer( key );
+					OPEN.put( key, writer );
+				}
+				writer.users++;
+				writer.fsync |= fsync;
+				return writer;
+			}
+		}
+
+		private Writer( final File binFile ) throws IOException
+		{
+			final Header header = Header.read( binFile );
+			this.binFile = binFile;
+			this.nMetrics = header.nMetrics;
+			this.nCols = header.columns.length - header.nMetrics;
+			this.offset = header.offset;
+			this.lineWidth = nMetrics * Double.BYTES + nCols * Integer.BYTES;
+			this.linesOut = new RandomAccessFile( binFile, "rw" );
+			this.dictOut = new RandomAccessFile( dictFileFor( binFile ), "rw" );
+		}
+
+		/**
+		 * Appends a line.
+		 *
+		 * @param metrics
+		 *            the metric values.
+		 * @param columns
+		 *            the settings values.
+		 */
+		public synchronized void append( final double[] metrics, final String[] columns )
+		{
+			if ( metrics.length != nMetrics || columns.length != nCols )
+				throw new IllegalArgumentException( "Line does not match the binary results file header." );
+			pendingMetrics.add( metrics.clone() );
+			pendingColumns.add( columns.clone() );
+		}
+
+		/**
+		 * Writes the pending lines and dictionary entries to the files.
+		 *
+		 * @throws IOException
+		 *             if the files cannot be written.
+		 */
+		public synchronized void flush() throws IOException
+		{
+			if ( pendingMetrics.isEmpty() )
+				return;
+
+			try (FileLock lock = dictOut.getChannel().lock())
+			{
+				readNewEntries();
+
+				final ByteArrayOutputStream dictBytes = new ByteArrayOutputStream();
+				final ByteArrayOutputStream lineBytes = new ByteArrayOutputStream( pendingMetrics.size() * lineWidth );
+				try (DataOutputStream dict = new DataOutputStream( dictBytes );
+						DataOutputStream lines = new DataOutputStream( lineBytes ))
+				{
+					for ( int l = 0; l < pendingMetrics.size(); l++ )
+					{
+						for ( final double m : pendingMetrics.get( l ) )
+							lines.writeDouble( m );
+						for ( final String col : pendingColumns.get( l ) )
+						{
+							Integer code = codes.get( col );
+							if ( code == null )
+							{
+								code = Integer.valueOf( nEntries++ );
+								codes.put( col, code );
+								dict.writeUTF( col );
+							}
+							lines.writeInt( code.intValue() );
+						}
+					}
+				}
+
+				if ( dictBytes.size() > 0 )
+				{
+					dictOut.seek( dictRead );
+					dictOut.write( dictBytes.toByteArray() );
+					dictRead += dictBytes.size();
+					if ( fsync )
+						dictOut.getFD().sync();
+				}
+
+				// Discard a partial line left by a writer that died.
+				final long nLines = Math.max( 0, linesOut.length() - offset ) / lineWidth;
+				final long end = offset + nLines * lineWidth;
+				if ( linesOut.length() != end )
+					linesOut.setLength( end );
+				linesOut.seek( end );
+				linesOut.write( lineBytes.toByteArray() );
+				if ( fsync )
+					linesOut.getFD().sync();
+			}
+			pendingMetrics.clear();
+			pendingColumns.clear();
+		}
+
+		/**
+		 * Reads the dictionary entries appended by other writers since the
+		 * last read. Must be called with the lock held.
+		 */
+		private void readNewEntries() throws IOException
+		{
+			final long length = dictOut.length();
+			while ( dictRead + 2 <= length )
+			{
+				dictOut.seek( dictRead );
+				final int n = dictOut.readUnsignedShort();
+				if ( dictRead + 2 + n > length )
+					break;
+				dictOut.seek( dictRead );
+				final String entry = dictOut.readUTF();
+				codes.putIfAbsent( entry, Integer.valueOf( nEntries ) );
+				nEntries++;
+				dictRead += 2 + n;
+			}
+			// Discard a partial entry left by a writer that died.
+			if ( dictRead != length )
+				dictOut.setLength( dictRead );
+		}
+
+		/**
+		 * Releases this writer. The files are flushed and closed when the last
+		 * user closes it.
+		 */
+		@Override
+		public void close() throws IOException
+		{
+			synchronized ( OPEN )
+			{
+				if ( --users > 0 )
+					return;
+				OPEN.remove( binFile );
+				synchronized ( this )
+				{
+					try
+					{
+						flush();
+					}
+					finally
+					{
+						linesOut.close();
+						dictOut.close();
+					}
+				}
+			}
+		}
+	}
+}
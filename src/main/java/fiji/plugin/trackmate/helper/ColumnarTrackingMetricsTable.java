@@ -0,0 +1,277 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.helper.TrackingMetricsType.MetricValue;
+
+/**
+ * A {@link TrackingMetricsTable} backed by primitive columns, as read from a
+ * {@link BinaryResultsFile}.
+ * <p>
+ * Metric values are stored as one <code>double</code> array per metric, and
+ * settings values as one array of dictionary codes per column. Lines are
+ * materialized as objects only when they are requested, and searching for the
+ * best line only scans the primitive arrays.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class ColumnarTrackingMetricsTable extends TrackingMetricsTable
+{
+
+	private final TrackingMetricsType type;
+
+	private final String[] columns;
+
+	private final double[][] metricColumns;
+
+	private final int[][] codeColumns;
+
+	private final String[] dictionary;
+
+	private final int size;
+
+	private final int detectorCol;
+
+	private final int trackerCol;
+
+	private final int lastTrackerParamCol;
+
+	private final int[] spotFilterCols;
+
+	private final int[] trackFilterCols;
+
+	/**
+	 * Creates a table from columns.
+	 *
+	 * @param type
+	 *            the tracking metrics type.
+	 * @param columns
+	 *            the names of the settings columns, without the metrics.
+	 * @param metricColumns
+	 *            the metric values, one array per metric, in the order of the
+	 *            type metrics.
+	 * @param codeColumns
+	 *            the dictionary codes of the settings values, one array per
+	 *            settings column.
+	 * @param dictionary
+	 *            the dictionary.
+	 * @param size
+	 *            the number of lines.
+	 */
+	public ColumnarTrackingMetricsTable(
+			final TrackingMetricsType type,
+			final String[] columns,
+			final double[][] metricColumns,
+			final int[][] codeColumns,
+			final String[] dictionary,
+			final int size )
+	{
+		super( type,
+				Collections.emptyList(),
+				Collections.emptyList(), Collections.emptyList(),
+				Collections.emptyList(), Collections.emptyList(),
+				Collections.emptyList(), Collections.emptyList() );
+		this.type = type;
+		this.columns = columns;
+		this.metricColumns = metricColumns;
+		this.codeColumns = codeColumns;
+		this.dictionary = dictionary;
+		this.size = size;
+
+		int dc = -1;
+		int tc = -1;
+		final List< Integer > sfc = new ArrayList<>();
+		final List< Integer > tfc = new ArrayList<>();
+		for ( int col = 0; col < columns.length; col++ )
+		{
+			if ( columns[ col ].equals( "DETECTOR" ) && dc < 0 )
+				dc = col;
+			else if ( columns[ col ].equals( "TRACKER" ) && tc < 0 )
+				tc = col;
+			else if ( columns[ col ].startsWith( "SPOT_FILTER_ON_" ) )
+				sfc.add( col );
+			else if ( columns[ col ].startsWith( "TRACK_FILTER_ON_" ) )
+				tfc.add( col );
+		}
+		this.detectorCol = dc;
+		this.trackerCol = tc;
+		this.spotFilterCols = sfc.stream().mapToInt( Integer::intValue ).toArray();
+		this.trackFilterCols = tfc.stream().mapToInt( Integer::intValue ).toArray();
+		if ( spotFilterCols.length > 0 )
+			lastTrackerParamCol = spotFilterCols[ 0 ];
+		else if ( trackFilterCols.length > 0 )
+			lastTrackerParamCol = trackFilterCols[ 0 ];
+		else
+			lastTrackerParamCol = columns.length;
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public String getDetector( final int line )
+	{
+		return value( detectorCol, line );
+	}
+
+	@Override
+	public String getTracker( final int line )
+	{
+		return value( trackerCol, line );
+	}
+
+	@Override
+	public Map< String, String > getDetectorParams( final int line )
+	{
+		final Map< String, String > dp = new LinkedHashMap<>();
+		for ( int col = detectorCol + 1; col < trackerCol; col++ )
+			dp.put( columns[ col ], value( col, line ) );
+		return dp;
+	}
+
+	@Override
+	public Map< String, String > getTrackerParams( final int line )
+	{
+		final Map< String, String > tp = new LinkedHashMap<>();
+		for ( int col = trackerCol + 1; col < lastTrackerParamCol; col++ )
+			tp.put( columns[ col ], value( col, line ) );
+		return tp;
+	}
+
+	@Override
+	public TrackingMetrics getMetrics( final int line )
+	{
+		final TrackingMetrics m = new TrackingMetrics( type );
+		for ( int i = 0; i < metricColumns.length; i++ )
+			m.set( i, metricColumns[ i ][ line ] );
+		return m;
+	}
+
+	@Override
+	public List< FeatureFilter > getSpotFilters( final int line )
+	{
+		return filters( spotFilterCols, "SPOT_FILTER_ON_", line );
+	}
+
+	@Override
+	public List< FeatureFilter > getTrackFilters( final int line )
+	{
+		return filters( trackFilterCols, "TRACK_FILTER_ON_", line );
+	}
+
+	/**
+	 * Returns the values of the specified metric, one per line.
+	 *
+	 * @param key
+	 *            the metric.
+	 * @return the metric column. Do not modify.
+	 */
+	public double[] getMetricColumn( final MetricValue key )
+	{
+		return metricColumns[ type.id( key ) ];
+	}
+
+	@Override
+	public int countValid()
+	{
+		int count = 0;
+		LINE: for ( int i = 0; i < size; i++ )
+		{
+			for ( final double[] column : metricColumns )
+			{
+				if ( !Double.isNaN( column[ i ] ) )
+				{
+					count++;
+					continue LINE;
+				}
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public int bestFor( final String detector, final String tracker, final MetricValue key )
+	{
+		// Compare codes instead of strings.
+		final int detectorCode = ( detector == null ) ? -1 : code( detector );
+		final int trackerCode = ( tracker == null ) ? -1 : code( tracker );
+		if ( ( detector != null && detectorCode < 0 ) || ( tracker != null && trackerCode < 0 ) )
+			return -1;
+
+		final int[] detectors = codeColumns[ detectorCol ];
+		final int[] trackers = codeColumns[ trackerCol ];
+		final double[] values = metricColumns[ type.id( key ) ];
+		int bestLine = -1;
+		double best = Double.NaN;
+		for ( int i = 0; i < size; i++ )
+		{
+			if ( ( detector != null && detectors[ i ] != detectorCode )
+					|| ( tracker != null && trackers[ i ] != trackerCode ) )
+				continue;
+
+			final double val = values[ i ];
+			if ( bestLine < 0 || key.optimumType.isBetterThan( val, best ) )
+			{
+				best = val;
+				bestLine = i;
+			}
+		}
+		return bestLine;
+	}
+
+	private String value( final int col, final int line )
+	{
+		return dictionary[ codeColumns[ col ][ line ] ];
+	}
+
+	private int code( final String str )
+	{
+		for ( int i = 0; i < dictionary.length; i++ )
+			if ( dictionary[ i ].equals( str ) )
+				return i;
+		return -1;
+	}
+
+	private List< FeatureFilter > filters( final int[] cols, final String prefix, final int line )
+	{
+		final List< FeatureFilter > filters = new ArrayList<>( cols.length );
+		for ( final int col : cols )
+		{
+			// We expect something like ">2.202354"
+			final String str = value( col, line ).trim();
+			final boolean isAbove = str.startsWith( ">" );
+			final double value = Double.parseDouble( str.substring( 1 ) );
+			filters.add( new FeatureFilter( columns[ col ].substring( prefix.length() ), value, isAbove ) );
+		}
+		return filters;
+	}
+}
@@ -0,0 +1,278 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.features.spot.SpotAnalyzerFactoryBase;
+import fiji.plugin.trackmate.io.TmXmlReader;
+import fiji.plugin.trackmate.io.TmXmlWriter;
+import ij.ImagePlus;
+import ij.io.FileInfo;
+import ij.measure.Calibration;
+
+/**
+ * A persistent, content-addressed cache for detection results.
+ * <p>
+ * Detection results (spots and their features, after initial spot filtering)
+ * are stored in a sub-folder of the results folder, one TrackMate file per
+ * detector configuration. The TrackMate XML format is used rather than a
+ * dedicated binary format, so that cached files can be opened and checked
+ * with TrackMate. The file name is a hash of the image identity, including
+ * the size and modification time of its file, the detector key and settings,
+ * the initial spot filter threshold and the spot analyzers. When a parameter
+ * sweep is resumed, detection results are loaded from the cache instead of
+ * being recomputed.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class DetectionCache
+{
+
+	/**
+	 * Name of the folder, in the results folder, where cached detection
+	 * results are stored.
+	 */
+	public static final String CACHE_FOLDER_NAME = "DetectionCache";
+
+	private static final String DETECTION_TIME_PREFIX = "DETECTION_TIME=";
+
+	private final File folder;
+
+	private final Logger logger;
+
+	public DetectionCache( final String saveFolder, final Logger logger )
+	{
+		this.folder = new File( saveFolder, CACHE_FOLDER_NAME );
+		this.logger = logger;
+	}
+
+	/**
+	 * Loads the detection results for the specified settings from the cache.
+	 *
+	 * @param settings
+	 *            the settings used for detection.
+	 * @return the cached detection results and detection time, or
+	 *         <code>null</code> if the settings are not in the cache.
+	 */
+	public CachedDetection load( final Settings settings )
+	{
+		final String key = key( settings );
+		final File file = new File( folder, hash( key ) + ".xml" );
+		if ( !file.exists() )
+			return null;
+
+		final TmXmlReader reader = new TmXmlReader( file );
+		if ( !reader.isReadingOk() )
+		{
+			logger.error( "Could not read cached detection file " + file + ":\n" + reader.getErrorMessage() + '\n' );
+			return null;
+		}
+
+		// Check that we are not facing a hash collision.
+		final String log = reader.getLog();
+		final int idx = log.lastIndexOf( DETECTION_TIME_PREFIX );
+		if ( idx < 0 || !log.substring( 0, idx ).trim().equals( key ) )
+			return null;
+
+		final Model model = reader.getModel();
+		if ( model == null )
+			return null;
+
+		double detectionTiming;
+		try
+		{
+			detectionTiming = Double.parseDouble( log.substring( idx + DETECTION_TIME_PREFIX.length() ).trim() );
+		}
+		catch ( final NumberFormatException e )
+		{
+			detectionTiming = Double.NaN;
+		}
+		return new CachedDetection( model, detectionTiming );
+	}
+
+	/**
+	 * Stores the detection results of the specified model in the cache.
+	 *
+	 * @param settings
+	 *            the settings used for detection.
+	 * @param model
+	 *            the model containing the detection results.
+	 * @param detectionTiming
+	 *            the time it took to perform detection, in seconds.
+	 */
+	public void save( final Settings settings, final Model model, final double detectionTiming )
+	{
+		if ( !folder.exists() && !folder.mkdirs() )
+		{
+			logger.error( "Could not create detection cache folder " + folder + '\n' );
+			return;
+		}
+
+		final String key = key( settings );
+		final String hash = hash( key );
+		final File file = new File( folder, hash + ".xml" );
+		File tmp = null;
+		try
+		{
+			/*
+			 * Write to a temporary file in the same folder, then move it in
+			 * place, so that other workers never read a partial file.
+			 */
+			tmp = File.createTempFile( hash, ".tmp", folder );
+			final TmXmlWriter writer = new TmXmlWriter( tmp, Logger.VOID_LOGGER );
+			writer.appendLog( key + '\n' + DETECTION_TIME_PREFIX + detectionTiming );
+			writer.appendModel( model );
+			writer.writeToFile();
+			try
+			{
+				Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+			}
+			catch ( final AtomicMoveNotSupportedException e )
+			{
+				Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+			}
+		}
+		catch ( final IOException e )
+		{
+			logger.error( "Could not write cached detection file " + file + ":\n" + e.getMessage() + '\n' );
+			if ( tmp != null )
+				tmp.delete();
+		}
+	}
+
+	/**
+	 * Returns the canonical key of the detection step for the specified
+	 * settings. It depends on the image and the size and modification time of
+	 * its file, the region to process, the detector and its settings, the
+	 * initial spot filter threshold and the spot analyzers, as the cached
+	 * spots are filtered and have their features computed. The order of the
+	 * detector settings does not matter and logger settings are ignored.
+	 *
+	 * @param settings
+	 *            the settings.
+	 * @return the canonical key, as a string.
+	 */
+	public static String key( final Settings settings )
+	{
+		final StringBuilder str = new StringBuilder();
+
+		// Image identity.
+		final ImagePlus imp = settings.imp;
+		if ( imp != null )
+		{
+			str.append( "IMAGE=" + imp.getTitle() );
+			final FileInfo fileInfo = imp.getOriginalFileInfo();
+			if ( fileInfo != null && fileInfo.directory != null && fileInfo.fileName != null )
+			{
+				// Detect images edited in place.
+				final File file = new File( fileInfo.directory, fileInfo.fileName );
+				str.append( ";PATH=" + file.getAbsolutePath() );
+				str.append( ";SIZE=" + file.length() + ";MTIME=" + file.lastModified() );
+			}
+			final int[] dims = imp.getDimensions();
+			str.append( String.format( ";DIMS=%dx%dx%dx%dx%d", dims[ 0 ], dims[ 1 ], dims[ 2 ], dims[ 3 ], dims[ 4 ] ) );
+			final Calibration cal = imp.getCalibration();
+			str.append( ";CAL=" + cal.pixelWidth + "x" + cal.pixelHeight + "x" + cal.pixelDepth + "x" + cal.frameInterval );
+		}
+
+		// Region to process.
+		str.append( String.format( ";X=%d-%d;Y=%d-%d;Z=%d-%d;T=%d-%d",
+				settings.xstart, settings.xend,
+				settings.ystart, settings.yend,
+				settings.zstart, settings.zend,
+				settings.tstart, settings.tend ) );
+		if ( settings.roi != null )
+			str.append( ";ROI=" + settings.roi.getBounds() );
+
+		// Detector.
+		str.append( ";DETECTOR=" + settings.detectorFactory.getKey() );
+		final Map< String, String > sorted = new TreeMap<>();
+		for ( final String key : settings.detectorSettings.keySet() )
+		{
+			final Object val = settings.detectorSettings.get( key );
+			final String valStr = ( val == null ) ? "" : val.toString();
+			// Ignore Logger settings.
+			if ( valStr.startsWith( "fiji.plugin.trackmate.Logger$" ) )
+				continue;
+			sorted.put( key, valStr );
+		}
+		str.append( ";SETTINGS=" + sorted.toString() );
+
+		// Initial spot filtering and spot features.
+		str.append( ";INITIAL_FILTER=" + settings.initialSpotFilterValue );
+		final Set< String > analyzers = new TreeSet<>();
+		for ( final SpotAnalyzerFactoryBase< ? > factory : settings.getSpotAnalyzerFactories() )
+			analyzers.add( factory.getKey() );
+		str.append( ";SPOT_ANALYZERS=" + analyzers.toString() );
+		return str.toString();
+	}
+
+	static String hash( final String key )
+	{
+		try
+		{
+			final MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+			final byte[] bytes = digest.digest( key.getBytes( StandardCharsets.UTF_8 ) );
+			final StringBuilder str = new StringBuilder( 2 * bytes.length );
+			for ( final byte b : bytes )
+				str.append( String.format( "%02x", b ) );
+			return str.toString();
+		}
+		catch ( final NoSuchAlgorithmException e )
+		{
+			// SHA-256 is guaranteed to be available.
+			throw new RuntimeException( e );
+		}
+	}
+
+	/**
+	 * Detection results loaded from the cache.
+	 */
+	public static class CachedDetection
+	{
+
+		public final Model model;
+
+		public final double detectionTiming;
+
+		private CachedDetection( final Model model, final double detectionTiming )
+		{
+			this.model = model;
+			this.detectionTiming = detectionTiming;
+		}
+	}
+}
@@ -29,8 +29,21 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import org.scijava.Cancelable;
@@ -42,10 +55,13 @@ import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.TrackMate;
 import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.helper.MetricsRunner.ResultsFormat;
+import fiji.plugin.trackmate.helper.TrackingMetricsType.MetricValue;
 import fiji.plugin.trackmate.helper.ctc.CTCTrackingMetricsType;
 import fiji.plugin.trackmate.helper.model.ParameterSweepModel;
 import fiji.plugin.trackmate.helper.model.ParameterSweepModelIO;
 import fiji.plugin.trackmate.helper.model.detector.DetectorSweepModel;
+import fiji.plugin.trackmate.helper.model.filter.FilterSweepModel;
 import fiji.plugin.trackmate.helper.model.tracker.TrackerSweepModel;
 import fiji.plugin.trackmate.helper.spt.SPTTrackingMetricsType;
 import fiji.plugin.trackmate.io.TmXmlWriter;
@@ -68,6 +84,12 @@ public class HelperRunner implements Runnable, Cancelable
 
 	private static final int FINISHED = 4;
 
+	/**
+	 * Number of settings drawn at random before the model-based search starts
+	 * using the results.
+	 */
+	private static final int N_STARTUP_TRIALS = 10;
+
 	private final String gtPath;
 
 	private final ImagePlus imp;
@@ -90,6 +112,47 @@ public class HelperRunner implements Runnable, Cancelable
 
 	private final String modelPath;
 
+	private int numThreads;
+
+	private boolean useDetectionCache;
+
+	private int[] pipelineThreads;
+
+	private int searchBudget;
+
+	private int flushEveryLines;
+
+	private double flushEverySeconds;
+
+	private ResultsFormat resultsFormat;
+
+	private int shardIndex;
+
+	private int shardCount;
+
+	private boolean useWorkQueue;
+
+	private double claimTimeoutSeconds;
+
+	private PreScreening preScreening;
+
+	/**
+	 * The work queue shared with other processes during a run, or
+	 * <code>null</code>.
+	 */
+	private SweepWorkQueue workQueue;
+
+	/**
+	 * The metrics runners created during a run, closed at the end of the run.
+	 */
+	private final List< MetricsRunner > runners = new ArrayList<>();
+
+	/**
+	 * Lock used to serialize the creation of TrackMate files when several
+	 * workers run concurrently.
+	 */
+	private final Object trackmateFileLock = new Object();
+
 	private HelperRunner(
 			final TrackingMetricsType type,
 			final String gtPath,
@@ -99,7 +162,19 @@ public class HelperRunner implements Runnable, Cancelable
 			final String savePath,
 			final Logger batchLogger,
 			final Logger trackmateLogger,
-			final boolean saveTrackMateFiles )
+			final boolean saveTrackMateFiles,
+			final int numThreads,
+			final boolean useDetectionCache,
+			final int[] pipelineThreads,
+			final int searchBudget,
+			final int flushEveryLines,
+			final double flushEverySeconds,
+			final ResultsFormat resultsFormat,
+			final int shardIndex,
+			final int shardCount,
+			final boolean useWorkQueue,
+			final double claimTimeoutSeconds,
+			final PreScreening preScreening )
 	{
 		this.type = type;
 		this.gtPath = gtPath;
@@ -110,6 +185,18 @@ public class HelperRunner implements Runnable, Cancelable
 		this.batchLogger = batchLogger;
 		this.trackmateLogger = trackmateLogger;
 		this.saveTrackMateFiles = saveTrackMateFiles;
+		this.numThreads = numThreads;
+		this.useDetectionCache = useDetectionCache;
+		this.pipelineThreads = pipelineThreads;
+		this.searchBudget = searchBudget;
+		this.flushEveryLines = flushEveryLines;
+		this.flushEverySeconds = flushEverySeconds;
+		this.resultsFormat = resultsFormat;
+		this.shardIndex = shardIndex;
+		this.shardCount = shardCount;
+		this.useWorkQueue = useWorkQueue;
+		this.claimTimeoutSeconds = claimTimeoutSeconds;
+		this.preScreening = preScreening;
 		this.crawler = new ResultsCrawler( type, batchLogger );
 		crawler.reset();
 		try
@@ -137,122 +224,974 @@ public class HelperRunner implements Runnable, Cancelable
 		return crawler;
 	}
 
-	/**
-	 * Exposes the settings model that will be used by this runner.
-	 *
-	 * @return the {@link ParameterSweepModel}.
-	 */
-	public ParameterSweepModel getModel()
-	{
-		return model;
+	/**
+	 * Exposes the settings model that will be used by this runner.
+	 *
+	 * @return the {@link ParameterSweepModel}.
+	 */
+	public ParameterSweepModel getModel()
+	{
+		return model;
+	}
+
+	/**
+	 * Returns the path to the file that stores the settings model that will be
+	 * used by this runner. This path is used to save the model to a file when
+	 * modified.
+	 *
+	 * @return the path to the settings model.
+	 */
+	public String getModelPath()
+	{
+		return modelPath;
+	}
+
+	/**
+	 * Exposes the input image this runner is configured to run on.
+	 *
+	 * @return the image.
+	 */
+	public ImagePlus getImage()
+	{
+		return imp;
+	}
+
+	/**
+	 * Returns the path to the ground-truth file or folder this runner is
+	 * configured to use.
+	 *
+	 * @return the path to the ground-truth.
+	 */
+	public String getGroundTruthPath()
+	{
+		return gtPath;
+	}
+
+	/**
+	 * Returns the type of tracking metrics this runner is configured to use.
+	 *
+	 * @return the tracking metrics type.
+	 */
+	public TrackingMetricsType getType()
+	{
+		return type;
+	}
+
+	/**
+	 * Sets the logger to use to log progress of the run.
+	 *
+	 * @param batchLogger
+	 *            a {@link Logger} instance.
+	 */
+	public void setBatchLogger( final Logger batchLogger )
+	{
+		this.batchLogger = batchLogger;
+	}
+
+	/**
+	 * Sets the logger to use to log individual tracking tests. This is only
+	 * useful for debugging.
+	 *
+	 * @param trackmateLogger
+	 *            a {@link Logger} instance.
+	 */
+	public void setTrackmateLogger( final Logger trackmateLogger )
+	{
+		this.trackmateLogger = trackmateLogger;
+	}
+
+	/**
+	 * Sets whether TrackMate results XML files will be saved for every test.
+	 * <p>
+	 * This can consume a lot off disk space if there are many tests to run.
+	 *
+	 * @param saveTrackMateFiles
+	 *            whether TrackMate XML files will be saved for every test.
+	 */
+	public void setSaveTrackMateFiles( final boolean saveTrackMateFiles )
+	{
+		this.saveTrackMateFiles = saveTrackMateFiles;
+	}
+
+	/**
+	 * Sets the number of workers that will process detector configurations
+	 * concurrently. If this number is 1 or less, the parameter sweep is run
+	 * serially in the calling thread.
+	 * <p>
+	 * In parallel mode, the parameter space is split in independent work
+	 * units, one per detector configuration. Each work unit iterates over all
+	 * the spot filter, tracker and track filter configurations for this
+	 * detector configuration. Each worker uses its own {@link MetricsRunner}.
+	 * The results files hold the same set of rows as after a serial run, but
+	 * the rows are written in the order the configurations complete, not in
+	 * the order of the sweep.
+	 *
+	 * @param numThreads
+	 *            the number of concurrent workers.
+	 */
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Returns the number of workers that will process detector configurations
+	 * concurrently.
+	 *
+	 * @return the number of concurrent workers.
+	 */
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * Sets whether detection results are stored in and loaded from a cache in
+	 * the save folder. When the cache is used, detector configurations that
+	 * were already executed are not run again, for instance when a parameter
+	 * sweep is resumed.
+	 *
+	 * @param useDetectionCache
+	 *            whether to use the detection cache.
+	 */
+	public void setUseDetectionCache( final boolean useDetectionCache )
+	{
+		this.useDetectionCache = useDetectionCache;
+	}
+
+	/**
+	 * Configures this runner to execute the parameter sweep as a staged
+	 * pipeline. Detection, spot filtering + tracking, track filtering +
+	 * metrics measurements, and results writing are each executed in a
+	 * separate stage, with its own bounded queue and number of threads. This
+	 * way, the tracking of one configuration can run while the metrics of the
+	 * previous one are measured.
+	 * <p>
+	 * The results writing stage always uses a single thread. If any of the
+	 * specified numbers of threads is 0 or less, the pipeline mode is
+	 * disabled.
+	 *
+	 * @param detectionThreads
+	 *            the number of threads for the detection stage.
+	 * @param trackingThreads
+	 *            the number of threads for the spot filtering and tracking
+	 *            stage.
+	 * @param metricsThreads
+	 *            the number of threads for the track filtering and metrics
+	 *            stage.
+	 */
+	public void setPipelineThreads( final int detectionThreads, final int trackingThreads, final int metricsThreads )
+	{
+		this.pipelineThreads = toPipelineThreads( detectionThreads, trackingThreads, metricsThreads );
+	}
+
+	/**
+	 * Configures this runner to perform a model-based search instead of an
+	 * exhaustive parameter sweep. The search evaluates at most the specified
+	 * number of settings, drawn from the space defined by the parameter sweep
+	 * model by a Tree-structured Parzen Estimator that targets the default
+	 * metric of the tracking metrics type. The results already present in the
+	 * save folder are used to guide the search. If the budget is 0 or less,
+	 * the exhaustive sweep is performed.
+	 *
+	 * @param searchBudget
+	 *            the maximal number of settings to evaluate.
+	 * @see TPEOptimizer
+	 */
+	public void setSearchBudget( final int searchBudget )
+	{
+		this.searchBudget = searchBudget;
+	}
+
+	/**
+	 * Sets when results lines are written to the CSV files. Lines are
+	 * buffered and written every N lines or every T seconds, whichever comes
+	 * first, and at the end of the run. By default, every line is written
+	 * immediately.
+	 *
+	 * @param flushEveryLines
+	 *            the number of lines N.
+	 * @param flushEverySeconds
+	 *            the delay T in seconds. If 0 or less, only the number of lines
+	 *            is used.
+	 */
+	public void setResultsFlushPolicy( final int flushEveryLines, final double flushEverySeconds )
+	{
+		this.flushEveryLines = flushEveryLines;
+		this.flushEverySeconds = flushEverySeconds;
+	}
+
+	/**
+	 * Sets in what format results are written: CSV files, binary results
+	 * files (see {@link BinaryResultsFile}), or both.
+	 *
+	 * @param resultsFormat
+	 *            the results format.
+	 */
+	public void setResultsFormat( final ResultsFormat resultsFormat )
+	{
+		this.resultsFormat = resultsFormat;
+	}
+
+	/**
+	 * Configures this runner to only process one shard of the parameter
+	 * sweep, so that it can be spread over several processes that write to
+	 * the same results folder. Detector configurations are enumerated in the
+	 * same order by all processes, and the shard <code>i</code> over
+	 * <code>n</code> processes the detector configurations whose index modulo
+	 * <code>n</code> is <code>i</code>, with all the configurations derived
+	 * from them. Each shard writes to its own results files.
+	 * <p>
+	 * With 1 shard (the default), the whole parameter sweep is processed. The
+	 * model-based search mode ignores shards.
+	 *
+	 * @param shardIndex
+	 *            the index <code>i</code> of the shard to process, from 0 to
+	 *            <code>n-1</code>.
+	 * @param shardCount
+	 *            the number of shards <code>n</code>.
+	 */
+	public void setShard( final int shardIndex, final int shardCount )
+	{
+		this.shardIndex = shardIndex;
+		this.shardCount = shardCount;
+	}
+
+	/**
+	 * Sets whether detector configurations are claimed in a work queue shared
+	 * with other processes that run the same parameter sweep on the same
+	 * results folder. Each detector configuration is then processed by the
+	 * first process that claims it, so that faster processes take more
+	 * configurations. Each process writes to its own results files.
+	 *
+	 * @param useWorkQueue
+	 *            whether to claim detector configurations in a shared work
+	 *            queue.
+	 * @param claimTimeoutSeconds
+	 *            the delay in seconds after which the claims of a process that
+	 *            stopped can be taken over by another one. If 0 or less,
+	 *            claims never expire. The default is
+	 *            {@link SweepWorkQueue#DEFAULT_CLAIM_TIMEOUT_SECONDS}.
+	 * @see SweepWorkQueue
+	 */
+	public void setWorkQueue( final boolean useWorkQueue, final double claimTimeoutSeconds )
+	{
+		this.useWorkQueue = useWorkQueue;
+		this.claimTimeoutSeconds = claimTimeoutSeconds;
+	}
+
+	/**
+	 * Sets the thresholds used to pre-screen configurations. When set, cheap
+	 * proxies are measured against the ground-truth right after tracking and
+	 * track filtering, and the configurations with proxies outside the
+	 * thresholds are recorded with the proxy values and <code>NaN</code> for
+	 * the performance measures, without computing them.
+	 *
+	 * @param preScreening
+	 *            the thresholds, or <code>null</code> to disable
+	 *            pre-screening.
+	 * @see PreScreening
+	 */
+	public void setPreScreening( final PreScreening preScreening )
+	{
+		this.preScreening = preScreening;
+	}
+
+	private static int[] toPipelineThreads( final int detectionThreads, final int trackingThreads, final int metricsThreads )
+	{
+		if ( detectionThreads <= 0 || trackingThreads <= 0 || metricsThreads <= 0 )
+			return null;
+		return new int[] { detectionThreads, trackingThreads, metricsThreads };
+	}
+
+	@Override
+	public void run()
+	{
+		cancelReason = null;
+		final AtomicInteger progress = new AtomicInteger( 0 );
+		final Settings base = new Settings( imp );
+		final List< Settings > workUnits = detectorWorkUnits( base );
+		final int count = workUnits.size() * countPerDetectorSettings();
+		final DetectionCache detectionCache = useDetectionCache
+				? new DetectionCache( savePath, batchLogger )
+				: null;
+		workQueue = useWorkQueue
+				? new SweepWorkQueue( savePath, SweepWorkQueue.defaultWorkerID(), claimTimeoutSeconds, batchLogger )
+				: null;
+		if ( shardCount > 1 && searchBudget <= 0 )
+			batchLogger.log( String.format( "Processing shard %d / %d: %d detector configurations.\n",
+					shardIndex + 1, shardCount, workUnits.size() ) );
+
+		try
+		{
+			if ( searchBudget > 0 )
+			{
+				runSearch( base, detectionCache );
+			}
+			else if ( pipelineThreads != null )
+			{
+				runPipeline( workUnits, progress, count, detectionCache );
+			}
+			else if ( numThreads <= 1 )
+			{
+				final IterationData iterationData = createIterationData( progress, count, 1, detectionCache );
+				loopDetectorSettings( workUnits, iterationData );
+			}
+			else
+			{
+				runParallel( workUnits, progress, count, detectionCache );
+			}
+		}
+		finally
+		{
+			// Write pending results lines.
+			synchronized ( runners )
+			{
+				runners.forEach( MetricsRunner::close );
+				runners.clear();
+			}
+			if ( workQueue != null )
+			{
+				workQueue.close();
+				workQueue = null;
+			}
+		}
+	}
+
+	/**
+	 * Enumerates the detector configurations of the shard processed by this
+	 * runner.
+	 *
+	 * @param base
+	 *            the {@link Settings} base, configured with the image.
+	 * @return the detector configurations to process, in a deterministic
+	 *         order.
+	 */
+	private List< Settings > detectorWorkUnits( final Settings base )
+	{
+		final List< Settings > workUnits = new ArrayList<>();
+		int index = 0;
+		for ( final DetectorSweepModel detectorModel : model.getActiveDetectors() )
+		{
+			final Iterator< Settings > detectorIterator = detectorModel.iterator( base );
+			while ( detectorIterator.hasNext() )
+			{
+				final Settings settings = detectorIterator.next();
+				if ( shardCount <= 1 || index % shardCount == shardIndex )
+					workUnits.add( settings );
+				index++;
+			}
+		}
+		return workUnits;
+	}
+
+	/**
+	 * Returns the number of configurations derived from one detector
+	 * configuration.
+	 */
+	private int countPerDetectorSettings()
+	{
+		return model.countSpotFilterSettings() * model.countTrackerSettings() * model.countTrackFilterSettings();
+	}
+
+	/**
+	 * Claims the specified detector configuration in the work queue shared
+	 * with other processes, if any. If the configuration is claimed by another
+	 * process, the progress counter is advanced past it.
+	 *
+	 * @return <code>true</code> if this runner should process the detector
+	 *         configuration.
+	 */
+	private boolean claim( final Settings settings, final AtomicInteger progress, final int count )
+	{
+		if ( workQueue == null || workQueue.claim( settings ) )
+			return true;
+
+		batchLogger.setProgress( ( double ) progress.addAndGet( countPerDetectorSettings() ) / count );
+		return false;
+	}
+
+	/**
+	 * Writes the pending results lines of the specified runners, then
+	 * releases the claim on the specified detector configuration in the work
+	 * queue, if any.
+	 */
+	private void release( final Settings settings, final MetricsRunner... runners )
+	{
+		if ( workQueue == null )
+			return;
+
+		for ( final MetricsRunner runner : runners )
+			runner.flush();
+		workQueue.release( settings );
+	}
+
+	/**
+	 * Returns the tag to add to results file names, so that several processes
+	 * writing to the same results folder do not share results files.
+	 */
+	private String resultsFileTag()
+	{
+		if ( useWorkQueue )
+			return SweepWorkQueue.defaultWorkerID();
+		if ( shardCount > 1 )
+			return String.format( "shard-%d-of-%d", shardIndex, shardCount );
+		return null;
+	}
+
+	/**
+	 * Runs a model-based search in the parameter space, evaluating at most
+	 * {@link #searchBudget} settings.
+	 *
+	 * @param base
+	 *            the {@link Settings} base, configured with the image.
+	 * @param detectionCache
+	 *            the detection cache, or <code>null</code>.
+	 */
+	private void runSearch( final Settings base, final DetectionCache detectionCache )
+	{
+		final SearchSpace space = new SearchSpace( model, base );
+		if ( space.isEmpty() )
+		{
+			batchLogger.error( "No detector or no tracker to search. Stopping.\n" );
+			return;
+		}
+
+		final MetricValue metric = type.optimizedMetric();
+		final TPEOptimizer optimizer = new TPEOptimizer( space, metric, N_STARTUP_TRIALS, new Random() );
+		final int nPrevious = optimizer.addObservations( crawler );
+		batchLogger.log( String.format( "Model-based search of %d settings for the best %s, starting from %d previous results.\n",
+				searchBudget, metric.key, nPrevious ) );
+
+		final IterationData iterationData = createIterationData( new AtomicInteger( 0 ), searchBudget, 1, detectionCache );
+		String detectionKey = null;
+		for ( int i = 0; i < searchBudget; i++ )
+		{
+			if ( isCanceled() )
+				break;
+
+			final Settings settings = optimizer.propose( base, crawler::isSettingsPresent );
+			if ( settings == null )
+			{
+				batchLogger.log( "Could not find settings that were not tested yet. Stopping.\n" );
+				break;
+			}
+
+			// Only redo detection if the detector settings changed.
+			final String key = DetectionCache.key( settings );
+			if ( !key.equals( detectionKey ) )
+			{
+				resetDetection( iterationData );
+				detectionKey = key;
+			}
+			iterationData.trackingDone = false;
+
+			final TrackingMetrics metrics = evaluate( settings, iterationData );
+			optimizer.addObservation( settings, metrics );
+			batchLogger.log( String.format( "Search iteration %d / %d: %s = %s - best so far: %s\n",
+					i + 1, searchBudget, metric.key,
+					metrics == null ? "NaN" : Double.toString( metrics.get( metric ) ),
+					Double.toString( optimizer.best() ) ) );
+		}
+		batchLogger.setProgress( 1. );
+	}
+
+	/**
+	 * Executes and measures the specified settings, reusing the detection
+	 * results of the iteration data if they exist.
+	 *
+	 * @param settings
+	 *            the settings to evaluate.
+	 * @param iterationData
+	 *            the iteration data.
+	 * @return the metrics, or <code>null</code> if the settings could not be
+	 *         evaluated. In that case, a line with <code>NaN</code>s is
+	 *         written for these settings, as in the parameter sweep, so that
+	 *         they are not evaluated again when the search is resumed.
+	 */
+	private TrackingMetrics evaluate( final Settings settings, final IterationData iterationData )
+	{
+		batchLogger.setProgress( ( double ) iterationData.progress.incrementAndGet() / iterationData.count );
+		batchLogger.log( "________________________________________\n" );
+		batchLogger.log( TMUtils.getCurrentTimeString() + "\n" );
+		batchLogger.setStatus( settings.detectorFactory.getName() + " + " + settings.trackerFactory.getName() );
+
+		final MetricsRunner runner = iterationData.runner;
+		if ( !iterationData.detectionDone )
+		{
+			final ValuePair< TrackMate, StageTimings > detectionResult = runner.execDetection( settings );
+			iterationData.detectionDone = true;
+			if ( detectionResult == null || detectionResult.getA() == null )
+			{
+				batchLogger.error( "Error running TrackMate with these parameters.\nSkipping.\n" );
+				iterationData.trackmate = null;
+				runner.saveMetrics( settings, null );
+				return null;
+			}
+			iterationData.trackmate = detectionResult.getA();
+			iterationData.detectionTimings = detectionResult.getB();
+		}
+		else
+		{
+			if ( iterationData.trackmate == null )
+			{
+				// Detection failed with these detector settings.
+				runner.saveMetrics( settings, null );
+				return null;
+			}
+			iterationData.trackmate = new TrackMate( iterationData.trackmate.getModel(), settings );
+			iterationData.trackmate.setNumThreads( runner.getNumThreads() );
+		}
+
+		final TrackMate trackmate = iterationData.trackmate;
+		if ( trackmate.getModel().getSpots().getNSpots( false ) == 0 )
+		{
+			batchLogger.log( "Settings result in having 0 after detection.\nSkipping.\n" );
+			runner.saveMetrics( settings, null );
+			return null;
+		}
+
+		final StageTimings timings = iterationData.detectionTimings.copy();
+		runner.execSpotFiltering( trackmate, timings );
+		if ( trackmate.getModel().getSpots().getNSpots( true ) == 0 )
+		{
+			// Recorded as failed by the spot filtering.
+			batchLogger.log( "Settings result in having 0 spots to track.\nSkipping.\n" );
+			return null;
+		}
+
+		final double trackingTiming = runner.execTracking( trackmate, timings );
+		if ( Double.isNaN( trackingTiming ) )
+		{
+			runner.saveMetrics( settings, null );
+			return null;
+		}
+
+		runner.execTrackFiltering( trackmate, timings );
+		final TrackingMetrics metrics = runner.computeMetrics( trackmate, timings );
+		runner.saveMetrics( settings, metrics );
+
+		if ( saveTrackMateFiles )
+			saveTrackMateFile( trackmate.getModel(), settings );
+
+		return metrics;
+	}
+
+	/**
+	 * Runs the parameter sweep with several workers. Each worker pulls
+	 * detector configurations from a shared queue and iterates over all the
+	 * configurations that derive from it.
+	 *
+	 * @param detectorSettings
+	 *            the detector configurations to process.
+	 * @param progress
+	 *            the progress counter, shared by all workers.
+	 * @param count
+	 *            the total number of configurations to test.
+	 * @param detectionCache
+	 *            the detection cache, or <code>null</code>.
+	 */
+	private void runParallel( final List< Settings > detectorSettings, final AtomicInteger progress, final int count, final DetectionCache detectionCache )
+	{
+		final Queue< Settings > workUnits = new ConcurrentLinkedQueue<>( detectorSettings );
+		if ( workUnits.isEmpty() )
+			return;
+
+		final int nWorkers = Math.min( numThreads, workUnits.size() );
+		// Split the available cores between workers.
+		final int threadsPerWorker = Math.max( 1, Runtime.getRuntime().availableProcessors() / nWorkers );
+		batchLogger.log( String.format( "Processing %d detector configurations with %d parallel workers.\n",
+				workUnits.size(), nWorkers ) );
+
+		final ExecutorService executorService = Executors.newFixedThreadPool( nWorkers );
+		final List< Future< ? > > futures = new ArrayList<>( nWorkers );
+		for ( int i = 0; i < nWorkers; i++ )
+		{
+			futures.add( executorService.submit( () -> {
+				final IterationData iterationData = createIterationData( progress, count, threadsPerWorker, detectionCache );
+				Settings settings;
+				while ( !isCanceled() && ( settings = workUnits.poll() ) != null )
+				{
+					if ( !claim( settings, progress, count ) )
+						continue;
+
+					resetDetection( iterationData );
+					final int val = loopSpotFilterSettings( settings, iterationData );
+					release( settings, iterationData.runner );
+					if ( val > DETECTOR_SETTINGS_LOOP )
+						break;
+				}
+			} ) );
+		}
+		executorService.shutdown();
+
+		for ( final Future< ? > future : futures )
+		{
+			try
+			{
+				future.get();
+			}
+			catch ( final ExecutionException e )
+			{
+				batchLogger.error( "Error in parameter sweep worker:\n" + e.getCause().getMessage() + '\n' );
+				e.printStackTrace();
+			}
+			catch ( final InterruptedException e )
+			{
+				cancel( "Parameter sweep interrupted." );
+				executorService.shutdownNow();
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+
+		try
+		{
+			executorService.awaitTermination( 1, TimeUnit.MINUTES );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Runs the parameter sweep as a staged pipeline.
+	 *
+	 * @param detectorSettings
+	 *            the detector configurations to process.
+	 * @param progress
+	 *            the progress counter, shared by all stages.
+	 * @param count
+	 *            the total number of configurations to test.
+	 * @param detectionCache
+	 *            the detection cache, or <code>null</code>.
+	 */
+	private void runPipeline( final List< Settings > detectorSettings, final AtomicInteger progress, final int count, final DetectionCache detectionCache )
+	{
+		final int nDetection = pipelineThreads[ 0 ];
+		final int nTracking = pipelineThreads[ 1 ];
+		final int nMetrics = pipelineThreads[ 2 ];
+		// Split the available cores between the stages that run TrackMate.
+		final int threadsPerTrackMate = Math.max( 1, Runtime.getRuntime().availableProcessors() / ( nDetection + nTracking ) );
+
+		final PipelineData data = new PipelineData();
+		data.progress = progress;
+		data.count = count;
+		data.detection = new PipelineStage( "detection", nDetection, 2 * nDetection, batchLogger );
+		data.tracking = new PipelineStage( "tracking", nTracking, 2 * nTracking, batchLogger );
+		data.metrics = new PipelineStage( "metrics", nMetrics, 2 * nMetrics, batchLogger );
+		data.writing = new PipelineStage( "writing", 1, 4 * nMetrics, batchLogger );
+		data.runners = ThreadLocal.withInitial( () -> createRunner( threadsPerTrackMate, detectionCache ) );
+		data.writer = createRunner( -1, null );
+		final List< PipelineStage > stages = Arrays.asList( data.detection, data.tracking, data.metrics, data.writing );
+
+		batchLogger.log( String.format( "Running the parameter sweep as a pipeline with %d detection, "
+				+ "%d tracking and %d metrics threads.\n", nDetection, nTracking, nMetrics ) );
+
+		// Report queue depths regularly.
+		final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+		final AtomicInteger ticks = new AtomicInteger( 0 );
+		reporter.scheduleAtFixedRate( () -> {
+			final String depths = queueDepths( stages );
+			batchLogger.setStatus( depths );
+			if ( ticks.incrementAndGet() % 30 == 0 )
+				batchLogger.log( TMUtils.getCurrentTimeString() + " - " + depths + '\n' );
+		}, 1, 1, TimeUnit.SECONDS );
+
+		try
+		{
+			for ( final Settings settings : detectorSettings )
+			{
+				if ( isCanceled() )
+					break;
+				data.detection.submit( () -> pipelineDetection( settings, data ) );
+			}
+			/*
+			 * Stages are shut down in order, so that a stage only stops
+			 * accepting tasks when its upstream stages are done.
+			 */
+			for ( final PipelineStage stage : stages )
+				stage.shutdownAndWait();
+		}
+		catch ( final InterruptedException e )
+		{
+			cancel( "Parameter sweep interrupted." );
+			stages.forEach( PipelineStage::shutdownNow );
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			reporter.shutdownNow();
+		}
+
+		batchLogger.log( "Pipeline stages:\n" );
+		for ( final PipelineStage stage : stages )
+			batchLogger.log( " - " + stage.summary() + '\n' );
+	}
+
+	private static String queueDepths( final List< PipelineStage > stages )
+	{
+		final StringBuilder str = new StringBuilder( "Queues -" );
+		for ( final PipelineStage stage : stages )
+			str.append( String.format( " %s: %d (%d active)", stage.getName(), stage.queueDepth(), stage.activeCount() ) );
+		return str.toString();
+	}
+
+	/**
+	 * Detection stage of the pipeline. Enumerates the configurations derived
+	 * from the specified detector configuration that were not tested yet,
+	 * performs detection and submits the tracking tasks.
+	 */
+	private void pipelineDetection( final Settings detectorSettings, final PipelineData data )
+	{
+		if ( isCanceled() )
+			return;
+
+		// Claim the configuration only now, so that fast workers take more.
+		if ( !claim( detectorSettings, data.progress, data.count ) )
+			return;
+
+		// Settings to test, grouped by spot filter and tracker settings.
+		final List< List< Settings > > toTest = new ArrayList<>();
+		int nSkipped = 0;
+		int nToTest = 0;
+		for ( final List< FeatureFilter > spotFilters : filterCombinations( model.spotFilterModels() ) )
+		{
+			final Settings spotFilterSettings = detectorSettings.copyOn( detectorSettings.imp );
+			spotFilterSettings.clearSpotFilters();
+			spotFilters.forEach( spotFilterSettings::addSpotFilter );
+			for ( final TrackerSweepModel trackerModel : model.getActiveTracker() )
+			{
+				final Iterator< Settings > trackerIterator = trackerModel.iterator( spotFilterSettings );
+				while ( trackerIterator.hasNext() )
+				{
+					final Settings trackerSettings = trackerIterator.next();
+					final List< Settings > variants = new ArrayList<>();
+					for ( final List< FeatureFilter > trackFilters : filterCombinations( model.trackFilterModels() ) )
+					{
+						final Settings settings = trackerSettings.copyOn( trackerSettings.imp );
+						settings.clearTrackFilters();
+						trackFilters.forEach( settings::addTrackFilter );
+						if ( crawler.isSettingsPresent( settings ) )
+							nSkipped++;
+						else
+							variants.add( settings );
+					}
+					if ( !variants.isEmpty() )
+					{
+						toTest.add( variants );
+						nToTest += variants.size();
+					}
+				}
+			}
+		}
+
+		if ( nSkipped > 0 )
+		{
+			batchLogger.log( String.format( "%d configurations for detector %s with parameters:\n", nSkipped, detectorSettings.detectorFactory.getKey() ) );
+			batchLogger.log( TMUtils.echoMap( detectorSettings.detectorSettings, 2 ) );
+			batchLogger.log( "were already tested. Skipping.\n" );
+			batchLogger.setProgress( ( double ) data.progress.addAndGet( nSkipped ) / data.count );
+		}
+		final MetricsRunner runner = data.runners.get();
+		if ( toTest.isEmpty() )
+		{
+			release( detectorSettings, runner );
+			return;
+		}
+
+		final ValuePair< TrackMate, StageTimings > detectionResult = runner.execDetection( detectorSettings );
+		if ( detectionResult == null || detectionResult.getA() == null )
+		{
+			batchLogger.error( "Error running TrackMate with these parameters.\nSkipping.\n" );
+			batchLogger.setProgress( ( double ) data.progress.addAndGet( nToTest ) / data.count );
+			release( detectorSettings, runner );
+			return;
+		}
+		final Model detectionModel = detectionResult.getA().getModel();
+		if ( detectionModel.getSpots().getNSpots( false ) == 0 )
+		{
+			batchLogger.log( "Settings result in having 0 after detection.\nSkipping.\n" );
+			batchLogger.setProgress( ( double ) data.progress.addAndGet( nToTest ) / data.count );
+			release( detectorSettings, runner );
+			return;
+		}
+
+		final StageTimings detectionTimings = detectionResult.getB();
+		final PipelineUnit unit = new PipelineUnit( detectorSettings, toTest.size() );
+		for ( final List< Settings > variants : toTest )
+			data.tracking.submit( () -> pipelineTracking( detectionModel, variants, detectionTimings, unit, data ) );
 	}
 
 	/**
-	 * Returns the path to the file that stores the settings model that will be
-	 * used by this runner. This path is used to save the model to a file when
-	 * modified.
-	 *
-	 * @return the path to the settings model.
+	 * Called when the results of one tracking group of the specified detector
+	 * configuration were submitted to the writing stage, or will not be.
+	 * Releases the claim on the detector configuration after the last group,
+	 * once all its results are written. The writing stage runs its tasks in
+	 * order with a single thread, so the release task runs after the writes
+	 * of the group.
 	 */
-	public String getModelPath()
+	private void pipelineGroupDone( final PipelineUnit unit, final MetricsRunner runner, final PipelineData data )
 	{
-		return modelPath;
-	}
+		if ( workQueue == null )
+			return;
 
-	/**
-	 * Exposes the input image this runner is configured to run on.
-	 *
-	 * @return the image.
-	 */
-	public ImagePlus getImage()
-	{
-		return imp;
+		// Failed configurations are written by the runner of this stage.
+		runner.flush();
+		if ( unit.pending.decrementAndGet() == 0 )
+			data.writing.submit( () -> release( unit.detectorSettings, data.writer ) );
 	}
 
 	/**
-	 * Returns the path to the ground-truth file or folder this runner is
-	 * configured to use.
-	 *
-	 * @return the path to the ground-truth.
+	 * Spot filtering and tracking stage of the pipeline. Tracks a copy of the
+	 * detection results, so that they can be shared between tracking tasks,
+	 * then submits the metrics task.
 	 */
-	public String getGroundTruthPath()
+	private void pipelineTracking( final Model detectionModel, final List< Settings > variants, final StageTimings detectionTimings, final PipelineUnit unit, final PipelineData data )
 	{
-		return gtPath;
+		if ( isCanceled() )
+			return;
+
+		final MetricsRunner runner = data.runners.get();
+		final TrackMate trackmate = new TrackMate( detectionModel.copy(), variants.get( 0 ) );
+		trackmate.setNumThreads( runner.getNumThreads() );
+
+		final StageTimings timings = detectionTimings.copy();
+		runner.execSpotFiltering( trackmate, timings );
+		if ( trackmate.getModel().getSpots().getNSpots( true ) == 0 )
+		{
+			// The first variant was recorded as failed by the spot filtering.
+			batchLogger.log( "Settings result in having 0 spots to track.\nSkipping.\n" );
+			for ( final Settings settings : variants.subList( 1, variants.size() ) )
+				data.writing.submit( () -> data.writer.saveMetrics( settings, null ) );
+			batchLogger.setProgress( ( double ) data.progress.addAndGet( variants.size() ) / data.count );
+			pipelineGroupDone( unit, runner, data );
+			return;
+		}
+
+		final double trackingTiming = runner.execTracking( trackmate, timings );
+		if ( Double.isNaN( trackingTiming ) )
+		{
+			batchLogger.setProgress( ( double ) data.progress.addAndGet( variants.size() ) / data.count );
+			pipelineGroupDone( unit, runner, data );
+			return;
+		}
+
+		data.metrics.submit( () -> pipelineMetrics( trackmate.getModel(), variants, timings, unit, data ) );
 	}
 
 	/**
-	 * Returns the type of tracking metrics this runner is configured to use.
-	 *
-	 * @return the tracking metrics type.
+	 * Track filtering and metrics stage of the pipeline. Iterates over the
+	 * track filter configurations of one tracking result, and submits the
+	 * metrics values to the writing stage.
 	 */
-	public TrackingMetricsType getType()
+	private void pipelineMetrics( final Model tmModel, final List< Settings > variants, final StageTimings trackingTimings, final PipelineUnit unit, final PipelineData data )
 	{
-		return type;
+		final MetricsRunner runner = data.runners.get();
+		for ( final Settings settings : variants )
+		{
+			if ( isCanceled() )
+				return;
+
+			final TrackMate trackmate = new TrackMate( tmModel, settings );
+			trackmate.setNumThreads( runner.getNumThreads() );
+			final StageTimings timings = trackingTimings.copy();
+			runner.execTrackFiltering( trackmate, timings );
+			final TrackingMetrics metrics = runner.computeMetrics( trackmate, timings );
+
+			// The next track filter modifies the model, so we save a copy.
+			final Model toSave = saveTrackMateFiles ? tmModel.copy() : null;
+			data.writing.submit( () -> {
+				data.writer.saveMetrics( settings, metrics );
+				if ( toSave != null )
+					saveTrackMateFile( toSave, settings );
+				batchLogger.setProgress( ( double ) data.progress.incrementAndGet() / data.count );
+			} );
+		}
+		pipelineGroupDone( unit, runner, data );
 	}
 
-	/**
-	 * Sets the logger to use to log progress of the run.
-	 *
-	 * @param batchLogger
-	 *            a {@link Logger} instance.
-	 */
-	public void setBatchLogger( final Logger batchLogger )
+	private static List< List< FeatureFilter > > filterCombinations( final List< FilterSweepModel > filterModels )
 	{
-		this.batchLogger = batchLogger;
+		final List< List< FeatureFilter > > combinations = new ArrayList<>();
+		if ( filterModels.isEmpty() )
+		{
+			combinations.add( Collections.emptyList() );
+			return combinations;
+		}
+
+		final Iterator< List< FeatureFilter > > it = new NestedIterator<>( filterModels );
+		while ( it.hasNext() )
+			combinations.add( it.next() );
+		return combinations;
 	}
 
 	/**
-	 * Sets the logger to use to log individual tracking tests. This is only
-	 * useful for debugging.
+	 * Creates a new iteration data with its own {@link MetricsRunner}.
 	 *
-	 * @param trackmateLogger
-	 *            a {@link Logger} instance.
+	 * @param progress
+	 *            the progress counter.
+	 * @param count
+	 *            the total number of configurations to test.
+	 * @param nThreadsTrackMate
+	 *            the number of threads each TrackMate instance can use.
+	 * @param detectionCache
+	 *            the detection cache, or <code>null</code>.
+	 * @return a new {@link IterationData}.
 	 */
-	public void setTrackmateLogger( final Logger trackmateLogger )
+	private IterationData createIterationData( final AtomicInteger progress, final int count, final int nThreadsTrackMate, final DetectionCache detectionCache )
 	{
-		this.trackmateLogger = trackmateLogger;
+		final IterationData iterationData = new IterationData();
+		iterationData.count = count;
+		iterationData.progress = progress;
+
+		iterationData.runner = createRunner( numThreads > 1 ? nThreadsTrackMate : -1, detectionCache );
+		return iterationData;
 	}
 
 	/**
-	 * Sets whether TrackMate results XML files will be saved for every test.
-	 * <p>
-	 * This can consume a lot off disk space if there are many tests to run.
+	 * Creates a new {@link MetricsRunner} configured for this runner.
 	 *
-	 * @param saveTrackMateFiles
-	 *            whether TrackMate XML files will be saved for every test.
+	 * @param nThreadsTrackMate
+	 *            the number of threads each TrackMate instance can use. If 0
+	 *            or less, the default is used.
+	 * @param detectionCache
+	 *            the detection cache, or <code>null</code>.
+	 * @return a new {@link MetricsRunner}.
 	 */
-	public void setSaveTrackMateFiles( final boolean saveTrackMateFiles )
-	{
-		this.saveTrackMateFiles = saveTrackMateFiles;
-	}
-
-	@Override
-	public void run()
+	private MetricsRunner createRunner( final int nThreadsTrackMate, final DetectionCache detectionCache )
 	{
-		cancelReason = null;
-		final IterationData iterationData = new IterationData();
-
-		iterationData.count = model.count();
-		iterationData.progress = 0;
-
 		final MetricsRunner runner = type.runner( gtPath, savePath );
 		runner.setBatchLogger( batchLogger );
 		runner.setTrackmateLogger( trackmateLogger );
-		iterationData.runner = runner;
-
-		final Settings base = new Settings( imp );
+		if ( nThreadsTrackMate > 0 )
+			runner.setNumThreads( nThreadsTrackMate );
+		runner.setDetectionCache( detectionCache );
+		runner.setFlushPolicy( flushEveryLines, flushEverySeconds, false );
+		runner.setResultsFormat( resultsFormat );
+		runner.setResultsFileTag( resultsFileTag() );
+		runner.setPreScreening( preScreening );
+		synchronized ( runners )
+		{
+			runners.add( runner );
+		}
+		return runner;
+	}
 
-		loopDetectorSettings( base, iterationData );
+	private static void resetDetection( final IterationData iterationData )
+	{
+		iterationData.detectionDone = false;
+		iterationData.trackmate = null;
+		iterationData.detectionTimings = null;
 	}
 
 	/**
-	 * Iterates over possible several detector configurations, and adds them to
-	 * the specified base settings, then loop over spot filter configurations.
+	 * Iterates over possible several detector configurations, then loop over
+	 * spot filter configurations.
 	 *
-	 * @param base
-	 *            the {@link Settings} base. Must be fully configured except for
-	 *            detector settings, spot filters, tracker settings and track
-	 *            filters.
+	 * @param detectorSettings
+	 *            the detector configurations to process.
 	 * @param iterationData
 	 *            the iteration data.
 	 * @return
@@ -263,26 +1202,21 @@ public class HelperRunner implements Runnable, Cancelable
 	 *         <li>if the iteration should stop.
 	 *         </ol>
 	 */
-	private int loopDetectorSettings( final Settings base, final IterationData iterationData )
+	private int loopDetectorSettings( final List< Settings > detectorSettings, final IterationData iterationData )
 	{
-		MAIN_LOOP: for ( final DetectorSweepModel detectorModel : model.getActiveDetectors() )
+		for ( final Settings settings : detectorSettings )
 		{
-			final Iterator< Settings > detectorIterator = detectorModel.iterator( base );
-			while ( detectorIterator.hasNext() )
-			{
-				if ( isCanceled() )
-					break MAIN_LOOP;
-
-				final Settings settings = detectorIterator.next();
+			if ( isCanceled() )
+				break;
 
-				iterationData.detectionDone = false;
-				iterationData.trackmate = null;
-				iterationData.detectionTiming = Double.NaN;
+			if ( !claim( settings, iterationData.progress, iterationData.count ) )
+				continue;
 
-				final int val = loopSpotFilterSettings( settings, iterationData );
-				if ( val > DETECTOR_SETTINGS_LOOP )
-					return val;
-			}
+			resetDetection( iterationData );
+			final int val = loopSpotFilterSettings( settings, iterationData );
+			release( settings, iterationData.runner );
+			if ( val > DETECTOR_SETTINGS_LOOP )
+				return val;
 		}
 		return FINISHED;
 	}
@@ -362,7 +1296,7 @@ public class HelperRunner implements Runnable, Cancelable
 					break MAIN_LOOP;
 
 				iterationData.trackingDone = false;
-				iterationData.trackingTiming = Double.NaN;
+				iterationData.trackingTimings = null;
 
 				final Settings settings = trackerIterator.next();
 				final int val = loopTrackFilterSettings( settings, iterationData );
@@ -447,7 +1381,7 @@ public class HelperRunner implements Runnable, Cancelable
 	 */
 	private int execTracking( final Settings base, final IterationData iterationData )
 	{
-		batchLogger.setProgress( ( double ) ++iterationData.progress / iterationData.count );
+		batchLogger.setProgress( ( double ) iterationData.progress.incrementAndGet() / iterationData.count );
 		batchLogger.log( "________________________________________\n" );
 
 		if ( crawler.isSettingsPresent( base ) )
@@ -488,24 +1422,24 @@ public class HelperRunner implements Runnable, Cancelable
 			batchLogger.log( TMUtils.getCurrentTimeString() + "\n" );
 			batchLogger.setStatus( base.detectorFactory.getName() );
 
-			final ValuePair< TrackMate, Double > detectionResult = iterationData.runner.execDetection( base );
-			iterationData.trackmate = detectionResult.getA();
-			iterationData.detectionTiming = detectionResult.getB();
+			final ValuePair< TrackMate, StageTimings > detectionResult = iterationData.runner.execDetection( base );
+			iterationData.trackmate = ( detectionResult == null ) ? null : detectionResult.getA();
+			iterationData.detectionTimings = ( detectionResult == null ) ? null : detectionResult.getB();
 			iterationData.detectionDone = true;
 
 			// Detection failed?
 			if ( null == iterationData.trackmate )
 			{
 				batchLogger.error( "Error running TrackMate with these parameters.\nSkipping.\n" );
-				iterationData.progress += model.countTrackerSettings() * model.countSpotFilterSettings() * model.countTrackFilterSettings();
-				batchLogger.setProgress( ( double ) ++iterationData.progress / iterationData.count );
+				final int skipped = model.countTrackerSettings() * model.countSpotFilterSettings() * model.countTrackFilterSettings();
+				batchLogger.setProgress( ( double ) iterationData.progress.addAndGet( skipped + 1 ) / iterationData.count );
 				return DETECTOR_SETTINGS_LOOP;
 			}
 			if ( iterationData.trackmate.getModel().getSpots().getNSpots( false ) == 0 )
 			{
 				batchLogger.log( "Settings result in having 0 after detection.\nSkipping.\n" );
-				iterationData.progress += model.countTrackerSettings() * model.countTrackFilterSettings();
-				batchLogger.setProgress( ( double ) ++iterationData.progress / iterationData.count );
+				final int skipped = model.countTrackerSettings() * model.countTrackFilterSettings();
+				batchLogger.setProgress( ( double ) iterationData.progress.addAndGet( skipped + 1 ) / iterationData.count );
 				return SPOT_FILTER_LOOP;
 			}
 		}
@@ -517,6 +1451,7 @@ public class HelperRunner implements Runnable, Cancelable
 			 */
 			final Model tmModel = iterationData.trackmate.getModel();
 			iterationData.trackmate = new TrackMate( tmModel, base );
+			iterationData.trackmate.setNumThreads( iterationData.runner.getNumThreads() );
 		}
 
 		if ( !iterationData.trackingDone )
@@ -525,13 +1460,14 @@ public class HelperRunner implements Runnable, Cancelable
 			 * PERFORM SPOT FILTERING.
 			 */
 
-			iterationData.runner.execSpotFiltering( iterationData.trackmate );
+			iterationData.trackingTimings = iterationData.detectionTimings.copy();
+			iterationData.runner.execSpotFiltering( iterationData.trackmate, iterationData.trackingTimings );
 			// Got 0 spots to track?
 			if ( iterationData.trackmate.getModel().getSpots().getNSpots( true ) == 0 )
 			{
 				batchLogger.log( "Settings result in having 0 spots to track.\nSkipping.\n" );
-				iterationData.progress += model.countTrackerSettings() * model.countTrackFilterSettings();
-				batchLogger.setProgress( ( double ) ++iterationData.progress / iterationData.count );
+				final int skipped = model.countTrackerSettings() * model.countTrackFilterSettings();
+				batchLogger.setProgress( ( double ) iterationData.progress.addAndGet( skipped + 1 ) / iterationData.count );
 				return SPOT_FILTER_LOOP;
 			}
 
@@ -543,14 +1479,14 @@ public class HelperRunner implements Runnable, Cancelable
 					iterationData.trackmate.getSettings().detectorFactory.getName()
 							+ " + "
 							+ iterationData.trackmate.getSettings().trackerFactory.getName()
-							+ String.format( " - %.1f%%", 100. * iterationData.progress / iterationData.count ) );
+							+ String.format( " - %.1f%%", 100. * iterationData.progress.get() / iterationData.count ) );
 
-			iterationData.trackingTiming = iterationData.runner.execTracking( iterationData.trackmate );
-			if ( Double.isNaN( iterationData.trackingTiming ) )
+			final double trackingTiming = iterationData.runner.execTracking( iterationData.trackmate, iterationData.trackingTimings );
+			if ( Double.isNaN( trackingTiming ) )
 			{
 				// Tracking failed, we iterate to the next tracking settings.
-				iterationData.progress += model.countTrackFilterSettings();
-				batchLogger.setProgress( ( double ) ++iterationData.progress / iterationData.count );
+				final int skipped = model.countTrackFilterSettings();
+				batchLogger.setProgress( ( double ) iterationData.progress.addAndGet( skipped + 1 ) / iterationData.count );
 				return TRACKER_SETTINGS_LOOP;
 			}
 			iterationData.trackingDone = true;
@@ -567,49 +1503,75 @@ public class HelperRunner implements Runnable, Cancelable
 		 * PERFORM TRACK FILTERING.
 		 */
 
-		iterationData.runner.execTrackFiltering( iterationData.trackmate );
+		final StageTimings timings = iterationData.trackingTimings.copy();
+		iterationData.runner.execTrackFiltering( iterationData.trackmate, timings );
 
 		/*
 		 * PERFORM METRICS MEASUREMENTS.
 		 */
 
-		iterationData.runner.performAndSaveMetricsMeasurements(
-				iterationData.trackmate,
-				iterationData.detectionTiming,
-				iterationData.trackingTiming );
+		iterationData.runner.performAndSaveMetricsMeasurements( iterationData.trackmate, timings );
 
 		// Save TrackMate file if required.
 		if ( saveTrackMateFiles )
+			saveTrackMateFile( iterationData.trackmate.getModel(), iterationData.trackmate.getSettings() );
+
+		return TRACK_FILTER_LOOP;
+	}
+
+	/**
+	 * Saves the specified model and settings to a new TrackMate file in the
+	 * save folder.
+	 *
+	 * @param tmModel
+	 *            the model to save.
+	 * @param settings
+	 *            the settings to save.
+	 */
+	private void saveTrackMateFile( final Model tmModel, final Settings settings )
+	{
+		final String nameGen = "TrackMate_%s_%s_%03d.xml";
+		int i = 1;
+		File trackmateFile;
+		synchronized ( trackmateFileLock )
 		{
-			final String nameGen = "TrackMate_%s_%s_%03d.xml";
-			int i = 1;
-			File trackmateFile;
 			do
 			{
 				trackmateFile = new File( savePath,
 						String.format( nameGen,
-								iterationData.trackmate.getSettings().detectorFactory.getKey(),
-								iterationData.trackmate.getSettings().trackerFactory.getKey(),
+								settings.detectorFactory.getKey(),
+								settings.trackerFactory.getKey(),
 								i++ ) );
 			}
-			while ( trackmateFile.exists() );
+			while ( !createNewFile( trackmateFile ) );
+		}
 
-			final TmXmlWriter writer = new TmXmlWriter( trackmateFile, Logger.VOID_LOGGER );
-			writer.appendModel( iterationData.trackmate.getModel() );
-			writer.appendSettings( iterationData.trackmate.getSettings() );
-			writer.appendGUIState( "ConfigureViews" );
-			try
-			{
-				writer.writeToFile();
-				batchLogger.log( "Saved results to TrackMate file: " + trackmateFile + "\n" );
-			}
-			catch ( final IOException e )
-			{
-				batchLogger.error( e.getMessage() );
-				e.printStackTrace();
-			}
+		final TmXmlWriter writer = new TmXmlWriter( trackmateFile, Logger.VOID_LOGGER );
+		writer.appendModel( tmModel );
+		writer.appendSettings( settings );
+		writer.appendGUIState( "ConfigureViews" );
+		try
+		{
+			writer.writeToFile();
+			batchLogger.log( "Saved results to TrackMate file: " + trackmateFile + "\n" );
+		}
+		catch ( final IOException e )
+		{
+			batchLogger.error( e.getMessage() );
+			e.printStackTrace();
+		}
+	}
+
+	private static boolean createNewFile( final File file )
+	{
+		try
+		{
+			return file.createNewFile();
+		}
+		catch ( final IOException e )
+		{
+			return false;
 		}
-		return TRACK_FILTER_LOOP;
 	}
 
 	@Override
@@ -666,6 +1628,30 @@ public class HelperRunner implements Runnable, Cancelable
 
 		private double maxDist = Double.NaN;
 
+		private int numThreads = 1;
+
+		private boolean useDetectionCache = false;
+
+		private int[] pipelineThreads;
+
+		private int searchBudget = 0;
+
+		private int flushEveryLines = 1;
+
+		private double flushEverySeconds = 0.;
+
+		private ResultsFormat resultsFormat = ResultsFormat.CSV;
+
+		private int shardIndex = 0;
+
+		private int shardCount = 1;
+
+		private boolean useWorkQueue = false;
+
+		private double claimTimeoutSeconds = SweepWorkQueue.DEFAULT_CLAIM_TIMEOUT_SECONDS;
+
+		private PreScreening preScreening;
+
 		/**
 		 * Sets the tracking metrics type to use.
 		 *
@@ -850,6 +1836,166 @@ public class HelperRunner implements Runnable, Cancelable
 			return this;
 		}
 
+		/**
+		 * Sets the number of workers that will process detector
+		 * configurations concurrently. Each worker processes all the spot
+		 * filter, tracker and track filter configurations derived from one
+		 * detector configuration. If this number is 1 or less (the default),
+		 * the parameter sweep is run serially. In parallel mode, the results
+		 * rows are written in completion order.
+		 *
+		 * @param numThreads
+		 *            the number of concurrent workers.
+		 * @return this builder.
+		 */
+		public Builder numThreads( final int numThreads )
+		{
+			this.numThreads = numThreads;
+			return this;
+		}
+
+		/**
+		 * Sets whether detection results are stored in and loaded from a
+		 * cache in the save folder. When the cache is used, detector
+		 * configurations that were already executed are not run again.
+		 *
+		 * @param useDetectionCache
+		 *            whether to use the detection cache.
+		 * @return this builder.
+		 */
+		public Builder useDetectionCache( final boolean useDetectionCache )
+		{
+			this.useDetectionCache = useDetectionCache;
+			return this;
+		}
+
+		/**
+		 * Configures the runner to execute the parameter sweep as a staged
+		 * pipeline, with the specified number of threads for the detection,
+		 * tracking and metrics stages. If any of these numbers is 0 or less,
+		 * the pipeline mode is disabled.
+		 *
+		 * @param detectionThreads
+		 *            the number of threads for the detection stage.
+		 * @param trackingThreads
+		 *            the number of threads for the spot filtering and
+		 *            tracking stage.
+		 * @param metricsThreads
+		 *            the number of threads for the track filtering and
+		 *            metrics stage.
+		 * @return this builder.
+		 */
+		public Builder pipelineThreads( final int detectionThreads, final int trackingThreads, final int metricsThreads )
+		{
+			this.pipelineThreads = toPipelineThreads( detectionThreads, trackingThreads, metricsThreads );
+			return this;
+		}
+
+		/**
+		 * Configures the runner to perform a model-based search of at most
+		 * the specified number of settings, instead of an exhaustive
+		 * parameter sweep. If the budget is 0 or less (the default), the
+		 * exhaustive sweep is performed.
+		 *
+		 * @param searchBudget
+		 *            the maximal number of settings to evaluate.
+		 * @return this builder.
+		 */
+		public Builder searchBudget( final int searchBudget )
+		{
+			this.searchBudget = searchBudget;
+			return this;
+		}
+
+		/**
+		 * Sets when results lines are written to the CSV files: every N lines
+		 * or every T seconds, whichever comes first, and at the end of the
+		 * run. By default, every line is written immediately.
+		 *
+		 * @param flushEveryLines
+		 *            the number of lines N.
+		 * @param flushEverySeconds
+		 *            the delay T in seconds. If 0 or less, only the number of
+		 *            lines is used.
+		 * @return this builder.
+		 */
+		public Builder resultsFlushPolicy( final int flushEveryLines, final double flushEverySeconds )
+		{
+			this.flushEveryLines = flushEveryLines;
+			this.flushEverySeconds = flushEverySeconds;
+			return this;
+		}
+
+		/**
+		 * Sets in what format results are written: CSV files (the default),
+		 * binary results files, or both.
+		 *
+		 * @param resultsFormat
+		 *            the results format.
+		 * @return this builder.
+		 */
+		public Builder resultsFormat( final ResultsFormat resultsFormat )
+		{
+			this.resultsFormat = resultsFormat;
+			return this;
+		}
+
+		/**
+		 * Configures the runner to only process the shard <code>i</code> over
+		 * <code>n</code> of the parameter sweep, so that it can be spread over
+		 * several processes writing to the same results folder. By default,
+		 * the whole parameter sweep is processed.
+		 *
+		 * @param shardIndex
+		 *            the index <code>i</code> of the shard to process, from 0
+		 *            to <code>n-1</code>.
+		 * @param shardCount
+		 *            the number of shards <code>n</code>.
+		 * @return this builder.
+		 */
+		public Builder shard( final int shardIndex, final int shardCount )
+		{
+			this.shardIndex = shardIndex;
+			this.shardCount = shardCount;
+			return this;
+		}
+
+		/**
+		 * Sets whether detector configurations are claimed in a work queue
+		 * shared with other processes running the same parameter sweep on the
+		 * same results folder.
+		 *
+		 * @param useWorkQueue
+		 *            whether to use a shared work queue.
+		 * @param claimTimeoutSeconds
+		 *            the delay in seconds after which the claims of a process
+		 *            that stopped can be taken over. If 0 or less, claims never
+		 *            expire. The default is
+		 *            {@link SweepWorkQueue#DEFAULT_CLAIM_TIMEOUT_SECONDS}.
+		 * @return this builder.
+		 */
+		public Builder workQueue( final boolean useWorkQueue, final double claimTimeoutSeconds )
+		{
+			this.useWorkQueue = useWorkQueue;
+			this.claimTimeoutSeconds = claimTimeoutSeconds;
+			return this;
+		}
+
+		/**
+		 * Sets the thresholds used to pre-screen configurations before the
+		 * performance measures.
+		 *
+		 * @param preScreening
+		 *            the thresholds, or <code>null</code> to disable
+		 *            pre-screening.
+		 * @return this builder.
+		 */
+		public Builder preScreening( final PreScreening preScreening )
+		{
+			this.preScreening = preScreening;
+			return this;
+		}
+
 		public HelperRunner get()
 		{
 			boolean ok = true;
@@ -956,6 +2102,13 @@ public class HelperRunner implements Runnable, Cancelable
 				str.append( "Cannot write to results folder: " + savePath + '\n' );
 			}
 
+			// Shard.
+			if ( shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount )
+			{
+				ok = false;
+				str.append( "Invalid shard: " + shardIndex + " / " + shardCount + '\n' );
+			}
+
 			// Input image.
 			if ( imp == null )
 			{
@@ -992,7 +2145,19 @@ public class HelperRunner implements Runnable, Cancelable
 					savePath,
 					batchLogger,
 					trackmateLogger,
-					saveTrackMateFiles );
+					saveTrackMateFiles,
+					numThreads,
+					useDetectionCache,
+					pipelineThreads,
+					searchBudget,
+					flushEveryLines,
+					flushEverySeconds,
+					resultsFormat,
+					shardIndex,
+					shardCount,
+					useWorkQueue,
+					claimTimeoutSeconds,
+					preScreening );
 		}
 
 		public String getErrorMessage()
@@ -1001,6 +2166,49 @@ public class HelperRunner implements Runnable, Cancelable
 		}
 	}
 
+	/**
+	 * Data class representing the data shared by the stages of the pipeline.
+	 */
+	private static class PipelineData
+	{
+
+		public PipelineStage detection;
+
+		public PipelineStage tracking;
+
+		public PipelineStage metrics;
+
+		public PipelineStage writing;
+
+		public ThreadLocal< MetricsRunner > runners;
+
+		public MetricsRunner writer;
+
+		public AtomicInteger progress;
+
+		public int count;
+
+	}
+
+	/**
+	 * A detector configuration processed by the pipeline, with the number of
+	 * its tracking groups that are not done yet.
+	 */
+	private static class PipelineUnit
+	{
+
+		public final Settings detectorSettings;
+
+		public final AtomicInteger pending;
+
+		public PipelineUnit( final Settings detectorSettings, final int nGroups )
+		{
+			this.detectorSettings = detectorSettings;
+			this.pending = new AtomicInteger( nGroups );
+		}
+
+	}
+
 	/**
 	 * Data class representing the data that is passed between the parameter
 	 * sweep iterations.
@@ -1008,19 +2216,19 @@ public class HelperRunner implements Runnable, Cancelable
 	private static class IterationData
 	{
 
-		public double trackingTiming;
+		public StageTimings trackingTimings;
 
 		public boolean trackingDone;
 
 		public MetricsRunner runner;
 
-		public double detectionTiming;
+		public StageTimings detectionTimings;
 
 		public TrackMate trackmate;
 
 		public boolean detectionDone;
 
-		public int progress;
+		public AtomicInteger progress;
 
 		public int count;
 
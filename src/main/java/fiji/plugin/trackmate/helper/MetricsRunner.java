@@ -21,15 +21,21 @@
  */
 package fiji.plugin.trackmate.helper;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.IntSummaryStatistics;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 
 import com.opencsv.CSVReader;
@@ -42,6 +48,10 @@ import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.TrackMate;
 import fiji.plugin.trackmate.TrackModel;
 import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.helper.DetectionCache.CachedDetection;
+import fiji.plugin.trackmate.helper.StageTimings.Lap;
+import fiji.plugin.trackmate.helper.StageTimings.Stage;
+import fiji.plugin.trackmate.helper.TrackingMetricsType.MetricValue;
 import fiji.plugin.trackmate.util.TMUtils;
 import net.imglib2.util.ValuePair;
 
@@ -70,11 +80,83 @@ public abstract class MetricsRunner
 	 */
 	private final BiFunction< String, Integer, String > nameGenWithID;
 
+	/**
+	 * Locks used to serialize access to the results CSV files, one per
+	 * results folder, when several runners write to the same results folder
+	 * concurrently. Runners writing to different folders do not contend.
+	 */
+	private static final Map< Path, Object > CSV_LOCKS = new ConcurrentHashMap<>();
+
+	/**
+	 * The lock of the results folder of this runner.
+	 */
+	private final Object csvLock;
+
+	/**
+	 * Number of threads to pass to TrackMate instances.
+	 */
+	protected int numThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Cache for detection results. If <code>null</code>, detection is always
+	 * performed.
+	 */
+	private DetectionCache detectionCache;
+
+	/**
+	 * Opened CSV files, per image name and header layout.
+	 */
+	private final Map< String, ResultsAppender > appenders = new HashMap<>();
+
+	/**
+	 * Write results lines to the CSV file every this number of lines.
+	 */
+	private int flushEveryLines = 1;
+
+	/**
+	 * Write results lines to the CSV file every this delay in seconds.
+	 */
+	private double flushEverySeconds = 0.;
+
+	/**
+	 * Whether to force the CSV file content to the storage device after each
+	 * write.
+	 */
+	private boolean fsync = false;
+
+	/**
+	 * In what format to write results files.
+	 */
+	private ResultsFormat resultsFormat = ResultsFormat.CSV;
+
+	/**
+	 * A tag added to the results file names, or <code>null</code>.
+	 */
+	private String resultsFileTag;
+
+	/**
+	 * Thresholds on the proxies measured before the performance measures, or
+	 * <code>null</code> to always compute the performance measures.
+	 */
+	private PreScreening preScreening;
+
+	/**
+	 * The ground-truth used to measure the proxies, created on first use.
+	 */
+	private ProxyGroundTruth proxyGroundTruth;
+
+	/**
+	 * Whether this runner failed to create the proxy ground-truth.
+	 */
+	private boolean proxyGroundTruthFailed = false;
+
 	public MetricsRunner( final Path resultsRootPath, final TrackingMetricsType type )
 	{
 		this.resultsRootPath = resultsRootPath;
+		this.csvLock = CSV_LOCKS.computeIfAbsent( resultsRootPath.toAbsolutePath().normalize(), p -> new Object() );
 		this.type = type;
-		this.nameGenWithID = ( imName, i ) -> String.format( "%s_" + type.csvSuffix() + "_%02d.csv", imName, i );
+		this.nameGenWithID = ( imName, i ) -> String.format( "%s_" + type.csvSuffix() + "%s_%02d.csv", imName,
+				resultsFileTag == null ? "" : "_" + resultsFileTag, i );
 	}
 
 	/**
@@ -88,6 +170,35 @@ public abstract class MetricsRunner
 	 */
 	public abstract TrackingMetrics performMetricsMeasurements( final TrackMate trackmate ) throws MetricsComputationErrorException;
 
+	/**
+	 * Performs the tracking metrics measurements, and records the time spent
+	 * in the export and metrics computation steps in the specified timings.
+	 * <p>
+	 * The default implementation measures the whole call to
+	 * {@link #performMetricsMeasurements(TrackMate)} as the metrics
+	 * computation step. Runners that export the results before measuring
+	 * metrics should override this method to measure the two steps
+	 * separately.
+	 *
+	 * @param trackmate
+	 *            the tracks on which to measure tracking metrics.
+	 * @param timings
+	 *            the timings to record steps in.
+	 * @return the metric values.
+	 */
+	protected TrackingMetrics performMetricsMeasurements( final TrackMate trackmate, final StageTimings timings ) throws MetricsComputationErrorException
+	{
+		final Lap lap = StageTimings.start();
+		try
+		{
+			return performMetricsMeasurements( trackmate );
+		}
+		finally
+		{
+			timings.stop( Stage.METRICS, lap );
+		}
+	}
+
 	/**
 	 * Performs the tracking metrics measurements for the tracks in the model in
 	 * the specified TrackMate instance, against the ground truth given at
@@ -95,37 +206,267 @@ public abstract class MetricsRunner
 	 *
 	 * @param trackmate
 	 *            the tracks on which to measure tracking metrics.
-	 * @param detectionTiming
-	 *            the metric measuring the detection time.
-	 * @param trackingTiming
-	 *            the metric measuring the tracking time.
+	 * @param timings
+	 *            the timings of the steps that led to these tracks.
 	 */
-	public void performAndSaveMetricsMeasurements( final TrackMate trackmate, final double detectionTiming, final double trackingTiming )
+	public void performAndSaveMetricsMeasurements( final TrackMate trackmate, final StageTimings timings )
 	{
-		final Settings settings = trackmate.getSettings();
-		final File csvFile = findSuitableCSVFile( settings );
-		final String[] csvHeader1 = toCSVHeader( settings );
+		final TrackingMetrics metrics = computeMetrics( trackmate, timings );
+		saveMetrics( trackmate.getSettings(), metrics );
+	}
 
+	/**
+	 * Performs the tracking metrics measurements for the tracks in the model in
+	 * the specified TrackMate instance, and adds the timing measurements to
+	 * them.
+	 *
+	 * @param trackmate
+	 *            the tracks on which to measure tracking metrics.
+	 * @param timings
+	 *            the timings of the steps that led to these tracks. The time
+	 *            spent in the metrics measurements is added to them.
+	 * @return the metric values, or <code>null</code> if the measurements
+	 *         failed.
+	 */
+	public TrackingMetrics computeMetrics( final TrackMate trackmate, final StageTimings timings )
+	{
 		try
 		{
-			final TrackingMetrics metrics = performMetricsMeasurements( trackmate );
+			final double[] proxies = measureProxies( trackmate, timings );
+			final TrackingMetrics metrics;
+			if ( proxies != null && !preScreening.accepts( proxies ) )
+			{
+				batchLogger.log( "Configuration rejected by pre-screening, skipping metrics measurements.\n" );
+				metrics = new TrackingMetrics( type ); // all NaNs.
+			}
+			else
+			{
+				metrics = performMetricsMeasurements( trackmate, timings );
+			}
+			if ( proxies != null )
+				for ( int i = 0; i < proxies.length; i++ )
+					metrics.set( PreScreening.PROXIES[ i ], proxies[ i ] );
 
 			// Add timing measurements.
-			metrics.set( TrackingMetricsType.TIM, detectionTiming + trackingTiming );
-			metrics.set( TrackingMetricsType.DETECTION_TIME, detectionTiming );
-			metrics.set( TrackingMetricsType.TRACKING_TIME, trackingTiming );
+			timings.writeTo( metrics );
 
 			batchLogger.log( "SPT metrics:\n" );
 			batchLogger.log( metrics.toString() + '\n' );
-			writeResults( csvFile, metrics, settings, csvHeader1 );
+			return metrics;
 		}
 		catch ( final MetricsComputationErrorException | IllegalArgumentException e )
 		{
-			writeFailedResults( csvFile, settings, csvHeader1 );
+			return null;
+		}
+	}
+
+	/**
+	 * Measures the pre-screening proxies, if pre-screening is enabled. The
+	 * time spent is part of the metrics computation step.
+	 *
+	 * @return the proxy values, or <code>null</code> if pre-screening is
+	 *         disabled or not supported.
+	 */
+	private double[] measureProxies( final TrackMate trackmate, final StageTimings timings )
+	{
+		if ( preScreening == null || proxyGroundTruthFailed )
+			return null;
+
+		final Lap lap = StageTimings.start();
+		try
+		{
+			if ( proxyGroundTruth == null )
+			{
+				try
+				{
+					proxyGroundTruth = createProxyGroundTruth( trackmate );
+				}
+				catch ( final IOException e )
+				{
+					batchLogger.error( "Could not read the ground-truth for pre-screening:\n" + e.getMessage() + '\n' );
+				}
+				if ( proxyGroundTruth == null )
+				{
+					batchLogger.log( "Pre-screening is not available for " + type.name() + ", it is disabled.\n" );
+					proxyGroundTruthFailed = true;
+					return null;
+				}
+			}
+			return proxyGroundTruth.measure( trackmate.getModel(), preScreening.getMatchDistance() );
+		}
+		finally
+		{
+			timings.stop( Stage.METRICS, lap );
 		}
 	}
 
-	public ValuePair< TrackMate, Double > execDetection( final Settings settings )
+	/**
+	 * Creates the simplified ground-truth used to measure the pre-screening
+	 * proxies. The default implementation returns <code>null</code>: runners
+	 * that support pre-screening override it.
+	 *
+	 * @param trackmate
+	 *            the first TrackMate instance measured, from which the
+	 *            spatial calibration can be taken.
+	 * @return the proxy ground-truth, or <code>null</code> if pre-screening
+	 *         is not supported.
+	 * @throws IOException
+	 *             if the ground-truth cannot be read.
+	 */
+	protected ProxyGroundTruth createProxyGroundTruth( final TrackMate trackmate ) throws IOException
+	{
+		return null;
+	}
+
+	/**
+	 * Appends the specified metrics to a suitable CSV file in the results
+	 * folder.
+	 * <p>
+	 * The CSV file is resolved once per header layout, then kept open. Lines
+	 * are written according to the flush policy of this runner, and are only
+	 * guaranteed to be in the file after {@link #close()} is called.
+	 * <p>
+	 * If the metrics are <code>null</code>, a line where all metrics results
+	 * are <code>NaN</code>s is written along with the settings values. This
+	 * signals that the settings values result in a failed tracking results.
+	 * As the settings values are logged, they won't be retried.
+	 *
+	 * @param settings
+	 *            the tracking settings used to generate these metrics values.
+	 * @param metrics
+	 *            the metrics to save. If <code>null</code>, a line with
+	 *            <code>NaN</code>s signaling a failed tracking is written.
+	 */
+	public void saveMetrics( final Settings settings, final TrackingMetrics metrics )
+	{
+		final Lap lap = StageTimings.start();
+		final String[] csvHeader1 = toCSVHeader( settings );
+		final ResultsAppender appender = getAppender( settings, csvHeader1 );
+		if ( appender == null )
+			return;
+
+		final String[] line = toCSVLine( settings, csvHeader1 );
+		final double[] values = ( metrics == null )
+				? new TrackingMetrics( type ).toArray() // all NaNs.
+				: metrics.toArray();
+		if ( metrics != null )
+		{
+			/*
+			 * The write time cannot include the write itself, which is buffered
+			 * anyway: it is the time spent resolving the results file and
+			 * preparing the line.
+			 */
+			final StageTimings timings = new StageTimings();
+			values[ type.id( TrackingMetricsType.TIME_WRITE ) ] = timings.stop( Stage.WRITE, lap );
+			addIfMeasured( values, TrackingMetricsType.CPU_TIME, timings.getCpuTime() );
+			addIfMeasured( values, TrackingMetricsType.ALLOCATED_BYTES, timings.getAllocatedBytes() );
+		}
+		try
+		{
+			appender.append( values, line );
+		}
+		catch ( final IOException e )
+		{
+			batchLogger.error( "Could not write results to CSV file " + appender.getFile() + ":\n" + e.getMessage() + '\n' );
+			e.printStackTrace();
+		}
+	}
+
+	private void addIfMeasured( final double[] values, final MetricValue metric, final double value )
+	{
+		if ( Double.isNaN( value ) )
+			return;
+		final int id = type.id( metric );
+		values[ id ] = Double.isNaN( values[ id ] ) ? value : values[ id ] + value;
+	}
+
+	/**
+	 * Returns the appender for the CSV file suitable for the specified
+	 * settings, opening it if needed.
+	 */
+	private synchronized ResultsAppender getAppender( final Settings settings, final String[] csvHeader1 )
+	{
+		final String imFileName = ( settings.imp == null ) ? "" : settings.imp.getShortTitle();
+		final String layout = imFileName + '\n' + String.join( ",", csvHeader1 );
+		final ResultsAppender existing = appenders.get( layout );
+		if ( existing != null )
+			return existing;
+
+		synchronized ( csvLock )
+		{
+			final File csvFile = findSuitableCSVFile( settings );
+			if ( csvFile == null )
+				return null;
+			try
+			{
+				final ResultsAppender appender = new ResultsAppender( csvFile,
+						resultsFormat.writesCSV(), resultsFormat.writesBinary(),
+						flushEveryLines, flushEverySeconds, fsync );
+				appenders.put( layout, appender );
+				return appender;
+			}
+			catch ( final IOException e )
+			{
+				batchLogger.error( "Cannot open CSV file " + csvFile + " for writing:\n" + e.getMessage() + '\n' );
+				e.printStackTrace();
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Writes the pending results lines to their CSV file.
+	 */
+	public synchronized void flush()
+	{
+		for ( final ResultsAppender appender : appenders.values() )
+		{
+			try
+			{
+				appender.flush();
+			}
+			catch ( final IOException e )
+			{
+				batchLogger.error( "Could not write results to CSV file " + appender.getFile() + ":\n" + e.getMessage() + '\n' );
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Writes the pending results lines and closes the CSV files opened by
+	 * this runner. The runner can still be used afterwards, in which case the
+	 * CSV files are opened again.
+	 */
+	public synchronized void close()
+	{
+		for ( final ResultsAppender appender : appenders.values() )
+		{
+			try
+			{
+				appender.close();
+			}
+			catch ( final IOException e )
+			{
+				batchLogger.error( "Could not write results to CSV file " + appender.getFile() + ":\n" + e.getMessage() + '\n' );
+				e.printStackTrace();
+			}
+		}
+		appenders.clear();
+	}
+
+	/**
+	 * Executes the detection, initial spot filtering and spot features
+	 * computation steps for the specified settings, or loads their results
+	 * from the detection cache.
+	 *
+	 * @param settings
+	 *            the settings.
+	 * @return the TrackMate instance with the detection results and the
+	 *         timings of the detection steps, or <code>null</code> if the
+	 *         detection failed.
+	 */
+	public ValuePair< TrackMate, StageTimings > execDetection( final Settings settings )
 	{
 		batchLogger.log( "Executing detection.\n" );
 		batchLogger.log( "Configured detector: " );
@@ -133,24 +474,56 @@ public abstract class MetricsRunner
 		batchLogger.log( " with settings:\n" );
 		batchLogger.log( TMUtils.echoMap( settings.detectorSettings, 2 ) );
 
-		final long start = System.currentTimeMillis();
+		if ( detectionCache != null )
+		{
+			final CachedDetection cached = detectionCache.load( settings );
+			if ( cached != null )
+			{
+				final TrackMate trackmate = new TrackMate( cached.model, settings );
+				trackmate.setNumThreads( numThreads );
+				trackmate.getModel().setLogger( trackmateLogger );
+				batchLogger.log( String.format( "Loaded %d spots from the detection cache.\n",
+						cached.model.getSpots().getNSpots( false ) ) );
+				// Only the total detection time is cached.
+				final StageTimings timings = new StageTimings();
+				timings.detectionTiming = cached.detectionTiming;
+				return new ValuePair<>( trackmate, timings );
+			}
+		}
+
+		final StageTimings timings = new StageTimings();
+		final long start = System.nanoTime();
 		final TrackMate trackmate = new TrackMate( settings );
+		trackmate.setNumThreads( numThreads );
 		trackmate.getModel().setLogger( trackmateLogger );
-		if ( !trackmate.execDetection()
-				|| !trackmate.execInitialSpotFiltering()
-				|| !trackmate.computeSpotFeatures( true ) )
+		if ( !timings.measure( Stage.DETECTOR, () -> trackmate.execDetection() && trackmate.execInitialSpotFiltering() )
+				|| !timings.measure( Stage.SPOT_FEATURES, () -> trackmate.computeSpotFeatures( true ) ) )
 		{
 			batchLogger.error( "Error in the detection step:\n" + trackmate.getErrorMessage() );
 			return null;
 		}
-		final long end = System.currentTimeMillis();
-		final double detectionTiming = ( end - start ) / 1000.;
+		final long end = System.nanoTime();
+		final double detectionTiming = ( end - start ) / 1e9;
+		timings.detectionTiming = detectionTiming;
+
+		batchLogger.log( String.format( "Detection done in %.1f s.\n", detectionTiming ) );
+		if ( detectionCache != null )
+			detectionCache.save( settings, trackmate.getModel(), detectionTiming );
 
-		batchLogger.log( String.format( "Detection done in %.1f s.\n", ( end - start ) / 1e3f ) );
-		return new ValuePair<>( trackmate, detectionTiming );
+		return new ValuePair<>( trackmate, timings );
 	}
 
-	public TrackMate execSpotFiltering( final TrackMate trackmate )
+	/**
+	 * Executes the spot filtering step.
+	 *
+	 * @param trackmate
+	 *            the TrackMate instance with the detection results.
+	 * @param timings
+	 *            the timings to record the step in.
+	 * @return the TrackMate instance, or <code>null</code> if the spot
+	 *         filtering failed.
+	 */
+	public TrackMate execSpotFiltering( final TrackMate trackmate, final StageTimings timings )
 	{
 		batchLogger.log( "Executing spot filtering.\n" );
 		final Settings settings = trackmate.getSettings();
@@ -166,7 +539,7 @@ public abstract class MetricsRunner
 		}
 
 		trackmate.getModel().setLogger( trackmateLogger );
-		if ( !trackmate.execSpotFiltering( true ) )
+		if ( !timings.measure( Stage.SPOT_FILTERING, () -> trackmate.execSpotFiltering( true ) ) )
 		{
 			batchLogger.error( "Error in the spot filtering step:\n" + trackmate.getErrorMessage() );
 			return null;
@@ -178,15 +551,22 @@ public abstract class MetricsRunner
 				nVisibleSpots, nTotalSpots ) );
 
 		if ( nVisibleSpots == 0 )
-		{
-			final File csvFile = findSuitableCSVFile( settings );
-			final String[] csvHeader1 = toCSVHeader( settings );
-			writeFailedResults( csvFile, settings, csvHeader1 );
-		}
+			saveMetrics( settings, null );
 		return trackmate;
 	}
 
-	public double execTracking( final TrackMate trackmate )
+	/**
+	 * Executes the tracking, edge features and track features computation
+	 * steps.
+	 *
+	 * @param trackmate
+	 *            the TrackMate instance with the filtered spots.
+	 * @param timings
+	 *            the timings to record the steps in.
+	 * @return the tracking time in seconds, or <code>NaN</code> if the
+	 *         tracking failed.
+	 */
+	public double execTracking( final TrackMate trackmate, final StageTimings timings )
 	{
 		batchLogger.log( "Executing tracking.\n" );
 		batchLogger.log( "Configured detector: " );
@@ -198,23 +578,31 @@ public abstract class MetricsRunner
 		batchLogger.log( " with settings:\n" );
 		batchLogger.log( TMUtils.echoMap( trackmate.getSettings().trackerSettings, 2 ) );
 
-		final long start = System.currentTimeMillis();
-		if ( !trackmate.checkInput()
-				|| !trackmate.execTracking()
-				|| !trackmate.computeEdgeFeatures( true )
-				|| !trackmate.computeTrackFeatures( true ) )
+		final long start = System.nanoTime();
+		if ( !timings.measure( Stage.TRACKER, () -> trackmate.checkInput() && trackmate.execTracking() )
+				|| !timings.measure( Stage.EDGE_FEATURES, () -> trackmate.computeEdgeFeatures( true ) )
+				|| !timings.measure( Stage.TRACK_FEATURES, () -> trackmate.computeTrackFeatures( true ) ) )
 		{
 			System.err.println( "Error in tracking step:\n" + trackmate.getErrorMessage() );
 			return Double.NaN;
 		}
-		final long end = System.currentTimeMillis();
-		final double trackingTiming = ( end - start ) / 1000.;
+		final long end = System.nanoTime();
+		final double trackingTiming = ( end - start ) / 1e9;
+		timings.trackingTiming = trackingTiming;
 
 		batchLogger.log( String.format( "Tracking done in %.1f s.\n", trackingTiming ) );
 		return trackingTiming;
 	}
 
-	public void execTrackFiltering( final TrackMate trackmate )
+	/**
+	 * Executes the track filtering step.
+	 *
+	 * @param trackmate
+	 *            the TrackMate instance with the tracks.
+	 * @param timings
+	 *            the timings to record the step in.
+	 */
+	public void execTrackFiltering( final TrackMate trackmate, final StageTimings timings )
 	{
 		batchLogger.log( "Executing track filtering.\n" );
 		final List< FeatureFilter > trackFilters = trackmate.getSettings().getTrackFilters();
@@ -227,7 +615,7 @@ public abstract class MetricsRunner
 			batchLogger.log( " with track filters:\n" );
 			batchLogger.log( TrackingMetricsTable.echoFilters( trackFilters ), Logger.BLUE_COLOR );
 		}
-		if ( !trackmate.execTrackFiltering( true ) )
+		if ( !timings.measure( Stage.TRACK_FILTERING, () -> trackmate.execTrackFiltering( true ) ) )
 		{
 			batchLogger.error( "Error in the track filtering step:\n" + trackmate.getErrorMessage() );
 			return;
@@ -262,25 +650,42 @@ public abstract class MetricsRunner
 		{
 			i++;
 			final File csvFile = getCSVFile( resultsRootPath.toString(), imFileName, i );
+			final File binFile = BinaryResultsFile.binaryFileFor( csvFile );
 
 			// Does the target CSV file exist?
-			if ( !csvFile.exists() )
+			if ( !csvFile.exists() && !binFile.exists() )
 			{
-				try (CSVWriter csvWriter = new CSVWriter( new FileWriter( csvFile ),
-						CSVWriter.DEFAULT_SEPARATOR,
-						CSVWriter.NO_QUOTE_CHARACTER,
-						CSVWriter.DEFAULT_ESCAPE_CHARACTER,
-						CSVWriter.DEFAULT_LINE_END ))
+				if ( resultsFormat.writesCSV() )
 				{
-					// CSV header.
-					csvWriter.writeNext( csvHeader );
+					try (CSVWriter csvWriter = new CSVWriter( new FileWriter( csvFile ),
+							CSVWriter.DEFAULT_SEPARATOR,
+							CSVWriter.NO_QUOTE_CHARACTER,
+							CSVWriter.DEFAULT_ESCAPE_CHARACTER,
+							CSVWriter.DEFAULT_LINE_END ))
+					{
+						// CSV header.
+						csvWriter.writeNext( csvHeader );
+					}
+					catch ( final IOException e )
+					{
+						batchLogger.error( "Cannot open CSV file " + csvFile + " for writing:\n" + e.getMessage() );
+						e.printStackTrace();
+					}
+					batchLogger.log( "CSV file " + csvFile + " does not exist. Created it.\n" );
 				}
-				catch ( final IOException e )
+				if ( resultsFormat.writesBinary() )
 				{
-					batchLogger.error( "Cannot open CSV file " + csvFile + " for writing:\n" + e.getMessage() );
-					e.printStackTrace();
+					try
+					{
+						BinaryResultsFile.create( binFile, csvHeader, type.metrics().size() );
+						batchLogger.log( "Created binary results file " + binFile + ".\n" );
+					}
+					catch ( final IOException e )
+					{
+						batchLogger.error( "Cannot create binary results file " + binFile + ":\n" + e.getMessage() );
+						e.printStackTrace();
+					}
 				}
-				batchLogger.log( "CSV file " + csvFile + " does not exist. Created it.\n" );
 				return csvFile;
 			}
 
@@ -288,6 +693,7 @@ public abstract class MetricsRunner
 			if ( csvFileIsCompatible( settings, csvFile ) )
 			{
 				batchLogger.log( "Found a compatible CSV file for appending: " + csvFile + '\n' );
+				syncResultsFiles( csvFile, binFile );
 				return csvFile;
 			}
 		}
@@ -297,81 +703,47 @@ public abstract class MetricsRunner
 	}
 
 	/**
-	 * Appends a line to the specified CSV file with the specified tracking
-	 * metrics. This method will also add the timing metrics to the specified
-	 * tracking metrics.
-	 *
-	 * @param csvFile
-	 *            the CSV file to append to.
-	 * @param metrics
-	 *            the metrics to append.
-	 * @param detectionTiming
-	 *            the detection time in seconds.
-	 * @param trackingTiming
-	 *            the tracking time in seconds.
-	 * @param settings
-	 *            the tracking settings used to generate these metrics values.
-	 * @param csvHeader
-	 *            the header name for each setting value.
+	 * Makes sure that the results files we are about to append to contain all
+	 * the lines of the results file in the other format, for instance when a
+	 * sweep that wrote CSV files is resumed with binary files.
 	 */
-	private void writeResults(
-			final File csvFile,
-			final TrackingMetrics metrics,
-			final Settings settings,
-			final String[] csvHeader )
+	private void syncResultsFiles( final File csvFile, final File binFile )
 	{
-		// Write to CSV.
-		final String[] line1 = toCSVLine( settings, csvHeader );
-		final String[] line = metrics.concatWithCSVLine( line1 );
-
-		try (CSVWriter csvWriter = new CSVWriter( new FileWriter( csvFile, true ),
-				CSVWriter.DEFAULT_SEPARATOR,
-				CSVWriter.NO_QUOTE_CHARACTER,
-				CSVWriter.DEFAULT_ESCAPE_CHARACTER,
-				CSVWriter.DEFAULT_LINE_END ))
+		try
 		{
-			csvWriter.writeNext( line );
+			final long nCSVLines = csvFile.exists() ? countLines( csvFile ) - 1 : -1;
+			final long nBinLines = binFile.exists() ? BinaryResultsFile.read( binFile, type ).size() : -1;
+			if ( resultsFormat.writesBinary() && nCSVLines > nBinLines )
+			{
+				batchLogger.log( "Converting " + csvFile + " to binary results file.\n" );
+				BinaryResultsFile.fromCSV( csvFile, binFile, type.metrics().size() );
+			}
+			if ( resultsFormat.writesCSV() && nBinLines > nCSVLines )
+			{
+				batchLogger.log( "Exporting binary results file " + binFile + " to CSV.\n" );
+				BinaryResultsFile.exportToCSV( binFile, csvFile );
+			}
 		}
 		catch ( final IOException e )
 		{
-			writeFailedResults( csvFile, settings, csvHeader );
+			batchLogger.error( "Cannot synchronize results files " + csvFile + " and " + binFile + ":\n" + e.getMessage() );
+			e.printStackTrace();
 		}
 	}
 
-	/**
-	 * Appends a line in the results file where all metrics results are
-	 * <code>NaN</code>s along with the settings values.
-	 * <p>
-	 * This signals that the settings values result in a failed tracking
-	 * results. As the settings values are logged, they won't be retried.
-	 *
-	 * @param csvFile
-	 *            the CSV file to append the line to.
-	 * @param settings
-	 *            the {@link Settings} that led to the failed tracking.
-	 * @param csvHeader
-	 *            the header name for each setting value.
-	 */
-	private void writeFailedResults( final File csvFile, final Settings settings, final String[] csvHeader )
+	private static long countLines( final File file ) throws IOException
 	{
-		// Write default values to CSV.
-		final String[] settingsValueColumns = toCSVLine( settings, csvHeader );
-		// all NaNs.
-		final TrackingMetrics metrics = new TrackingMetrics( type );
-		final String[] line = metrics.concatWithCSVLine( settingsValueColumns );
-		try (CSVWriter csvWriter = new CSVWriter( new FileWriter( csvFile, true ),
-				CSVWriter.DEFAULT_SEPARATOR,
-				CSVWriter.NO_QUOTE_CHARACTER,
-				CSVWriter.DEFAULT_ESCAPE_CHARACTER,
-				CSVWriter.DEFAULT_LINE_END ))
+		long n = 0;
+		try (InputStream is = new BufferedInputStream( new FileInputStream( file ) ))
 		{
-			csvWriter.writeNext( line );
-		}
-		catch ( final IOException e1 )
-		{
-			batchLogger.error( "Could not write failed results to CSV file:\n" + e1.getMessage() + '\n' );
-			e1.printStackTrace();
+			final byte[] buffer = new byte[ 1 << 16 ];
+			int read;
+			while ( ( read = is.read( buffer ) ) > 0 )
+				for ( int i = 0; i < read; i++ )
+					if ( buffer[ i ] == '\n' )
+						n++;
 		}
+		return n;
 	}
 
 	private final boolean csvFileIsCompatible( final Settings settings, final File csvFile )
@@ -380,6 +752,22 @@ public abstract class MetricsRunner
 		final String[] csvHeader1 = toCSVHeader( settings );
 		final String[] csvHeader = type.concatWithHeader( csvHeader1 );
 
+		if ( !csvFile.exists() )
+		{
+			// Only the binary results file exists.
+			final File binFile = BinaryResultsFile.binaryFileFor( csvFile );
+			try
+			{
+				return Arrays.equals( csvHeader, BinaryResultsFile.readHeader( binFile ) );
+			}
+			catch ( final IOException e )
+			{
+				batchLogger.error( "Cannot open binary results file " + binFile + " for reading:\n" + e.getMessage() );
+				e.printStackTrace();
+				return false;
+			}
+		}
+
 		try (CSVReader csvReader = new CSVReaderBuilder( new FileReader( csvFile ) ).build())
 		{
 			final String[] readHeader = csvReader.readNext();
@@ -403,6 +791,99 @@ public abstract class MetricsRunner
 		this.trackmateLogger = trackmateLogger;
 	}
 
+	/**
+	 * Sets the number of threads the TrackMate instances created by this
+	 * runner can use.
+	 *
+	 * @param numThreads
+	 *            the number of threads.
+	 */
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * Sets the cache to use for detection results. If <code>null</code>,
+	 * detection is performed for every detector configuration.
+	 *
+	 * @param detectionCache
+	 *            the detection cache, or <code>null</code>.
+	 */
+	public void setDetectionCache( final DetectionCache detectionCache )
+	{
+		this.detectionCache = detectionCache;
+	}
+
+	/**
+	 * Sets when results lines are written to the CSV files. Lines are written
+	 * every N lines or every T seconds, whichever comes first, and when
+	 * {@link #flush()} or {@link #close()} are called. By default, every line
+	 * is written immediately.
+	 *
+	 * @param flushEveryLines
+	 *            the number of lines N.
+	 * @param flushEverySeconds
+	 *            the delay T in seconds. If 0 or less, only the number of lines
+	 *            is used.
+	 * @param fsync
+	 *            whether to force the CSV file content to the storage device
+	 *            after each write.
+	 */
+	public void setFlushPolicy( final int flushEveryLines, final double flushEverySeconds, final boolean fsync )
+	{
+		this.flushEveryLines = flushEveryLines;
+		this.flushEverySeconds = flushEverySeconds;
+		this.fsync = fsync;
+	}
+
+	/**
+	 * Sets in what format results are written. Binary results files are
+	 * faster to crawl than CSV files, and can be exported to CSV with
+	 * {@link BinaryResultsFile#main(String[])}.
+	 *
+	 * @param resultsFormat
+	 *            the results format.
+	 */
+	public void setResultsFormat( final ResultsFormat resultsFormat )
+	{
+		this.resultsFormat = resultsFormat;
+	}
+
+	/**
+	 * Sets a tag to add to the names of the results files this runner
+	 * creates. Several processes that write to the same results folder must
+	 * use different tags, so that they never append to the same file.
+	 *
+	 * @param resultsFileTag
+	 *            the tag, or <code>null</code> to use no tag.
+	 */
+	public void setResultsFileTag( final String resultsFileTag )
+	{
+		this.resultsFileTag = resultsFileTag;
+	}
+
+	/**
+	 * Enables pre-screening: before the performance measures of a
+	 * configuration, cheap proxies are measured against the ground-truth, and
+	 * configurations with proxies outside the specified thresholds are
+	 * recorded with the proxy values and <code>NaN</code> for the performance
+	 * measures.
+	 *
+	 * @param preScreening
+	 *            the thresholds, or <code>null</code> to disable
+	 *            pre-screening.
+	 */
+	public void setPreScreening( final PreScreening preScreening )
+	{
+		this.preScreening = preScreening;
+	}
+
 	private final File getCSVFile( final String resultsRootPath, final String imageName, final int id )
 	{
 		final Path csvFilePath = Paths.get( resultsRootPath, nameGenWithID.apply( imageName, id ) );
@@ -468,6 +949,34 @@ public abstract class MetricsRunner
 		return out;
 	}
 
+	/**
+	 * Formats for results files.
+	 */
+	public enum ResultsFormat
+	{
+		CSV( true, false ), BINARY( false, true ), CSV_AND_BINARY( true, true );
+
+		private final boolean csv;
+
+		private final boolean binary;
+
+		private ResultsFormat( final boolean csv, final boolean binary )
+		{
+			this.csv = csv;
+			this.binary = binary;
+		}
+
+		public boolean writesCSV()
+		{
+			return csv;
+		}
+
+		public boolean writesBinary()
+		{
+			return binary;
+		}
+	}
+
 	public static class MetricsComputationErrorException extends Exception
 	{
 
@@ -0,0 +1,182 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fiji.plugin.trackmate.Logger;
+
+/**
+ * A stage of the staged parameter sweep pipeline. A stage has its own bounded
+ * queue of tasks and its own number of threads. Submitting a task to a stage
+ * whose queue is full blocks until there is room in the queue, which
+ * back-pressures the upstream stages.
+ *
+ * @author Jean-Yves Tinevez
+ */
+class PipelineStage
+{
+
+	private final String name;
+
+	private final ThreadPoolExecutor executor;
+
+	private final Logger logger;
+
+	private final AtomicInteger maxQueueDepth = new AtomicInteger( 0 );
+
+	private final AtomicInteger nTasks = new AtomicInteger( 0 );
+
+	private final AtomicLong busyTime = new AtomicLong( 0l );
+
+	/**
+	 * Creates a new stage.
+	 *
+	 * @param name
+	 *            the stage name, used for reporting.
+	 * @param nThreads
+	 *            the number of threads that will execute the tasks of this
+	 *            stage.
+	 * @param queueCapacity
+	 *            the max number of tasks waiting in the queue of this stage.
+	 * @param logger
+	 *            a logger to report errors in tasks.
+	 */
+	public PipelineStage( final String name, final int nThreads, final int queueCapacity, final Logger logger )
+	{
+		this.name = name;
+		this.logger = logger;
+		final BlockingQueue< Runnable > queue = new ArrayBlockingQueue<>( queueCapacity );
+		final AtomicInteger threadCount = new AtomicInteger( 0 );
+		this.executor = new ThreadPoolExecutor(
+				nThreads, nThreads,
+				0l, TimeUnit.MILLISECONDS,
+				queue,
+				r -> new Thread( r, "TrackMate-Helper " + name + " " + threadCount.incrementAndGet() ),
+				( r, e ) -> {
+					// Block until there is room in the queue.
+					if ( e.isShutdown() )
+						throw new RejectedExecutionException( "Stage " + name + " is shut down." );
+					try
+					{
+						e.getQueue().put( r );
+					}
+					catch ( final InterruptedException ie )
+					{
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException( ie );
+					}
+				} );
+	}
+
+	/**
+	 * Submits a task to this stage. Blocks if the queue of this stage is
+	 * full.
+	 *
+	 * @param task
+	 *            the task to execute.
+	 */
+	public void submit( final Runnable task )
+	{
+		executor.execute( () -> {
+			final long start = System.nanoTime();
+			try
+			{
+				task.run();
+			}
+			catch ( final RuntimeException e )
+			{
+				logger.error( "Error in the " + name + " stage:\n" + e.getMessage() + '\n' );
+				e.printStackTrace();
+			}
+			finally
+			{
+				busyTime.addAndGet( System.nanoTime() - start );
+				nTasks.incrementAndGet();
+			}
+		} );
+		maxQueueDepth.accumulateAndGet( queueDepth(), Math::max );
+	}
+
+	/**
+	 * Returns the number of tasks currently waiting in the queue of this stage.
+	 *
+	 * @return the queue depth.
+	 */
+	public int queueDepth()
+	{
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Returns the number of tasks currently being executed in this stage.
+	 *
+	 * @return the number of active tasks.
+	 */
+	public int activeCount()
+	{
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * Stops accepting new tasks and waits for all the submitted tasks to
+	 * complete.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public void shutdownAndWait() throws InterruptedException
+	{
+		executor.shutdown();
+		executor.awaitTermination( Long.MAX_VALUE, TimeUnit.NANOSECONDS );
+	}
+
+	/**
+	 * Stops all the tasks of this stage.
+	 */
+	public void shutdownNow()
+	{
+		executor.shutdownNow();
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Returns a one-line summary of the activity of this stage.
+	 *
+	 * @return a summary string.
+	 */
+	public String summary()
+	{
+		return String.format( "%s: %d tasks, %d threads, max queue depth %d, busy for %.1f s",
+				name, nTasks.get(), executor.getMaximumPoolSize(), maxQueueDepth.get(), busyTime.get() / 1e9 );
+	}
+}
@@ -0,0 +1,170 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper;
+
+import fiji.plugin.trackmate.helper.TrackingMetricsType.MetricValue;
+
+/**
+ * Thresholds on cheap proxies of the detection and tracking quality, used to
+ * skip the performance measures of configurations that are obviously bad.
+ * <p>
+ * The proxies are measured against a {@link ProxyGroundTruth} right after
+ * track filtering:
+ * <ul>
+ * <li>the relative error on the number of detections per frame;</li>
+ * <li>the F1 score of the detections, a spot matching the nearest reference
+ * object of its frame if it is closer than a max distance;</li>
+ * <li>the relative error on the number of tracks;</li>
+ * <li>the Kolmogorov-Smirnov distance between the distributions of the
+ * number of objects per track.</li>
+ * </ul>
+ * Configurations with a proxy outside its threshold are recorded with the
+ * proxy values, and <code>NaN</code> for the performance measures. By
+ * default, no configuration is rejected. The proxy columns are always
+ * present in the results files, and are <code>NaN</code> when pre-screening
+ * is disabled.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class PreScreening
+{
+
+	/**
+	 * The proxies, in the order of the values measured by
+	 * {@link ProxyGroundTruth#measure(fiji.plugin.trackmate.Model, double)}.
+	 */
+	public static final MetricValue[] PROXIES = new MetricValue[] {
+			TrackingMetricsType.PROXY_COUNT_ERROR,
+			TrackingMetricsType.PROXY_DETECTION_F1,
+			TrackingMetricsType.PROXY_TRACK_COUNT_ERROR,
+			TrackingMetricsType.PROXY_TRACK_LENGTH_DISTANCE };
+
+	private double maxCountError = Double.POSITIVE_INFINITY;
+
+	private double minDetectionF1 = 0.;
+
+	private double maxTrackCountError = Double.POSITIVE_INFINITY;
+
+	private double maxTrackLengthDistance = 1.;
+
+	private double matchDistance = Double.NaN;
+
+	/**
+	 * Sets the max relative error on the number of detections per frame.
+	 *
+	 * @param maxCountError
+	 *            the threshold, for instance 1 to reject configurations with
+	 *            twice as many detections as reference objects.
+	 * @return this instance.
+	 */
+	public PreScreening maxCountError( final double maxCountError )
+	{
+		this.maxCountError = maxCountError;
+		return this;
+	}
+
+	/**
+	 * Sets the min nearest-neighbor detection F1 score.
+	 *
+	 * @param minDetectionF1
+	 *            the threshold, from 0 to 1.
+	 * @return this instance.
+	 */
+	public PreScreening minDetectionF1( final double minDetectionF1 )
+	{
+		this.minDetectionF1 = minDetectionF1;
+		return this;
+	}
+
+	/**
+	 * Sets the max relative error on the number of tracks.
+	 *
+	 * @param maxTrackCountError
+	 *            the threshold.
+	 * @return this instance.
+	 */
+	public PreScreening maxTrackCountError( final double maxTrackCountError )
+	{
+		this.maxTrackCountError = maxTrackCountError;
+		return this;
+	}
+
+	/**
+	 * Sets the max Kolmogorov-Smirnov distance between the distributions of
+	 * the number of objects per track.
+	 *
+	 * @param maxTrackLengthDistance
+	 *            the threshold, from 0 to 1.
+	 * @return this instance.
+	 */
+	public PreScreening maxTrackLengthDistance( final double maxTrackLengthDistance )
+	{
+		this.maxTrackLengthDistance = maxTrackLengthDistance;
+		return this;
+	}
+
+	/**
+	 * Sets the max distance between a spot and the reference object it
+	 * matches, for the detection F1 score.
+	 *
+	 * @param matchDistance
+	 *            the distance in physical units, or <code>NaN</code> to use
+	 *            the default of the ground-truth: the max pairing distance for
+	 *            SPT, the mean radius of the reference objects for CTC.
+	 * @return this instance.
+	 */
+	public PreScreening matchDistance( final double matchDistance )
+	{
+		this.matchDistance = matchDistance;
+		return this;
+	}
+
+	public double getMatchDistance()
+	{
+		return matchDistance;
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified proxy values are within the
+	 * thresholds. Proxies that could not be measured (<code>NaN</code>) do
+	 * not reject a configuration.
+	 *
+	 * @param proxies
+	 *            the proxy values, in the order of {@link #PROXIES}.
+	 * @return <code>true</code> if the performance measures should be
+	 *         computed.
+	 */
+	public boolean accepts( final double[] proxies )
+	{
+		return !( proxies[ 0 ] > maxCountError )
+				&& !( proxies[ 1 ] < minDetectionF1 )
+				&& !( proxies[ 2 ] > maxTrackCountError )
+				&& !( proxies[ 3 ] > maxTrackLengthDistance );
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format( "count error <= %s, detection F1 >= %s, track count error <= %s, track length distance <= %s",
+				maxCountError, minDetectionF1, maxTrackCountError, maxTrackLengthDistance );
+	}
+}
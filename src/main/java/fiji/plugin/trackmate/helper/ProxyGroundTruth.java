@@ -0,0 +1,206 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import gnu.trove.set.hash.TIntHashSet;
+import net.imglib2.KDTree;
+import net.imglib2.RealPoint;
+import net.imglib2.neighborsearch.NearestNeighborSearchOnKDTree;
+
+/**
+ * A simplified view of a ground-truth, used to compute the pre-screening
+ * proxies: the position of the reference objects in each frame, indexed in a
+ * KD-tree, and the number of objects in each reference track.
+ *
+ * @author Jean-Yves Tinevez
+ * @see PreScreening
+ */
+public class ProxyGroundTruth
+{
+
+	/**
+	 * KD-tree of the reference objects of each frame. The values are indices
+	 * unique over all frames.
+	 */
+	private final Map< Integer, KDTree< Integer > > trees = new HashMap<>();
+
+	private final Map< Integer, Integer > counts = new HashMap<>();
+
+	private final int nDetections;
+
+	/**
+	 * Number of objects in each reference track, sorted.
+	 */
+	private final int[] trackLengths;
+
+	private final double matchDistance;
+
+	/**
+	 * Creates a proxy ground-truth.
+	 *
+	 * @param detections
+	 *            the 3D positions of the reference objects, in physical units, by
+	 *            frame.
+	 * @param trackLengths
+	 *            the number of objects in each reference track.
+	 * @param matchDistance
+	 *            the default max distance between a detection and the
+	 *            reference object it matches.
+	 */
+	public ProxyGroundTruth( final Map< Integer, List< RealPoint > > detections, final int[] trackLengths, final double matchDistance )
+	{
+		int index = 0;
+		for ( final Integer frame : detections.keySet() )
+		{
+			final List< RealPoint > positions = detections.get( frame );
+			if ( positions.isEmpty() )
+				continue;
+			final List< Integer > values = new ArrayList<>( positions.size() );
+			for ( int i = 0; i < positions.size(); i++ )
+				values.add( index++ );
+			trees.put( frame, new KDTree<>( values, positions ) );
+			counts.put( frame, positions.size() );
+		}
+		this.nDetections = index;
+		this.trackLengths = trackLengths.clone();
+		Arrays.sort( this.trackLengths );
+		this.matchDistance = matchDistance;
+	}
+
+	/**
+	 * Returns the default max distance between a detection and the reference
+	 * object it matches.
+	 *
+	 * @return the match distance, in physical units.
+	 */
+	public double getMatchDistance()
+	{
+		return matchDistance;
+	}
+
+	/**
+	 * Measures the pre-screening proxies of the spots in the visible tracks of
+	 * the specified model.
+	 *
+	 * @param model
+	 *            the model, after track filtering.
+	 * @param maxDistance
+	 *            the max distance between a spot and the reference object it
+	 *            matches. If <code>NaN</code>, the default match distance is
+	 *            used.
+	 * @return a new array with the proxy values, in the order of
+	 *         {@link PreScreening#PROXIES}.
+	 */
+	public double[] measure( final Model model, final double maxDistance )
+	{
+		final double dmax = Double.isNaN( maxDistance ) ? matchDistance : maxDistance;
+		final TrackModel trackModel = model.getTrackModel();
+		final Set< Integer > trackIDs = trackModel.trackIDs( true );
+
+		// Spots of the visible tracks by frame, and track lengths.
+		final Map< Integer, List< Spot > > spotsPerFrame = new HashMap<>();
+		final int[] lengths = new int[ trackIDs.size() ];
+		int nSpots = 0;
+		int t = 0;
+		for ( final Integer trackID : trackIDs )
+		{
+			final Set< Spot > spots = trackModel.trackSpots( trackID );
+			lengths[ t++ ] = spots.size();
+			for ( final Spot spot : spots )
+				spotsPerFrame.computeIfAbsent( spot.getFeature( Spot.FRAME ).intValue(), f -> new ArrayList<>() ).add( spot );
+			nSpots += spots.size();
+		}
+		Arrays.sort( lengths );
+
+		// Detection count error.
+		long countError = 0;
+		for ( final Integer frame : counts.keySet() )
+		{
+			final List< Spot > spots = spotsPerFrame.get( frame );
+			countError += Math.abs( counts.get( frame ) - ( spots == null ? 0 : spots.size() ) );
+		}
+		for ( final Integer frame : spotsPerFrame.keySet() )
+			if ( !counts.containsKey( frame ) )
+				countError += spotsPerFrame.get( frame ).size();
+
+		// Nearest-neighbor detection F1.
+		final TIntHashSet matched = new TIntHashSet();
+		final RealPoint position = new RealPoint( 3 );
+		for ( final Integer frame : spotsPerFrame.keySet() )
+		{
+			final KDTree< Integer > tree = trees.get( frame );
+			if ( tree == null )
+				continue;
+			final NearestNeighborSearchOnKDTree< Integer > search = new NearestNeighborSearchOnKDTree<>( tree );
+			for ( final Spot spot : spotsPerFrame.get( frame ) )
+			{
+				for ( int d = 0; d < 3; d++ )
+					position.setPosition( spot.getDoublePosition( d ), d );
+				search.search( position );
+				if ( search.getDistance() <= dmax )
+					matched.add( search.getSampler().get() );
+			}
+		}
+
+		final double[] proxies = new double[ PreScreening.PROXIES.length ];
+		proxies[ 0 ] = nDetections == 0 ? Double.NaN : ( double ) countError / nDetections;
+		proxies[ 1 ] = ( nDetections + nSpots ) == 0 ? Double.NaN : 2. * matched.size() / ( nDetections + nSpots );
+		proxies[ 2 ] = trackLengths.length == 0 ? Double.NaN : ( double ) Math.abs( lengths.length - trackLengths.length ) / trackLengths.length;
+		proxies[ 3 ] = ksDistance( trackLengths, lengths );
+		return proxies;
+	}
+
+	/**
+	 * Returns the two-sample Kolmogorov-Smirnov statistic of two sorted
+	 * samples: the max difference between their empirical distribution
+	 * functions. 1 if one sample only is empty.
+	 */
+	private static double ksDistance( final int[] a, final int[] b )
+	{
+		if ( a.length == 0 || b.length == 0 )
+			return ( a.length == b.length ) ? 0. : 1.;
+
+		int i = 0;
+		int j = 0;
+		double max = 0.;
+		while ( i < a.length && j < b.length )
+		{
+			final int v = Math.min( a[ i ], b[ j ] );
+			while ( i < a.length && a[ i ] == v )
+				i++;
+			while ( j < b.length && b[ j ] == v )
+				j++;
+			max = Math.max( max, Math.abs( ( double ) i / a.length - ( double ) j / b.length ) );
+		}
+		return max;
+	}
+}
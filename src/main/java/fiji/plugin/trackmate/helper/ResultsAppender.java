@@ -0,0 +1,257 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.opencsv.CSVWriter;
+
+/**
+ * Appends lines to a results CSV file that is kept open, and optionally to
+ * the binary results file that goes with it (see {@link BinaryResultsFile}).
+ * <p>
+ * Lines are accumulated in memory and written to the file every N lines or
+ * every T seconds, whichever comes first. The time condition is checked when
+ * a line is appended, and by a background thread, so that lines do not stay
+ * in memory when no line is appended for a while. Pending lines are written
+ * with a single write call and always end with a line separator, so that a
+ * reader never sees a partial line. They are kept in memory until they are
+ * written, and written again at the next flush if a write fails. An error in
+ * the background thread is reported by the next call to
+ * {@link #append(double[], String[])} or {@link #close()}.
+ *
+ * @author Jean-Yves Tinevez
+ */
+class ResultsAppender implements Closeable
+{
+
+	private final File file;
+
+	private final FileOutputStream out;
+
+	private final StringWriter buffer;
+
+	private final CSVWriter csvWriter;
+
+	private final BinaryResultsFile.Writer binaryWriter;
+
+	private final int flushEveryLines;
+
+	private final long flushEveryNanos;
+
+	private final boolean fsync;
+
+	private int nPending = 0;
+
+	private long lastFlush;
+
+	private boolean closed = false;
+
+	/**
+	 * The last error of the background thread, not reported yet.
+	 */
+	private IOException backgroundError;
+
+	/**
+	 * Flushes the pending lines every T seconds, or <code>null</code> if
+	 * there is no time condition.
+	 */
+	private final ScheduledExecutorService flusher;
+
+	/**
+	 * Opens the specified files for appending.
+	 *
+	 * @param file
+	 *            the CSV file, with its header already written.
+	 * @param writeCSV
+	 *            whether to write lines to the CSV file.
+	 * @param writeBinary
+	 *            whether to write lines to the binary results file that goes
+	 *            with the CSV file. The binary file must exist.
+	 * @param flushEveryLines
+	 *            write pending lines to the file when there are at least this
+	 *            number of them.
+	 * @param flushEverySeconds
+	 *            write pending lines to the file when the last write is older
+	 *            than this delay in seconds. If 0 or less, only the number of
+	 *            lines is used.
+	 * @param fsync
+	 *            whether to force the file content to the storage device after
+	 *            each write.
+	 * @throws IOException
+	 *             if the file cannot be opened.
+	 */
+	ResultsAppender(
+			final File file,
+			final boolean writeCSV,
+			final boolean writeBinary,
+			final int flushEveryLines,
+			final double flushEverySeconds,
+			final boolean fsync ) throws IOException
+	{
+		this.file = file;
+		this.out = writeCSV ? new FileOutputStream( file, true ) : null;
+		this.binaryWriter = writeBinary ? BinaryResultsFile.Writer.open( BinaryResultsFile.binaryFileFor( file ), fsync ) : null;
+		this.buffer = new StringWriter();
+		this.csvWriter = new CSVWriter( buffer,
+				CSVWriter.DEFAULT_SEPARATOR,
+				CSVWriter.NO_QUOTE_CHARACTER,
+				CSVWriter.DEFAULT_ESCAPE_CHARACTER,
+				CSVWriter.DEFAULT_LINE_END );
+		this.flushEveryLines = Math.max( 1, flushEveryLines );
+		this.flushEveryNanos = flushEverySeconds > 0 ? ( long ) ( flushEverySeconds * 1e9 ) : Long.MAX_VALUE;
+		this.fsync = fsync;
+		this.lastFlush = System.nanoTime();
+		if ( flushEverySeconds > 0 )
+		{
+			this.flusher = Executors.newSingleThreadScheduledExecutor( r -> {
+				final Thread thread = new Thread( r, "TrackMate-Helper results flusher " + file.getName() );
+				thread.setDaemon( true );
+				return thread;
+			} );
+			flusher.scheduleAtFixedRate( this::flushIfDue, flushEveryNanos, flushEveryNanos, TimeUnit.NANOSECONDS );
+		}
+		else
+		{
+			this.flusher = null;
+		}
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * Appends a line, and writes the pending lines if the flush policy says
+	 * so.
+	 *
+	 * @param metrics
+	 *            the metric values.
+	 * @param columns
+	 *            the settings values.
+	 * @throws IOException
+	 *             if the pending lines could not be written, now or by the
+	 *             background thread. The line is kept in memory anyway.
+	 */
+	public synchronized void append( final double[] metrics, final String[] columns ) throws IOException
+	{
+		if ( out != null )
+		{
+			final String[] line = new String[ metrics.length + columns.length ];
+			for ( int i = 0; i < metrics.length; i++ )
+				line[ i ] = Double.toString( metrics[ i ] );
+			System.arraycopy( columns, 0, line, metrics.length, columns.length );
+			csvWriter.writeNext( line );
+			csvWriter.flush();
+		}
+		if ( binaryWriter != null )
+			binaryWriter.append( metrics, columns );
+		nPending++;
+		reportBackgroundError();
+		if ( nPending >= flushEveryLines || System.nanoTime() - lastFlush >= flushEveryNanos )
+			flush();
+	}
+
+	/**
+	 * Writes the pending lines to the file. They are only discarded from
+	 * memory once written.
+	 *
+	 * @throws IOException
+	 *             if the lines could not be written.
+	 */
+	public synchronized void flush() throws IOException
+	{
+		lastFlush = System.nanoTime();
+		if ( binaryWriter != null )
+			binaryWriter.flush();
+
+		final StringBuffer pending = buffer.getBuffer();
+		if ( out != null && pending.length() > 0 )
+		{
+			final byte[] bytes = pending.toString().getBytes( Charset.defaultCharset() );
+			out.write( bytes );
+			if ( fsync )
+				out.getFD().sync();
+			pending.setLength( 0 );
+		}
+		nPending = 0;
+	}
+
+	/**
+	 * Writes the pending lines if the last write is older than the flush
+	 * delay. Called by the background thread.
+	 */
+	private synchronized void flushIfDue()
+	{
+		if ( closed || nPending == 0 || System.nanoTime() - lastFlush < flushEveryNanos )
+			return;
+		try
+		{
+			flush();
+		}
+		catch ( final IOException e )
+		{
+			// Reported by the next append or close.
+			backgroundError = e;
+		}
+	}
+
+	private void reportBackgroundError() throws IOException
+	{
+		if ( backgroundError == null )
+			return;
+		final IOException e = backgroundError;
+		backgroundError = null;
+		throw new IOException( "Could not write pending lines in the background, they are kept and written again: " + e.getMessage(), e );
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if ( closed )
+			return;
+		closed = true;
+		if ( flusher != null )
+			flusher.shutdown();
+		try
+		{
+			flush();
+			reportBackgroundError();
+		}
+		finally
+		{
+			if ( out != null )
+				out.close();
+			if ( binaryWriter != null )
+				binaryWriter.close();
+		}
+	}
+}
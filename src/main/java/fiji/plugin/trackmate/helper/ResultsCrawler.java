@@ -27,23 +27,35 @@ import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchEvent.Kind;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.scijava.listeners.Listeners;
 
@@ -53,7 +65,9 @@ import com.opencsv.exceptions.CsvValidationException;
 
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.features.FeatureFilter;
 import fiji.plugin.trackmate.helper.TrackingMetricsType.MetricValue;
+import fiji.plugin.trackmate.helper.ctc.CTCMetricsRunner;
 import net.imglib2.util.ValuePair;
 
 public class ResultsCrawler
@@ -70,6 +84,23 @@ public class ResultsCrawler
 
 	private final Map< String, TrackingMetricsTable > tables;
 
+	/**
+	 * Canonical keys of all the settings present in the tables, for fast
+	 * lookup.
+	 */
+	private volatile Set< String > settingsIndex;
+
+	/**
+	 * The selection of measures the settings index was built for.
+	 */
+	private volatile Set< MetricValue > indexedSelection;
+
+	/**
+	 * Parsing state of each results file, so that only appended lines are
+	 * parsed when a file changes.
+	 */
+	private final Map< String, FileState > fileStates;
+
 	private ResultsFolderWatcher folderWatcher;
 
 	private final TrackingMetricsType type;
@@ -79,6 +110,9 @@ public class ResultsCrawler
 		this.type = type;
 		this.batchLogger = batchLogger;
 		this.tables = new ConcurrentHashMap<>();
+		this.settingsIndex = ConcurrentHashMap.newKeySet();
+		this.indexedSelection = type.getSelectedMetrics();
+		this.fileStates = new HashMap<>();
 	}
 
 	public void watch( final String folder )
@@ -94,9 +128,11 @@ public class ResultsCrawler
 			folderWatcher.stopWatching();
 	}
 
-	public void reset()
+	public synchronized void reset()
 	{
 		tables.clear();
+		fileStates.clear();
+		settingsIndex = ConcurrentHashMap.newKeySet();
 	}
 
 	public String printReport()
@@ -162,36 +198,279 @@ public class ResultsCrawler
 		return tables.get( csvFile );
 	}
 
+	/**
+	 * Returns the results tables currently loaded in this crawler.
+	 *
+	 * @return an unmodifiable view of the tables.
+	 */
+	public Collection< TrackingMetricsTable > getTables()
+	{
+		return Collections.unmodifiableCollection( tables.values() );
+	}
+
+	/**
+	 * Crawls the specified folder for results files. Files that were already
+	 * crawled are parsed incrementally: only the lines appended since the last
+	 * crawl are read. Files that were truncated or replaced are parsed again
+	 * from the start, and files that were removed are discarded.
+	 *
+	 * @param resultsFolder
+	 *            the folder to crawl.
+	 * @throws IOException
+	 *             if the folder cannot be read.
+	 */
 	public synchronized void crawl( final String resultsFolder ) throws IOException
 	{
-		final List< String > csvFiles = findFiles( resultsFolder, "csv" );
+		final List< String > csvFiles = new ArrayList<>( findFiles( resultsFolder, "csv" ) );
+		// Binary results files replace the CSV file they go with.
+		for ( final String binFile : findFiles( resultsFolder, BinaryResultsFile.EXTENSION ) )
+		{
+			final String csvFile = BinaryResultsFile.csvFileFor( new File( binFile ) ).getAbsolutePath();
+			csvFiles.remove( csvFile );
+			csvFiles.add( preferredResultsFile( csvFile ) );
+		}
+		boolean rebuildIndex = false;
 		for ( final String csvFile : csvFiles )
+			rebuildIndex |= crawlFile( csvFile );
+
+		// Discard files that disappeared.
+		final String root = new File( resultsFolder ).getAbsolutePath();
+		final List< String > removed = new ArrayList<>();
+		for ( final String csvFile : fileStates.keySet() )
+			if ( csvFile.startsWith( root ) && !csvFiles.contains( csvFile ) )
+				removed.add( csvFile );
+		for ( final String csvFile : removed )
+			rebuildIndex |= removeFile( csvFile );
+
+		if ( rebuildIndex )
+			rebuildIndex();
+		notifyListeners();
+	}
+
+	/**
+	 * Crawls the specified results files only, and notifies listeners once.
+	 *
+	 * @param csvFiles
+	 *            the absolute paths to the CSV or binary results files that
+	 *            changed.
+	 */
+	synchronized void crawlFiles( final Collection< String > csvFiles )
+	{
+		boolean rebuildIndex = false;
+		for ( final String path : csvFiles )
+		{
+			// Dictionary files go with a binary results file.
+			final String changed = path.endsWith( ".dict" ) ? path.substring( 0, path.length() - 5 ) : path;
+			final String csvFile = BinaryResultsFile.csvFileFor( new File( changed ) ).getAbsolutePath();
+			final String binFile = BinaryResultsFile.binaryFileFor( new File( changed ) ).getAbsolutePath();
+			final String preferred = preferredResultsFile( csvFile );
+			if ( new File( preferred ).isFile() )
+				rebuildIndex |= crawlFile( preferred );
+			else
+				rebuildIndex |= removeFile( preferred );
+
+			// Discard the file in the other format.
+			rebuildIndex |= removeFile( preferred.equals( csvFile ) ? binFile : csvFile );
+		}
+		if ( rebuildIndex )
+			rebuildIndex();
+		notifyListeners();
+	}
+
+	private boolean removeFile( final String csvFile )
+	{
+		fileStates.remove( csvFile );
+		return tables.remove( csvFile ) != null;
+	}
+
+	/**
+	 * Returns which of a CSV results file and of the binary results file that
+	 * goes with it should be crawled: the binary file, unless the CSV file was
+	 * modified after it.
+	 *
+	 * @param csvFile
+	 *            the absolute path to the CSV file.
+	 * @return the absolute path to the file to crawl.
+	 */
+	private static String preferredResultsFile( final String csvFile )
+	{
+		final File csv = new File( csvFile );
+		final File bin = BinaryResultsFile.binaryFileFor( csv );
+		if ( !bin.exists() )
+			return csvFile;
+		if ( csv.exists() && csv.lastModified() > bin.lastModified() )
+			return csvFile;
+		return bin.getAbsolutePath();
+	}
+
+	/**
+	 * Parses the lines of the specified file that were not parsed yet.
+	 *
+	 * @return <code>true</code> if lines that were parsed before were
+	 *         discarded, in which case the settings index must be rebuilt.
+	 */
+	private boolean crawlFile( final String csvFile )
+	{
+		if ( csvFile.endsWith( '.' + BinaryResultsFile.EXTENSION ) )
+			return crawlBinaryFile( csvFile );
+
+		final Path path = Paths.get( csvFile );
+		boolean discarded = false;
+		try
 		{
-			try (CSVReader csvReader = new CSVReaderBuilder( new FileReader( csvFile ) ).build())
+			final BasicFileAttributes attrs = Files.readAttributes( path, BasicFileAttributes.class );
+			final Object fileKey = attrs.fileKey() != null ? attrs.fileKey() : attrs.creationTime();
+			final long length = attrs.size();
+
+			FileState state = fileStates.get( csvFile );
+			if ( state != null && ( length < state.offset || !Objects.equals( fileKey, state.fileKey ) ) )
+			{
+				// Truncated or replaced: parse again from start.
+				discarded = tables.remove( csvFile ) != null;
+				state = null;
+			}
+			if ( state == null )
+			{
+				state = new FileState( fileKey );
+				fileStates.put( csvFile, state );
+			}
+			if ( state.ignored || length == state.offset )
+				return discarded;
+
+			// Only read complete lines.
+			final byte[] bytes;
+			try (FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ))
+			{
+				final ByteBuffer buffer = ByteBuffer.allocate( ( int ) ( length - state.offset ) );
+				while ( buffer.hasRemaining() && channel.read( buffer, state.offset + buffer.position() ) > 0 )
+				{}
+				bytes = buffer.array();
+			}
+			int end = bytes.length;
+			while ( end > 0 && bytes[ end - 1 ] != '\n' )
+				end--;
+			if ( end == 0 )
+				return discarded;
+
+			final String chunk = new String( bytes, 0, end, Charset.defaultCharset() );
+			final int nBefore = state.builder == null ? 0 : state.builder.size();
+			try (CSVReader csvReader = new CSVReaderBuilder( new StringReader( chunk ) ).build())
 			{
-				final String[] readHeader = csvReader.readNext();
-				if ( !type.isHeader( readHeader ) )
+				if ( state.builder == null )
 				{
-					batchLogger.log( String.format(
-							"CSV file %s is not a " + type.name() + " results file. Skipping.\n", csvFile ) );
-					continue;
+					final String[] readHeader = csvReader.readNext();
+					if ( !type.isHeader( readHeader ) )
+					{
+						batchLogger.log( String.format(
+								"CSV file %s is not a " + type.name() + " results file. Skipping.\n", csvFile ) );
+						state.ignored = true;
+						return discarded;
+					}
+					state.builder = type.tableBuilder().addHeader( readHeader );
 				}
 
-				final TrackingMetricsTableBuilder builder = type.tableBuilder().addHeader( readHeader );
 				String[] line;
 				while ( ( line = csvReader.readNext() ) != null )
-					builder.addFromCSV( line );
+					state.builder.addFromCSV( line );
+			}
+			state.offset += end;
+
+			final TrackingMetricsTable results = state.builder.get();
+			tables.put( csvFile, results );
+			index( settingsIndex, results, nBefore );
+		}
+		catch ( final IOException | CsvValidationException e )
+		{
+			batchLogger.error( "Cannot open CSV file " + csvFile + " for reading:\n" + e.getMessage() );
+			e.printStackTrace();
+		}
+		return discarded;
+	}
 
-				final TrackingMetricsTable results = builder.get();
-				tables.put( csvFile, results );
+	/**
+	 * Decodes the lines of the specified binary file that were not decoded
+	 * yet.
+	 *
+	 * @return <code>true</code> if lines that were read before were discarded,
+	 *         in which case the settings index must be rebuilt.
+	 */
+	private boolean crawlBinaryFile( final String binFile )
+	{
+		final File file = new File( binFile );
+		boolean discarded = false;
+		try
+		{
+			final BasicFileAttributes attrs = Files.readAttributes( file.toPath(), BasicFileAttributes.class );
+			final Object fileKey = attrs.fileKey() != null ? attrs.fileKey() : attrs.creationTime();
+			final long length = attrs.size();
+			// Lines are only readable once their dictionary entries are.
+			final long dictLength = new File( binFile + ".dict" ).length();
+
+			FileState state = fileStates.get( binFile );
+			if ( state != null && ( length < state.offset || dictLength < state.dictOffset || !Objects.equals( fileKey, state.fileKey ) ) )
+			{
+				// Truncated or replaced: read again from start.
+				discarded = tables.remove( binFile ) != null;
+				state = null;
 			}
-			catch ( final IOException | CsvValidationException e )
+			if ( state == null )
 			{
-				batchLogger.error( "Cannot open CSV file " + csvFile + " for reading:\n" + e.getMessage() );
-				e.printStackTrace();
+				state = new FileState( fileKey );
+				fileStates.put( binFile, state );
 			}
+			if ( state.ignored || ( length == state.offset && dictLength == state.dictOffset ) )
+				return discarded;
+
+			if ( state.reader == null )
+			{
+				try
+				{
+					state.reader = new BinaryResultsFile.Reader( file, type );
+				}
+				catch ( final IOException e )
+				{
+					batchLogger.log( String.format(
+							"File %s is not a " + type.name() + " binary results file. Skipping.\n", binFile ) );
+					state.ignored = true;
+					return discarded;
+				}
+			}
+
+			final int nBefore = state.reader.size();
+			final TrackingMetricsTable results = state.reader.read();
+			state.offset = length;
+			state.dictOffset = dictLength;
+
+			tables.put( binFile, results );
+			index( settingsIndex, results, nBefore );
 		}
-		notifyListeners();
+		catch ( final IOException e )
+		{
+			batchLogger.error( "Cannot open binary results file " + binFile + " for reading:\n" + e.getMessage() );
+			e.printStackTrace();
+		}
+		return discarded;
+	}
+
+	private synchronized void rebuildIndex()
+	{
+		indexedSelection = type.getSelectedMetrics();
+		final Set< String > index = ConcurrentHashMap.newKeySet();
+		for ( final TrackingMetricsTable results : tables.values() )
+			index( index, results, 0 );
+		settingsIndex = index;
+	}
+
+	/**
+	 * Adds the settings of the lines of a table, starting from the specified
+	 * line, to an index. Lines that lack a selected measure are not added,
+	 * so that they are measured again.
+	 */
+	private void index( final Set< String > index, final TrackingMetricsTable results, final int from )
+	{
+		for ( int i = from; i < results.size(); i++ )
+			if ( type.hasSelectedMetrics( results.getMetrics( i ) ) )
+				index.add( settingsKey( results, i ) );
 	}
 
 	private static final List< String > findFiles( final String folder, final String fileExtension )
@@ -208,9 +487,10 @@ public class ResultsCrawler
 		final List< String > out = new ArrayList< String >();
 		for ( final File f : list )
 		{
-			// Skip CTC export folders.
+			// Skip CTC export and scratch folders.
 			final String name = f.getName();
-			if ( name.endsWith( "GT" ) || name.endsWith( "ST" ) || name.endsWith( "RES" ) )
+			if ( name.endsWith( "GT" ) || name.endsWith( "ST" ) || name.endsWith( "RES" )
+					|| name.startsWith( CTCMetricsRunner.SCRATCH_FOLDER_PREFIX ) )
 				continue;
 
 			if ( f.isDirectory() )
@@ -221,67 +501,108 @@ public class ResultsCrawler
 		return out;
 	}
 
-	public synchronized boolean isSettingsPresent( final Settings settings )
+	/**
+	 * Returns <code>true</code> if the specified settings were already tested
+	 * in one of the results tables.
+	 * <p>
+	 * Logger settings are ignored, and spot and track filters are compared
+	 * regardless of their order. The lookup is done in constant time in an
+	 * index of the settings present in the tables, without locking. Lines
+	 * where a measure currently selected is <code>NaN</code> while other
+	 * measures were computed, because they were written with another
+	 * selection of measures, do not count as tested.
+	 *
+	 * @param settings
+	 *            the settings to test.
+	 * @return <code>true</code> if the settings are present.
+	 */
+	public boolean isSettingsPresent( final Settings settings )
 	{
-		final List< TrackingMetricsTable > list = new ArrayList<>( tables.values() );
-		for ( final TrackingMetricsTable results : list )
-		{
-			// Test detector.
-			final int ntests = results.size();
-			LINE: for ( int i = 0; i < ntests; i++ )
-			{
-				final String detectorKey = results.getDetector( i );
-				if ( !detectorKey.equals( settings.detectorFactory.getKey() ) )
-					continue;
-				// Detectors are equal.
-
-				final Map< String, Object > ds = settings.detectorSettings;
-				final Map< String, String > dp = results.getDetectorParams( i );
-				for ( final String key : ds.keySet() )
-				{
-					final Object o1 = ds.get( key );
-					final String o2 = dp.get( key );
-
-					// Special case: we want to ignore Logger settings.
-					if ( o1.toString().startsWith( "fiji.plugin.trackmate.Logger$" ) )
-						continue;
-
-					if ( !o1.toString().equals( o2 ) )
-						continue LINE;
-				}
-				// Detector params are equal.
-
-				final String trackerKey = results.getTracker( i );
-				if ( !trackerKey.equals( settings.trackerFactory.getKey() ) )
-					continue;
-				// Tracker are equal.
-
-				final Map< String, Object > ts = settings.trackerSettings;
-				final Map< String, String > tp = results.getTrackerParams( i );
-				for ( final String key : ts.keySet() )
-				{
-					final Object o1 = ts.get( key );
-					final String o2 = tp.get( key );
-					if ( ( o1 == null && o2 != null ) || ( o1 != null && o2 == null ) )
-						return false;
+		if ( type.getSelectedMetrics() != indexedSelection )
+			rebuildIndex();
+		return settingsIndex.contains( settingsKey( settings ) );
+	}
 
-					if ( !o1.toString().equals( o2 ) )
-						continue LINE;
-				}
-				// Tracker params are equal.
+	/**
+	 * Returns a canonical key for the specified settings. Two settings that
+	 * have the same key are considered identical by the parameter sweep.
+	 *
+	 * @param settings
+	 *            the settings.
+	 * @return the canonical key.
+	 */
+	public static String settingsKey( final Settings settings )
+	{
+		return settingsKey(
+				settings.detectorFactory.getKey(),
+				settings.detectorSettings,
+				settings.trackerFactory.getKey(),
+				settings.trackerSettings,
+				settings.getSpotFilters(),
+				settings.getTrackFilters() );
+	}
 
-				// Test filters
-				if ( !new HashSet<>( results.getSpotFilters( i ) ).equals( new HashSet<>( settings.getSpotFilters() ) ) )
-					continue LINE;
+	/**
+	 * Returns the canonical key of the settings at the specified line of a
+	 * results table.
+	 *
+	 * @param table
+	 *            the results table.
+	 * @param line
+	 *            the line in the table.
+	 * @return the canonical key.
+	 * @see #settingsKey(Settings)
+	 */
+	public static String settingsKey( final TrackingMetricsTable table, final int line )
+	{
+		return settingsKey(
+				table.getDetector( line ),
+				table.getDetectorParams( line ),
+				table.getTracker( line ),
+				table.getTrackerParams( line ),
+				table.getSpotFilters( line ),
+				table.getTrackFilters( line ) );
+	}
 
-				if ( !new HashSet<>( results.getTrackFilters( i ) ).equals( new HashSet<>( settings.getTrackFilters() ) ) )
-					continue LINE;
-				// Spot & Track filters are equal.
+	private static String settingsKey(
+			final String detector,
+			final Map< String, ? > detectorParams,
+			final String tracker,
+			final Map< String, ? > trackerParams,
+			final Iterable< FeatureFilter > spotFilters,
+			final Iterable< FeatureFilter > trackFilters )
+	{
+		final StringBuilder str = new StringBuilder();
+		str.append( detector ).append( '\n' );
+		appendParams( str, detectorParams );
+		str.append( tracker ).append( '\n' );
+		appendParams( str, trackerParams );
+		appendFilters( str, spotFilters );
+		appendFilters( str, trackFilters );
+		return str.toString();
+	}
 
-				return true;
-			}
+	private static void appendParams( final StringBuilder str, final Map< String, ? > params )
+	{
+		final Map< String, String > sorted = new TreeMap<>();
+		for ( final String key : params.keySet() )
+		{
+			final String val = String.valueOf( params.get( key ) );
+			// Special case: we want to ignore Logger settings.
+			if ( val.startsWith( "fiji.plugin.trackmate.Logger$" ) )
+				continue;
+			sorted.put( key, val );
 		}
-		return false;
+		str.append( sorted ).append( '\n' );
+	}
+
+	private static void appendFilters( final StringBuilder str, final Iterable< FeatureFilter > filters )
+	{
+		// Filters are compared as sets.
+		final Set< String > sorted = new TreeSet<>();
+		for ( final FeatureFilter ff : filters )
+			sorted.add( ff.feature + ( ff.isAbove ? " > " : " < " ) + ff.value );
+		str.append( sorted ).append( '\n' );
 	}
 
 	public Listeners.List< CrawlerListener > listeners()
@@ -355,9 +676,7 @@ public class ResultsCrawler
 
 		int count = 0;
 		for ( final TrackingMetricsTable results : tables.values() )
-			for ( int i = 0; i < results.size(); i++ )
-				if ( !results.getMetrics( i ).isNaN() )
-					count++;
+			count += results.countValid();
 
 		return count;
 	}
@@ -373,6 +692,12 @@ public class ResultsCrawler
 
 		private final Logger logger;
 
+		/**
+		 * Time, in ms, to wait for other events after a change, before
+		 * crawling the files that changed.
+		 */
+		private static final long DEBOUNCE_DELAY = 500;
+
 		private boolean stopped;
 
 		public ResultsFolderWatcher( final ResultsCrawler crawler, final String folder, final Logger logger )
@@ -406,36 +731,57 @@ public class ResultsCrawler
 			{
 				while ( stopped == false )
 				{
-					final WatchKey key = watcher.take();
+					WatchKey key = watcher.take();
 					if ( key == null )
 						break;
 
-					for ( final WatchEvent< ? > event : key.pollEvents() )
+					/*
+					 * Collect the CSV files that changed, until no event is
+					 * received for the debounce delay.
+					 */
+					final Set< String > changed = new LinkedHashSet<>();
+					boolean overflow = false;
+					boolean valid = true;
+					while ( key != null )
 					{
-						final Kind< ? > kind = event.kind();
-						if ( kind == OVERFLOW )
-							continue;
-
-						// Crawl only if we have touched a CSV file.
-						@SuppressWarnings( "unchecked" )
-						final WatchEvent< Path > ev = ( WatchEvent< Path > ) event;
-						final Path filename = ev.context();
-						if ( filename.toString().toLowerCase().endsWith( "csv" ) )
+						for ( final WatchEvent< ? > event : key.pollEvents() )
 						{
-							try
+							final Kind< ? > kind = event.kind();
+							if ( kind == OVERFLOW )
 							{
-								crawler.reset();
-								crawler.crawl( dir.toString() );
-							}
-							catch ( final IOException e )
-							{
-								logger.error( "Error while crawling the folder " + dir.toString() + " for CSV results file:\n" );
-								logger.error( e.getMessage() );
-								e.printStackTrace();
+								overflow = true;
+								continue;
 							}
+
+							// Crawl only if we have touched a results file.
+							@SuppressWarnings( "unchecked" )
+							final WatchEvent< Path > ev = ( WatchEvent< Path > ) event;
+							final Path filename = ev.context();
+							final String name = filename.toString().toLowerCase();
+							if ( name.endsWith( "csv" )
+									|| name.endsWith( "." + BinaryResultsFile.EXTENSION )
+									|| name.endsWith( "." + BinaryResultsFile.EXTENSION + ".dict" ) )
+								changed.add( dir.resolve( filename ).toAbsolutePath().toString() );
 						}
+						valid = key.reset();
+						if ( !valid )
+							break;
+						key = watcher.poll( DEBOUNCE_DELAY, TimeUnit.MILLISECONDS );
+					}
+
+					try
+					{
+						if ( overflow )
+							crawler.crawl( dir.toString() );
+						else if ( !changed.isEmpty() )
+							crawler.crawlFiles( changed );
+					}
+					catch ( final IOException e )
+					{
+						logger.error( "Error while crawling the folder " + dir.toString() + " for CSV results file:\n" );
+						logger.error( e.getMessage() );
+						e.printStackTrace();
 					}
-					final boolean valid = key.reset();
 					if ( !valid )
 						break;
 				}
@@ -448,6 +794,52 @@ public class ResultsCrawler
 		}
 	}
 
+	/**
+	 * Parsing state of a CSV or binary results file.
+	 */
+	private static class FileState
+	{
+
+		/**
+		 * Identity of the file, used to detect that it was replaced.
+		 */
+		private final Object fileKey;
+
+		/**
+		 * Position, in bytes, of the first line that was not parsed yet. For
+		 * binary files, the length of the file when the lines were last read.
+		 */
+		private long offset = 0;
+
+		/**
+		 * The builder holding the lines parsed so far, or <code>null</code> if
+		 * the header was not read yet.
+		 */
+		private TrackingMetricsTableBuilder builder;
+
+		/**
+		 * For binary files, the length of the dictionary file when the lines
+		 * were last read.
+		 */
+		private long dictOffset = 0;
+
+		/**
+		 * For binary files, the reader holding the lines decoded so far, or
+		 * <code>null</code> if the header was not read yet.
+		 */
+		private BinaryResultsFile.Reader reader;
+
+		/**
+		 * Whether the file is not a results file of the right type.
+		 */
+		private boolean ignored = false;
+
+		private FileState( final Object fileKey )
+		{
+			this.fileKey = fileKey;
+		}
+	}
+
 	public TrackingMetricsType getType()
 	{
 		return type;
@@ -0,0 +1,431 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.helper.model.AbstractSweepModelBase;
+import fiji.plugin.trackmate.helper.model.ParameterSweepModel;
+import fiji.plugin.trackmate.helper.model.detector.DetectorSweepModel;
+import fiji.plugin.trackmate.helper.model.filter.FilterSweepModel;
+import fiji.plugin.trackmate.helper.model.parameter.AbstractParamSweepModel;
+import fiji.plugin.trackmate.helper.model.parameter.IntParamSweepModel;
+import fiji.plugin.trackmate.helper.model.parameter.NumberParamSweepModel;
+import fiji.plugin.trackmate.helper.model.parameter.NumberParamSweepModel.RangeType;
+import fiji.plugin.trackmate.helper.model.tracker.TrackerSweepModel;
+
+/**
+ * The search space of a parameter sweep, seen as a set of dimensions a
+ * model-based optimizer can sample from.
+ * <p>
+ * The space is built from the active detectors, trackers and filters of a
+ * {@link ParameterSweepModel}:
+ * <ul>
+ * <li>the choice of the detector and of the tracker are categorical
+ * dimensions;
+ * <li>numerical parameters configured with a linear or a log range are
+ * continuous dimensions over <code>[min, max]</code>, sampled in log space for
+ * log ranges and rounded for integer parameters;
+ * <li>numerical parameters configured with a manual range, and boolean, enum,
+ * array and string parameters are categorical dimensions over the values the
+ * user selected;
+ * <li>parameters with a fixed value or with an empty range (information
+ * panels) are not part of the space.
+ * </ul>
+ * Detector and tracker parameters are conditional on the detector or tracker
+ * being selected.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class SearchSpace
+{
+
+	private final List< Module > detectors;
+
+	private final List< Module > trackers;
+
+	private final List< Module > spotFilters;
+
+	private final List< Module > trackFilters;
+
+	public SearchSpace( final ParameterSweepModel model, final Settings base )
+	{
+		this.detectors = new ArrayList<>();
+		for ( final DetectorSweepModel dm : model.getActiveDetectors() )
+		{
+			// Check that the detector is available.
+			final Iterator< Settings > it = dm.iterator( base );
+			if ( !it.hasNext() )
+				continue;
+			detectors.add( new Module( it.next().detectorFactory.getKey(), dm ) );
+		}
+		this.trackers = new ArrayList<>();
+		for ( final TrackerSweepModel tm : model.getActiveTracker() )
+		{
+			final Iterator< Settings > it = tm.iterator( base );
+			if ( !it.hasNext() )
+				continue;
+			trackers.add( new Module( it.next().trackerFactory.getKey(), tm ) );
+		}
+		this.spotFilters = new ArrayList<>();
+		for ( final FilterSweepModel fm : model.spotFilterModels() )
+			spotFilters.add( new Module( fm.getName(), fm ) );
+		this.trackFilters = new ArrayList<>();
+		for ( final FilterSweepModel fm : model.trackFilterModels() )
+			trackFilters.add( new Module( fm.getName(), fm ) );
+	}
+
+	/**
+	 * Returns <code>true</code> if there is no detector or no tracker to
+	 * search.
+	 *
+	 * @return <code>true</code> if the search space is empty.
+	 */
+	public boolean isEmpty()
+	{
+		return detectors.isEmpty() || trackers.isEmpty();
+	}
+
+	public List< Module > detectors()
+	{
+		return Collections.unmodifiableList( detectors );
+	}
+
+	public List< Module > trackers()
+	{
+		return Collections.unmodifiableList( trackers );
+	}
+
+	public List< Module > spotFilters()
+	{
+		return Collections.unmodifiableList( spotFilters );
+	}
+
+	public List< Module > trackFilters()
+	{
+		return Collections.unmodifiableList( trackFilters );
+	}
+
+	/**
+	 * Builds the settings corresponding to a point in this space.
+	 *
+	 * @param base
+	 *            the base settings, configured with the image.
+	 * @param candidate
+	 *            the point in the space.
+	 * @return new settings.
+	 */
+	public Settings toSettings( final Settings base, final Candidate candidate )
+	{
+		final Module detector = detectors.get( candidate.detector );
+		final Settings ds = ( ( DetectorSweepModel ) detector.model ).iterator( base ).next();
+		ds.detectorSettings.putAll( candidate.detectorParams );
+
+		final Module tracker = trackers.get( candidate.tracker );
+		final Settings settings = ( ( TrackerSweepModel ) tracker.model ).iterator( ds ).next();
+		settings.trackerSettings.putAll( candidate.trackerParams );
+
+		settings.clearSpotFilters();
+		for ( final Map< String, Object > params : candidate.spotFilters )
+			settings.addSpotFilter( toFilter( params ) );
+		settings.clearTrackFilters();
+		for ( final Map< String, Object > params : candidate.trackFilters )
+			settings.addTrackFilter( toFilter( params ) );
+		return settings;
+	}
+
+	private static FeatureFilter toFilter( final Map< String, Object > params )
+	{
+		final String feature = ( String ) params.get( FilterSweepModel.FEATURE );
+		final double value = ( ( Number ) params.get( FilterSweepModel.VALUE ) ).doubleValue();
+		final boolean isAbove = ( Boolean ) params.get( FilterSweepModel.ISABOVE );
+		return new FeatureFilter( feature, value, isAbove );
+	}
+
+	/**
+	 * A point in the search space.
+	 */
+	public static class Candidate
+	{
+
+		public int detector;
+
+		public final Map< String, Object > detectorParams = new LinkedHashMap<>();
+
+		public int tracker;
+
+		public final Map< String, Object > trackerParams = new LinkedHashMap<>();
+
+		public final List< Map< String, Object > > spotFilters = new ArrayList<>();
+
+		public final List< Map< String, Object > > trackFilters = new ArrayList<>();
+	}
+
+	/**
+	 * A detector, a tracker or a filter, with the parameters that can be
+	 * searched and the values of the parameters that are not searched.
+	 */
+	public static class Module
+	{
+
+		private final String key;
+
+		private final AbstractSweepModelBase model;
+
+		private final List< Param > params;
+
+		private final Map< String, Object > fixed;
+
+		private Module( final String key, final AbstractSweepModelBase model )
+		{
+			this.key = key;
+			this.model = model;
+			this.params = new ArrayList<>();
+			this.fixed = new LinkedHashMap<>();
+			for ( final String paramKey : model.getModels().keySet() )
+			{
+				final AbstractParamSweepModel< ? > pm = model.getModels().get( paramKey );
+				final List< ? > range = pm.getRange();
+				if ( range.isEmpty() )
+					continue;
+
+				final Param param = Param.create( paramKey, pm );
+				if ( param != null )
+					params.add( param );
+				else
+					fixed.put( paramKey, range.get( 0 ) );
+			}
+		}
+
+		/**
+		 * Returns the key of the TrackMate module, or the name of the filter.
+		 *
+		 * @return the key.
+		 */
+		public String getKey()
+		{
+			return key;
+		}
+
+		public List< Param > params()
+		{
+			return Collections.unmodifiableList( params );
+		}
+
+		/**
+		 * Returns the values of the parameters that are not searched.
+		 *
+		 * @return the fixed parameter values.
+		 */
+		public Map< String, Object > fixed()
+		{
+			return Collections.unmodifiableMap( fixed );
+		}
+	}
+
+	/**
+	 * A single dimension of the search space.
+	 * <p>
+	 * Continuous dimensions are handled in unit coordinates in
+	 * <code>[0, 1]</code>, mapped to the parameter values linearly or in log
+	 * space. Categorical dimensions are handled via the index of the value in
+	 * the list of possible values.
+	 */
+	public static class Param
+	{
+
+		private final String key;
+
+		private final List< Object > values;
+
+		private final double min;
+
+		private final double max;
+
+		private final boolean log;
+
+		private final boolean integer;
+
+		private Param( final String key, final List< Object > values, final double min, final double max, final boolean log, final boolean integer )
+		{
+			this.key = key;
+			this.values = values;
+			this.min = min;
+			this.max = max;
+			this.log = log;
+			this.integer = integer;
+		}
+
+		/**
+		 * Creates a dimension for the specified parameter model.
+		 *
+		 * @return a new dimension, or <code>null</code> if the parameter takes
+		 *         a single value.
+		 */
+		private static Param create( final String key, final AbstractParamSweepModel< ? > model )
+		{
+			if ( model instanceof NumberParamSweepModel )
+			{
+				final NumberParamSweepModel nm = ( NumberParamSweepModel ) model;
+				final RangeType rangeType = nm.getRangeType();
+				if ( rangeType == RangeType.LIN_RANGE || rangeType == RangeType.LOG_RANGE )
+				{
+					final double min = nm.getMin().doubleValue();
+					final double max = nm.getMax().doubleValue();
+					if ( min >= max )
+						return null;
+					return new Param( key, null, min, max, rangeType == RangeType.LOG_RANGE, model instanceof IntParamSweepModel );
+				}
+			}
+			final List< Object > values = new ArrayList<>( model.getRange() );
+			if ( values.size() < 2 )
+				return null;
+			return new Param( key, values, Double.NaN, Double.NaN, false, false );
+		}
+
+		/**
+		 * Creates a categorical dimension over the specified values.
+		 */
+		private static Param categorical( final String key, final List< ? > values )
+		{
+			return new Param( key, new ArrayList<>( values ), Double.NaN, Double.NaN, false, false );
+		}
+
+		public String getKey()
+		{
+			return key;
+		}
+
+		public boolean isContinuous()
+		{
+			return values == null;
+		}
+
+		/**
+		 * Returns the number of categories of a categorical dimension.
+		 *
+		 * @return the number of categories.
+		 */
+		public int size()
+		{
+			return values == null ? 0 : values.size();
+		}
+
+		/**
+		 * Returns the parameter value for the specified coordinate: a unit
+		 * coordinate for a continuous dimension, a category index for a
+		 * categorical dimension.
+		 *
+		 * @param x
+		 *            the coordinate.
+		 * @return the parameter value.
+		 */
+		public Object toValue( final double x )
+		{
+			if ( values != null )
+				return values.get( ( int ) x );
+
+			final double val;
+			if ( log )
+				val = Math.exp( x * Math.log( 1. - min + max ) ) + min - 1.;
+			else
+				val = min + x * ( max - min );
+			if ( integer )
+				return ( int ) Math.round( val );
+			return val;
+		}
+
+		/**
+		 * Returns the coordinate of a value read from a results table.
+		 *
+		 * @param str
+		 *            the value, as written in the results table.
+		 * @return the coordinate, or {@link Double#NaN} if the value does not
+		 *         belong to this dimension.
+		 */
+		public double toCoordinate( final String str )
+		{
+			if ( str == null )
+				return Double.NaN;
+
+			if ( values != null )
+			{
+				for ( int i = 0; i < values.size(); i++ )
+					if ( String.valueOf( values.get( i ) ).equals( str ) )
+						return i;
+				return Double.NaN;
+			}
+
+			final double val;
+			try
+			{
+				val = Double.parseDouble( str );
+			}
+			catch ( final NumberFormatException e )
+			{
+				return Double.NaN;
+			}
+			if ( val < min || val > max )
+				return Double.NaN;
+			if ( log )
+				return Math.log( val - min + 1. ) / Math.log( 1. - min + max );
+			return ( val - min ) / ( max - min );
+		}
+
+		/**
+		 * Draws a coordinate uniformly in this dimension.
+		 *
+		 * @param random
+		 *            the random generator to use.
+		 * @return a coordinate.
+		 */
+		public double sample( final Random random )
+		{
+			if ( values != null )
+				return random.nextInt( values.size() );
+			return random.nextDouble();
+		}
+	}
+
+	/**
+	 * Returns the categorical dimension of the choice among the specified
+	 * modules, using their keys as values.
+	 *
+	 * @param modules
+	 *            the modules.
+	 * @return a new categorical dimension.
+	 */
+	public static Param choice( final List< Module > modules )
+	{
+		final List< String > keys = new ArrayList<>( modules.size() );
+		modules.forEach( m -> keys.add( m.getKey() ) );
+		return Param.categorical( "", keys );
+	}
+}
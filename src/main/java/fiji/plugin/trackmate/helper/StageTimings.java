@@ -0,0 +1,308 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+import fiji.plugin.trackmate.helper.TrackingMetricsType.MetricValue;
+
+/**
+ * Accounts for the time spent in each step of the processing of one
+ * configuration, and for the CPU time and bytes allocated by the threads that
+ * executed these steps.
+ * <p>
+ * Times are measured with {@link System#nanoTime()} and stored in seconds.
+ * CPU time and allocated bytes are measured for the thread that executes a
+ * step; the threads TrackMate spawns internally are not accounted for. Steps
+ * that are shared between several configurations, like detection, are
+ * accounted for in every configuration that uses them: a timings instance is
+ * copied before it is used for the next step of each configuration.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class StageTimings
+{
+
+	/**
+	 * The steps of the processing of one configuration.
+	 */
+	public static enum Stage
+	{
+		DETECTOR( TrackingMetricsType.TIME_DETECTOR ),
+		SPOT_FEATURES( TrackingMetricsType.TIME_SPOT_FEATURES ),
+		SPOT_FILTERING( TrackingMetricsType.TIME_SPOT_FILTERING ),
+		TRACKER( TrackingMetricsType.TIME_TRACKER ),
+		EDGE_FEATURES( TrackingMetricsType.TIME_EDGE_FEATURES ),
+		TRACK_FEATURES( TrackingMetricsType.TIME_TRACK_FEATURES ),
+		TRACK_FILTERING( TrackingMetricsType.TIME_TRACK_FILTERING ),
+		EXPORT( TrackingMetricsType.TIME_EXPORT ),
+		METRICS( TrackingMetricsType.TIME_METRICS ),
+		WRITE( TrackingMetricsType.TIME_WRITE );
+
+		private final MetricValue metric;
+
+		private Stage( final MetricValue metric )
+		{
+			this.metric = metric;
+		}
+
+		/**
+		 * Returns the metric in which the time of this step is stored.
+		 *
+		 * @return the metric.
+		 */
+		public MetricValue metric()
+		{
+			return metric;
+		}
+	}
+
+	private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+	private static final boolean CPU_TIME_SUPPORTED = isCpuTimeSupported();
+
+	private final double[] times;
+
+	private double cpuTime;
+
+	private double allocatedBytes;
+
+	/**
+	 * Time of the detection, as in {@link TrackingMetricsType#DETECTION_TIME}.
+	 */
+	public double detectionTiming = Double.NaN;
+
+	/**
+	 * Time of the tracking, as in {@link TrackingMetricsType#TRACKING_TIME}.
+	 */
+	public double trackingTiming = Double.NaN;
+
+	public StageTimings()
+	{
+		this.times = new double[ Stage.values().length ];
+		Arrays.fill( times, Double.NaN );
+		this.cpuTime = Double.NaN;
+		this.allocatedBytes = Double.NaN;
+	}
+
+	/**
+	 * Returns a copy of this instance, to use for the next steps of one
+	 * configuration.
+	 *
+	 * @return a new instance.
+	 */
+	public StageTimings copy()
+	{
+		final StageTimings copy = new StageTimings();
+		System.arraycopy( times, 0, copy.times, 0, times.length );
+		copy.cpuTime = cpuTime;
+		copy.allocatedBytes = allocatedBytes;
+		copy.detectionTiming = detectionTiming;
+		copy.trackingTiming = trackingTiming;
+		return copy;
+	}
+
+	/**
+	 * Starts measuring a step in the calling thread.
+	 *
+	 * @return a lap, to pass to {@link #stop(Stage, Lap)} when the step is
+	 *         done.
+	 */
+	public static Lap start()
+	{
+		return new Lap();
+	}
+
+	/**
+	 * Stops measuring a step in the calling thread, and adds its time, CPU
+	 * time and allocated bytes to this instance.
+	 *
+	 * @param stage
+	 *            the step.
+	 * @param lap
+	 *            the lap returned by {@link #start()} in the same thread.
+	 * @return the time of the step, in seconds.
+	 */
+	public double stop( final Stage stage, final Lap lap )
+	{
+		final double time = ( System.nanoTime() - lap.nanos ) / 1e9;
+		times[ stage.ordinal() ] = add( times[ stage.ordinal() ], time );
+		addResources( lap );
+		return time;
+	}
+
+	/**
+	 * Executes and measures a step that returns whether it succeeded, like
+	 * the processing methods of TrackMate.
+	 *
+	 * @param stage
+	 *            the step.
+	 * @param step
+	 *            the step to execute.
+	 * @return the value returned by the step.
+	 */
+	public boolean measure( final Stage stage, final BooleanSupplier step )
+	{
+		final Lap lap = start();
+		final boolean ok = step.getAsBoolean();
+		stop( stage, lap );
+		return ok;
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified step was measured.
+	 *
+	 * @param stage
+	 *            the step.
+	 * @return whether the step was measured.
+	 */
+	public boolean isMeasured( final Stage stage )
+	{
+		return !Double.isNaN( times[ stage.ordinal() ] );
+	}
+
+	/**
+	 * Adds the CPU time and bytes allocated by the calling thread since the
+	 * specified lap started, without adding time to a step.
+	 *
+	 * @param lap
+	 *            the lap.
+	 */
+	public void addResources( final Lap lap )
+	{
+		if ( lap.cpuNanos >= 0 )
+		{
+			final long cpu = THREAD_MX_BEAN.getCurrentThreadCpuTime();
+			if ( cpu >= 0 )
+				cpuTime = add( cpuTime, ( cpu - lap.cpuNanos ) / 1e9 );
+		}
+		if ( lap.allocatedBytes >= 0 )
+		{
+			final long allocated = allocatedBytes();
+			if ( allocated >= 0 )
+				allocatedBytes = add( allocatedBytes, allocated - lap.allocatedBytes );
+		}
+	}
+
+	/**
+	 * Returns the CPU time accounted for so far, in seconds.
+	 *
+	 * @return the CPU time, or <code>NaN</code> if it was not measured.
+	 */
+	public double getCpuTime()
+	{
+		return cpuTime;
+	}
+
+	/**
+	 * Returns the number of bytes allocated so far.
+	 *
+	 * @return the allocated bytes, or <code>NaN</code> if they were not
+	 *         measured.
+	 */
+	public double getAllocatedBytes()
+	{
+		return allocatedBytes;
+	}
+
+	/**
+	 * Writes the timings in the specified metrics.
+	 *
+	 * @param metrics
+	 *            the metrics to write to.
+	 */
+	public void writeTo( final TrackingMetrics metrics )
+	{
+		metrics.set( TrackingMetricsType.TIM, detectionTiming + trackingTiming );
+		metrics.set( TrackingMetricsType.DETECTION_TIME, detectionTiming );
+		metrics.set( TrackingMetricsType.TRACKING_TIME, trackingTiming );
+		for ( final Stage stage : Stage.values() )
+			metrics.set( stage.metric(), times[ stage.ordinal() ] );
+		metrics.set( TrackingMetricsType.CPU_TIME, cpuTime );
+		metrics.set( TrackingMetricsType.ALLOCATED_BYTES, allocatedBytes );
+	}
+
+	private static double add( final double total, final double value )
+	{
+		return Double.isNaN( total ) ? value : total + value;
+	}
+
+	private static boolean isCpuTimeSupported()
+	{
+		try
+		{
+			if ( !THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() )
+				return false;
+			if ( !THREAD_MX_BEAN.isThreadCpuTimeEnabled() )
+				THREAD_MX_BEAN.setThreadCpuTimeEnabled( true );
+			return THREAD_MX_BEAN.isThreadCpuTimeEnabled();
+		}
+		catch ( final UnsupportedOperationException | SecurityException e )
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes allocated so far by the calling thread, or
+	 * -1 if the JVM does not support this measurement.
+	 */
+	private static long allocatedBytes()
+	{
+		if ( !( THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean ) )
+			return -1;
+		try
+		{
+			final com.sun.management.ThreadMXBean bean = ( com.sun.management.ThreadMXBean ) THREAD_MX_BEAN;
+			if ( !bean.isThreadAllocatedMemorySupported() || !bean.isThreadAllocatedMemoryEnabled() )
+				return -1;
+			return bean.getThreadAllocatedBytes( Thread.currentThread().getId() );
+		}
+		catch ( final UnsupportedOperationException e )
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * The start of the measurement of one step in one thread.
+	 */
+	public static final class Lap
+	{
+
+		private final long nanos;
+
+		private final long cpuNanos;
+
+		private final long allocatedBytes;
+
+		private Lap()
+		{
+			this.cpuNanos = CPU_TIME_SUPPORTED ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : -1;
+			this.allocatedBytes = allocatedBytes();
+			this.nanos = System.nanoTime();
+		}
+	}
+}
@@ -0,0 +1,289 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Settings;
+
+/**
+ * A work queue shared by several processes running the same parameter sweep
+ * on the same results folder.
+ * <p>
+ * Work units are detector configurations. Before processing a work unit, a
+ * worker claims it by creating a claim file in a sub-folder of the results
+ * folder. The claim file is created atomically, so only one worker can claim
+ * a given work unit, and workers that are faster than the others end up
+ * processing more work units. This only relies on the atomic creation of
+ * files, and works with a local file system, for instance with several
+ * processes on a single machine.
+ * <p>
+ * A claim is released, and its file deleted, once the results of its work
+ * unit are written. A worker that claims the work unit afterwards finds that
+ * all its configurations were tested, and skips them.
+ * <p>
+ * If a claim timeout is set, the claims of a worker are refreshed
+ * periodically while it runs, and claims that were not refreshed for longer
+ * than the timeout, for instance because their worker crashed, can be taken
+ * over by another worker. Otherwise claims never expire, and the claims of a
+ * worker that crashed block their work units until their files are deleted.
+ * Claim files can be deleted safely between two runs: the configurations for
+ * which results were written are skipped anyway.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class SweepWorkQueue
+{
+
+	/**
+	 * Name of the folder, in the results folder, where claim files are
+	 * stored.
+	 */
+	public static final String CLAIMS_FOLDER_NAME = "Claims";
+
+	/**
+	 * Default delay in seconds after which claims that were not refreshed can
+	 * be taken over by another worker.
+	 */
+	public static final double DEFAULT_CLAIM_TIMEOUT_SECONDS = 600.;
+
+	private static final String CLAIM_EXTENSION = ".claim";
+
+	private final File folder;
+
+	private final String workerID;
+
+	private final long claimTimeoutMillis;
+
+	private final Logger logger;
+
+	/**
+	 * The claim files created by this worker and not released yet.
+	 */
+	private final Set< Path > claims = ConcurrentHashMap.newKeySet();
+
+	private final ScheduledExecutorService heartbeat;
+
+	/**
+	 * Creates a new work queue in the specified results folder.
+	 *
+	 * @param saveFolder
+	 *            the results folder.
+	 * @param workerID
+	 *            an identifier for this worker, written in its claim files.
+	 * @param claimTimeoutSeconds
+	 *            the delay in seconds after which claims that were not
+	 *            refreshed can be taken over by another worker. If 0 or less,
+	 *            claims never expire.
+	 * @param logger
+	 *            a logger to report errors.
+	 */
+	public SweepWorkQueue( final String saveFolder, final String workerID, final double claimTimeoutSeconds, final Logger logger )
+	{
+		this.folder = new File( saveFolder, CLAIMS_FOLDER_NAME );
+		this.workerID = workerID;
+		this.claimTimeoutMillis = ( long ) ( 1000. * claimTimeoutSeconds );
+		this.logger = logger;
+		if ( claimTimeoutMillis > 0 )
+		{
+			this.heartbeat = Executors.newSingleThreadScheduledExecutor( r -> {
+				final Thread thread = new Thread( r, "TrackMate-Helper claims heartbeat" );
+				thread.setDaemon( true );
+				return thread;
+			} );
+			final long period = Math.max( 1, claimTimeoutMillis / 3 );
+			heartbeat.scheduleAtFixedRate( this::refreshClaims, period, period, TimeUnit.MILLISECONDS );
+		}
+		else
+		{
+			this.heartbeat = null;
+		}
+	}
+
+	/**
+	 * Tries to claim the work unit for the specified detector configuration.
+	 *
+	 * @param settings
+	 *            the settings of the detector configuration.
+	 * @return <code>true</code> if this worker can process the work unit,
+	 *         <code>false</code> if it is claimed by another worker.
+	 */
+	public boolean claim( final Settings settings )
+	{
+		final Path claim = claimPath( settings );
+		try
+		{
+			Files.createDirectories( folder.toPath() );
+			if ( tryCreate( claim ) )
+				return true;
+
+			// Can we take over an expired claim?
+			if ( claimTimeoutMillis <= 0 || !isExpired( claim ) )
+				return false;
+
+			/*
+			 * Move the expired claim to a name of our own. Only one worker can
+			 * succeed in doing so.
+			 */
+			final Path expired = claim.resolveSibling( claim.getFileName() + "." + workerID + ".expired" );
+			try
+			{
+				Files.move( claim, expired, StandardCopyOption.ATOMIC_MOVE );
+			}
+			catch ( final NoSuchFileException e )
+			{
+				return false;
+			}
+			Files.deleteIfExists( expired );
+			if ( tryCreate( claim ) )
+			{
+				logger.log( "Took over the expired claim " + claim + ".\n" );
+				return true;
+			}
+			return false;
+		}
+		catch ( final IOException e )
+		{
+			/*
+			 * We cannot use the queue. Process the work unit, at worst it will
+			 * be processed twice.
+			 */
+			logger.error( "Could not claim work unit " + claim + ":\n" + e.getMessage() + '\n' );
+			return true;
+		}
+	}
+
+	/**
+	 * Releases the claim of this worker on the work unit for the specified
+	 * detector configuration, and deletes its claim file. The results of the
+	 * work unit must have been written before, so that other workers that
+	 * claim it afterwards skip its configurations.
+	 *
+	 * @param settings
+	 *            the settings of the detector configuration.
+	 */
+	public void release( final Settings settings )
+	{
+		final Path claim = claimPath( settings );
+		if ( !claims.remove( claim ) )
+			return;
+
+		try
+		{
+			Files.deleteIfExists( claim );
+		}
+		catch ( final IOException e )
+		{
+			logger.error( "Could not release claim " + claim + ":\n" + e.getMessage() + '\n' );
+		}
+	}
+
+	/**
+	 * Stops refreshing the claims of this worker. The claim files that were
+	 * not released are left in place, so that other workers do not process
+	 * the same work units again. If a claim timeout is set, they expire after
+	 * the timeout; a worker that takes them over then only finds the
+	 * configurations that were not tested yet.
+	 */
+	public void close()
+	{
+		if ( heartbeat != null )
+			heartbeat.shutdownNow();
+		claims.clear();
+	}
+
+	private Path claimPath( final Settings settings )
+	{
+		return new File( folder, DetectionCache.hash( DetectionCache.key( settings ) ) + CLAIM_EXTENSION ).toPath();
+	}
+
+	private boolean tryCreate( final Path claim ) throws IOException
+	{
+		try
+		{
+			Files.write( claim, ( workerID + '\n' ).getBytes( StandardCharsets.UTF_8 ), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE );
+			claims.add( claim );
+			return true;
+		}
+		catch ( final FileAlreadyExistsException e )
+		{
+			return false;
+		}
+	}
+
+	private boolean isExpired( final Path claim )
+	{
+		try
+		{
+			final long age = System.currentTimeMillis() - Files.getLastModifiedTime( claim ).toMillis();
+			return age > claimTimeoutMillis;
+		}
+		catch ( final IOException e )
+		{
+			// Claim disappeared: it is not ours to take.
+			return false;
+		}
+	}
+
+	private void refreshClaims()
+	{
+		final FileTime now = FileTime.fromMillis( System.currentTimeMillis() );
+		for ( final Path claim : claims )
+		{
+			try
+			{
+				Files.setLastModifiedTime( claim, now );
+			}
+			catch ( final IOException e )
+			{
+				logger.error( "Could not refresh claim " + claim + ":\n" + e.getMessage() + '\n' );
+			}
+		}
+	}
+
+	/**
+	 * Returns a default worker identifier, built from the process ID and the
+	 * host name, that can be used in file names.
+	 *
+	 * @return a worker identifier.
+	 */
+	public static String defaultWorkerID()
+	{
+		return ManagementFactory.getRuntimeMXBean().getName().replaceAll( "[^A-Za-z0-9-]", "-" );
+	}
+}
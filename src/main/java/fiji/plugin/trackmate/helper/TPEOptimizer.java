@@ -0,0 +1,509 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.helper.SearchSpace.Candidate;
+import fiji.plugin.trackmate.helper.SearchSpace.Module;
+import fiji.plugin.trackmate.helper.SearchSpace.Param;
+import fiji.plugin.trackmate.helper.TrackingMetricsType.MetricValue;
+import fiji.plugin.trackmate.helper.TrackingMetricsType.MetricValueOptimum;
+import fiji.plugin.trackmate.helper.model.filter.FilterSweepModel;
+
+/**
+ * A Tree-structured Parzen Estimator (TPE) optimizer that proposes the next
+ * settings to evaluate, based on the results obtained so far.
+ * <p>
+ * The observations are split in a 'good' set, made of the best fraction of
+ * the results for the target metric, and a 'bad' set made of the rest. For
+ * each dimension of the {@link SearchSpace}, a density is estimated for both
+ * sets, and the value maximizing the ratio of the good density over the bad
+ * density is selected among candidates drawn from the good density.
+ * Continuous dimensions use a Gaussian Parzen window mixed with a uniform
+ * prior. Categorical dimensions use smoothed category frequencies. Detector
+ * and tracker parameters are estimated only from the observations made with
+ * the same detector or tracker. Results that failed are considered as the
+ * worst ones.
+ * <p>
+ * The first proposals, until the number of observations reaches the number of
+ * startup trials, are drawn uniformly in the search space.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class TPEOptimizer
+{
+
+	/**
+	 * Fraction of the observations that make the 'good' set.
+	 */
+	private static final double GAMMA = 0.25;
+
+	/**
+	 * Number of candidates drawn from the good density for each dimension.
+	 */
+	private static final int N_CANDIDATES = 24;
+
+	/**
+	 * Minimal bandwidth of the Parzen windows, in unit coordinates.
+	 */
+	private static final double MIN_BANDWIDTH = 0.01;
+
+	/**
+	 * Max number of attempts to find settings that were not tested yet.
+	 */
+	private static final int MAX_ATTEMPTS = 200;
+
+	private final SearchSpace space;
+
+	private final MetricValue metric;
+
+	private final int nStartup;
+
+	private final Random random;
+
+	private final List< Observation > observations = new ArrayList<>();
+
+	private final Set< String > proposed = new HashSet<>();
+
+	/**
+	 * Creates a new optimizer.
+	 *
+	 * @param space
+	 *            the search space.
+	 * @param metric
+	 *            the metric to optimize.
+	 * @param nStartup
+	 *            the number of observations under which proposals are drawn
+	 *            at random.
+	 * @param random
+	 *            the random generator to use.
+	 */
+	public TPEOptimizer( final SearchSpace space, final MetricValue metric, final int nStartup, final Random random )
+	{
+		this.space = space;
+		this.metric = metric;
+		this.nStartup = nStartup;
+		this.random = random;
+	}
+
+	/**
+	 * Adds all the results present in the specified crawler to the
+	 * observations.
+	 *
+	 * @param crawler
+	 *            the crawler.
+	 * @return the number of observations added.
+	 */
+	public int addObservations( final ResultsCrawler crawler )
+	{
+		int n = 0;
+		for ( final TrackingMetricsTable table : crawler.getTables() )
+		{
+			for ( int i = 0; i < table.size(); i++ )
+			{
+				observations.add( new Observation(
+						table.getDetector( i ),
+						table.getDetectorParams( i ),
+						table.getTracker( i ),
+						table.getTrackerParams( i ),
+						table.getSpotFilters( i ),
+						table.getTrackFilters( i ),
+						table.getMetrics( i ).get( metric ) ) );
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Adds the result of the evaluation of the specified settings to the
+	 * observations.
+	 *
+	 * @param settings
+	 *            the settings evaluated.
+	 * @param metrics
+	 *            the metrics obtained, or <code>null</code> if the evaluation
+	 *            failed.
+	 */
+	public void addObservation( final Settings settings, final TrackingMetrics metrics )
+	{
+		observations.add( new Observation(
+				settings.detectorFactory.getKey(),
+				toStrings( settings.detectorSettings ),
+				settings.trackerFactory.getKey(),
+				toStrings( settings.trackerSettings ),
+				settings.getSpotFilters(),
+				settings.getTrackFilters(),
+				metrics == null ? Double.NaN : metrics.get( metric ) ) );
+	}
+
+	public int nObservations()
+	{
+		return observations.size();
+	}
+
+	/**
+	 * Returns the best value of the target metric observed so far.
+	 *
+	 * @return the best value, or {@link Double#NaN} if there is no valid
+	 *         observation.
+	 */
+	public double best()
+	{
+		double best = Double.NaN;
+		for ( final Observation o : observations )
+			if ( metric.optimumType.isBetterThan( o.value, best ) )
+				best = o.value;
+		return best;
+	}
+
+	/**
+	 * Proposes the next settings to evaluate.
+	 *
+	 * @param base
+	 *            the base settings, configured with the image.
+	 * @param isPresent
+	 *            a test for settings that were already evaluated, outside of
+	 *            this optimizer.
+	 * @return new settings, or <code>null</code> if no settings that were not
+	 *         evaluated yet could be found.
+	 */
+	public Settings propose( final Settings base, final Predicate< Settings > isPresent )
+	{
+		for ( int attempt = 0; attempt < MAX_ATTEMPTS; attempt++ )
+		{
+			// Fall back to random sampling if TPE keeps on proposing the same.
+			final boolean startup = observations.size() < nStartup || attempt >= MAX_ATTEMPTS / 2;
+			final Candidate candidate = startup ? sampleRandom() : sampleTPE();
+			final Settings settings = space.toSettings( base, candidate );
+			final String signature = ResultsCrawler.settingsKey( settings );
+			if ( proposed.contains( signature ) || isPresent.test( settings ) )
+				continue;
+
+			proposed.add( signature );
+			return settings;
+		}
+		return null;
+	}
+
+	private Candidate sampleRandom()
+	{
+		final Candidate candidate = new Candidate();
+		candidate.detector = random.nextInt( space.detectors().size() );
+		for ( final Param p : space.detectors().get( candidate.detector ).params() )
+			candidate.detectorParams.put( p.getKey(), p.toValue( p.sample( random ) ) );
+
+		candidate.tracker = random.nextInt( space.trackers().size() );
+		for ( final Param p : space.trackers().get( candidate.tracker ).params() )
+			candidate.trackerParams.put( p.getKey(), p.toValue( p.sample( random ) ) );
+
+		for ( final Module filter : space.spotFilters() )
+		{
+			final Map< String, Object > params = new LinkedHashMap<>( filter.fixed() );
+			for ( final Param p : filter.params() )
+				params.put( p.getKey(), p.toValue( p.sample( random ) ) );
+			candidate.spotFilters.add( params );
+		}
+		for ( final Module filter : space.trackFilters() )
+		{
+			final Map< String, Object > params = new LinkedHashMap<>( filter.fixed() );
+			for ( final Param p : filter.params() )
+				params.put( p.getKey(), p.toValue( p.sample( random ) ) );
+			candidate.trackFilters.add( params );
+		}
+		return candidate;
+	}
+
+	private Candidate sampleTPE()
+	{
+		// Split observations in good and bad sets.
+		final List< Observation > sorted = new ArrayList<>( observations );
+		sorted.sort( Comparator.comparingDouble( ( final Observation o ) -> score( o.value ) ).reversed() );
+		final int nGood = Math.max( 1, ( int ) Math.ceil( GAMMA * sorted.size() ) );
+		final List< Observation > good = sorted.subList( 0, nGood );
+		final List< Observation > bad = sorted.subList( nGood, sorted.size() );
+
+		final Candidate candidate = new Candidate();
+
+		// Detector.
+		candidate.detector = ( int ) suggest( SearchSpace.choice( space.detectors() ), good, bad, o -> o.detector );
+		final Module detector = space.detectors().get( candidate.detector );
+		for ( final Param p : detector.params() )
+		{
+			final double x = suggest( p, good, bad,
+					o -> o.detector.equals( detector.getKey() ) ? o.detectorParams.get( p.getKey() ) : null );
+			candidate.detectorParams.put( p.getKey(), p.toValue( x ) );
+		}
+
+		// Tracker.
+		candidate.tracker = ( int ) suggest( SearchSpace.choice( space.trackers() ), good, bad, o -> o.tracker );
+		final Module tracker = space.trackers().get( candidate.tracker );
+		for ( final Param p : tracker.params() )
+		{
+			final double x = suggest( p, good, bad,
+					o -> o.tracker.equals( tracker.getKey() ) ? o.trackerParams.get( p.getKey() ) : null );
+			candidate.trackerParams.put( p.getKey(), p.toValue( x ) );
+		}
+
+		// Filters.
+		for ( int i = 0; i < space.spotFilters().size(); i++ )
+		{
+			final int index = i;
+			final Module filter = space.spotFilters().get( i );
+			final Map< String, Object > params = new LinkedHashMap<>( filter.fixed() );
+			for ( final Param p : filter.params() )
+				params.put( p.getKey(), p.toValue( suggest( p, good, bad, o -> filterValue( o.spotFilters, index, p.getKey() ) ) ) );
+			candidate.spotFilters.add( params );
+		}
+		for ( int i = 0; i < space.trackFilters().size(); i++ )
+		{
+			final int index = i;
+			final Module filter = space.trackFilters().get( i );
+			final Map< String, Object > params = new LinkedHashMap<>( filter.fixed() );
+			for ( final Param p : filter.params() )
+				params.put( p.getKey(), p.toValue( suggest( p, good, bad, o -> filterValue( o.trackFilters, index, p.getKey() ) ) ) );
+			candidate.trackFilters.add( params );
+		}
+		return candidate;
+	}
+
+	/**
+	 * Suggests a coordinate for the specified dimension, maximizing the ratio
+	 * of the density of good observations over the density of bad
+	 * observations.
+	 */
+	private double suggest( final Param param, final List< Observation > good, final List< Observation > bad, final Function< Observation, String > getter )
+	{
+		final double[] l = coordinates( param, good, getter );
+		final double[] g = coordinates( param, bad, getter );
+
+		double best = Double.NaN;
+		double bestRatio = Double.NEGATIVE_INFINITY;
+		if ( param.isContinuous() )
+		{
+			final double sigmaL = bandwidth( l );
+			final double sigmaG = bandwidth( g );
+			for ( int i = 0; i < N_CANDIDATES; i++ )
+			{
+				final double x = sampleParzen( l, sigmaL );
+				final double ratio = parzen( x, l, sigmaL ) / parzen( x, g, sigmaG );
+				if ( ratio > bestRatio )
+				{
+					bestRatio = ratio;
+					best = x;
+				}
+			}
+		}
+		else
+		{
+			final double[] wl = frequencies( param.size(), l );
+			final double[] wg = frequencies( param.size(), g );
+			for ( int i = 0; i < N_CANDIDATES; i++ )
+			{
+				final int k = sampleCategorical( wl );
+				final double ratio = wl[ k ] / wg[ k ];
+				if ( ratio > bestRatio )
+				{
+					bestRatio = ratio;
+					best = k;
+				}
+			}
+		}
+		return best;
+	}
+
+	private static double[] coordinates( final Param param, final List< Observation > observations, final Function< Observation, String > getter )
+	{
+		final double[] arr = new double[ observations.size() ];
+		int n = 0;
+		for ( final Observation o : observations )
+		{
+			final double x = param.toCoordinate( getter.apply( o ) );
+			if ( !Double.isNaN( x ) )
+				arr[ n++ ] = x;
+		}
+		final double[] out = new double[ n ];
+		System.arraycopy( arr, 0, out, 0, n );
+		return out;
+	}
+
+	/**
+	 * Scott's rule, clamped to sensible values for unit coordinates.
+	 */
+	private static double bandwidth( final double[] points )
+	{
+		final int n = points.length;
+		if ( n < 2 )
+			return 0.25;
+
+		double mean = 0.;
+		for ( final double p : points )
+			mean += p;
+		mean /= n;
+		double var = 0.;
+		for ( final double p : points )
+			var += ( p - mean ) * ( p - mean );
+		final double std = Math.sqrt( var / ( n - 1 ) );
+		return Math.max( MIN_BANDWIDTH, Math.min( 1., 1.06 * std * Math.pow( n, -0.2 ) ) );
+	}
+
+	/**
+	 * Density of a Gaussian mixture centered on the specified points, mixed
+	 * with a uniform prior over [0, 1].
+	 */
+	private static double parzen( final double x, final double[] points, final double sigma )
+	{
+		double sum = 1.;
+		for ( final double p : points )
+		{
+			final double d = ( x - p ) / sigma;
+			sum += Math.exp( -0.5 * d * d ) / ( sigma * Math.sqrt( 2. * Math.PI ) );
+		}
+		return sum / ( points.length + 1 );
+	}
+
+	private double sampleParzen( final double[] points, final double sigma )
+	{
+		final int j = random.nextInt( points.length + 1 );
+		if ( j == points.length )
+			return random.nextDouble();
+		final double x = points[ j ] + sigma * random.nextGaussian();
+		return Math.max( 0., Math.min( 1., x ) );
+	}
+
+	/**
+	 * Category frequencies, with a prior of one observation per category.
+	 */
+	private static double[] frequencies( final int nCategories, final double[] points )
+	{
+		final double[] w = new double[ nCategories ];
+		for ( int k = 0; k < nCategories; k++ )
+			w[ k ] = 1.;
+		for ( final double p : points )
+			w[ ( int ) p ] += 1.;
+		final double sum = nCategories + points.length;
+		for ( int k = 0; k < nCategories; k++ )
+			w[ k ] /= sum;
+		return w;
+	}
+
+	private int sampleCategorical( final double[] weights )
+	{
+		final double r = random.nextDouble();
+		double cumsum = 0.;
+		for ( int k = 0; k < weights.length; k++ )
+		{
+			cumsum += weights[ k ];
+			if ( r < cumsum )
+				return k;
+		}
+		return weights.length - 1;
+	}
+
+	/**
+	 * Maps a metric value to a score for which higher is better, and for
+	 * which failed results are the worst.
+	 */
+	private double score( final double value )
+	{
+		if ( Double.isNaN( value ) )
+			return Double.NEGATIVE_INFINITY;
+		return metric.optimumType == MetricValueOptimum.HIGHER_IS_BETTER ? value : -value;
+	}
+
+	private static String filterValue( final List< FeatureFilter > filters, final int index, final String key )
+	{
+		if ( filters.size() <= index )
+			return null;
+		final FeatureFilter ff = filters.get( index );
+		switch ( key )
+		{
+		case FilterSweepModel.FEATURE:
+			return ff.feature;
+		case FilterSweepModel.VALUE:
+			return Double.toString( ff.value );
+		case FilterSweepModel.ISABOVE:
+			return Boolean.toString( ff.isAbove );
+		default:
+			return null;
+		}
+	}
+
+	private static Map< String, String > toStrings( final Map< String, Object > map )
+	{
+		final Map< String, String > out = new LinkedHashMap<>( map.size() );
+		for ( final String key : map.keySet() )
+			out.put( key, String.valueOf( map.get( key ) ) );
+		return out;
+	}
+
+	/**
+	 * The parameters and the target metric value of one result.
+	 */
+	private static class Observation
+	{
+
+		private final String detector;
+
+		private final Map< String, String > detectorParams;
+
+		private final String tracker;
+
+		private final Map< String, String > trackerParams;
+
+		private final List< FeatureFilter > spotFilters;
+
+		private final List< FeatureFilter > trackFilters;
+
+		private final double value;
+
+		private Observation(
+				final String detector,
+				final Map< String, String > detectorParams,
+				final String tracker,
+				final Map< String, String > trackerParams,
+				final List< FeatureFilter > spotFilters,
+				final List< FeatureFilter > trackFilters,
+				final double value )
+		{
+			this.detector = detector;
+			this.detectorParams = detectorParams;
+			this.tracker = tracker;
+			this.trackerParams = trackerParams;
+			this.spotFilters = new ArrayList<>( spotFilters );
+			this.trackFilters = new ArrayList<>( trackFilters );
+			this.value = value;
+		}
+	}
+}
@@ -24,6 +24,7 @@ package fiji.plugin.trackmate.helper;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.IntStream;
 
 import fiji.plugin.trackmate.features.FeatureFilter;
 import fiji.plugin.trackmate.helper.TrackingMetricsType.MetricValue;
@@ -108,17 +109,32 @@ public class TrackingMetricsTable
 		return trackFilters.get( i );
 	}
 
+	/**
+	 * Returns the number of lines that have at least one valid (non-NaN)
+	 * metric value.
+	 *
+	 * @return the number of valid lines.
+	 */
+	public int countValid()
+	{
+		int count = 0;
+		for ( int i = 0; i < size(); i++ )
+			if ( !getMetrics( i ).isNaN() )
+				count++;
+		return count;
+	}
+
 	public int bestFor( final String detector, final String tracker, final MetricValue key )
 	{
 		int bestLine = -1;
 		TrackingMetrics best = null;
-		for ( int i = 0; i < metrics.size(); i++ )
+		for ( int i = 0; i < size(); i++ )
 		{
-			if ( ( null != detector && !detectors.get( i ).equals( detector ) )
-					|| ( null != tracker && !trackers.get( i ).equals( tracker ) ) )
+			if ( ( null != detector && !getDetector( i ).equals( detector ) )
+					|| ( null != tracker && !getTracker( i ).equals( tracker ) ) )
 				continue;
 
-			final TrackingMetrics c = metrics.get( i );
+			final TrackingMetrics c = getMetrics( i );
 			if ( c.isBetterThan( best, key ) )
 			{
 				best = c;
@@ -132,22 +148,22 @@ public class TrackingMetricsTable
 	public String printLine( final int i )
 	{
 		final StringBuilder str = new StringBuilder();
-		str.append( "For detector: " + detectors.get( i ) + " with settings:" );
-		str.append( "\n" + TMUtils.echoMap( ( Map ) detectorParams.get( i ), 2 ) );
-		if ( !spotFilters.get( i ).isEmpty() )
+		str.append( "For detector: " + getDetector( i ) + " with settings:" );
+		str.append( "\n" + TMUtils.echoMap( ( Map ) getDetectorParams( i ), 2 ) );
+		if ( !getSpotFilters( i ).isEmpty() )
 		{
 			str.append( "With spot filters:\n" );
-			str.append( echoFilters( spotFilters.get( i ) ) );
+			str.append( echoFilters( getSpotFilters( i ) ) );
 		}
-		str.append( "And tracker: " + trackers.get( i ) + " with settings:" );
-		str.append( "\n" + TMUtils.echoMap( ( Map ) trackerParams.get( i ), 2 ) );
-		if ( !trackFilters.get( i ).isEmpty() )
+		str.append( "And tracker: " + getTracker( i ) + " with settings:" );
+		str.append( "\n" + TMUtils.echoMap( ( Map ) getTrackerParams( i ), 2 ) );
+		if ( !getTrackFilters( i ).isEmpty() )
 		{
 			str.append( "With track filters:\n" );
-			str.append( echoFilters( trackFilters.get( i ) ) );
+			str.append( echoFilters( getTrackFilters( i ) ) );
 		}
 		str.append( type.name() + " metrics:\n" );
-		str.append( metrics.get( i ).toString() );
+		str.append( getMetrics( i ).toString() );
 		return str.toString();
 	}
 
@@ -162,42 +178,42 @@ public class TrackingMetricsTable
 		final int[] colWidths =
 				new int[ descs.size()
 						+ 2
-						+ detectorParams.get( 0 ).size()
-						+ trackerParams.get( 0 ).size()
-						+ spotFilters.get( 0 ).size()
-						+ trackFilters.get( 0 ).size() ];
+						+ getDetectorParams( 0 ).size()
+						+ getTrackerParams( 0 ).size()
+						+ getSpotFilters( 0 ).size()
+						+ getTrackFilters( 0 ).size() ];
 		for ( int i = 0; i < descs.size(); i++ )
 			colWidths[ id++ ] = Math.max( 5, descs.get( i ).key.length() );
 
 		// Detector col.
-		colWidths[ id++ ] = detectors.stream()
-				.mapToInt( d -> d.length() )
+		colWidths[ id++ ] = IntStream.range( 0, size() )
+				.map( i -> getDetector( i ).length() )
 				.max()
 				.getAsInt();
 
 		// Detector param cols.
-		final Set< String > detectorKeys = detectorParams.get( 0 ).keySet();
+		final Set< String > detectorKeys = getDetectorParams( 0 ).keySet();
 		for ( final String dk : detectorKeys )
 			colWidths[ id++ ] = dk.length();
 
 		// Tracker col.
-		colWidths[ id++ ] = trackers.stream()
-				.mapToInt( d -> d.length() )
+		colWidths[ id++ ] = IntStream.range( 0, size() )
+				.map( i -> getTracker( i ).length() )
 				.max()
 				.getAsInt();
 
 		// Tracker param cols.
-		final Set< String > trackerKeys = trackerParams.get( 0 ).keySet();
+		final Set< String > trackerKeys = getTrackerParams( 0 ).keySet();
 		for ( final String dk : trackerKeys )
 			colWidths[ id++ ] = dk.length();
 
 		// Spot filter cols
-		final List< FeatureFilter > spotFilterFirst = spotFilters.get( 0 );
+		final List< FeatureFilter > spotFilterFirst = getSpotFilters( 0 );
 		for ( final FeatureFilter ff : spotFilterFirst )
 			colWidths[ id++ ] = ( "SPOT_FILTER_ON_" + ff.feature ).length();
 
 		// Track filter cols
-		final List< FeatureFilter > trackFilterFirst = trackFilters.get( 0 );
+		final List< FeatureFilter > trackFilterFirst = getTrackFilters( 0 );
 		for ( final FeatureFilter ff : trackFilterFirst )
 			colWidths[ id++ ] = ( "TRACK_FILTER_ON_" + ff.feature ).length();
 
@@ -240,27 +256,27 @@ public class TrackingMetricsTable
 		for ( int i = 0; i < size(); i++ )
 		{
 			id = 0;
-			final double[] cm = metrics.get( i ).toArray();
+			final double[] cm = getMetrics( i ).toArray();
 			for ( int j = 0; j < cm.length; j++ )
 				str.append( String.format( "%" + colWidths[ id++ ] + ".3f", cm[ j ] ) );
 
-			str.append( String.format( "%" + colWidths[ id++ ] + "s", detectors.get( i ) ) );
+			str.append( String.format( "%" + colWidths[ id++ ] + "s", getDetector( i ) ) );
 
-			final Map< String, String > dp = detectorParams.get( i );
+			final Map< String, String > dp = getDetectorParams( i );
 			for ( final String dk : detectorKeys )
 				str.append( String.format( "%" + colWidths[ id++ ] + "s", dp.get( dk ) ) );
 
-			str.append( String.format( "%" + colWidths[ id++ ] + "s", trackers.get( i ) ) );
+			str.append( String.format( "%" + colWidths[ id++ ] + "s", getTracker( i ) ) );
 
-			final Map< String, String > tp = trackerParams.get( i );
+			final Map< String, String > tp = getTrackerParams( i );
 			for ( final String tk : trackerKeys )
 				str.append( String.format( "%" + colWidths[ id++ ] + "s", tp.get( tk ) ) );
 
-			final List< FeatureFilter > sfs = spotFilters.get( i );
+			final List< FeatureFilter > sfs = getSpotFilters( i );
 			for ( final FeatureFilter ff : sfs )
 				str.append( String.format( "%" + colWidths[ id++ ] + "s", ff.toString().replace( ff.feature, "" ) ) );
 
-			final List< FeatureFilter > tfs = trackFilters.get( i );
+			final List< FeatureFilter > tfs = getTrackFilters( i );
 			for ( final FeatureFilter ff : tfs )
 				str.append( String.format( "%" + colWidths[ id++ ] + "s", ff.toString().replace( ff.feature, "" ) ) );
 
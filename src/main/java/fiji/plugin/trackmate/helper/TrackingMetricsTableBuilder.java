@@ -23,6 +23,7 @@ package fiji.plugin.trackmate.helper;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,19 +37,21 @@ public class TrackingMetricsTableBuilder
 
 	private String[] header;
 
-	private final List< TrackingMetrics > metrics = new ArrayList<>();
+	private final Column< TrackingMetrics > metrics = new Column<>();
 
-	private final List< String > detectors = new ArrayList<>();
+	private final Column< String > detectors = new Column<>();
 
-	private final List< String > trackers = new ArrayList<>();
+	private final Column< String > trackers = new Column<>();
 
-	private final List< Map< String, String > > detectorParams = new ArrayList<>();
+	private final Column< Map< String, String > > detectorParams = new Column<>();
 
-	private final List< Map< String, String > > trackerParams = new ArrayList<>();
+	private final Column< Map< String, String > > trackerParams = new Column<>();
 
-	private final List< List< FeatureFilter > > spotFilters = new ArrayList<>();
+	private final Column< List< FeatureFilter > > spotFilters = new Column<>();
 
-	private final List< List< FeatureFilter > > trackFilters = new ArrayList<>();
+	private final Column< List< FeatureFilter > > trackFilters = new Column<>();
+
+	private int nMetricColumns;
 
 	private int detectorCol = -1;
 
@@ -68,6 +71,7 @@ public class TrackingMetricsTableBuilder
 		if ( !type.isHeader( header ) )
 			throw new IllegalArgumentException( "CSV header is not from a " + type.name() + " results file." );
 
+		this.nMetricColumns = type.countMetricColumns( header );
 		this.detectorCol = Arrays.asList( header ).indexOf( "DETECTOR" );
 		this.trackerCol = Arrays.asList( header ).indexOf( "TRACKER" );
 		this.spotFilterCols = findIndicesWithPrefix( header, "SPOT_FILTER_ON" );
@@ -83,7 +87,7 @@ public class TrackingMetricsTableBuilder
 			throw new IllegalArgumentException( "CSV header is not set yet." );
 
 		// Parse the metrics first.
-		final TrackingMetrics m = type.fromCSVLine( line );
+		final TrackingMetrics m = type.fromCSVLine( line, nMetricColumns );
 		metrics.add( m );
 
 		// Detector and Tracker.
@@ -138,13 +142,33 @@ public class TrackingMetricsTableBuilder
 		return this;
 	}
 
+	/**
+	 * Returns the number of lines added so far.
+	 *
+	 * @return the number of lines.
+	 */
+	public int size()
+	{
+		return metrics.size;
+	}
+
+	/**
+	 * Returns a table with the lines added so far. Lines added to this builder
+	 * afterwards are not visible in the returned table, so that the builder
+	 * can keep on receiving lines while the table is read.
+	 * <p>
+	 * The table is a view over the columns of this builder, limited to the
+	 * current number of lines: nothing is copied.
+	 *
+	 * @return a new table.
+	 */
 	public TrackingMetricsTable get()
 	{
 		return new TrackingMetricsTable( type,
-				metrics,
-				detectors, trackers,
-				detectorParams, trackerParams,
-				spotFilters, trackFilters );
+				metrics.view(),
+				detectors.view(), trackers.view(),
+				detectorParams.view(), trackerParams.view(),
+				spotFilters.view(), trackFilters.view() );
 	}
 
 	private static int[] findIndicesWithPrefix( final String[] array, final String prefix )
@@ -165,6 +189,33 @@ public class TrackingMetricsTableBuilder
 		return indices;
 	}
 
+	/**
+	 * An append-only column. The backing array is reallocated when it is
+	 * full, and elements are only written past the size of the views already
+	 * returned, so a view is never affected by later additions.
+	 */
+	private static final class Column< T >
+	{
+
+		private Object[] elements = new Object[ 16 ];
+
+		private int size = 0;
+
+		private void add( final T element )
+		{
+			if ( size == elements.length )
+				elements = Arrays.copyOf( elements, size + ( size >> 1 ) );
+			elements[ size++ ] = element;
+		}
+
+		@SuppressWarnings( "unchecked" )
+		private List< T > view()
+		{
+			final List< ? > view = Arrays.asList( elements ).subList( 0, size );
+			return Collections.unmodifiableList( ( List< T > ) view );
+		}
+	}
+
 	private FeatureFilter fromString( final String str, final String featureKey )
 	{
 		// We expect something like ">2.202354"
@@ -23,8 +23,11 @@ package fiji.plugin.trackmate.helper;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.function.BiPredicate;
 
 import gnu.trove.map.hash.TObjectIntHashMap;
@@ -122,17 +125,167 @@ public abstract class TrackingMetricsType
 			MetricValueOptimum.LOWER_IS_BETTER,
 			MetricValueBound.UNBOUNDED );
 
+	/*
+	 * Per-stage accounting. The timing of each step of the pipeline, measured
+	 * with nanosecond resolution and expressed in seconds, and the CPU time
+	 * and bytes allocated by the threads that ran the configuration.
+	 */
+
+	public static final MetricValue TIME_DETECTOR = new MetricValue(
+			"TIME_DETECTOR",
+			"Detector execution time",
+			MetricValueOptimum.LOWER_IS_BETTER,
+			MetricValueBound.UNBOUNDED );
+
+	public static final MetricValue TIME_SPOT_FEATURES = new MetricValue(
+			"TIME_SPOT_FEATURES",
+			"Spot features computation time",
+			MetricValueOptimum.LOWER_IS_BETTER,
+			MetricValueBound.UNBOUNDED );
+
+	public static final MetricValue TIME_SPOT_FILTERING = new MetricValue(
+			"TIME_SPOT_FILTERING",
+			"Spot filtering time",
+			MetricValueOptimum.LOWER_IS_BETTER,
+			MetricValueBound.UNBOUNDED );
+
+	public static final MetricValue TIME_TRACKER = new MetricValue(
+			"TIME_TRACKER",
+			"Tracker execution time",
+			MetricValueOptimum.LOWER_IS_BETTER,
+			MetricValueBound.UNBOUNDED );
+
+	public static final MetricValue TIME_EDGE_FEATURES = new MetricValue(
+			"TIME_EDGE_FEATURES",
+			"Edge features computation time",
+			MetricValueOptimum.LOWER_IS_BETTER,
+			MetricValueBound.UNBOUNDED );
+
+	public static final MetricValue TIME_TRACK_FEATURES = new MetricValue(
+			"TIME_TRACK_FEATURES",
+			"Track features computation time",
+			MetricValueOptimum.LOWER_IS_BETTER,
+			MetricValueBound.UNBOUNDED );
+
+	public static final MetricValue TIME_TRACK_FILTERING = new MetricValue(
+			"TIME_TRACK_FILTERING",
+			"Track filtering time",
+			MetricValueOptimum.LOWER_IS_BETTER,
+			MetricValueBound.UNBOUNDED );
+
+	public static final MetricValue TIME_EXPORT = new MetricValue(
+			"TIME_EXPORT",
+			"Time to export results for metrics measurements",
+			MetricValueOptimum.LOWER_IS_BETTER,
+			MetricValueBound.UNBOUNDED );
+
+	public static final MetricValue TIME_METRICS = new MetricValue(
+			"TIME_METRICS",
+			"Metrics computation time",
+			MetricValueOptimum.LOWER_IS_BETTER,
+			MetricValueBound.UNBOUNDED );
+
+	public static final MetricValue TIME_WRITE = new MetricValue(
+			"TIME_WRITE",
+			"Results writing time",
+			MetricValueOptimum.LOWER_IS_BETTER,
+			MetricValueBound.UNBOUNDED );
+
+	public static final MetricValue CPU_TIME = new MetricValue(
+			"CPU_TIME",
+			"CPU time of the threads running the configuration",
+			MetricValueOptimum.LOWER_IS_BETTER,
+			MetricValueBound.UNBOUNDED );
+
+	public static final MetricValue ALLOCATED_BYTES = new MetricValue(
+			"ALLOCATED_BYTES",
+			"Bytes allocated by the threads running the configuration",
+			MetricValueOptimum.LOWER_IS_BETTER,
+			MetricValueBound.UNBOUNDED );
+
+	/*
+	 * Pre-screening proxies. Fast approximations of the detection and
+	 * tracking quality, measured against the ground-truth before the
+	 * performance measures when pre-screening is enabled. These columns are
+	 * always part of the results schema, whether pre-screening is enabled or
+	 * not, so that all the results of a sweep share one header layout. They
+	 * are NaN for configurations that were not pre-screened. Results files
+	 * written before they were added are still read, but new results are
+	 * appended to a new file.
+	 */
+
+	public static final MetricValue PROXY_COUNT_ERROR = new MetricValue(
+			"PROXY_COUNT_ERROR",
+			"Relative error on the number of detections per frame",
+			MetricValueOptimum.LOWER_IS_BETTER,
+			MetricValueBound.UNBOUNDED );
+
+	public static final MetricValue PROXY_DETECTION_F1 = new MetricValue(
+			"PROXY_DETECTION_F1",
+			"Nearest-neighbor detection F1 score",
+			MetricValueOptimum.HIGHER_IS_BETTER,
+			MetricValueBound.ZERO_TO_ONE );
+
+	public static final MetricValue PROXY_TRACK_COUNT_ERROR = new MetricValue(
+			"PROXY_TRACK_COUNT_ERROR",
+			"Relative error on the number of tracks",
+			MetricValueOptimum.LOWER_IS_BETTER,
+			MetricValueBound.UNBOUNDED );
+
+	public static final MetricValue PROXY_TRACK_LENGTH_DISTANCE = new MetricValue(
+			"PROXY_TRACK_LENGTH_DISTANCE",
+			"Kolmogorov-Smirnov distance between track length distributions",
+			MetricValueOptimum.LOWER_IS_BETTER,
+			MetricValueBound.ZERO_TO_ONE );
+
 	private final List< MetricValue > metrics;
 
+	/**
+	 * Number of metrics in results files written before the per-stage
+	 * accounting metrics were added. Files that have at least these metrics
+	 * can be read, the missing metrics are then <code>NaN</code>.
+	 */
+	private final int nLegacyMetrics;
+
+	/**
+	 * Number of performance measures specific to this type, before the
+	 * timing metrics.
+	 */
+	private final int nMeasures;
+
 	private final TObjectIntHashMap< MetricValue > idMap;
 
+	/**
+	 * The measures to compute, or <code>null</code> to compute all of them.
+	 */
+	private volatile Set< MetricValue > selectedMetrics;
+
 	protected TrackingMetricsType( final List< MetricValue > metrics )
 	{
 		final List< MetricValue > ml = new ArrayList<>();
 		ml.addAll( metrics );
+		this.nMeasures = ml.size();
 		ml.add( TIM );
 		ml.add( DETECTION_TIME );
 		ml.add( TRACKING_TIME );
+		this.nLegacyMetrics = ml.size();
+		ml.add( TIME_DETECTOR );
+		ml.add( TIME_SPOT_FEATURES );
+		ml.add( TIME_SPOT_FILTERING );
+		ml.add( TIME_TRACKER );
+		ml.add( TIME_EDGE_FEATURES );
+		ml.add( TIME_TRACK_FEATURES );
+		ml.add( TIME_TRACK_FILTERING );
+		ml.add( TIME_EXPORT );
+		ml.add( TIME_METRICS );
+		ml.add( TIME_WRITE );
+		ml.add( CPU_TIME );
+		ml.add( ALLOCATED_BYTES );
+		// Always present, NaN when pre-screening is disabled.
+		ml.add( PROXY_COUNT_ERROR );
+		ml.add( PROXY_DETECTION_F1 );
+		ml.add( PROXY_TRACK_COUNT_ERROR );
+		ml.add( PROXY_TRACK_LENGTH_DISTANCE );
 		this.metrics = Collections.unmodifiableList( ml );
 		// id map.
 		this.idMap = new TObjectIntHashMap<>( ml.size(), 0.5f, -1 );
@@ -200,6 +353,114 @@ public abstract class TrackingMetricsType
 	 */
 	public abstract MetricValue defaultMetric();
 
+	/**
+	 * Restricts the performance measures computed by the runners of this type
+	 * to the specified ones. Measures that are not selected are not computed
+	 * and written as <code>NaN</code>. The execution time and per-stage
+	 * accounting metrics are always measured.
+	 *
+	 * @param selection
+	 *            the measures to compute. If <code>null</code> or empty, all
+	 *            the measures are computed.
+	 * @throws IllegalArgumentException
+	 *             if a measure is unknown to this type.
+	 */
+	public void setSelectedMetrics( final Collection< MetricValue > selection )
+	{
+		if ( selection == null || selection.isEmpty() )
+		{
+			this.selectedMetrics = null;
+			return;
+		}
+		for ( final MetricValue metric : selection )
+			if ( id( metric ) < 0 )
+				throw new IllegalArgumentException( "Unknown metric for " + name() + ": " + metric );
+		this.selectedMetrics = Collections.unmodifiableSet( new HashSet<>( selection ) );
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified metric must be computed.
+	 *
+	 * @param metric
+	 *            the metric.
+	 * @return whether the metric is selected.
+	 */
+	public boolean isSelected( final MetricValue metric )
+	{
+		final Set< MetricValue > selection = selectedMetrics;
+		return selection == null || selection.contains( metric ) || id( metric ) >= nMeasures;
+	}
+
+	/**
+	 * Returns the measures to compute.
+	 *
+	 * @return the selected measures, or <code>null</code> if all the measures
+	 *         are computed.
+	 */
+	public Set< MetricValue > getSelectedMetrics()
+	{
+		return selectedMetrics;
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified results hold all the
+	 * measures currently selected. Results where no measure was computed, for
+	 * failed or pre-screened configurations, are considered complete: they
+	 * would not be computed again.
+	 *
+	 * @param values
+	 *            the metrics values of a results line.
+	 * @return <code>false</code> if a selected measure is <code>NaN</code>
+	 *         while another measure was computed.
+	 */
+	public boolean hasSelectedMetrics( final TrackingMetrics values )
+	{
+		final double[] arr = values.toArray();
+		boolean measured = false;
+		boolean missing = false;
+		for ( int i = 0; i < nMeasures; i++ )
+		{
+			if ( Double.isNaN( arr[ i ] ) )
+				missing |= isSelected( metrics.get( i ) );
+			else
+				measured = true;
+		}
+		return !( measured && missing );
+	}
+
+	/**
+	 * Returns the metric to optimize: the default metric if it is selected,
+	 * the first selected measure otherwise.
+	 *
+	 * @return the metric to optimize.
+	 */
+	public MetricValue optimizedMetric()
+	{
+		final MetricValue defaultMetric = defaultMetric();
+		if ( isSelected( defaultMetric ) )
+			return defaultMetric;
+		for ( int i = 0; i < nMeasures; i++ )
+			if ( isSelected( metrics.get( i ) ) )
+				return metrics.get( i );
+		return defaultMetric;
+	}
+
+	/**
+	 * Returns the metric of this type with the specified key.
+	 *
+	 * @param key
+	 *            the metric key, case-insensitive.
+	 * @return the metric, or <code>null</code> if this type has no metric
+	 *         with this key.
+	 */
+	public MetricValue metric( final String key )
+	{
+		for ( final MetricValue metric : metrics )
+			if ( metric.key.equalsIgnoreCase( key ) )
+				return metric;
+		return null;
+	}
+
 	/**
 	 * Creates a new {@link MetricsRunner} that can perform performance metrics
 	 * measurement for this type.
@@ -230,11 +491,8 @@ public abstract class TrackingMetricsType
 	public boolean isHeader( final String[] header )
 	{
 		// Order is important.
-		for ( int i = 0; i < metrics.size(); i++ )
-		{
-			if ( !metrics.get( i ).key.equals( header[ i ] ) )
-				return false;
-		}
+		if ( countMetricColumns( header ) < nLegacyMetrics )
+			return false;
 
 		final int detectorCol = Arrays.asList( header ).indexOf( "DETECTOR" );
 		if ( detectorCol < 0 )
@@ -266,11 +524,33 @@ public abstract class TrackingMetricsType
 		return out;
 	}
 
+	/**
+	 * Returns the number of metric columns at the beginning of the specified
+	 * header. This is smaller than the number of metrics of this type for
+	 * files written before some metrics were added.
+	 *
+	 * @param header
+	 *            the header read from the CSV file to inspect.
+	 * @return the number of metric columns.
+	 */
+	public int countMetricColumns( final String[] header )
+	{
+		int n = 0;
+		while ( n < metrics.size() && n < header.length && metrics.get( n ).key.equals( header[ n ] ) )
+			n++;
+		return n;
+	}
+
 	protected TrackingMetrics fromCSVLine( final String[] line )
+	{
+		return fromCSVLine( line, metrics.size() );
+	}
+
+	protected TrackingMetrics fromCSVLine( final String[] line, final int nMetricColumns )
 	{
 		final TrackingMetrics out = new TrackingMetrics( this );
 		// Order is important but is validated with header elsewhere.
-		for ( int i = 0; i < metrics.size(); i++ )
+		for ( int i = 0; i < nMetricColumns; i++ )
 			out.set( i, Double.valueOf( line[ i ] ) );
 
 		return out;
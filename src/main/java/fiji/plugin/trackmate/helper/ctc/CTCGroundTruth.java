@@ -0,0 +1,574 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.ctc;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.scijava.log.Logger;
+
+import fiji.plugin.trackmate.helper.ProxyGroundTruth;
+import gnu.trove.map.hash.TIntIntHashMap;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ImageConverter;
+import net.imglib2.RealPoint;
+import net.imglib2.img.Img;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+/**
+ * The layout and content of a CTC ground-truth folder: the tracking
+ * annotations in the <code>TRA</code> sub-folder, one label image per frame
+ * plus the track table, and the segmentation annotations in the
+ * <code>SEG</code> sub-folder, for some frames or some slices of some frames.
+ * <p>
+ * The ground-truth does not change during a parameter sweep, so it is read
+ * once and kept in memory: the parsed track table and a compact index of
+ * each label image, with the run-length encoded mask of each label. SEG, the
+ * track contributions and the pre-screening proxies read the index directly.
+ * TRA and DET are measured by the CTC measures library, which needs label
+ * images: they are painted from the index once, and kept in memory too. The
+ * memory used by indices and images is capped; when the cap is reached, the
+ * least recently used ones are dropped and built again when needed, from the
+ * index file persisted next to the ground-truth if it was built, from the
+ * TIFF files otherwise. Instances are thread-safe and meant to be shared by
+ * all the runners of a sweep.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class CTCGroundTruth
+{
+
+	private static final Pattern SEG_FILE_PATTERN = Pattern.compile( "man_seg_?(\\d+)(?:_(\\d+))?\\.tif" );
+
+	/**
+	 * Name of the index file, in the ground-truth folder.
+	 */
+	public static final String INDEX_FILE_NAME = "trackmate-gt.index";
+
+	/**
+	 * Default memory cap: a quarter of the maximal heap size.
+	 */
+	public static final long DEFAULT_MEMORY_CAP = Runtime.getRuntime().maxMemory() / 4;
+
+	private final String path;
+
+	private final File traFolder;
+
+	private final int nDigits;
+
+	private final int nTrackingFrames;
+
+	private final List< SegAnnotation > segAnnotations;
+
+	private final long memoryCap;
+
+	/**
+	 * Cached label indices and painted images, and their sizes, in access
+	 * order.
+	 */
+	private final LinkedHashMap< String, Cached > cache = new LinkedHashMap<>( 16, 0.75f, true );
+
+	private long cachedBytes = 0;
+
+	/**
+	 * The persisted index, or <code>null</code> if it was not built.
+	 */
+	private volatile CTCGroundTruthIndex index;
+
+	/**
+	 * Cache of the ground-truth tracks, copied for every measurement.
+	 */
+	private InMemoryTrackDataCache tracks;
+
+	/**
+	 * The proxy ground-truth, and the calibration it was created for.
+	 */
+	private ProxyGroundTruth proxy;
+
+	private double[] proxyCalibration;
+
+	/**
+	 * Inspects the specified CTC ground-truth folder, with the default memory
+	 * cap.
+	 *
+	 * @param path
+	 *            the path to the ground-truth folder.
+	 * @throws FileNotFoundException
+	 *             if the folder does not contain tracking annotations.
+	 */
+	public CTCGroundTruth( final String path ) throws FileNotFoundException
+	{
+		this( path, DEFAULT_MEMORY_CAP );
+	}
+
+	/**
+	 * Inspects the specified CTC ground-truth folder.
+	 *
+	 * @param path
+	 *            the path to the ground-truth folder.
+	 * @param memoryCap
+	 *            the maximal memory, in bytes, used to keep ground-truth
+	 *            images in memory. If 0 or less, images are read every time
+	 *            they are needed.
+	 * @throws FileNotFoundException
+	 *             if the folder does not contain tracking annotations.
+	 */
+	public CTCGroundTruth( final String path, final long memoryCap ) throws FileNotFoundException
+	{
+		this.path = path;
+		this.memoryCap = memoryCap;
+		this.traFolder = new File( path, "TRA" );
+		if ( new File( traFolder, "man_track000.tif" ).exists() )
+			nDigits = 3;
+		else if ( new File( traFolder, "man_track0000.tif" ).exists() )
+			nDigits = 4;
+		else
+			throw new FileNotFoundException( "Could not find tracking annotations in " + traFolder );
+
+		final List< SegAnnotation > annotations = new ArrayList<>();
+		final File[] segFiles = new File( path, "SEG" ).listFiles();
+		if ( segFiles != null )
+		{
+			for ( final File file : segFiles )
+			{
+				final Matcher matcher = SEG_FILE_PATTERN.matcher( file.getName() );
+				if ( !matcher.matches() )
+					continue;
+				final int frame = Integer.parseInt( matcher.group( 1 ) );
+				final int slice = matcher.group( 2 ) == null ? -1 : Integer.parseInt( matcher.group( 2 ) );
+				annotations.add( new SegAnnotation( file, frame, slice ) );
+			}
+		}
+		annotations.sort( ( a1, a2 ) -> Integer.compare( a1.frame, a2.frame ) );
+		this.segAnnotations = Collections.unmodifiableList( annotations );
+
+		int n = 0;
+		while ( getTrackingFile( n ).exists() )
+			n++;
+		this.nTrackingFrames = n;
+	}
+
+	/**
+	 * Returns the path to the ground-truth folder.
+	 *
+	 * @return the path.
+	 */
+	public String getPath()
+	{
+		return path;
+	}
+
+	/**
+	 * Returns the ground-truth track table file.
+	 *
+	 * @return the track table file.
+	 */
+	public File getTrackFile()
+	{
+		return new File( traFolder, "man_track.txt" );
+	}
+
+	/**
+	 * Returns the tracking annotation file of the specified frame.
+	 *
+	 * @param frame
+	 *            the frame.
+	 * @return the file, which might not exist past the last frame.
+	 */
+	public File getTrackingFile( final int frame )
+	{
+		return new File( traFolder, String.format( "man_track%0" + nDigits + "d.tif", frame ) );
+	}
+
+	/**
+	 * Returns the number of digits of the frame numbers in file names, 3 or
+	 * 4.
+	 *
+	 * @return the number of digits.
+	 */
+	public int getNumDigits()
+	{
+		return nDigits;
+	}
+
+	/**
+	 * Returns the number of consecutive frames, starting from 0, that have a
+	 * tracking annotation file.
+	 *
+	 * @return the number of annotated frames.
+	 */
+	public int countTrackingFrames()
+	{
+		return nTrackingFrames;
+	}
+
+	/**
+	 * Returns the tracking annotation label image of the specified frame.
+	 *
+	 * @param frame
+	 *            the frame.
+	 * @return the label image, painted from the index of the image. It is
+	 *         shared by all the callers and must not be modified.
+	 * @throws FileNotFoundException
+	 *             if the image cannot be read.
+	 */
+	public Img< UnsignedShortType > getTrackingImage( final int frame ) throws FileNotFoundException
+	{
+		final String key = "TRAIMG" + frame;
+		@SuppressWarnings( "unchecked" )
+		final Img< UnsignedShortType > cached = ( Img< UnsignedShortType > ) getCached( key );
+		if ( cached != null )
+			return cached;
+
+		final Img< UnsignedShortType > img = getTrackingIndex( frame ).toImg();
+		putCached( key, img, 2l * img.size() );
+		return img;
+	}
+
+	/**
+	 * Returns the index of the labels of the tracking annotation of the
+	 * specified frame.
+	 *
+	 * @param frame
+	 *            the frame.
+	 * @return the label index.
+	 * @throws FileNotFoundException
+	 *             if the image cannot be read.
+	 */
+	LabelIndex getTrackingIndex( final int frame ) throws FileNotFoundException
+	{
+		return getLabelIndex( "TRA" + frame, getTrackingFile( frame ) );
+	}
+
+	/**
+	 * Reads the ground-truth track table: label, first frame, last frame and
+	 * parent label on each line.
+	 *
+	 * @return the track table.
+	 * @throws IOException
+	 *             if the track table cannot be read.
+	 */
+	List< int[] > readTrackTable() throws IOException
+	{
+		final File file = getTrackFile();
+		final List< int[] > table = new ArrayList<>();
+		for ( final String line : Files.readAllLines( file.toPath(), StandardCharsets.US_ASCII ) )
+		{
+			final String trimmed = line.trim();
+			if ( trimmed.isEmpty() )
+				continue;
+			final String[] tokens = trimmed.split( "\\s+" );
+			if ( tokens.length < 4 )
+				throw new IOException( "Malformed line in " + file + ": " + line );
+			final int[] track = new int[ 4 ];
+			try
+			{
+				for ( int i = 0; i < 4; i++ )
+					track[ i ] = Integer.parseInt( tokens[ i ] );
+			}
+			catch ( final NumberFormatException e )
+			{
+				throw new IOException( "Malformed line in " + file + ": " + line );
+			}
+			table.add( track );
+		}
+		return table;
+	}
+
+	/**
+	 * Returns the simplified ground-truth used to pre-screen configurations:
+	 * the centroid of each reference object, and the number of objects in
+	 * each lineage of the track table. The default match distance is the
+	 * mean equivalent radius of the reference objects.
+	 *
+	 * @param calibration
+	 *            the spatial calibration of the image, to express positions
+	 *            in physical units.
+	 * @return the proxy ground-truth.
+	 * @throws IOException
+	 *             if the ground-truth cannot be read.
+	 */
+	public synchronized ProxyGroundTruth getProxyGroundTruth( final double[] calibration ) throws IOException
+	{
+		if ( proxy != null && Arrays.equals( calibration, proxyCalibration ) )
+			return proxy;
+
+		final Map< Integer, List< RealPoint > > detections = new HashMap<>();
+		final TIntIntHashMap nodesPerLabel = new TIntIntHashMap();
+		double sumRadius = 0.;
+		int nObjects = 0;
+		for ( int t = 0; t < nTrackingFrames; t++ )
+		{
+			final LabelIndex index = getTrackingIndex( t );
+			final int n = index.dimensions.length;
+			final long width = index.dimensions[ 0 ];
+			final long height = n > 1 ? index.dimensions[ 1 ] : 1;
+			final List< RealPoint > positions = new ArrayList<>( index.labels.length );
+			for ( int i = 0; i < index.labels.length; i++ )
+			{
+				final double[] sum = new double[ 3 ];
+				for ( int r = index.runOffsets[ i ]; r < index.runOffsets[ i + 1 ]; r++ )
+				{
+					final long start = index.runStarts[ r ];
+					final long length = index.runLengths[ r ];
+					sum[ 0 ] += length * ( start % width ) + length * ( length - 1 ) / 2.;
+					sum[ 1 ] += length * ( ( start / width ) % height );
+					sum[ 2 ] += length * ( start / ( width * height ) );
+				}
+				final int size = index.sizes[ i ];
+				final RealPoint position = new RealPoint( 3 );
+				for ( int d = 0; d < 3; d++ )
+					position.setPosition( sum[ d ] / size * calibration[ d ], d );
+				positions.add( position );
+				nodesPerLabel.adjustOrPutValue( index.labels[ i ], 1, 1 );
+
+				final double volume = size * calibration[ 0 ] * calibration[ 1 ] * ( n > 2 ? calibration[ 2 ] : 1. );
+				sumRadius += ( n > 2 ) ? Math.cbrt( 3. * volume / ( 4. * Math.PI ) ) : Math.sqrt( volume / Math.PI );
+				nObjects++;
+			}
+			detections.put( t, positions );
+		}
+
+		// Number of objects in each lineage.
+		final TIntIntHashMap parents = new TIntIntHashMap();
+		for ( final int[] track : readTrackTable() )
+			parents.put( track[ 0 ], track[ 3 ] );
+		final TIntIntHashMap lineageSizes = new TIntIntHashMap();
+		for ( final int label : nodesPerLabel.keys() )
+		{
+			int root = label;
+			for ( int depth = 0; depth < parents.size() && parents.get( root ) > 0; depth++ )
+				root = parents.get( root );
+			lineageSizes.adjustOrPutValue( root, nodesPerLabel.get( label ), nodesPerLabel.get( label ) );
+		}
+
+		proxy = new ProxyGroundTruth( detections, lineageSizes.values(), nObjects == 0 ? 0. : sumRadius / nObjects );
+		proxyCalibration = calibration.clone();
+		return proxy;
+	}
+
+	/**
+	 * Returns the index of the labels of the specified segmentation
+	 * annotation.
+	 *
+	 * @param annotation
+	 *            the segmentation annotation.
+	 * @return the label index.
+	 * @throws FileNotFoundException
+	 *             if the annotation image cannot be read.
+	 */
+	LabelIndex getSegmentation( final SegAnnotation annotation ) throws FileNotFoundException
+	{
+		return getLabelIndex( "SEG" + annotation.file.getName(), annotation.file );
+	}
+
+	/**
+	 * Opens the index file persisted in the ground-truth folder, or builds it
+	 * if it does not exist or if the ground-truth images changed since it was
+	 * built. Building the index reads all the ground-truth images once.
+	 *
+	 * @throws IOException
+	 *             if an image cannot be read or the index cannot be written,
+	 *             for instance because the ground-truth folder is read-only.
+	 *             Images are then read from the TIFF files when they are not
+	 *             in memory.
+	 */
+	public void loadOrBuildIndex() throws IOException
+	{
+		final Map< String, File > sources = new LinkedHashMap<>();
+		for ( int t = 0; t < nTrackingFrames; t++ )
+			sources.put( "TRA" + t, getTrackingFile( t ) );
+		for ( final SegAnnotation annotation : segAnnotations )
+			sources.put( "SEG" + annotation.file.getName(), annotation.file );
+
+		final File file = new File( path, INDEX_FILE_NAME );
+		CTCGroundTruthIndex opened = CTCGroundTruthIndex.open( file, sources );
+		if ( opened == null )
+		{
+			CTCGroundTruthIndex.write( file, sources, key -> getLabelIndex( key, sources.get( key ) ) );
+			opened = CTCGroundTruthIndex.open( file, sources );
+			if ( opened == null )
+				throw new IOException( "Could not read back the ground-truth index " + file );
+		}
+		this.index = opened;
+	}
+
+	private LabelIndex getLabelIndex( final String key, final File source ) throws FileNotFoundException
+	{
+		final LabelIndex cached = ( LabelIndex ) getCached( key );
+		if ( cached != null )
+			return cached;
+
+		LabelIndex labelIndex = null;
+		final CTCGroundTruthIndex persisted = index;
+		if ( persisted != null )
+		{
+			try
+			{
+				labelIndex = persisted.read( key );
+			}
+			catch ( final IOException e )
+			{
+				// Fall back on the image.
+			}
+		}
+		if ( labelIndex == null )
+			labelIndex = LabelIndex.of( readLabelImage( source ) );
+		putCached( key, labelIndex, labelIndex.sizeInBytes() );
+		return labelIndex;
+	}
+
+	/**
+	 * Creates a new track data cache for the specified results, with the
+	 * ground-truth tracks already loaded. The ground-truth track table is
+	 * parsed only once.
+	 *
+	 * @param log
+	 *            the logger of the CTC measures.
+	 * @param resPath
+	 *            the path to the results.
+	 * @return a new track data cache.
+	 * @throws IOException
+	 *             if the ground-truth track table cannot be read.
+	 */
+	synchronized InMemoryTrackDataCache newTrackDataCache( final Logger log, final String resPath ) throws IOException
+	{
+		if ( tracks == null )
+		{
+			tracks = new InMemoryTrackDataCache( log, path, path );
+			tracks.loadGroundTruthTracks( getTrackFile() );
+		}
+		final InMemoryTrackDataCache cache = new InMemoryTrackDataCache( log, path, resPath );
+		cache.copyGroundTruthTracks( tracks );
+		return cache;
+	}
+
+	private synchronized Object getCached( final String key )
+	{
+		final Cached cached = cache.get( key );
+		return cached == null ? null : cached.value;
+	}
+
+	private synchronized void putCached( final String key, final Object value, final long bytes )
+	{
+		if ( bytes > memoryCap )
+			return;
+
+		final Cached previous = cache.put( key, new Cached( value, bytes ) );
+		if ( previous != null )
+			cachedBytes -= previous.bytes;
+		cachedBytes += bytes;
+
+		// Drop the least recently used entries.
+		final Iterator< Cached > it = cache.values().iterator();
+		while ( cachedBytes > memoryCap && it.hasNext() )
+		{
+			cachedBytes -= it.next().bytes;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Returns the segmentation annotations, sorted by frame.
+	 *
+	 * @return the segmentation annotations.
+	 */
+	public List< SegAnnotation > getSegAnnotations()
+	{
+		return segAnnotations;
+	}
+
+	/**
+	 * Reads a ground-truth label image.
+	 *
+	 * @param file
+	 *            the image file.
+	 * @return the label image.
+	 * @throws FileNotFoundException
+	 *             if the image cannot be opened.
+	 */
+	public static Img< UnsignedShortType > readLabelImage( final File file ) throws FileNotFoundException
+	{
+		final ImagePlus imp = IJ.openImage( file.getAbsolutePath() );
+		if ( imp == null )
+			throw new FileNotFoundException( "Could not open ground-truth image " + file );
+		if ( imp.getBitDepth() != 16 )
+			new ImageConverter( imp ).convertToGray16();
+		return ImageJFunctions.wrapShort( imp );
+	}
+
+	private static final class Cached
+	{
+
+		/**
+		 * A {@link LabelIndex} or a label image.
+		 */
+		private final Object value;
+
+		private final long bytes;
+
+		private Cached( final Object value, final long bytes )
+		{
+			this.value = value;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * A segmentation annotation file, for a whole frame or for a single slice
+	 * of a frame.
+	 */
+	public static final class SegAnnotation
+	{
+
+		public final File file;
+
+		public final int frame;
+
+		/**
+		 * The annotated slice, or -1 if the whole frame is annotated.
+		 */
+		public final int slice;
+
+		private SegAnnotation( final File file, final int frame, final int slice )
+		{
+			this.file = file;
+			this.frame = frame;
+			this.slice = slice;
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.ctc;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link LabelIndex} of each ground-truth image, persisted in one file next
+ * to the ground-truth. The file starts with a directory of its entries, each
+ * with the size and modification time of the image it was built from, so
+ * that a stale index is detected and rebuilt.
+ *
+ * @author Jean-Yves Tinevez
+ */
+class CTCGroundTruthIndex
+{
+
+	/**
+	 * "TMGTIDX2".
+	 */
+	private static final long MAGIC = 0x544d475449445832l;
+
+	/**
+	 * Supplies the index of a ground-truth image.
+	 */
+	interface Source
+	{
+		LabelIndex get( String key ) throws IOException;
+	}
+
+	private final File file;
+
+	/**
+	 * Offset and size of each entry.
+	 */
+	private final Map< String, long[] > entries;
+
+	private CTCGroundTruthIndex( final File file, final Map< String, long[] > entries )
+	{
+		this.file = file;
+		this.entries = entries;
+	}
+
+	/**
+	 * Opens an index file.
+	 *
+	 * @param file
+	 *            the index file.
+	 * @param sources
+	 *            the image each entry must have been built from, by key.
+	 * @return the index, or <code>null</code> if the file does not exist, is
+	 *         not an index file, or if its entries do not match the
+	 *         specified images.
+	 */
+	static CTCGroundTruthIndex open( final File file, final Map< String, File > sources )
+	{
+		if ( !file.isFile() )
+			return null;
+
+		try (final RandomAccessFile raf = new RandomAccessFile( file, "r" ))
+		{
+			if ( raf.readLong() != MAGIC )
+				return null;
+			raf.seek( raf.readLong() );
+			final int n = raf.readInt();
+			if ( n != sources.size() )
+				return null;
+
+			final Map< String, long[] > entries = new HashMap<>( n );
+			for ( int i = 0; i < n; i++ )
+			{
+				final String key = raf.readUTF();
+				final long sourceLength = raf.readLong();
+				final long sourceModified = raf.readLong();
+				final long offset = raf.readLong();
+				final long size = raf.readInt();
+				final File source = sources.get( key );
+				if ( source == null || source.length() != sourceLength || source.lastModified() != sourceModified )
+					return null;
+				entries.put( key, new long[] { offset, size } );
+			}
+			return new CTCGroundTruthIndex( file, entries );
+		}
+		catch ( final IOException e )
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Builds an index file. The file is written to a temporary file first,
+	 * then moved in place.
+	 *
+	 * @param file
+	 *            the index file.
+	 * @param sources
+	 *            the image of each entry, by key.
+	 * @param source
+	 *            supplies the index of each entry.
+	 * @throws IOException
+	 *             if an image cannot be read or the file cannot be written.
+	 */
+	static void write( final File file, final Map< String, File > sources, final Source source ) throws IOException
+	{
+		final File tmp = File.createTempFile( file.getName(), ".tmp", file.getParentFile() );
+		try
+		{
+			final Map< String, long[] > entries = new HashMap<>( sources.size() );
+			long offset = 16;
+			try (final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) ))
+			{
+				out.writeLong( MAGIC );
+				out.writeLong( 0 ); // Directory offset, written last.
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				for ( final String key : sources.keySet() )
+				{
+					bytes.reset();
+					source.get( key ).write( new DataOutputStream( bytes ) );
+					bytes.writeTo( out );
+					entries.put( key, new long[] { offset, bytes.size() } );
+					offset += bytes.size();
+				}
+
+				out.writeInt( sources.size() );
+				for ( final Map.Entry< String, File > entry : sources.entrySet() )
+				{
+					final long[] e = entries.get( entry.getKey() );
+					out.writeUTF( entry.getKey() );
+					out.writeLong( entry.getValue().length() );
+					out.writeLong( entry.getValue().lastModified() );
+					out.writeLong( e[ 0 ] );
+					out.writeInt( ( int ) e[ 1 ] );
+				}
+			}
+			try (final RandomAccessFile raf = new RandomAccessFile( tmp, "rw" ))
+			{
+				raf.seek( 8 );
+				raf.writeLong( offset );
+			}
+			Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		finally
+		{
+			Files.deleteIfExists( tmp.toPath() );
+		}
+	}
+
+	/**
+	 * Reads an entry of this index.
+	 *
+	 * @param key
+	 *            the entry key.
+	 * @return the entry, or <code>null</code> if this index has no entry with
+	 *         this key.
+	 * @throws IOException
+	 *             if the index file cannot be read.
+	 */
+	LabelIndex read( final String key ) throws IOException
+	{
+		final long[] entry = entries.get( key );
+		if ( entry == null )
+			return null;
+
+		final ByteBuffer buffer = ByteBuffer.allocate( ( int ) entry[ 1 ] );
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ))
+		{
+			long position = entry[ 0 ];
+			while ( buffer.hasRemaining() )
+			{
+				final int read = channel.read( buffer, position );
+				if ( read < 0 )
+					throw new IOException( "Truncated ground-truth index: " + file );
+				position += read;
+			}
+		}
+		return LabelIndex.read( new DataInputStream( new ByteArrayInputStream( buffer.array() ) ) );
+	}
+}
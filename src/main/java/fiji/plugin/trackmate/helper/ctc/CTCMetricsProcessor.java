@@ -21,13 +21,25 @@
  */
 package fiji.plugin.trackmate.helper.ctc;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.scijava.Context;
 import org.scijava.log.LogService;
 
 import fiji.plugin.trackmate.helper.TrackingMetrics;
+import fiji.plugin.trackmate.helper.TrackingMetricsType.MetricValue;
+import fiji.plugin.trackmate.helper.ctc.CTCGroundTruth.SegAnnotation;
 import io.scif.img.ImgIOException;
 import net.celltrackingchallenge.measures.BCi;
 import net.celltrackingchallenge.measures.CCA;
@@ -37,6 +49,10 @@ import net.celltrackingchallenge.measures.SEG;
 import net.celltrackingchallenge.measures.TF;
 import net.celltrackingchallenge.measures.TRA;
 import net.celltrackingchallenge.measures.TrackDataCache;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
 
 /**
  * Performs all the CTC metrics measurements from paths to the ground-truth and
@@ -63,12 +79,34 @@ public class CTCMetricsProcessor
 
 	private final CTCTrackingMetricsType type;
 
+	private final LogService logService;
+
+	private int numThreads = 1;
+
+	private ExecutorService executor;
+
 	public CTCMetricsProcessor( final Context context, final int logLevel )
 	{
-		this.type = new CTCTrackingMetricsType();
+		this( context, logLevel, new CTCTrackingMetricsType() );
+	}
+
+	/**
+	 * Creates a processor that only computes the measures selected in the
+	 * specified metrics type.
+	 *
+	 * @param context
+	 *            the SciJava context.
+	 * @param logLevel
+	 *            the log level of the CTC measures.
+	 * @param type
+	 *            the metrics type.
+	 */
+	public CTCMetricsProcessor( final Context context, final int logLevel, final CTCTrackingMetricsType type )
+	{
+		this.type = type;
 
 		// LogService
-		final LogService logService = context.getService( LogService.class );
+		this.logService = context.getService( LogService.class );
 		logService.setLevel( logLevel );
 
 		// Segmentation accuracy.
@@ -90,61 +128,333 @@ public class CTCMetricsProcessor
 		this.cca = new CCA( logService );
 	}
 
-	public TrackingMetrics process( final String groundTruthPath, final String resultsFolder ) throws ImgIOException, IOException
+	/**
+	 * Sets the number of threads used to compute independent measures
+	 * concurrently. SEG and CCA do not depend on the other measures, and are
+	 * computed alongside TRA, DET, CT, TF and BCi. These share a track data
+	 * cache of the CTC measures library, which is not documented as safe for
+	 * concurrent use, so they are always computed one after another in the
+	 * calling thread. If 1 or less, all measures are computed one after
+	 * another in the calling thread.
+	 *
+	 * @param numThreads
+	 *            the number of threads.
+	 */
+	public synchronized void setNumThreads( final int numThreads )
 	{
-		double segValue = Double.NaN;
-		try
-		{
-			segValue = seg.calculate( groundTruthPath, resultsFolder );
-		}
-		catch ( final IllegalArgumentException e )
+		if ( numThreads == this.numThreads )
+			return;
+		shutdown();
+		this.numThreads = numThreads;
+	}
+
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * Stops the threads used to compute measures concurrently. They are
+	 * started again if this processor is used afterwards.
+	 */
+	public synchronized void shutdown()
+	{
+		if ( executor != null )
 		{
-			/*
-			 * Could not find the source to compute SEG metrics. Never-mind,
-			 * return NaN.
-			 */
+			executor.shutdown();
+			executor = null;
 		}
+	}
+
+	public TrackingMetrics process( final String groundTruthPath, final String resultsFolder ) throws ImgIOException, IOException
+	{
+		// Independent of the tracking measures.
+		final Future< Double > segFuture = submit( CTCTrackingMetricsType.SEG, () -> seg.calculate( groundTruthPath, resultsFolder ) );
+		final Future< Double > ccaFuture = submit( CTCTrackingMetricsType.CCA, () -> cca.calculate( groundTruthPath, resultsFolder ) );
 
-		
 		double traValue = Double.NaN;
 		double detValue = Double.NaN;
 		double ctValue = Double.NaN;
 		double tfValue = Double.NaN;
 		double bciValue = Double.NaN;
-		double ccaValue = Double.NaN;
-		try 
+		if ( isTrackDataNeeded() )
 		{
-			traValue = tra.calculate( groundTruthPath, resultsFolder );
-			final TrackDataCache sharedCache = tra.getCache();
-			detValue = det.calculate( groundTruthPath, resultsFolder, sharedCache );
-			ctValue = ct.calculate( groundTruthPath, resultsFolder, sharedCache );
-			tfValue = tf.calculate( groundTruthPath, resultsFolder, sharedCache );
-			bciValue = bci.calculate( groundTruthPath, resultsFolder, sharedCache );
 			try
 			{
-				ccaValue = cca.calculate( groundTruthPath, resultsFolder );
+				// TRA builds the cache used by the other tracking measures.
+				traValue = tra.calculate( groundTruthPath, resultsFolder );
+				final TrackDataCache sharedCache = tra.getCache();
+				final Future< Double > detFuture = compute( CTCTrackingMetricsType.DET, () -> det.calculate( groundTruthPath, resultsFolder, sharedCache ) );
+				final Future< Double > ctFuture = compute( CTCTrackingMetricsType.CT, () -> ct.calculate( groundTruthPath, resultsFolder, sharedCache ) );
+				final Future< Double > tfFuture = compute( CTCTrackingMetricsType.TF, () -> tf.calculate( groundTruthPath, resultsFolder, sharedCache ) );
+				final Future< Double > bciFuture = compute( CTCTrackingMetricsType.BC, () -> bci.calculate( groundTruthPath, resultsFolder, sharedCache ) );
+				detValue = get( detFuture );
+				ctValue = get( ctFuture );
+				tfValue = get( tfFuture );
+				bciValue = get( bciFuture );
 			}
-			catch ( final IllegalArgumentException e )
+			catch ( final FileNotFoundException e )
 			{
-				ccaValue = Double.NaN;
+				/*
+				 * Could not find the source to compute TRA metrics.
+				 * Never-mind, return NaN.
+				 */
 			}
 		}
-		catch ( final FileNotFoundException e )
+
+		/*
+		 * Could not find the source to compute SEG or CCA metrics.
+		 * Never-mind, return NaN.
+		 */
+		final double segValue = get( segFuture );
+		final double ccaValue = get( ccaFuture );
+
+		return toMetrics( segValue, traValue, detValue, ctValue, tfValue, ccaValue, bciValue );
+	}
+
+	/**
+	 * Performs all the selected CTC metrics measurements on results in memory.
+	 * The result label images are painted one frame at a time and compared to
+	 * the ground-truth images without being written to disk. Only the track
+	 * table is written to the specified folder, as the cell-cycle accuracy
+	 * measure reads it from there.
+	 * <p>
+	 * Frames are only painted when a selected measure needs them: all frames
+	 * for the tracking measures, only the annotated ones for SEG.
+	 *
+	 * @param groundTruth
+	 *            the ground-truth.
+	 * @param results
+	 *            the results to measure.
+	 * @param resultsFolder
+	 *            an empty folder where to write the results track table.
+	 * @return the metrics.
+	 * @throws IOException
+	 *             if the ground-truth cannot be read or the track table
+	 *             cannot be written.
+	 */
+	public TrackingMetrics process( final CTCGroundTruth groundTruth, final CTCResults results, final File resultsFolder ) throws IOException
+	{
+		return process( groundTruth, results, resultsFolder, true );
+	}
+
+	/**
+	 * Performs the selected CTC metrics measurements on results in memory,
+	 * possibly skipping the measures that only depend on the spots: SEG and
+	 * DET. They are then <code>NaN</code> and can be taken from a previous
+	 * measurement of results with the same spots.
+	 *
+	 * @param groundTruth
+	 *            the ground-truth.
+	 * @param results
+	 *            the results to measure.
+	 * @param resultsFolder
+	 *            an empty folder where to write the results track table.
+	 * @param measureSpotLevel
+	 *            whether to measure SEG and DET.
+	 * @return the metrics.
+	 * @throws IOException
+	 *             if the ground-truth cannot be read or the track table
+	 *             cannot be written.
+	 * @see CTCResults#spotsFingerprint()
+	 */
+	public TrackingMetrics process( final CTCGroundTruth groundTruth, final CTCResults results, final File resultsFolder, final boolean measureSpotLevel ) throws IOException
+	{
+		final String gtPath = groundTruth.getPath();
+		final String resPath = resultsFolder.getAbsolutePath();
+		final boolean measureDET = measureSpotLevel && type.isSelected( CTCTrackingMetricsType.DET );
+		final boolean measureTracks = measureDET || isLinkingMeasureNeeded();
+		final boolean measureSEG = measureSpotLevel && type.isSelected( CTCTrackingMetricsType.SEG );
+		final File resTrackFile = ( measureTracks || type.isSelected( CTCTrackingMetricsType.CCA ) )
+				? results.writeTrackFile( resultsFolder )
+				: null;
+
+		// CCA only reads the track tables.
+		final Future< Double > ccaFuture = submit( CTCTrackingMetricsType.CCA, () -> cca.calculate( gtPath, resPath ) );
+
+		final InMemoryTrackDataCache cache;
+		if ( measureTracks )
 		{
-			/*
-			 * Could not find the source to compute TRA metrics. Never-mind,
-			 * return NaN.
-			 */
+			cache = groundTruth.newTrackDataCache( logService, resPath );
+			cache.loadResultTracks( resTrackFile );
 		}
+		else
+		{
+			cache = null;
+		}
+
+		// Go through frames once, for tracking and segmentation annotations.
+		final SegmentationAccuracy segmentationAccuracy = new SegmentationAccuracy();
+		final List< SegAnnotation > segAnnotations = groundTruth.getSegAnnotations();
+		int segIndex = 0;
+		final int nFrames = ( measureTracks || measureSEG ) ? groundTruth.countTrackingFrames() : 0;
+		for ( int t = 0; t < nFrames; t++ )
+		{
+			while ( segIndex < segAnnotations.size() && segAnnotations.get( segIndex ).frame < t )
+				segIndex++;
+			final boolean segFrame = measureSEG && segIndex < segAnnotations.size() && segAnnotations.get( segIndex ).frame == t;
+			if ( !measureTracks && !segFrame )
+				continue;
+
+			final Img< UnsignedShortType > gt = groundTruth.getTrackingImage( t );
+			final Img< UnsignedShortType > res = results.labelImage( t, gt );
+			if ( measureTracks )
+				cache.addFrame( gt, res );
+
+			while ( segFrame && segIndex < segAnnotations.size() && segAnnotations.get( segIndex ).frame == t )
+			{
+				final SegAnnotation annotation = segAnnotations.get( segIndex++ );
+				final LabelIndex segGT = groundTruth.getSegmentation( annotation );
+				final RandomAccessibleInterval< UnsignedShortType > segRes = ( annotation.slice < 0 || res.numDimensions() < 3 )
+						? res
+						: Views.hyperSlice( res, 2, annotation.slice );
+				segmentationAccuracy.add( segGT, segRes );
+			}
+		}
+		final double segValue = measureSEG ? segmentationAccuracy.value() : Double.NaN;
+
+		// The measures based on the shared cache run in this thread, in turn.
+		final Future< Double > traFuture = compute( CTCTrackingMetricsType.TRA, () -> tra.calculate( gtPath, resPath, cache ) );
+		final Future< Double > detFuture = measureDET
+				? compute( CTCTrackingMetricsType.DET, () -> det.calculate( gtPath, resPath, cache ) )
+				: CompletableFuture.completedFuture( Double.NaN );
+		final Future< Double > ctFuture = compute( CTCTrackingMetricsType.CT, () -> ct.calculate( gtPath, resPath, cache ) );
+		final Future< Double > tfFuture = compute( CTCTrackingMetricsType.TF, () -> tf.calculate( gtPath, resPath, cache ) );
+		final Future< Double > bciFuture = compute( CTCTrackingMetricsType.BC, () -> bci.calculate( gtPath, resPath, cache ) );
 
+		final double traValue = get( traFuture );
+		final double detValue = get( detFuture );
+		final double ctValue = get( ctFuture );
+		final double tfValue = get( tfFuture );
+		final double bciValue = get( bciFuture );
+		final double ccaValue = get( ccaFuture );
+
+		return toMetrics( segValue, traValue, detValue, ctValue, tfValue, ccaValue, bciValue );
+	}
+
+	/**
+	 * Returns <code>true</code> if a selected measure needs the track data
+	 * cache.
+	 */
+	private boolean isTrackDataNeeded()
+	{
+		return type.isSelected( CTCTrackingMetricsType.DET ) || isLinkingMeasureNeeded();
+	}
+
+	/**
+	 * Returns <code>true</code> if a selected measure depends on how spots
+	 * are linked and needs the track data cache.
+	 */
+	private boolean isLinkingMeasureNeeded()
+	{
+		return type.isSelected( CTCTrackingMetricsType.TRA )
+				|| type.isSelected( CTCTrackingMetricsType.CT )
+				|| type.isSelected( CTCTrackingMetricsType.TF )
+				|| type.isSelected( CTCTrackingMetricsType.BC );
+	}
+
+	/**
+	 * Starts computing a measure if it is selected. Measures that are not
+	 * selected are <code>NaN</code>.
+	 */
+	private Future< Double > submit( final MetricValue metric, final Callable< Double > measure )
+	{
+		if ( !type.isSelected( metric ) )
+			return CompletableFuture.completedFuture( Double.NaN );
+		return submit( measure );
+	}
+
+	/**
+	 * Computes a measure in the calling thread if it is selected. Measures
+	 * that are not selected are <code>NaN</code>.
+	 */
+	private Future< Double > compute( final MetricValue metric, final Callable< Double > measure )
+	{
+		if ( !type.isSelected( metric ) )
+			return CompletableFuture.completedFuture( Double.NaN );
+
+		final FutureTask< Double > task = new FutureTask<>( measure );
+		task.run();
+		return task;
+	}
+
+	/**
+	 * Starts computing a measure on the executor, or computes it right away
+	 * if measures are not computed concurrently.
+	 */
+	private Future< Double > submit( final Callable< Double > measure )
+	{
+		final ExecutorService service = getExecutor();
+		if ( service != null )
+			return service.submit( measure );
+
+		final FutureTask< Double > task = new FutureTask<>( measure );
+		task.run();
+		return task;
+	}
+
+	/**
+	 * Waits for a measure. Returns NaN if the measure cannot find its source
+	 * files or is not defined for the data.
+	 */
+	private static double get( final Future< Double > future ) throws IOException
+	{
+		try
+		{
+			return future.get().doubleValue();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			return Double.NaN;
+		}
+		catch ( final ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof FileNotFoundException || cause instanceof IllegalArgumentException )
+				return Double.NaN;
+			if ( cause instanceof IOException )
+				throw ( IOException ) cause;
+			if ( cause instanceof RuntimeException )
+				throw ( RuntimeException ) cause;
+			if ( cause instanceof Error )
+				throw ( Error ) cause;
+			throw new IOException( cause );
+		}
+	}
+
+	private synchronized ExecutorService getExecutor()
+	{
+		if ( numThreads <= 1 )
+			return null;
+		if ( executor == null )
+		{
+			final AtomicInteger count = new AtomicInteger();
+			executor = Executors.newFixedThreadPool( numThreads, r -> {
+				final Thread thread = new Thread( r, "CTC-measures-" + count.incrementAndGet() );
+				thread.setDaemon( true );
+				return thread;
+			} );
+		}
+		return executor;
+	}
+
+	private TrackingMetrics toMetrics( final double segValue, final double traValue, final double detValue,
+			final double ctValue, final double tfValue, final double ccaValue, final double bciValue )
+	{
 		final TrackingMetrics out = new TrackingMetrics( type );
-		out.set( CTCTrackingMetricsType.SEG, segValue );
-		out.set( CTCTrackingMetricsType.TRA, traValue );
-		out.set( CTCTrackingMetricsType.DET, detValue );
-		out.set( CTCTrackingMetricsType.CT, ctValue );
-		out.set( CTCTrackingMetricsType.TF, tfValue );
-		out.set( CTCTrackingMetricsType.CCA, ccaValue );
-		out.set( CTCTrackingMetricsType.BC, bciValue );
+		set( out, CTCTrackingMetricsType.SEG, segValue );
+		set( out, CTCTrackingMetricsType.TRA, traValue );
+		set( out, CTCTrackingMetricsType.DET, detValue );
+		set( out, CTCTrackingMetricsType.CT, ctValue );
+		set( out, CTCTrackingMetricsType.TF, tfValue );
+		set( out, CTCTrackingMetricsType.CCA, ccaValue );
+		set( out, CTCTrackingMetricsType.BC, bciValue );
 		return out;
 	}
+
+	private void set( final TrackingMetrics metrics, final MetricValue metric, final double value )
+	{
+		metrics.set( metric, type.isSelected( metric ) ? value : Double.NaN );
+	}
 }
@@ -21,21 +21,37 @@
  */
 package fiji.plugin.trackmate.helper.ctc;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.scijava.Context;
 
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.TrackModel;
 import fiji.plugin.trackmate.action.CTCExporter;
 import fiji.plugin.trackmate.action.CTCExporter.ExportType;
+import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.helper.DetectionCache;
 import fiji.plugin.trackmate.helper.MetricsRunner;
+import fiji.plugin.trackmate.helper.ProxyGroundTruth;
+import fiji.plugin.trackmate.helper.StageTimings;
+import fiji.plugin.trackmate.helper.StageTimings.Lap;
+import fiji.plugin.trackmate.helper.StageTimings.Stage;
 import fiji.plugin.trackmate.helper.TrackingMetrics;
+import fiji.plugin.trackmate.helper.TrackingMetricsType.MetricValue;
+import fiji.plugin.trackmate.util.TMUtils;
 
 /**
  * Performs tracking and all the CTC metrics measurements with a TrackMate
@@ -56,47 +72,538 @@ public class CTCMetricsRunner extends MetricsRunner
 	 */
 	private final String gtPath;
 
+	/**
+	 * Prefix of the name of the scratch folders of runners.
+	 */
+	public static final String SCRATCH_FOLDER_PREFIX = "trackmate-ctc-";
+
+	/**
+	 * ID of the dataset exported by the TrackMate CTC exporter in the scratch
+	 * folder.
+	 */
+	private static final int SCRATCH_DATASET_ID = 1;
+
+	/**
+	 * Folder in which scratch folders are created, <code>null</code> for the
+	 * system temporary folder.
+	 */
+	private Path scratchRoot;
+
+	/**
+	 * The scratch folder owned by this runner, where CTC files are written
+	 * and overwritten for each configuration. Created on first use.
+	 */
+	private Path scratchFolder;
+
+	/**
+	 * Name of the system property that makes CTC runners export results to
+	 * CTC files on disk by default, for debugging.
+	 */
+	public static final String EXPORT_TO_DISK_PROPERTY = "trackmate.helper.ctc.exportToDisk";
+
+	/**
+	 * Whether to export results to CTC files on disk before measuring them.
+	 */
+	private boolean exportToDisk = Boolean.getBoolean( EXPORT_TO_DISK_PROPERTY );
+
+	private int exportThreads = 1;
+
+	private boolean nioExport = false;
+
+	/**
+	 * Writer used to export results to CTC files, created on first use.
+	 */
+	private CTCResultsWriter writer;
+
+	/**
+	 * The metrics type, that holds the ground-truth shared by all runners.
+	 */
+	private final CTCTrackingMetricsType type;
+
+	/**
+	 * The measures obtained from track contributions.
+	 */
+	private static final MetricValue[] DECOMPOSED_METRICS = new MetricValue[] {
+			CTCTrackingMetricsType.TRA,
+			CTCTrackingMetricsType.DET,
+			CTCTrackingMetricsType.CT,
+			CTCTrackingMetricsType.TF };
+
+	/**
+	 * Max absolute difference between the measures obtained from track
+	 * contributions and the full measures, for the contributions to be used.
+	 */
+	private static final double DECOMPOSITION_TOLERANCE = 1e-9;
+
+	/**
+	 * Whether to measure track filter variants from track contributions.
+	 */
+	private boolean trackFilterDecomposition = false;
+
+	/**
+	 * Key and model of the tracking result the track contributions were
+	 * computed for, and the contributions, <code>null</code> if they could not
+	 * be used for this tracking result.
+	 */
+	private String contributionsKey;
+
+	private WeakReference< Model > contributionsModel;
+
+	private TrackContributions contributions;
+
+	/**
+	 * Whether the contributions were checked against the full measures of a
+	 * strict subset of the tracks.
+	 */
+	private boolean contributionsValidated;
+
 	public CTCMetricsRunner( final String gtPath, final String saveFolder, final Context context )
 	{
-		super( Paths.get( saveFolder ), new CTCTrackingMetricsType() );
+		this( gtPath, saveFolder, context, new CTCTrackingMetricsType() );
+	}
+
+	/**
+	 * Creates a runner that reuses the ground-truth cached by the specified
+	 * metrics type, so that all the runners of a sweep share it.
+	 *
+	 * @param gtPath
+	 *            the path to the CTC ground-truth folder.
+	 * @param saveFolder
+	 *            the folder to save results in.
+	 * @param context
+	 *            the SciJava context.
+	 * @param type
+	 *            the metrics type.
+	 */
+	public CTCMetricsRunner( final String gtPath, final String saveFolder, final Context context, final CTCTrackingMetricsType type )
+	{
+		super( Paths.get( saveFolder ), type );
+		this.type = type;
 		this.gtPath = gtPath;
 		final int logLevel = 0; // silence CTC logging.
-		this.ctc = new CTCMetricsProcessor( context, logLevel );
+		this.ctc = new CTCMetricsProcessor( context, logLevel, type );
+	}
+
+	/**
+	 * Sets whether results are exported to CTC files on disk before being
+	 * measured, as the CTC tools expect them. By default, results are
+	 * measured in memory, which avoids writing, reading and deleting label
+	 * images for every configuration. The disk export is meant for debugging,
+	 * and can also be enabled with the system property
+	 * {@value #EXPORT_TO_DISK_PROPERTY}.
+	 *
+	 * @param exportToDisk
+	 *            whether to export results to disk.
+	 */
+	public void setExportToDisk( final boolean exportToDisk )
+	{
+		this.exportToDisk = exportToDisk;
+	}
+
+	/**
+	 * Sets whether the track filter variants of a tracking result are
+	 * measured from the contributions of each track to TRA, DET, CT and TF.
+	 * The contributions are computed with the first variant measured. The
+	 * variants are then measured fully, and compared to the measures the
+	 * contributions give, until a variant that hides some tracks gives the
+	 * same measures. Only then are the next variants measured from the
+	 * contributions. If a comparison fails, the contributions are discarded
+	 * for this tracking result. Only applies when SEG, CCA and BC are not
+	 * selected, as they cannot be decomposed per track.
+	 *
+	 * @param trackFilterDecomposition
+	 *            whether to measure track filter variants from track
+	 *            contributions.
+	 */
+	public synchronized void setTrackFilterDecomposition( final boolean trackFilterDecomposition )
+	{
+		this.trackFilterDecomposition = trackFilterDecomposition;
+		contributionsKey = null;
+		contributionsModel = null;
+		contributions = null;
+		contributionsValidated = false;
+	}
+
+	/**
+	 * Sets the folder in which this runner creates its scratch folder, where
+	 * CTC files are written and overwritten for each configuration, for
+	 * instance on a fast local disk. The scratch folder is unique to this
+	 * runner, and deleted when it is closed.
+	 *
+	 * @param scratchRoot
+	 *            the folder in which to create the scratch folder, or
+	 *            <code>null</code> to use the system temporary folder.
+	 */
+	public synchronized void setScratchRoot( final Path scratchRoot )
+	{
+		this.scratchRoot = scratchRoot;
+		deleteScratchFolder();
+	}
+
+	/**
+	 * Sets the number of threads used to compute the independent CTC
+	 * measures of one configuration concurrently.
+	 *
+	 * @param measureThreads
+	 *            the number of threads. If 1 or less, measures are computed
+	 *            one after another.
+	 * @see CTCMetricsProcessor#setNumThreads(int)
+	 */
+	public void setMeasureThreads( final int measureThreads )
+	{
+		ctc.setNumThreads( measureThreads );
+	}
+
+	/**
+	 * Configures how results are exported to CTC files on disk, when they are
+	 * not measured in memory.
+	 *
+	 * @param exportThreads
+	 *            the number of threads used to paint and write frames.
+	 * @param nioExport
+	 *            whether to write uncompressed pre-sized TIFF files through
+	 *            NIO channels instead of using ImageJ.
+	 * @see #setExportToDisk(boolean)
+	 */
+	public synchronized void setExportOptions( final int exportThreads, final boolean nioExport )
+	{
+		this.exportThreads = exportThreads;
+		this.nioExport = nioExport;
+		if ( writer != null )
+		{
+			writer.shutdown();
+			writer = null;
+		}
+	}
+
+	@Override
+	public synchronized void close()
+	{
+		super.close();
+		ctc.shutdown();
+		if ( writer != null )
+			writer.shutdown();
+		deleteScratchFolder();
+	}
+
+	/**
+	 * Returns the scratch folder of this runner, creating it if needed.
+	 */
+	private synchronized File getScratchFolder() throws IOException
+	{
+		if ( scratchFolder == null || !Files.isDirectory( scratchFolder ) )
+		{
+			if ( scratchRoot == null )
+			{
+				scratchFolder = Files.createTempDirectory( SCRATCH_FOLDER_PREFIX );
+			}
+			else
+			{
+				Files.createDirectories( scratchRoot );
+				scratchFolder = Files.createTempDirectory( scratchRoot, SCRATCH_FOLDER_PREFIX );
+			}
+		}
+		return scratchFolder.toFile();
+	}
+
+	private synchronized void deleteScratchFolder()
+	{
+		if ( scratchFolder == null )
+			return;
+		try
+		{
+			if ( Files.exists( scratchFolder ) )
+				deleteFolder( scratchFolder.toString() );
+		}
+		catch ( final RuntimeException e )
+		{
+			batchLogger.error( "Failed to delete CTC scratch folder: " + scratchFolder + "\n"
+					+ "Please delete it manually later.\n" );
+		}
+		scratchFolder = null;
+	}
+
+	private synchronized CTCResultsWriter getWriter()
+	{
+		if ( writer == null )
+			writer = new CTCResultsWriter( exportThreads, nioExport );
+		return writer;
 	}
 
 	@Override
 	public TrackingMetrics performMetricsMeasurements( final TrackMate trackmate ) throws MetricsComputationErrorException
 	{
-		batchLogger.log( "Exporting test results to CTC format.\n" );
-		final int id = CTCExporter.getAvailableDatasetID( resultsRootPath.toString() );
-		final String resultsFolder = CTCExporter.getExportTrackingDataPath( resultsRootPath.toString(), id, ExportType.RESULTS, trackmate );
+		return performMetricsMeasurements( trackmate, new StageTimings() );
+	}
+
+	@Override
+	protected TrackingMetrics performMetricsMeasurements( final TrackMate trackmate, final StageTimings timings ) throws MetricsComputationErrorException
+	{
+		if ( !exportToDisk )
+		{
+			try
+			{
+				return performInMemoryMeasurements( trackmate, timings );
+			}
+			catch ( final IllegalArgumentException e )
+			{
+				batchLogger.log( e.getMessage() + " Exporting to disk instead.\n" );
+			}
+		}
+		return performDiskMeasurements( trackmate, timings );
+	}
+
+	/**
+	 * Measures the CTC metrics on results built in memory.
+	 */
+	private TrackingMetrics performInMemoryMeasurements( final TrackMate trackmate, final StageTimings timings ) throws MetricsComputationErrorException
+	{
+		if ( isDecomposable() )
+		{
+			final Lap metricsLap = StageTimings.start();
+			final TrackingMetrics metrics = decomposedMeasurements( trackmate );
+			if ( metrics != null )
+			{
+				batchLogger.log( "Measured CTC metrics from track contributions.\n" );
+				timings.stop( Stage.METRICS, metricsLap );
+				return metrics;
+			}
+		}
+
+		batchLogger.log( "Converting test results to CTC format.\n" );
 		try
 		{
-			// Export to CTC files.
-			CTCExporter.exportTrackingData( resultsRootPath.toString(), id, ExportType.RESULTS, trackmate, trackmateLogger );
+			final Lap exportLap = StageTimings.start();
+			final CTCResults results = CTCResults.fromTrackMate( trackmate );
+			// The track table is overwritten in the scratch folder.
+			final File resultsFolder = getScratchFolder();
+			timings.stop( Stage.EXPORT, exportLap );
+
+			/*
+			 * SEG and DET only depend on the spots: reuse them across the
+			 * tracker and track filter variants that keep the same spots.
+			 * Where spots overlap, masks also depend on the tracks, so the
+			 * measurements of such spots are not reused.
+			 */
+			final String spotLevelKey = spotLevelKey( trackmate.getSettings(), results );
+			final double[] spotLevel = type.getSpotLevelMeasurements( spotLevelKey );
 
-			// Perform CTC measurements.
 			batchLogger.log( "Performing CTC metrics measurements.\n" );
-			final TrackingMetrics metrics = ctc.process( gtPath, resultsFolder );
+			final Lap metricsLap = StageTimings.start();
+			final TrackingMetrics metrics = ctc.process( getGroundTruth(), results, resultsFolder, spotLevel == null );
+			if ( spotLevel == null )
+			{
+				if ( !results.hasPaintedOverlaps() )
+					type.putSpotLevelMeasurements( spotLevelKey,
+							metrics.get( CTCTrackingMetricsType.SEG ),
+							metrics.get( CTCTrackingMetricsType.DET ) );
+			}
+			else
+			{
+				metrics.set( CTCTrackingMetricsType.SEG, spotLevel[ 0 ] );
+				metrics.set( CTCTrackingMetricsType.DET, spotLevel[ 1 ] );
+			}
+			if ( isDecomposable() )
+				updateContributions( trackmate, metrics );
+			timings.stop( Stage.METRICS, metricsLap );
 			return metrics;
 		}
-		catch ( final IOException | IllegalArgumentException e )
+		catch ( final IOException e )
 		{
-			batchLogger.error( "Could not export tracking data to CTC files:\n" + e.getMessage() + '\n' );
+			batchLogger.error( "Could not measure CTC metrics:\n" + e.getMessage() + '\n' );
 			throw new MetricsComputationErrorException();
 		}
-		finally
+	}
+
+	/**
+	 * Returns the key of the spot-level measurements: the detection and spot
+	 * filter state, and the spots exported to CTC, which are the spots of the
+	 * visible tracks.
+	 */
+	private String spotLevelKey( final Settings settings, final CTCResults results )
+	{
+		final StringBuilder str = new StringBuilder();
+		str.append( gtPath );
+		str.append( ';' + DetectionCache.key( settings ) );
+		str.append( ";SPOT_FILTERS=" );
+		for ( final FeatureFilter filter : settings.getSpotFilters() )
+			str.append( filter.feature + ( filter.isAbove ? ">" : "<" ) + filter.value + "," );
+		str.append( ";SPOTS=" + results.spotsFingerprint() );
+		return str.toString();
+	}
+
+	/**
+	 * Returns <code>true</code> if the selected measures can be obtained from
+	 * track contributions.
+	 */
+	private boolean isDecomposable()
+	{
+		return trackFilterDecomposition
+				&& !type.isSelected( CTCTrackingMetricsType.SEG )
+				&& !type.isSelected( CTCTrackingMetricsType.CCA )
+				&& !type.isSelected( CTCTrackingMetricsType.BC );
+	}
+
+	/**
+	 * Returns the metrics of the visible tracks from the track contributions
+	 * of the tracking result, or <code>null</code> if they are not available
+	 * or not validated yet for it.
+	 */
+	private synchronized TrackingMetrics decomposedMeasurements( final TrackMate trackmate )
+	{
+		if ( contributions == null
+				|| !contributionsValidated
+				|| contributionsModel.get() != trackmate.getModel()
+				|| !contributionsKey.equals( trackingKey( trackmate ) ) )
+			return null;
+		return toMetrics( contributions.score( trackmate.getModel().getTrackModel().trackIDs( true ) ) );
+	}
+
+	/**
+	 * Computes the track contributions of a new tracking result, and checks
+	 * them against the full measures of the current variant. They are
+	 * discarded if they do not give the full measures, and validated if they
+	 * do and the variant hides some tracks.
+	 */
+	private synchronized void updateContributions( final TrackMate trackmate, final TrackingMetrics metrics ) throws IOException
+	{
+		final String key = trackingKey( trackmate );
+		if ( contributionsModel == null
+				|| contributionsModel.get() != trackmate.getModel()
+				|| !key.equals( contributionsKey ) )
+		{
+			contributionsKey = key;
+			contributionsModel = new WeakReference<>( trackmate.getModel() );
+			contributionsValidated = false;
+			try
+			{
+				contributions = TrackContributions.compute( getGroundTruth(), CTCResults.fromTrackMate( trackmate, false ) );
+			}
+			catch ( final IllegalArgumentException e )
+			{
+				contributions = null;
+				return;
+			}
+			if ( contributions == null )
+			{
+				batchLogger.log( "Spots of different tracks overlap, track filter variants are measured fully.\n" );
+				return;
+			}
+		}
+		if ( contributions == null || contributionsValidated )
+			return;
+
+		final TrackModel trackModel = trackmate.getModel().getTrackModel();
+		final Set< Integer > visible = trackModel.trackIDs( true );
+		final TrackingMetrics decomposed = toMetrics( contributions.score( visible ) );
+		for ( final MetricValue metric : DECOMPOSED_METRICS )
+		{
+			final double expected = metrics.get( metric );
+			final double actual = decomposed.get( metric );
+			if ( Double.isNaN( expected ) && Double.isNaN( actual ) )
+				continue;
+			if ( !( Math.abs( expected - actual ) <= DECOMPOSITION_TOLERANCE ) )
+			{
+				batchLogger.log( String.format( "Track contributions give %s = %.6f instead of %.6f, "
+						+ "track filter variants are measured fully.\n", metric.key, actual, expected ) );
+				contributions = null;
+				return;
+			}
+		}
+
+		// Agreement on all the tracks says nothing about how they are split.
+		if ( visible.size() < trackModel.nTracks( false ) )
+			contributionsValidated = true;
+	}
+
+	private TrackingMetrics toMetrics( final double[] scores )
+	{
+		final TrackingMetrics out = new TrackingMetrics( type );
+		for ( int i = 0; i < DECOMPOSED_METRICS.length; i++ )
 		{
+			final MetricValue metric = DECOMPOSED_METRICS[ i ];
+			out.set( metric, type.isSelected( metric ) ? scores[ i ] : Double.NaN );
+		}
+		return out;
+	}
+
+	/**
+	 * Returns the key of a tracking result, before track filtering: the
+	 * detection and spot filter state, the tracker and its settings, and the
+	 * number of spots and links.
+	 */
+	private static String trackingKey( final TrackMate trackmate )
+	{
+		final Settings settings = trackmate.getSettings();
+		final Model model = trackmate.getModel();
+		final StringBuilder str = new StringBuilder();
+		str.append( DetectionCache.key( settings ) );
+		str.append( ";SPOT_FILTERS=" );
+		for ( final FeatureFilter filter : settings.getSpotFilters() )
+			str.append( filter.feature + ( filter.isAbove ? ">" : "<" ) + filter.value + "," );
+		str.append( ";TRACKER=" + ( settings.trackerFactory == null ? "" : settings.trackerFactory.getKey() ) );
+		final Map< String, String > sorted = new TreeMap<>();
+		if ( settings.trackerSettings != null )
+			for ( final String key : settings.trackerSettings.keySet() )
+				sorted.put( key, String.valueOf( settings.trackerSettings.get( key ) ) );
+		str.append( ";SETTINGS=" + sorted.toString() );
+		str.append( ";SPOTS=" + model.getSpots().getNSpots( false ) );
+		str.append( ";LINKS=" + model.getTrackModel().edgeSet().size() );
+		return str.toString();
+	}
+
+	@Override
+	protected ProxyGroundTruth createProxyGroundTruth( final TrackMate trackmate ) throws IOException
+	{
+		return getGroundTruth().getProxyGroundTruth( TMUtils.getSpatialCalibration( trackmate.getSettings().imp ) );
+	}
+
+	private CTCGroundTruth getGroundTruth() throws IOException
+	{
+		return type.groundTruth( gtPath );
+	}
+
+	/**
+	 * Exports results to CTC files and measures the CTC metrics on them. The
+	 * files of the previous configuration are overwritten in the scratch
+	 * folder: there are as many label images as ground-truth frames.
+	 */
+	private TrackingMetrics performDiskMeasurements( final TrackMate trackmate, final StageTimings timings ) throws MetricsComputationErrorException
+	{
+		batchLogger.log( "Exporting test results to CTC format.\n" );
+		String resultsFolder = null;
+		try
+		{
+			// Export to CTC files.
+			final Lap exportLap = StageTimings.start();
 			try
 			{
-				// Delete CTC export folder.
-				deleteFolder( resultsFolder );
+				final CTCResults results = CTCResults.fromTrackMate( trackmate );
+				final CTCGroundTruth groundTruth = getGroundTruth();
+				resultsFolder = getScratchFolder().getAbsolutePath();
+				getWriter().write( results, groundTruth.getTrackingImage( 0 ), groundTruth.countTrackingFrames(),
+						groundTruth.getNumDigits(), new File( resultsFolder ) );
 			}
-			catch ( final RuntimeException e )
+			catch ( final IllegalArgumentException e )
 			{
-				batchLogger.error( "Failed to delete CTC export folder: " + resultsFolder + "\n"
-						+ "Please delete it manually later.\n" );
+				// Too many labels for our writer, use the TrackMate exporter.
+				final String scratch = getScratchFolder().getAbsolutePath();
+				resultsFolder = CTCExporter.getExportTrackingDataPath( scratch, SCRATCH_DATASET_ID, ExportType.RESULTS, trackmate );
+				CTCExporter.exportTrackingData( scratch, SCRATCH_DATASET_ID, ExportType.RESULTS, trackmate, trackmateLogger );
 			}
+			timings.stop( Stage.EXPORT, exportLap );
+
+			// Perform CTC measurements.
+			batchLogger.log( "Performing CTC metrics measurements.\n" );
+			final Lap metricsLap = StageTimings.start();
+			final TrackingMetrics metrics = ctc.process( gtPath, resultsFolder );
+			timings.stop( Stage.METRICS, metricsLap );
+			return metrics;
+		}
+		catch ( final IOException | IllegalArgumentException e )
+		{
+			batchLogger.error( "Could not export tracking data to CTC files:\n" + e.getMessage() + '\n' );
+			throw new MetricsComputationErrorException();
 		}
 	}
 
@@ -0,0 +1,366 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.ctc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.graph.TimeDirectedNeighborIndex;
+import fiji.plugin.trackmate.util.TMUtils;
+import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Tracking results in the CTC format, built in memory from a TrackMate model.
+ * <p>
+ * Tracks are split into branches: a branch is a linear chain of spots in
+ * consecutive frames between two divisions. As in the TrackMate CTC exporter,
+ * a gap-closing link starts a new branch, whose parent is the branch before
+ * the gap. Each branch receives a label, and is described by a line of
+ * the CTC track table: its label, its first and last frame, and the label of
+ * its parent branch (0 if none). The label images of each frame are painted on
+ * demand, one frame at a time, so that the results of a whole movie never need
+ * to be stored on disk or in memory. Only the spots of visible tracks are
+ * exported. In each frame, spots are painted track by track, in the order the
+ * track model returns track IDs, as before the SEG and DET reuse: where spots
+ * overlap, the last track painted wins.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class CTCResults
+{
+
+	/**
+	 * Name of the track table file in a CTC results folder.
+	 */
+	public static final String TRACK_FILE_NAME = "res_track.txt";
+
+	/**
+	 * Spots per frame, with their branch label.
+	 */
+	private final Map< Integer, List< Spot > > spotsPerFrame;
+
+	private final Map< Spot, Integer > labels;
+
+	/**
+	 * Lines of the track table: label, begin, end, parent.
+	 */
+	private final List< int[] > tracks;
+
+	/**
+	 * The TrackMate track ID of each branch, by label - 1.
+	 */
+	private final int[] trackIDs;
+
+	private final double[] calibration;
+
+	private volatile boolean paintedOverlaps = false;
+
+	private CTCResults( final Map< Integer, List< Spot > > spotsPerFrame, final Map< Spot, Integer > labels, final List< int[] > tracks, final int[] trackIDs, final double[] calibration )
+	{
+		this.spotsPerFrame = spotsPerFrame;
+		this.labels = labels;
+		this.tracks = tracks;
+		this.trackIDs = trackIDs;
+		this.calibration = calibration;
+	}
+
+	/**
+	 * Builds the CTC results of the specified TrackMate instance.
+	 *
+	 * @param trackmate
+	 *            the TrackMate instance, with tracks.
+	 * @return new CTC results.
+	 * @throws IllegalArgumentException
+	 *             if there are more branches than what fits in a 16-bit label
+	 *             image.
+	 */
+	public static CTCResults fromTrackMate( final TrackMate trackmate )
+	{
+		return fromTrackMate( trackmate, true );
+	}
+
+	/**
+	 * Builds the CTC results of the specified TrackMate instance, with the
+	 * spots of all tracks or of visible tracks only.
+	 *
+	 * @param trackmate
+	 *            the TrackMate instance, with tracks.
+	 * @param visibleOnly
+	 *            whether to only export the spots of visible tracks.
+	 * @return new CTC results.
+	 * @throws IllegalArgumentException
+	 *             if there are more branches than what fits in a 16-bit label
+	 *             image.
+	 */
+	public static CTCResults fromTrackMate( final TrackMate trackmate, final boolean visibleOnly )
+	{
+		final Model model = trackmate.getModel();
+		final TrackModel trackModel = model.getTrackModel();
+		final TimeDirectedNeighborIndex neighbors = trackModel.getDirectedNeighborIndex();
+
+		// All the spots of visible tracks, sorted by frame, then by track.
+		final List< Spot > spots = new ArrayList<>();
+		for ( final Integer trackID : trackModel.trackIDs( visibleOnly ) )
+			spots.addAll( trackModel.trackSpots( trackID ) );
+		spots.sort( Comparator.comparingInt( s -> s.getFeature( Spot.FRAME ).intValue() ) );
+
+		final Map< Spot, Integer > labels = new HashMap<>( spots.size() );
+		final Map< Integer, int[] > branches = new HashMap<>();
+		final List< int[] > tracks = new ArrayList<>();
+		final List< Integer > trackIDs = new ArrayList<>();
+		final Map< Integer, List< Spot > > spotsPerFrame = new HashMap<>();
+		for ( final Spot spot : spots )
+		{
+			final int frame = spot.getFeature( Spot.FRAME ).intValue();
+			spotsPerFrame.computeIfAbsent( frame, f -> new ArrayList<>() ).add( spot );
+
+			/*
+			 * Continue the branch of the predecessor if it is a linear chain
+			 * without gap.
+			 */
+			final Set< Spot > predecessors = neighbors.predecessorsOf( spot );
+			if ( predecessors.size() == 1 )
+			{
+				final Spot predecessor = predecessors.iterator().next();
+				final Integer predecessorLabel = labels.get( predecessor );
+				if ( predecessorLabel != null
+						&& neighbors.successorsOf( predecessor ).size() == 1
+						&& predecessor.getFeature( Spot.FRAME ).intValue() == frame - 1 )
+				{
+					labels.put( spot, predecessorLabel );
+					branches.get( predecessorLabel )[ 2 ] = frame;
+					continue;
+				}
+			}
+
+			// New branch, after a division, a merge or a gap.
+			final int label = tracks.size() + 1;
+			if ( label > 0xffff )
+				throw new IllegalArgumentException( "Too many tracks branches for 16-bit CTC label images." );
+
+			int parent = 0;
+			if ( predecessors.size() == 1 )
+			{
+				final Integer predecessorLabel = labels.get( predecessors.iterator().next() );
+				if ( predecessorLabel != null )
+					parent = predecessorLabel;
+			}
+			final int[] branch = new int[] { label, frame, frame, parent };
+			tracks.add( branch );
+			trackIDs.add( trackModel.trackIDOf( spot ) );
+			branches.put( label, branch );
+			labels.put( spot, label );
+		}
+
+		final double[] calibration = TMUtils.getSpatialCalibration( trackmate.getSettings().imp );
+		final int[] branchTrackIDs = new int[ trackIDs.size() ];
+		for ( int i = 0; i < branchTrackIDs.length; i++ )
+			branchTrackIDs[ i ] = trackIDs.get( i );
+		return new CTCResults( spotsPerFrame, labels, Collections.unmodifiableList( tracks ), branchTrackIDs, calibration );
+	}
+
+	/**
+	 * Returns the ID of the TrackMate track a branch belongs to.
+	 *
+	 * @param label
+	 *            the branch label.
+	 * @return the track ID.
+	 */
+	public int getTrackID( final int label )
+	{
+		return trackIDs[ label - 1 ];
+	}
+
+	/**
+	 * Returns the lines of the CTC track table: label, first frame, last frame
+	 * and parent label.
+	 *
+	 * @return the track table.
+	 */
+	public List< int[] > getTracks()
+	{
+		return tracks;
+	}
+
+	/**
+	 * Returns a fingerprint of the spots painted in the label images. It
+	 * depends on the frame, position and radius of the spots, but not on the
+	 * labels nor on the order in which spots are painted. Two results with
+	 * the same fingerprint and spots from the same detection have the same
+	 * masks, whatever their tracks, unless spots overlap.
+	 *
+	 * @return the fingerprint.
+	 * @see #hasPaintedOverlaps()
+	 */
+	public String spotsFingerprint()
+	{
+		// Commutative combination of the hashes of each spot.
+		long sum = 0l;
+		long xor = 0l;
+		int n = 0;
+		for ( final Integer frame : spotsPerFrame.keySet() )
+		{
+			for ( final Spot spot : spotsPerFrame.get( frame ) )
+			{
+				final long[] values = new long[] {
+						frame.longValue(),
+						Double.doubleToLongBits( spot.getDoublePosition( 0 ) ),
+						Double.doubleToLongBits( spot.getDoublePosition( 1 ) ),
+						Double.doubleToLongBits( spot.getDoublePosition( 2 ) ),
+						Double.doubleToLongBits( spot.getFeature( Spot.RADIUS ).doubleValue() ) };
+				long h1 = 1125899906842597l;
+				long h2 = 7l;
+				for ( final long v : values )
+				{
+					h1 = 31 * h1 + ( v ^ ( v >>> 32 ) );
+					h2 = ( h2 ^ v ) * 0x100000001b3l;
+				}
+				sum += h1;
+				xor ^= h2;
+				n++;
+			}
+		}
+		return n + ":" + Long.toHexString( sum ) + ":" + Long.toHexString( xor );
+	}
+
+	/**
+	 * Returns <code>true</code> if spots of different branches overlapped in
+	 * a frame painted so far. The masks of the frames painted then depend on
+	 * the order in which spots are painted, and therefore on the tracks.
+	 * Whether spots overlap does not depend on this order.
+	 *
+	 * @return whether overlapping spots were painted.
+	 */
+	public boolean hasPaintedOverlaps()
+	{
+		return paintedOverlaps;
+	}
+
+	/**
+	 * Writes the CTC track table to the specified folder.
+	 *
+	 * @param folder
+	 *            the folder.
+	 * @return the track table file.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public File writeTrackFile( final File folder ) throws IOException
+	{
+		final File file = new File( folder, TRACK_FILE_NAME );
+		try (Writer writer = Files.newBufferedWriter( file.toPath(), StandardCharsets.US_ASCII ))
+		{
+			for ( final int[] track : tracks )
+				writer.write( track[ 0 ] + " " + track[ 1 ] + " " + track[ 2 ] + " " + track[ 3 ] + "\n" );
+		}
+		return file;
+	}
+
+	/**
+	 * Paints the label image of the specified frame.
+	 *
+	 * @param frame
+	 *            the frame.
+	 * @param dimensions
+	 *            the dimensions of the label image, 2D or 3D, typically the
+	 *            ones of the ground-truth images.
+	 * @return a new label image.
+	 */
+	public Img< UnsignedShortType > labelImage( final int frame, final Dimensions dimensions )
+	{
+		final Img< UnsignedShortType > img = ArrayImgs.unsignedShorts( Intervals.dimensionsAsLongArray( dimensions ) );
+		paint( frame, img );
+		return img;
+	}
+
+	/**
+	 * Paints the labels of the specified frame in an existing image. Pixels
+	 * that do not belong to a spot are left untouched, so the image is
+	 * typically cleared beforehand.
+	 *
+	 * @param frame
+	 *            the frame.
+	 * @param img
+	 *            the image to paint into, 2D or 3D, with an origin at 0.
+	 * @return the number of pixels painted over a pixel of another spot.
+	 */
+	public int paint( final int frame, final RandomAccessibleInterval< UnsignedShortType > img )
+	{
+		final List< Spot > spots = spotsPerFrame.get( frame );
+		if ( spots == null )
+			return 0;
+
+		final RandomAccess< UnsignedShortType > ra = img.randomAccess();
+		final long[] position = new long[ img.numDimensions() ];
+		int overlaps = 0;
+		for ( final Spot spot : spots )
+		{
+			final int label = labels.get( spot );
+			final Cursor< UnsignedShortType > cursor = spot.iterable( Views.extendZero( img ), calibration ).localizingCursor();
+			while ( cursor.hasNext() )
+			{
+				cursor.fwd();
+				cursor.localize( position );
+				if ( !isInside( position, img ) )
+					continue;
+				ra.setPosition( position );
+				final UnsignedShortType pixel = ra.get();
+				if ( pixel.get() != 0 && pixel.get() != label )
+					overlaps++;
+				pixel.set( label );
+			}
+		}
+		if ( overlaps > 0 )
+			paintedOverlaps = true;
+		return overlaps;
+	}
+
+	private static boolean isInside( final long[] position, final Dimensions dimensions )
+	{
+		for ( int d = 0; d < position.length; d++ )
+			if ( position[ d ] < 0 || position[ d ] >= dimensions.dimension( d ) )
+				return false;
+		return true;
+	}
+}
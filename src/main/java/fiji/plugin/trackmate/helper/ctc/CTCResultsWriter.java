@@ -0,0 +1,312 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.ctc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileSaver;
+import ij.process.ShortProcessor;
+import net.imglib2.Dimensions;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Intervals;
+
+/**
+ * Writes CTC results to a CTC results folder: the track table and one label
+ * TIFF per frame. Frames are painted and written in parallel on a bounded
+ * pool, each thread painting in a buffer it reuses from one frame to the
+ * next.
+ * <p>
+ * Label images are written with ImageJ by default. They can also be written
+ * as uncompressed TIFF files, sized before they are written and filled
+ * through NIO channels.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class CTCResultsWriter
+{
+
+	/**
+	 * Size of an IFD of the TIFF files we write: entry count, 9 entries and
+	 * next IFD offset.
+	 */
+	private static final int IFD_SIZE = 2 + 9 * 12 + 4;
+
+	private final int numThreads;
+
+	private final boolean useNIO;
+
+	private ExecutorService executor;
+
+	/**
+	 * Paint buffer of each writing thread.
+	 */
+	private final ThreadLocal< PlanarImg< UnsignedShortType, ShortArray > > paintBuffers = new ThreadLocal<>();
+
+	/**
+	 * Write buffer of each writing thread, used with NIO.
+	 */
+	private final ThreadLocal< ByteBuffer > writeBuffers = new ThreadLocal<>();
+
+	/**
+	 * Creates a new writer.
+	 *
+	 * @param numThreads
+	 *            the number of threads used to paint and write frames.
+	 * @param useNIO
+	 *            if <code>true</code>, label images are written as
+	 *            uncompressed pre-sized TIFF files through NIO channels.
+	 *            Otherwise they are written with ImageJ.
+	 */
+	public CTCResultsWriter( final int numThreads, final boolean useNIO )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+		this.useNIO = useNIO;
+	}
+
+	/**
+	 * Writes the specified results to a folder.
+	 *
+	 * @param results
+	 *            the results.
+	 * @param dimensions
+	 *            the dimensions of the label images, 2D or 3D, typically the
+	 *            ones of the ground-truth images.
+	 * @param nFrames
+	 *            the number of frames to write.
+	 * @param nDigits
+	 *            the number of digits of the frame numbers in file names.
+	 * @param folder
+	 *            the folder to write to. Must exist.
+	 * @throws IOException
+	 *             if a file cannot be written.
+	 */
+	public void write( final CTCResults results, final Dimensions dimensions, final int nFrames, final int nDigits, final File folder ) throws IOException
+	{
+		results.writeTrackFile( folder );
+
+		final long[] dims = Intervals.dimensionsAsLongArray( dimensions );
+		final ExecutorService service = getExecutor();
+		final List< Future< ? > > futures = new ArrayList<>( nFrames );
+		for ( int t = 0; t < nFrames; t++ )
+		{
+			final int frame = t;
+			final File file = new File( folder, String.format( "mask%0" + nDigits + "d.tif", frame ) );
+			futures.add( service.submit( () -> {
+				writeFrame( results, frame, dims, file );
+				return null;
+			} ) );
+		}
+
+		IOException error = null;
+		for ( final Future< ? > future : futures )
+		{
+			try
+			{
+				future.get();
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				for ( final Future< ? > f : futures )
+					f.cancel( true );
+				throw new IOException( "Interrupted while writing CTC results.", e );
+			}
+			catch ( final ExecutionException e )
+			{
+				if ( error == null )
+					error = ( e.getCause() instanceof IOException )
+							? ( IOException ) e.getCause()
+							: new IOException( e.getCause() );
+			}
+		}
+		if ( error != null )
+			throw error;
+	}
+
+	/**
+	 * Stops the writing threads. They are started again if this writer is
+	 * used afterwards.
+	 */
+	public synchronized void shutdown()
+	{
+		if ( executor != null )
+		{
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	private void writeFrame( final CTCResults results, final int frame, final long[] dims, final File file ) throws IOException
+	{
+		final PlanarImg< UnsignedShortType, ShortArray > img = getPaintBuffer( dims );
+		for ( int z = 0; z < img.numSlices(); z++ )
+			Arrays.fill( img.getPlane( z ).getCurrentStorageArray(), ( short ) 0 );
+		results.paint( frame, img );
+
+		if ( useNIO )
+			writeTIFF( img, file );
+		else
+			writeImageJ( img, file );
+	}
+
+	private static void writeImageJ( final PlanarImg< UnsignedShortType, ShortArray > img, final File file ) throws IOException
+	{
+		final int width = ( int ) img.dimension( 0 );
+		final int height = ( int ) img.dimension( 1 );
+		final ImageStack stack = new ImageStack( width, height );
+		for ( int z = 0; z < img.numSlices(); z++ )
+			stack.addSlice( "", new ShortProcessor( width, height, img.getPlane( z ).getCurrentStorageArray(), null ) );
+		final ImagePlus imp = new ImagePlus( file.getName(), stack );
+		if ( !new FileSaver( imp ).saveAsTiff( file.getAbsolutePath() ) )
+			throw new IOException( "Could not write " + file );
+	}
+
+	/**
+	 * Writes an uncompressed 16-bit TIFF file, one IFD followed by its pixels
+	 * per plane, little-endian. The file is sized before the planes are
+	 * written at their offsets.
+	 */
+	private void writeTIFF( final PlanarImg< UnsignedShortType, ShortArray > img, final File file ) throws IOException
+	{
+		final int width = ( int ) img.dimension( 0 );
+		final int height = ( int ) img.dimension( 1 );
+		final int nPlanes = img.numSlices();
+		final int planeBytes = 2 * width * height;
+		final long pageSize = IFD_SIZE + planeBytes;
+		final long fileSize = 8 + nPlanes * pageSize;
+
+		try (final FileChannel channel = FileChannel.open( file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE ))
+		{
+			// Size the file.
+			channel.write( ByteBuffer.allocate( 1 ), fileSize - 1 );
+
+			final ByteBuffer header = ByteBuffer.allocate( 8 ).order( ByteOrder.LITTLE_ENDIAN );
+			header.put( ( byte ) 'I' ).put( ( byte ) 'I' ).putShort( ( short ) 42 ).putInt( 8 );
+			header.flip();
+			writeFully( channel, header, 0 );
+
+			final ByteBuffer buffer = getWriteBuffer( ( int ) pageSize );
+			for ( int z = 0; z < nPlanes; z++ )
+			{
+				final long ifdOffset = 8 + z * pageSize;
+				final long dataOffset = ifdOffset + IFD_SIZE;
+				final long nextIFD = ( z < nPlanes - 1 ) ? ifdOffset + pageSize : 0;
+
+				buffer.clear();
+				buffer.putShort( ( short ) 9 );
+				putEntry( buffer, 256, 4, width ); // ImageWidth
+				putEntry( buffer, 257, 4, height ); // ImageLength
+				putEntry( buffer, 258, 3, 16 ); // BitsPerSample
+				putEntry( buffer, 259, 3, 1 ); // Compression: none
+				putEntry( buffer, 262, 3, 1 ); // Photometric: black is zero
+				putEntry( buffer, 273, 4, dataOffset ); // StripOffsets
+				putEntry( buffer, 277, 3, 1 ); // SamplesPerPixel
+				putEntry( buffer, 278, 4, height ); // RowsPerStrip
+				putEntry( buffer, 279, 4, planeBytes ); // StripByteCounts
+				buffer.putInt( ( int ) nextIFD );
+				buffer.asShortBuffer().put( img.getPlane( z ).getCurrentStorageArray() );
+				buffer.position( buffer.position() + planeBytes );
+				buffer.flip();
+				writeFully( channel, buffer, ifdOffset );
+			}
+		}
+	}
+
+	private static void putEntry( final ByteBuffer buffer, final int tag, final int type, final long value )
+	{
+		buffer.putShort( ( short ) tag );
+		buffer.putShort( ( short ) type );
+		buffer.putInt( 1 );
+		if ( type == 3 )
+		{
+			// SHORT values are left-justified in the value field.
+			buffer.putShort( ( short ) value );
+			buffer.putShort( ( short ) 0 );
+		}
+		else
+		{
+			buffer.putInt( ( int ) value );
+		}
+	}
+
+	private static void writeFully( final FileChannel channel, final ByteBuffer buffer, final long position ) throws IOException
+	{
+		long pos = position;
+		while ( buffer.hasRemaining() )
+			pos += channel.write( buffer, pos );
+	}
+
+	private PlanarImg< UnsignedShortType, ShortArray > getPaintBuffer( final long[] dims )
+	{
+		PlanarImg< UnsignedShortType, ShortArray > img = paintBuffers.get();
+		if ( img == null || !Arrays.equals( Intervals.dimensionsAsLongArray( img ), dims ) )
+		{
+			img = PlanarImgs.unsignedShorts( dims );
+			paintBuffers.set( img );
+		}
+		return img;
+	}
+
+	private ByteBuffer getWriteBuffer( final int size )
+	{
+		ByteBuffer buffer = writeBuffers.get();
+		if ( buffer == null || buffer.capacity() < size )
+		{
+			buffer = ByteBuffer.allocateDirect( size ).order( ByteOrder.LITTLE_ENDIAN );
+			writeBuffers.set( buffer );
+		}
+		return buffer;
+	}
+
+	private synchronized ExecutorService getExecutor()
+	{
+		if ( executor == null )
+		{
+			final AtomicInteger count = new AtomicInteger();
+			executor = Executors.newFixedThreadPool( numThreads, r -> {
+				final Thread thread = new Thread( r, "CTC-export-" + count.incrementAndGet() );
+				thread.setDaemon( true );
+				return thread;
+			} );
+		}
+		return executor;
+	}
+}
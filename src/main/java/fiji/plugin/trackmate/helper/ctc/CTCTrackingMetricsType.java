@@ -21,8 +21,14 @@
  */
 package fiji.plugin.trackmate.helper.ctc;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import fiji.plugin.trackmate.helper.MetricsRunner;
 import fiji.plugin.trackmate.helper.TrackingMetricsType;
@@ -64,15 +70,198 @@ public class CTCTrackingMetricsType extends TrackingMetricsType
 			+ "The CTC metrics are derived from an ISBI Grand Challenge published here:"
 			+ "</html>";
 
+	/**
+	 * The ground-truth folders read so far, shared by the runners of this
+	 * type.
+	 */
+	private final Map< String, CTCGroundTruth > groundTruths = new HashMap<>();
+
+	private long groundTruthMemoryCap = CTCGroundTruth.DEFAULT_MEMORY_CAP;
+
+	private int measureThreads = 1;
+
+	private boolean useGroundTruthIndex = true;
+
+	private int exportThreads = 1;
+
+	private boolean nioExport = false;
+
+	private boolean trackFilterDecomposition = false;
+
+	private Path scratchRoot;
+
+	/**
+	 * Max number of spot-level measurements kept in memory.
+	 */
+	private static final int MAX_SPOT_LEVEL_MEASUREMENTS = 4096;
+
+	/**
+	 * SEG and DET values, measured for a detection and spot filter state and
+	 * a set of exported spots, in access order.
+	 */
+	private final Map< String, double[] > spotLevelMeasurements = new LinkedHashMap< String, double[] >( 16, 0.75f, true )
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry< String, double[] > eldest )
+		{
+			return size() > MAX_SPOT_LEVEL_MEASUREMENTS;
+		}
+	};
+
 	public CTCTrackingMetricsType()
 	{
 		super( KEYS );
 	}
 
+	/**
+	 * Sets the maximal memory, in bytes, used to keep ground-truth images in
+	 * memory across the configurations of a sweep. Applies to the
+	 * ground-truth folders read after this call.
+	 *
+	 * @param groundTruthMemoryCap
+	 *            the memory cap in bytes. If 0 or less, ground-truth images
+	 *            are read every time they are needed.
+	 */
+	public void setGroundTruthMemoryCap( final long groundTruthMemoryCap )
+	{
+		this.groundTruthMemoryCap = groundTruthMemoryCap;
+	}
+
+	/**
+	 * Sets whether the compact ground-truth index is loaded from, or built
+	 * and persisted in, the ground-truth folder. Applies to the ground-truth
+	 * folders read after this call.
+	 *
+	 * @param useGroundTruthIndex
+	 *            whether to use a persisted ground-truth index.
+	 * @see CTCGroundTruth#loadOrBuildIndex()
+	 */
+	public void setGroundTruthIndex( final boolean useGroundTruthIndex )
+	{
+		this.useGroundTruthIndex = useGroundTruthIndex;
+	}
+
+	/**
+	 * Sets the number of threads each runner of this type uses to compute the
+	 * independent CTC measures of one configuration concurrently.
+	 *
+	 * @param measureThreads
+	 *            the number of threads. If 1 or less, measures are computed
+	 *            one after another.
+	 * @see CTCMetricsProcessor#setNumThreads(int)
+	 */
+	public void setMeasureThreads( final int measureThreads )
+	{
+		this.measureThreads = measureThreads;
+	}
+
+	/**
+	 * Configures how the runners of this type export results to CTC files,
+	 * when they do so.
+	 *
+	 * @param exportThreads
+	 *            the number of threads used to paint and write frames.
+	 * @param nioExport
+	 *            whether to write uncompressed pre-sized TIFF files through
+	 *            NIO channels instead of using ImageJ.
+	 * @see CTCMetricsRunner#setExportOptions(int, boolean)
+	 */
+	public void setExportOptions( final int exportThreads, final boolean nioExport )
+	{
+		this.exportThreads = exportThreads;
+		this.nioExport = nioExport;
+	}
+
+	/**
+	 * Sets whether the runners of this type measure the track filter variants
+	 * of a tracking result from the contributions of each track.
+	 *
+	 * @param trackFilterDecomposition
+	 *            whether to measure track filter variants from track
+	 *            contributions.
+	 * @see CTCMetricsRunner#setTrackFilterDecomposition(boolean)
+	 */
+	public void setTrackFilterDecomposition( final boolean trackFilterDecomposition )
+	{
+		this.trackFilterDecomposition = trackFilterDecomposition;
+	}
+
+	/**
+	 * Sets the folder in which the runners of this type create their scratch
+	 * folder, for instance on a fast local disk.
+	 *
+	 * @param scratchRoot
+	 *            the folder, or <code>null</code> to use the system temporary
+	 *            folder.
+	 * @see CTCMetricsRunner#setScratchRoot(Path)
+	 */
+	public void setScratchRoot( final Path scratchRoot )
+	{
+		this.scratchRoot = scratchRoot;
+	}
+
+	/**
+	 * Returns the ground-truth stored in the specified folder, read on first
+	 * use and then shared by all the runners of this type.
+	 *
+	 * @param gtPath
+	 *            the path to the CTC ground-truth folder.
+	 * @return the ground-truth.
+	 * @throws FileNotFoundException
+	 *             if the folder does not contain tracking annotations.
+	 */
+	public synchronized CTCGroundTruth groundTruth( final String gtPath ) throws FileNotFoundException
+	{
+		CTCGroundTruth groundTruth = groundTruths.get( gtPath );
+		if ( groundTruth == null )
+		{
+			groundTruth = new CTCGroundTruth( gtPath, groundTruthMemoryCap );
+			if ( useGroundTruthIndex )
+			{
+				try
+				{
+					groundTruth.loadOrBuildIndex();
+				}
+				catch ( final IOException e )
+				{
+					// Not fatal, images are read from TIFF files instead.
+				}
+			}
+			groundTruths.put( gtPath, groundTruth );
+		}
+		return groundTruth;
+	}
+
+	/**
+	 * Returns the SEG and DET values previously measured for the specified
+	 * spot-level key.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the SEG and DET values, or <code>null</code> if they were not
+	 *         measured yet.
+	 */
+	synchronized double[] getSpotLevelMeasurements( final String key )
+	{
+		return spotLevelMeasurements.get( key );
+	}
+
+	synchronized void putSpotLevelMeasurements( final String key, final double seg, final double det )
+	{
+		spotLevelMeasurements.put( key, new double[] { seg, det } );
+	}
+
 	@Override
 	public MetricsRunner runner( final String gtPath, final String saveFolder )
 	{
-		return new CTCMetricsRunner( gtPath, saveFolder, TMUtils.getContext() );
+		final CTCMetricsRunner runner = new CTCMetricsRunner( gtPath, saveFolder, TMUtils.getContext(), this );
+		runner.setMeasureThreads( measureThreads );
+		runner.setExportOptions( exportThreads, nioExport );
+		runner.setTrackFilterDecomposition( trackFilterDecomposition );
+		runner.setScratchRoot( scratchRoot );
+		return runner;
 	}
 
 	@Override
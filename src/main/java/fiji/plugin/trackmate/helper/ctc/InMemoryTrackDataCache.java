@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.ctc;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.scijava.log.Logger;
+
+import net.celltrackingchallenge.measures.TrackDataCache;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+/**
+ * A {@link TrackDataCache} filled with label images in memory instead of
+ * being computed from the files of a results folder.
+ * <p>
+ * The CTC measures that accept a cache use it when it is valid for their
+ * ground-truth and results paths. This cache declares itself valid for the
+ * paths it is created with, so that the measures never read the results label
+ * images from disk.
+ *
+ * @author Jean-Yves Tinevez
+ */
+class InMemoryTrackDataCache extends TrackDataCache
+{
+
+	private final String gtPath;
+
+	private final String resPath;
+
+	public InMemoryTrackDataCache( final Logger log, final String gtPath, final String resPath )
+	{
+		super( log );
+		this.gtPath = gtPath;
+		this.resPath = resPath;
+	}
+
+	/**
+	 * Loads the ground-truth track table.
+	 *
+	 * @param gtTrackFile
+	 *            the ground-truth track table file.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public void loadGroundTruthTracks( final File gtTrackFile ) throws IOException
+	{
+		LoadTrackFile( gtTrackFile.getAbsolutePath(), gt_tracks );
+	}
+
+	/**
+	 * Uses the ground-truth tracks already loaded in another cache. The CTC
+	 * measures only read them.
+	 *
+	 * @param other
+	 *            the cache to copy the ground-truth tracks from.
+	 */
+	public void copyGroundTruthTracks( final InMemoryTrackDataCache other )
+	{
+		gt_tracks.putAll( other.gt_tracks );
+	}
+
+	/**
+	 * Loads the result track table.
+	 *
+	 * @param resTrackFile
+	 *            the result track table file.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public void loadResultTracks( final File resTrackFile ) throws IOException
+	{
+		LoadTrackFile( resTrackFile.getAbsolutePath(), res_tracks );
+	}
+
+	/**
+	 * Matches the labels of the ground-truth and result images of the next
+	 * frame. Frames must be added in order, starting from 0.
+	 *
+	 * @param gt
+	 *            the ground-truth label image.
+	 * @param res
+	 *            the result label image.
+	 */
+	public void addFrame( final IterableInterval< UnsignedShortType > gt, final RandomAccessibleInterval< UnsignedShortType > res )
+	{
+		ClassifyLabels( gt, res );
+	}
+
+	@Override
+	public boolean validFor( final String _gtPath, final String _resPath )
+	{
+		return gtPath.equals( _gtPath ) && resPath.equals( _resPath );
+	}
+}
@@ -0,0 +1,227 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.ctc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * A compact index of a label image: the mask of each label, run-length
+ * encoded along X. Runs are given as indices in the flat iteration order of
+ * the image. The background is not stored, so sparse label images take a
+ * fraction of the memory of the full image.
+ *
+ * @author Jean-Yves Tinevez
+ */
+class LabelIndex
+{
+
+	/**
+	 * The dimensions of the label image.
+	 */
+	final long[] dimensions;
+
+	/**
+	 * The labels, sorted.
+	 */
+	final int[] labels;
+
+	/**
+	 * Index of the first run of each label, plus the total number of runs.
+	 */
+	final int[] runOffsets;
+
+	/**
+	 * The flat index of the first voxel of each run.
+	 */
+	final int[] runStarts;
+
+	/**
+	 * The length of each run.
+	 */
+	final int[] runLengths;
+
+	/**
+	 * The number of voxels of each label.
+	 */
+	final int[] sizes;
+
+	private LabelIndex( final long[] dimensions, final int[] labels, final int[] runOffsets, final int[] runStarts, final int[] runLengths )
+	{
+		this.dimensions = dimensions;
+		this.labels = labels;
+		this.runOffsets = runOffsets;
+		this.runStarts = runStarts;
+		this.runLengths = runLengths;
+		this.sizes = new int[ labels.length ];
+		for ( int i = 0; i < labels.length; i++ )
+			for ( int r = runOffsets[ i ]; r < runOffsets[ i + 1 ]; r++ )
+				sizes[ i ] += runLengths[ r ];
+	}
+
+	/**
+	 * Indexes the specified label image.
+	 *
+	 * @param img
+	 *            the label image.
+	 * @return a new instance.
+	 */
+	static LabelIndex of( final RandomAccessibleInterval< UnsignedShortType > img )
+	{
+		final long[] dimensions = Intervals.dimensionsAsLongArray( img );
+		final long width = dimensions[ 0 ];
+
+		// Runs, two ints per run.
+		final TIntObjectHashMap< TIntArrayList > runs = new TIntObjectHashMap<>();
+
+		final Cursor< UnsignedShortType > cursor = Views.flatIterable( img ).cursor();
+		int index = 0;
+		int runLabel = 0;
+		int runStart = 0;
+		while ( cursor.hasNext() )
+		{
+			final int label = cursor.next().get();
+			if ( label != runLabel || index % width == 0 )
+			{
+				if ( runLabel > 0 )
+					addRun( runs, runLabel, runStart, index - runStart );
+				runLabel = label;
+				runStart = index;
+			}
+			index++;
+		}
+		if ( runLabel > 0 )
+			addRun( runs, runLabel, runStart, index - runStart );
+
+		final int[] labels = runs.keys();
+		Arrays.sort( labels );
+		final int[] runOffsets = new int[ labels.length + 1 ];
+		for ( int i = 0; i < labels.length; i++ )
+			runOffsets[ i + 1 ] = runOffsets[ i ] + runs.get( labels[ i ] ).size() / 2;
+		final int nRuns = runOffsets[ labels.length ];
+		final int[] runStarts = new int[ nRuns ];
+		final int[] runLengths = new int[ nRuns ];
+		for ( int i = 0; i < labels.length; i++ )
+		{
+			final TIntArrayList list = runs.get( labels[ i ] );
+			for ( int r = 0; r < list.size() / 2; r++ )
+			{
+				runStarts[ runOffsets[ i ] + r ] = list.getQuick( 2 * r );
+				runLengths[ runOffsets[ i ] + r ] = list.getQuick( 2 * r + 1 );
+			}
+		}
+		return new LabelIndex( dimensions, labels, runOffsets, runStarts, runLengths );
+	}
+
+	private static void addRun( final TIntObjectHashMap< TIntArrayList > runs, final int label, final int start, final int length )
+	{
+		TIntArrayList list = runs.get( label );
+		if ( list == null )
+		{
+			list = new TIntArrayList();
+			runs.put( label, list );
+		}
+		list.add( start );
+		list.add( length );
+	}
+
+	/**
+	 * Paints the labels in a new image.
+	 *
+	 * @return a new label image.
+	 */
+	Img< UnsignedShortType > toImg()
+	{
+		final short[] pixels = new short[ ( int ) Intervals.numElements( dimensions ) ];
+		for ( int i = 0; i < labels.length; i++ )
+		{
+			final short label = ( short ) labels[ i ];
+			for ( int r = runOffsets[ i ]; r < runOffsets[ i + 1 ]; r++ )
+				Arrays.fill( pixels, runStarts[ r ], runStarts[ r ] + runLengths[ r ], label );
+		}
+		return ArrayImgs.unsignedShorts( pixels, dimensions );
+	}
+
+	/**
+	 * Returns an estimate of the memory used by this instance, in bytes.
+	 *
+	 * @return the size in bytes.
+	 */
+	long sizeInBytes()
+	{
+		return 128 + 8L * labels.length + 8L * runStarts.length;
+	}
+
+	void write( final DataOutput out ) throws IOException
+	{
+		out.writeInt( dimensions.length );
+		for ( final long d : dimensions )
+			out.writeLong( d );
+		out.writeInt( labels.length );
+		for ( int i = 0; i < labels.length; i++ )
+		{
+			out.writeShort( labels[ i ] );
+			out.writeInt( runOffsets[ i + 1 ] - runOffsets[ i ] );
+			for ( int r = runOffsets[ i ]; r < runOffsets[ i + 1 ]; r++ )
+			{
+				out.writeInt( runStarts[ r ] );
+				out.writeInt( runLengths[ r ] );
+			}
+		}
+	}
+
+	static LabelIndex read( final DataInput in ) throws IOException
+	{
+		final long[] dimensions = new long[ in.readInt() ];
+		for ( int d = 0; d < dimensions.length; d++ )
+			dimensions[ d ] = in.readLong();
+		final int nLabels = in.readInt();
+		final int[] labels = new int[ nLabels ];
+		final int[] runOffsets = new int[ nLabels + 1 ];
+		final TIntArrayList starts = new TIntArrayList();
+		final TIntArrayList lengths = new TIntArrayList();
+		for ( int i = 0; i < nLabels; i++ )
+		{
+			labels[ i ] = in.readUnsignedShort();
+			final int nRuns = in.readInt();
+			for ( int r = 0; r < nRuns; r++ )
+			{
+				starts.add( in.readInt() );
+				lengths.add( in.readInt() );
+			}
+			runOffsets[ i + 1 ] = runOffsets[ i ] + nRuns;
+		}
+		return new LabelIndex( dimensions, labels, runOffsets, starts.toArray(), lengths.toArray() );
+	}
+}
@@ -0,0 +1,128 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.ctc;
+
+import java.util.Arrays;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Computes the CTC segmentation accuracy (SEG) from label images in memory.
+ * <p>
+ * A reference object R is matched with the segmented object S if they overlap
+ * on more than half of the pixels of R. The SEG value is the mean of the
+ * Jaccard index |R &cap; S| / |R &cup; S| over all the reference objects, with
+ * 0 for the reference objects that are not matched.
+ *
+ * @author Jean-Yves Tinevez
+ */
+class SegmentationAccuracy
+{
+
+	private double sumJaccard = 0.;
+
+	private int nObjects = 0;
+
+	/**
+	 * Size of each result label, per image.
+	 */
+	private final int[] resSizes = new int[ 0x10000 ];
+
+	/**
+	 * Overlap of each result label with one reference object. All zeros
+	 * between two reference objects.
+	 */
+	private final int[] overlaps = new int[ 0x10000 ];
+
+	/**
+	 * Adds the reference objects of one annotated image. Only the runs of the
+	 * reference objects are visited to compute overlaps.
+	 *
+	 * @param gt
+	 *            the index of the reference objects.
+	 * @param res
+	 *            the result label image, with the same dimensions.
+	 */
+	public void add( final LabelIndex gt, final RandomAccessibleInterval< UnsignedShortType > res )
+	{
+		// Result labels in flat iteration order, and their sizes.
+		final short[] resLabels = new short[ ( int ) Intervals.numElements( res ) ];
+		Arrays.fill( resSizes, 0 );
+		final Cursor< UnsignedShortType > cursor = Views.flatIterable( res ).cursor();
+		int index = 0;
+		while ( cursor.hasNext() )
+		{
+			final int s = cursor.next().get();
+			resLabels[ index++ ] = ( short ) s;
+			resSizes[ s ]++;
+		}
+
+		for ( int i = 0; i < gt.labels.length; i++ )
+		{
+			nObjects++;
+			final int gtSize = gt.sizes[ i ];
+			final int firstRun = gt.runOffsets[ i ];
+			final int lastRun = gt.runOffsets[ i + 1 ];
+			int best = 0;
+			for ( int r = firstRun; r < lastRun; r++ )
+			{
+				final int end = gt.runStarts[ r ] + gt.runLengths[ r ];
+				for ( int v = gt.runStarts[ r ]; v < end; v++ )
+				{
+					final int s = resLabels[ v ] & 0xffff;
+					// At most one segmented object can cover more than half
+					// of R.
+					if ( ++overlaps[ s ] * 2 > gtSize && s > 0 )
+						best = s;
+				}
+			}
+			if ( best > 0 )
+			{
+				final int overlap = overlaps[ best ];
+				sumJaccard += ( double ) overlap / ( gtSize + resSizes[ best ] - overlap );
+			}
+
+			// Reset the overlap counts.
+			for ( int r = firstRun; r < lastRun; r++ )
+			{
+				final int end = gt.runStarts[ r ] + gt.runLengths[ r ];
+				for ( int v = gt.runStarts[ r ]; v < end; v++ )
+					overlaps[ resLabels[ v ] & 0xffff ] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Returns the SEG value.
+	 *
+	 * @return the SEG value, or <code>NaN</code> if there is no reference
+	 *         object.
+	 */
+	public double value()
+	{
+		return nObjects == 0 ? Double.NaN : sumJaccard / nObjects;
+	}
+}
@@ -0,0 +1,437 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.ctc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+/**
+ * The contributions of each TrackMate track to the CTC tracking measures TRA,
+ * DET, CT and TF, computed once for all the tracks of a tracking result.
+ * <p>
+ * Track filters only hide or show whole tracks. When the spots of different
+ * tracks do not overlap, a ground-truth object is matched by at most one
+ * result object, whatever the other visible tracks. The errors of the AOGM
+ * (false positives, splits, redundant and wrong edges), the matched reference
+ * objects and edges, the complete tracks and the track fractions can then be
+ * attributed to a single track, and the measures of any subset of visible
+ * tracks are obtained by summing their contributions, without painting and
+ * matching label images again.
+ *
+ * @author Jean-Yves Tinevez
+ */
+class TrackContributions
+{
+
+	private static final int TRACK_LINK = 1;
+
+	private static final int PARENT_LINK = 2;
+
+	private final TIntObjectHashMap< Contribution > contributions;
+
+	private final int nGTNodes;
+
+	private final int nGTEdges;
+
+	private final int nGTBranches;
+
+	private TrackContributions( final TIntObjectHashMap< Contribution > contributions, final int nGTNodes, final int nGTEdges, final int nGTBranches )
+	{
+		this.contributions = contributions;
+		this.nGTNodes = nGTNodes;
+		this.nGTEdges = nGTEdges;
+		this.nGTBranches = nGTBranches;
+	}
+
+	/**
+	 * Computes the contributions of the tracks of the specified results.
+	 *
+	 * @param groundTruth
+	 *            the ground-truth.
+	 * @param results
+	 *            the results, with the spots of all tracks, visible or not.
+	 * @return the track contributions, or <code>null</code> if spots of
+	 *         different tracks overlap, in which case the contributions
+	 *         depend on which tracks are visible.
+	 * @throws IOException
+	 *             if the ground-truth cannot be read.
+	 */
+	static TrackContributions compute( final CTCGroundTruth groundTruth, final CTCResults results ) throws IOException
+	{
+		final int nFrames = groundTruth.countTrackingFrames();
+		if ( nFrames == 0 )
+			return null;
+
+		// Frames where each label is present.
+		final TIntObjectHashMap< TIntArrayList > gtFrames = new TIntObjectHashMap<>();
+		final TIntObjectHashMap< TIntArrayList > resFrames = new TIntObjectHashMap<>();
+		// Result label matched by a ground-truth node.
+		final TLongIntHashMap gtMatch = new TLongIntHashMap();
+		// Number of ground-truth nodes matched by a result node, and the last.
+		final TLongIntHashMap resMatchCount = new TLongIntHashMap();
+		final TLongIntHashMap resMatchGT = new TLongIntHashMap();
+
+		final int[] overlaps = new int[ 0x10000 ];
+		final int[] lastSeen = new int[ 0x10000 ];
+		Arrays.fill( lastSeen, -1 );
+		ArrayImg< UnsignedShortType, ShortArray > res = null;
+		short[] pixels = null;
+		int nGTNodes = 0;
+		for ( int t = 0; t < nFrames; t++ )
+		{
+			final LabelIndex gt = groundTruth.getTrackingIndex( t );
+			if ( res == null )
+			{
+				res = ArrayImgs.unsignedShorts( gt.dimensions );
+				pixels = res.update( null ).getCurrentStorageArray();
+			}
+			else
+			{
+				Arrays.fill( pixels, ( short ) 0 );
+			}
+			if ( results.paint( t, res ) > 0 )
+				return null;
+
+			for ( final short pixel : pixels )
+			{
+				final int s = pixel & 0xffff;
+				if ( s > 0 && lastSeen[ s ] != t )
+				{
+					lastSeen[ s ] = t;
+					frames( resFrames, s ).add( t );
+				}
+			}
+
+			// Match reference objects, as for SEG.
+			for ( int i = 0; i < gt.labels.length; i++ )
+			{
+				final int label = gt.labels[ i ];
+				nGTNodes++;
+				frames( gtFrames, label ).add( t );
+				final int gtSize = gt.sizes[ i ];
+				final int firstRun = gt.runOffsets[ i ];
+				final int lastRun = gt.runOffsets[ i + 1 ];
+				int best = 0;
+				for ( int r = firstRun; r < lastRun; r++ )
+				{
+					final int end = gt.runStarts[ r ] + gt.runLengths[ r ];
+					for ( int v = gt.runStarts[ r ]; v < end; v++ )
+					{
+						final int s = pixels[ v ] & 0xffff;
+						if ( ++overlaps[ s ] * 2 > gtSize && s > 0 )
+							best = s;
+					}
+				}
+				for ( int r = firstRun; r < lastRun; r++ )
+				{
+					final int end = gt.runStarts[ r ] + gt.runLengths[ r ];
+					for ( int v = gt.runStarts[ r ]; v < end; v++ )
+						overlaps[ pixels[ v ] & 0xffff ] = 0;
+				}
+				if ( best > 0 )
+				{
+					final long resNode = node( t, best );
+					gtMatch.put( node( t, label ), best );
+					resMatchCount.adjustOrPutValue( resNode, 1, 1 );
+					resMatchGT.put( resNode, label );
+				}
+			}
+		}
+
+		final TIntObjectHashMap< Contribution > contributions = new TIntObjectHashMap<>();
+
+		// Result nodes: false positives and splits.
+		for ( final int label : resFrames.keys() )
+		{
+			final Contribution contribution = contribution( contributions, results.getTrackID( label ) );
+			final TIntArrayList frames = resFrames.get( label );
+			for ( int i = 0; i < frames.size(); i++ )
+			{
+				final int count = resMatchCount.get( node( frames.getQuick( i ), label ) );
+				if ( count == 0 )
+					contribution.fp++;
+				else
+					contribution.matched += count;
+				if ( count > 1 )
+					contribution.ns += count - 1;
+			}
+		}
+
+		// Ground-truth edges.
+		final List< int[] > gtTracks = groundTruth.readTrackTable();
+		final TLongIntHashMap gtEdges = new TLongIntHashMap();
+		for ( final int[] track : gtTracks )
+		{
+			final long[] edges = edges( track, gtFrames );
+			for ( int e = 0; e < edges.length; e += 2 )
+				gtEdges.put( edges[ e ], ( int ) edges[ e + 1 ] );
+		}
+
+		// Result edges: redundant, wrong semantics and matched edges.
+		for ( final int[] track : results.getTracks() )
+		{
+			final Contribution contribution = contribution( contributions, results.getTrackID( track[ 0 ] ) );
+			contribution.branches++;
+			final long[] edges = edges( track, resFrames );
+			for ( int e = 0; e < edges.length; e += 2 )
+			{
+				final long source = edges[ e ] >>> 32;
+				final long target = edges[ e ] & 0xffffffffl;
+				if ( resMatchCount.get( source ) != 1 || resMatchCount.get( target ) != 1 )
+				{
+					contribution.ed++;
+					continue;
+				}
+				final long gtEdge = edge( node( frameOf( source ), resMatchGT.get( source ) ),
+						node( frameOf( target ), resMatchGT.get( target ) ) );
+				final int gtType = gtEdges.get( gtEdge );
+				if ( gtType == 0 )
+				{
+					contribution.ed++;
+					continue;
+				}
+				contribution.covered++;
+				if ( gtType != edges[ e + 1 ] )
+					contribution.ec++;
+			}
+		}
+
+		// Complete tracks and track fractions.
+		for ( int g = 0; g < gtTracks.size(); g++ )
+		{
+			final int label = gtTracks.get( g )[ 0 ];
+			final TIntArrayList frames = gtFrames.get( label );
+			if ( frames == null )
+				continue;
+
+			// Longest run of consecutive nodes matched by each result label.
+			final TIntIntHashMap longest = new TIntIntHashMap();
+			int current = 0;
+			int run = 0;
+			boolean complete = true;
+			final int first = gtMatch.get( node( frames.getQuick( 0 ), label ) );
+			for ( int i = 0; i < frames.size(); i++ )
+			{
+				final int match = gtMatch.get( node( frames.getQuick( i ), label ) );
+				complete &= ( match == first );
+				run = ( match == current ) ? run + 1 : 1;
+				current = match;
+				if ( match > 0 && run > longest.get( match ) )
+					longest.put( match, run );
+			}
+			if ( complete && first > 0 && frames.equals( resFrames.get( first ) ) )
+				contribution( contributions, results.getTrackID( first ) ).completed++;
+
+			final TIntDoubleHashMap fractions = new TIntDoubleHashMap();
+			for ( final int resLabel : longest.keys() )
+			{
+				final int trackID = results.getTrackID( resLabel );
+				final double fraction = ( double ) longest.get( resLabel ) / frames.size();
+				if ( fraction > fractions.get( trackID ) )
+					fractions.put( trackID, fraction );
+			}
+			for ( final int trackID : fractions.keys() )
+			{
+				final Contribution contribution = contribution( contributions, trackID );
+				contribution.tfBranches.add( g );
+				contribution.tfFractions.add( fractions.get( trackID ) );
+			}
+		}
+
+		return new TrackContributions( contributions, nGTNodes, gtEdges.size(), gtTracks.size() );
+	}
+
+	/**
+	 * Returns the TRA, DET, CT and TF values of the results restricted to the
+	 * specified tracks.
+	 *
+	 * @param trackIDs
+	 *            the IDs of the visible tracks.
+	 * @return a new array with the TRA, DET, CT and TF values, in this order.
+	 */
+	double[] score( final Collection< Integer > trackIDs )
+	{
+		long fp = 0;
+		long ns = 0;
+		long matched = 0;
+		long ed = 0;
+		long ec = 0;
+		long covered = 0;
+		long completed = 0;
+		long branches = 0;
+		final double[] fractions = new double[ nGTBranches ];
+		for ( final Integer trackID : trackIDs )
+		{
+			final Contribution contribution = contributions.get( trackID );
+			if ( contribution == null )
+				continue;
+			fp += contribution.fp;
+			ns += contribution.ns;
+			matched += contribution.matched;
+			ed += contribution.ed;
+			ec += contribution.ec;
+			covered += contribution.covered;
+			completed += contribution.completed;
+			branches += contribution.branches;
+			for ( int i = 0; i < contribution.tfBranches.size(); i++ )
+			{
+				final int g = contribution.tfBranches.getQuick( i );
+				fractions[ g ] = Math.max( fractions[ g ], contribution.tfFractions.getQuick( i ) );
+			}
+		}
+
+		// Each reference node and edge is matched by at most one result.
+		final long fn = nGTNodes - matched;
+		final long ea = nGTEdges - covered;
+
+		final double aogmD = 5. * ns + 10. * fn + fp;
+		final double aogmD0 = 10. * nGTNodes;
+		final double det = 1. - Math.min( aogmD, aogmD0 ) / aogmD0;
+
+		final double aogm = aogmD + ed + 1.5 * ea + ec;
+		final double aogm0 = aogmD0 + 1.5 * nGTEdges;
+		final double tra = 1. - Math.min( aogm, aogm0 ) / aogm0;
+
+		final double ct = 2. * completed / ( nGTBranches + branches );
+
+		double sumFractions = 0.;
+		int nDetected = 0;
+		for ( final double fraction : fractions )
+		{
+			if ( fraction > 0. )
+			{
+				sumFractions += fraction;
+				nDetected++;
+			}
+		}
+		final double tf = nDetected == 0 ? Double.NaN : sumFractions / nDetected;
+
+		return new double[] { tra, det, ct, tf };
+	}
+
+	/**
+	 * Returns the edges of a branch, as pairs of edge key and link type: the
+	 * links between consecutive nodes of the branch, and the link from the
+	 * last node of its parent to its first node.
+	 */
+	private static long[] edges( final int[] track, final TIntObjectHashMap< TIntArrayList > labelFrames )
+	{
+		final TIntArrayList frames = labelFrames.get( track[ 0 ] );
+		if ( frames == null )
+			return new long[ 0 ];
+
+		final List< Long > edges = new ArrayList<>();
+		for ( int i = 1; i < frames.size(); i++ )
+		{
+			edges.add( edge( node( frames.getQuick( i - 1 ), track[ 0 ] ), node( frames.getQuick( i ), track[ 0 ] ) ) );
+			edges.add( ( long ) TRACK_LINK );
+		}
+		final TIntArrayList parentFrames = ( track[ 3 ] > 0 ) ? labelFrames.get( track[ 3 ] ) : null;
+		if ( parentFrames != null )
+		{
+			edges.add( edge( node( parentFrames.getQuick( parentFrames.size() - 1 ), track[ 3 ] ), node( frames.getQuick( 0 ), track[ 0 ] ) ) );
+			edges.add( ( long ) PARENT_LINK );
+		}
+		final long[] out = new long[ edges.size() ];
+		for ( int i = 0; i < out.length; i++ )
+			out[ i ] = edges.get( i );
+		return out;
+	}
+
+	private static long node( final int frame, final int label )
+	{
+		return ( ( long ) frame << 16 ) | label;
+	}
+
+	private static int frameOf( final long node )
+	{
+		return ( int ) ( node >>> 16 );
+	}
+
+	private static long edge( final long source, final long target )
+	{
+		return ( source << 32 ) | target;
+	}
+
+	private static TIntArrayList frames( final TIntObjectHashMap< TIntArrayList > map, final int label )
+	{
+		TIntArrayList frames = map.get( label );
+		if ( frames == null )
+		{
+			frames = new TIntArrayList();
+			map.put( label, frames );
+		}
+		return frames;
+	}
+
+	private static Contribution contribution( final TIntObjectHashMap< Contribution > map, final int trackID )
+	{
+		Contribution contribution = map.get( trackID );
+		if ( contribution == null )
+		{
+			contribution = new Contribution();
+			map.put( trackID, contribution );
+		}
+		return contribution;
+	}
+
+	/**
+	 * The AOGM errors and matches attributed to one track.
+	 */
+	private static final class Contribution
+	{
+
+		private int fp;
+
+		private int ns;
+
+		private int matched;
+
+		private int ed;
+
+		private int ec;
+
+		private int covered;
+
+		private int completed;
+
+		private int branches;
+
+		private final TIntArrayList tfBranches = new TIntArrayList();
+
+		private final TDoubleArrayList tfFractions = new TDoubleArrayList();
+	}
+}
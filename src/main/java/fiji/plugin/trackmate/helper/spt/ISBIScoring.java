@@ -35,10 +35,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Predicate;
 
+import fiji.plugin.trackmate.helper.TrackingMetricsType.MetricValue;
 import fiji.plugin.trackmate.helper.spt.importer.SPTFormatImporter;
 import fiji.plugin.trackmate.helper.spt.measure.DistanceTypes;
 import fiji.plugin.trackmate.helper.spt.measure.PerformanceAnalyzer;
+import fiji.plugin.trackmate.helper.spt.measure.SolverTypes;
 import fiji.plugin.trackmate.helper.spt.measure.TrackProcessorPerformance;
 import fiji.plugin.trackmate.helper.spt.measure.TrackSegment;
 
@@ -64,29 +67,74 @@ public class ISBIScoring
 	 */
 	public static final double[] score( final List< TrackSegment > references, final List< TrackSegment > candidates, final double maxDist, final DistanceTypes distType )
 	{
+		return score( references, candidates, maxDist, distType, m -> true );
+	}
+
+	/**
+	 * Returns a <code>double[]</code> array with alpha, beta, JSC, JSCtheta and
+	 * RMSE, computing only the selected scores. Scores that are not selected
+	 * are <code>NaN</code>.
+	 * 
+	 * @param references
+	 *            the list of reference track segments.
+	 * @param candidates
+	 *            the list of candidate track segments.
+	 * @param selected
+	 *            tests whether a score, identified by its
+	 *            {@link SPTTrackingMetricsType} metric, must be computed.
+	 * @return the ISBI SPT scores.
+	 */
+	public static final double[] score( final List< TrackSegment > references, final List< TrackSegment > candidates, final double maxDist, final DistanceTypes distType, final Predicate< MetricValue > selected )
+	{
+		return score( references, candidates, maxDist, distType, selected, SolverTypes.SOLVER_HUNGARIAN_NEW );
+	}
+
+	/**
+	 * Returns a <code>double[]</code> array with alpha, beta, JSC, JSCtheta and
+	 * RMSE, computing only the selected scores and pairing tracks with the
+	 * specified solver. Scores that are not selected are <code>NaN</code>.
+	 * 
+	 * @param references
+	 *            the list of reference track segments.
+	 * @param candidates
+	 *            the list of candidate track segments.
+	 * @param selected
+	 *            tests whether a score, identified by its
+	 *            {@link SPTTrackingMetricsType} metric, must be computed.
+	 * @param solver
+	 *            the solver used to pair tracks. See
+	 *            {@link TrackProcessorPerformance#setSolver(SolverTypes)}.
+	 * @return the ISBI SPT scores.
+	 */
+	public static final double[] score( final List< TrackSegment > references, final List< TrackSegment > candidates, final double maxDist, final DistanceTypes distType, final Predicate< MetricValue > selected, final SolverTypes solver )
+	{
+		final double[] scores = new double[] { Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN };
+		if ( !selected.test( SPTTrackingMetricsType.ALPHA )
+				&& !selected.test( SPTTrackingMetricsType.BETA )
+				&& !selected.test( SPTTrackingMetricsType.JSC )
+				&& !selected.test( SPTTrackingMetricsType.JSCTHETA )
+				&& !selected.test( SPTTrackingMetricsType.RMSE ) )
+			return scores;
+
 		/*
-		 * Alpha, beta and RMSE.
+		 * All the scores come from a single pass over the track pairs.
 		 */
 		final TrackProcessorPerformance processor = new TrackProcessorPerformance();
+		processor.setSolver( solver );
 		final PerformanceAnalyzer analyzer = processor.pairTracks( references, candidates, maxDist );
-		final double alpha = analyzer.getPairedTracksNormalizedDistance( distType, maxDist );
-		final double beta = analyzer.getFullTrackingScore( distType, maxDist );
-		final double rmse = analyzer.getDistanceDetectionData( maxDist )[ 0 ];
-
-		/*
-		 * Detection and track Jaccard indices.
-		 */
-		final int numSpuriousTracks = analyzer.getNumSpuriousTracks();
-		final int numMissedTracks = analyzer.getNumMissedTracks();
-		final int numCorrectTracks = analyzer.getNumPairedTracks();
-		final int numRecoveredDetections = analyzer.getNumPairedDetections( maxDist );
-		final int numMissedDetections = analyzer.getNumMissedDetections( maxDist );
-		final int numWrongDetections = analyzer.getNumWrongDetections( maxDist );
-
-		final double detectionsSimilarity = numRecoveredDetections / ( ( double ) numRecoveredDetections + ( double ) numMissedDetections + numWrongDetections );
-		final double tracksSimilarity = numCorrectTracks / ( ( double ) numCorrectTracks + ( double ) numMissedTracks + numSpuriousTracks );
+		final double[] all = analyzer.getScores( distType, maxDist );
+		if ( selected.test( SPTTrackingMetricsType.ALPHA ) )
+			scores[ 0 ] = all[ 0 ];
+		if ( selected.test( SPTTrackingMetricsType.BETA ) )
+			scores[ 1 ] = all[ 1 ];
+		if ( selected.test( SPTTrackingMetricsType.JSC ) )
+			scores[ 2 ] = all[ 2 ];
+		if ( selected.test( SPTTrackingMetricsType.JSCTHETA ) )
+			scores[ 3 ] = all[ 3 ];
+		if ( selected.test( SPTTrackingMetricsType.RMSE ) )
+			scores[ 4 ] = all[ 4 ];
 
-		return new double[] { alpha, beta, detectionsSimilarity, tracksSimilarity, rmse };
+		return scores;
 	}
 
 	public static final void batch( final String referenceTrackPath, final String candidatesFolder, final double maxDist, final DistanceTypes distType )
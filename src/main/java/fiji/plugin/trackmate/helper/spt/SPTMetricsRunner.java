@@ -24,7 +24,9 @@ package fiji.plugin.trackmate.helper.spt;
 import java.io.File;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -32,12 +34,18 @@ import org.w3c.dom.Element;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.TrackMate;
 import fiji.plugin.trackmate.helper.MetricsRunner;
+import fiji.plugin.trackmate.helper.ProxyGroundTruth;
+import fiji.plugin.trackmate.helper.StageTimings;
+import fiji.plugin.trackmate.helper.StageTimings.Lap;
+import fiji.plugin.trackmate.helper.StageTimings.Stage;
 import fiji.plugin.trackmate.helper.TrackingMetrics;
 import fiji.plugin.trackmate.helper.spt.importer.SPTFormatImporter;
 import fiji.plugin.trackmate.helper.spt.importer.XMLUtil;
+import fiji.plugin.trackmate.helper.spt.measure.Detection;
 import fiji.plugin.trackmate.helper.spt.measure.DistanceTypes;
 import fiji.plugin.trackmate.helper.spt.measure.TrackSegment;
 import fiji.plugin.trackmate.io.TmXmlReader;
+import net.imglib2.RealPoint;
 
 public class SPTMetricsRunner extends MetricsRunner
 {
@@ -50,7 +58,28 @@ public class SPTMetricsRunner extends MetricsRunner
 
 	public SPTMetricsRunner( final String gtPath, final String saveFolder, final double maxDist, final String units )
 	{
-		super( Paths.get( saveFolder ), new SPTTrackingMetricsType( maxDist, units ) );
+		this( gtPath, saveFolder, maxDist, units, new SPTTrackingMetricsType( maxDist, units ) );
+	}
+
+	/**
+	 * Creates a runner that computes the scores selected in the specified
+	 * metrics type.
+	 *
+	 * @param gtPath
+	 *            the path to the ground-truth file.
+	 * @param saveFolder
+	 *            the folder to save results in.
+	 * @param maxDist
+	 *            the max pairing distance.
+	 * @param units
+	 *            the physical units in which <code>maxDist</code> is
+	 *            specified.
+	 * @param type
+	 *            the metrics type.
+	 */
+	public SPTMetricsRunner( final String gtPath, final String saveFolder, final double maxDist, final String units, final SPTTrackingMetricsType type )
+	{
+		super( Paths.get( saveFolder ), type );
 		this.maxDist = maxDist;
 		this.units = units;
 
@@ -86,15 +115,50 @@ public class SPTMetricsRunner extends MetricsRunner
 		}
 	}
 
+	/**
+	 * Creates the proxy ground-truth from the real detections of the
+	 * reference tracks. The default match distance is the max pairing
+	 * distance.
+	 */
+	@Override
+	protected ProxyGroundTruth createProxyGroundTruth( final TrackMate trackmate )
+	{
+		final Map< Integer, List< RealPoint > > detections = new HashMap<>();
+		final int[] trackLengths = new int[ referenceTracks.size() ];
+		for ( int i = 0; i < referenceTracks.size(); i++ )
+		{
+			for ( final Detection detection : referenceTracks.get( i ).getDetectionList() )
+			{
+				if ( detection.getDetectionType() != Detection.DETECTIONTYPE_REAL_DETECTION )
+					continue;
+				detections.computeIfAbsent( detection.getT(), t -> new ArrayList<>() )
+						.add( new RealPoint( detection.getX(), detection.getY(), detection.getZ() ) );
+				trackLengths[ i ]++;
+			}
+		}
+		return new ProxyGroundTruth( detections, trackLengths, maxDist );
+	}
+
 	@Override
 	public TrackingMetrics performMetricsMeasurements( final TrackMate trackmate )
+	{
+		return performMetricsMeasurements( trackmate, new StageTimings() );
+	}
+
+	@Override
+	protected TrackingMetrics performMetricsMeasurements( final TrackMate trackmate, final StageTimings timings )
 	{
 		final Model model = trackmate.getModel();
+		final Lap exportLap = StageTimings.start();
 		final List< TrackSegment > candidateTracks = SPTFormatImporter.fromTrackMate( model );
+		timings.stop( Stage.EXPORT, exportLap );
+
 		// Perform SPT measurements.
 		batchLogger.log( String.format( "Performing SPT metrics measurements with max pairing dist = %.2f %s\n",
 				maxDist, units ) );
-		final double[] score = ISBIScoring.score( referenceTracks, candidateTracks, maxDist, DistanceTypes.DISTANCE_EUCLIDIAN );
+		final Lap metricsLap = StageTimings.start();
+		final double[] score = ISBIScoring.score( referenceTracks, candidateTracks, maxDist, DistanceTypes.DISTANCE_EUCLIDIAN, type::isSelected );
+		timings.stop( Stage.METRICS, metricsLap );
 
 		final TrackingMetrics metrics = new TrackingMetrics( type );
 		for ( int i = 0; i < score.length; i++ )
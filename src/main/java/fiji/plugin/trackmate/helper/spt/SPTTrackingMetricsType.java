@@ -87,7 +87,7 @@ public class SPTTrackingMetricsType extends TrackingMetricsType
 	@Override
 	public MetricsRunner runner( final String gtPath, final String saveFolder )
 	{
-		return new SPTMetricsRunner( gtPath, saveFolder, maxDist, units );
+		return new SPTMetricsRunner( gtPath, saveFolder, maxDist, units, this );
 	}
 
 	@Override
@@ -23,6 +23,7 @@ package fiji.plugin.trackmate.helper.spt.importer;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -33,6 +34,7 @@ import org.w3c.dom.Element;
 
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.helper.spt.measure.CompactTrack;
 import fiji.plugin.trackmate.helper.spt.measure.Detection;
 import fiji.plugin.trackmate.helper.spt.measure.TrackSegment;
 
@@ -46,17 +48,32 @@ public class SPTFormatImporter
 {
 
 	public static List< TrackSegment > fromTrackMate( final Model model )
+	{
+		return toTrackSegments( compactFromTrackMate( model ) );
+	}
+
+	public static List< TrackSegment > fromXML( final File inputFile ) throws IllegalArgumentException
+	{
+		return toTrackSegments( compactFromXML( inputFile ) );
+	}
+
+	/**
+	 * Converts the visible tracks of a TrackMate model to compact tracks. Gaps
+	 * are capped with virtual detections.
+	 * 
+	 * @param model
+	 *            the model to convert.
+	 * @return a new list of compact tracks.
+	 */
+	public static List< CompactTrack > compactFromTrackMate( final Model model )
 	{
 		final Set< Integer > trackIDs = model.getTrackModel().unsortedTrackIDs( true );
-		final List< TrackSegment > tracks = new ArrayList< TrackSegment >( trackIDs.size() );
+		final List< CompactTrack > tracks = new ArrayList< CompactTrack >( trackIDs.size() );
 
 		for ( final Integer trackID : trackIDs )
 		{
-			final List< Spot > spots = new ArrayList<>( model.getTrackModel().trackSpots( trackID ) );
-			spots.sort( Spot.frameComparator );
-
-			final TreeMap< Integer, Detection > detections = new TreeMap< Integer, Detection >();
-			for ( final Spot spot : spots )
+			final TreeMap< Integer, double[] > detections = new TreeMap< Integer, double[] >();
+			for ( final Spot spot : model.getTrackModel().trackSpots( trackID ) )
 			{
 				final int t = spot.getFeature( Spot.FRAME ).intValue();
 				if ( t < 0 )
@@ -67,19 +84,28 @@ public class SPTFormatImporter
 				final double x = spot.getDoublePosition( 0 );
 				final double y = spot.getDoublePosition( 1 );
 				final double z = spot.getDoublePosition( 2 );
-				final Detection detection = new Detection( x, y, z, t );
-				detection.setDetectionType( Detection.DETECTIONTYPE_REAL_DETECTION );
-				detections.put( Integer.valueOf( t ), detection );
+				detections.put( Integer.valueOf( t ), new double[] { x, y, z } );
 			}
-			tracks.add( makeTrack( detections ) );
+			final CompactTrack track = makeTrack( detections );
+			if ( track != null )
+				tracks.add( track );
 		}
-		trimTrack( tracks );
 		return tracks;
 	}
 
-	public static List< TrackSegment > fromXML( final File inputFile ) throws IllegalArgumentException
+	/**
+	 * Reads the tracks of a file in the ISBI'2012 Particle tracking challenge
+	 * format as compact tracks. Gaps are capped with virtual detections.
+	 * 
+	 * @param inputFile
+	 *            the .xml file to read.
+	 * @return a new list of compact tracks.
+	 * @throws IllegalArgumentException
+	 *             if the file is not a valid track file.
+	 */
+	public static List< CompactTrack > compactFromXML( final File inputFile ) throws IllegalArgumentException
 	{
-		final List< TrackSegment > tracks = new ArrayList< TrackSegment >();
+		final List< CompactTrack > tracks = new ArrayList< CompactTrack >();
 		final Document document = XMLUtil.loadDocument( inputFile );
 		final Element root = XMLUtil.getRootElement( document );
 		if ( root == null )
@@ -95,7 +121,7 @@ public class SPTFormatImporter
 		for ( final Element particleElement : particleElementArrayList )
 		{
 			final List< Element > detectionElementArrayList = XMLUtil.getElements( particleElement, "detection" );
-			final TreeMap< Integer, Detection > detections = new TreeMap< Integer, Detection >();
+			final TreeMap< Integer, double[] > detections = new TreeMap< Integer, double[] >();
 			for ( final Element detectionElement : detectionElementArrayList )
 			{
 				final int t = XMLUtil.getAttributeIntValue( detectionElement, "t", -1 );
@@ -106,17 +132,35 @@ public class SPTFormatImporter
 				final double x = XMLUtil.getAttributeDoubleValue( detectionElement, "x", 0 );
 				final double y = XMLUtil.getAttributeDoubleValue( detectionElement, "y", 0 );
 				final double z = XMLUtil.getAttributeDoubleValue( detectionElement, "z", 0 );
-				final Detection detection = new Detection( x, y, z, t );
-				detection.setDetectionType( Detection.DETECTIONTYPE_REAL_DETECTION );
-				detections.put( Integer.valueOf( t ), detection );
+				detections.put( Integer.valueOf( t ), new double[] { x, y, z } );
 			}
-			if ( !detections.isEmpty() )
-				tracks.add( makeTrack( detections ) );
+			final CompactTrack track = makeTrack( detections );
+			if ( track != null )
+				tracks.add( track );
 		}
-		trimTrack( tracks );
 		return tracks;
 	}
 
+	/**
+	 * Converts compact tracks to TrackSegment objects. The segments are given
+	 * IDs from 1, unique within the returned list.
+	 * 
+	 * @param tracks
+	 *            the compact tracks to convert.
+	 * @return a new list of TrackSegment objects, in the same order.
+	 */
+	public static List< TrackSegment > toTrackSegments( final List< CompactTrack > tracks )
+	{
+		final List< TrackSegment > segments = new ArrayList< TrackSegment >( tracks.size() );
+		for ( final CompactTrack track : tracks )
+		{
+			final TrackSegment segment = track.toTrackSegment();
+			segment.setId( segments.size() + 1 );
+			segments.add( segment );
+		}
+		return segments;
+	}
+
 	/**
 	 * Export TrackSegment objects to a .xml file.
 	 * 
@@ -154,103 +198,89 @@ public class SPTFormatImporter
 	}
 
 	/*
-	 * Checks if detection contain NaN position, and trim track if they exists
-	 * example ( considering only one coordinate )
+	 * Adds detections in chronological order and cap gaps with virtual
+	 * detections. Then checks if detections contain NaN position, and trim
+	 * track if they exists. Example ( considering only one coordinate ):
 	 * 
 	 * NaN, 1 , 2 ,4 ,12, NaN, NaN => 1 , 2 , 4 , 12
 	 * 
 	 * NaN , 1 , Nan , 2 , 3 , NaN => Discarded
+	 * 
+	 * Returns null if the track is discarded.
 	 */
-	private static final void trimTrack( final List< TrackSegment > trackArrayList )
+	private static final CompactTrack makeTrack( final TreeMap< Integer, double[] > detections )
 	{
-		for ( final TrackSegment track : new ArrayList< TrackSegment >( trackArrayList ) )
-		{
-			// trim NaN from the beginning of track.
-			for ( final Detection detection : new ArrayList< Detection >( track.getDetectionList() ) )
-			{
-				if ( containsNaN( detection ) )
-					track.removeDetection( detection );
-				else
-					break;
-			}
-
-			// trim NaN from the end of track.
-			for ( int i = track.getDetectionList().size() - 1; i >= 0; i-- )
-			{
-				final Detection detection = track.getDetectionList().get( i );
-				if ( containsNaN( detection ) )
-					track.removeDetection( detection );
-				else
-					break;
-			}
-
-			if ( track.getDetectionList().size() == 0 )
-			{
-				trackArrayList.remove( track );
-				continue;
-			}
-
-			// check if a NaN still exists in the remaining track
-			for ( final Detection detection : new ArrayList< Detection >( track.getDetectionList() ) )
-			{
-				if ( containsNaN( detection ) )
-				{
-					trackArrayList.remove( track );
-					break;
-				}
-			}
-		}
-	}
+		if ( detections.isEmpty() )
+			return null;
 
-	/*
-	 * Adds detections in chronological order and cap gaps with virtual
-	 * detections.
-	 */
-	private static final TrackSegment makeTrack( final TreeMap< Integer, Detection > detections )
-	{
-		final TrackSegment track = new TrackSegment();
-		Detection lastDetection = null;
-		for ( final Entry< Integer, Detection > e : detections.entrySet() )
+		final int firstT = detections.firstKey().intValue();
+		final int n = detections.lastKey().intValue() - firstT + 1;
+		final double[] x = new double[ n ];
+		final double[] y = new double[ n ];
+		final double[] z = new double[ n ];
+		final byte[] type = new byte[ n ];
+		int lastT = -1;
+		for ( final Entry< Integer, double[] > e : detections.entrySet() )
 		{
-			final Detection detection = e.getValue();
-			if ( lastDetection != null )
+			final int nextT = e.getKey().intValue();
+			final double[] pos = e.getValue();
+			// cap hole with virtual detections
+			if ( lastT >= 0 && nextT > lastT + 1 )
 			{
-				// cap hole with virtual detections
-				if ( detection.getT() > lastDetection.getT() + 1 )
+				final double lastX = x[ lastT - firstT ];
+				final double lastY = y[ lastT - firstT ];
+				final double lastZ = z[ lastT - firstT ];
+				final double nextX = pos[ 0 ];
+				final double nextY = pos[ 1 ];
+				final double nextZ = pos[ 2 ];
+				final double gapT = 1 / ( ( double ) nextT - ( double ) lastT );
+				for ( int t = lastT + 1; t < nextT; t++ )
 				{
-					final int lastT = lastDetection.getT();
-					final int nextT = detection.getT();
-					final double lastX = lastDetection.getX();
-					final double lastY = lastDetection.getY();
-					final double lastZ = lastDetection.getZ();
-					final double nextX = detection.getX();
-					final double nextY = detection.getY();
-					final double nextZ = detection.getZ();
-					final double gapT = 1 / ( ( double ) nextT - ( double ) lastT );
-					for ( int t = lastT + 1; t < nextT; t++ )
-					{
-						// linear interpolation
-						final Detection interpolatedDetection = new Detection(
-								lastX + ( t - lastT ) * ( nextX - lastX ) * gapT,
-								lastY + ( t - lastT ) * ( nextY - lastY ) * gapT,
-								lastZ + ( t - lastT ) * ( nextZ - lastZ ) * gapT,
-								t );
-						interpolatedDetection.setDetectionType( Detection.DETECTIONTYPE_VIRTUAL_DETECTION );
-						track.addDetection( interpolatedDetection );
-					}
+					// linear interpolation
+					final int i = t - firstT;
+					x[ i ] = lastX + ( t - lastT ) * ( nextX - lastX ) * gapT;
+					y[ i ] = lastY + ( t - lastT ) * ( nextY - lastY ) * gapT;
+					z[ i ] = lastZ + ( t - lastT ) * ( nextZ - lastZ ) * gapT;
+					type[ i ] = Detection.DETECTIONTYPE_VIRTUAL_DETECTION;
 				}
 			}
-			track.addDetection( detection );
-			lastDetection = detection;
+			final int i = nextT - firstT;
+			x[ i ] = pos[ 0 ];
+			y[ i ] = pos[ 1 ];
+			z[ i ] = pos[ 2 ];
+			type[ i ] = Detection.DETECTIONTYPE_REAL_DETECTION;
+			lastT = nextT;
 		}
-		return track;
+
+		// trim NaN from the beginning and the end of track.
+		int start = 0;
+		while ( start < n && containsNaN( x[ start ], y[ start ], z[ start ] ) )
+			start++;
+		if ( start == n )
+			return null;
+		int end = n - 1;
+		while ( containsNaN( x[ end ], y[ end ], z[ end ] ) )
+			end--;
+
+		// check if a NaN still exists in the remaining track
+		for ( int i = start + 1; i < end; i++ )
+			if ( containsNaN( x[ i ], y[ i ], z[ i ] ) )
+				return null;
+
+		if ( start == 0 && end == n - 1 )
+			return new CompactTrack( firstT, x, y, z, type );
+		return new CompactTrack( firstT + start,
+				Arrays.copyOfRange( x, start, end + 1 ),
+				Arrays.copyOfRange( y, start, end + 1 ),
+				Arrays.copyOfRange( z, start, end + 1 ),
+				Arrays.copyOfRange( type, start, end + 1 ) );
 	}
 
-	private static boolean containsNaN( final Detection detection )
+	private static boolean containsNaN( final double x, final double y, final double z )
 	{
-		return ( Double.isNaN( detection.getX() )
-				|| Double.isNaN( detection.getY() )
-				|| Double.isNaN( detection.getZ() ) );
+		return ( Double.isNaN( x )
+				|| Double.isNaN( y )
+				|| Double.isNaN( z ) );
 	}
 
 }
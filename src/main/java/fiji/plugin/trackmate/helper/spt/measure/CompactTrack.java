@@ -0,0 +1,238 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.spt.measure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A compact representation of a track, used to compute tracking performance
+ * criteria.
+ * <p>
+ * The detections of the track are stored in primitive arrays indexed by time,
+ * starting at the first time-point of the track. Getting the detection of a
+ * track at a given time is therefore done in constant time, whereas
+ * {@link TrackSegment#getDetectionAtTime(int)} has to scan the whole list of
+ * detections. Time-points of the track with no detection have the
+ * {@link #NO_DETECTION} type and NaN coordinates.
+ * 
+ * @author Jean-Yves Tinevez
+ */
+public class CompactTrack
+{
+
+	/**
+	 * Detection type of the time-points with no detection.
+	 */
+	public static final int NO_DETECTION = 0;
+
+	private final int firstT;
+
+	private final double[] x;
+
+	private final double[] y;
+
+	private final double[] z;
+
+	private final byte[] type;
+
+	/**
+	 * Creates a compact track. The arrays are not copied.
+	 * 
+	 * @param firstT
+	 *            the time-point of the first element of the arrays.
+	 * @param x
+	 *            the X position of the detections.
+	 * @param y
+	 *            the Y position of the detections.
+	 * @param z
+	 *            the Z position of the detections.
+	 * @param type
+	 *            the type of the detections, one of
+	 *            {@link Detection#DETECTIONTYPE_REAL_DETECTION},
+	 *            {@link Detection#DETECTIONTYPE_VIRTUAL_DETECTION} or
+	 *            {@link #NO_DETECTION}.
+	 */
+	public CompactTrack( final int firstT, final double[] x, final double[] y, final double[] z, final byte[] type )
+	{
+		if ( x.length != type.length || y.length != type.length || z.length != type.length )
+			throw new IllegalArgumentException( "The arrays of a track must have the same length." );
+		this.firstT = firstT;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.type = type;
+	}
+
+	/**
+	 * Builds the compact representation of a track segment. If several
+	 * detections of the segment have the same time-point, only the first one
+	 * is kept, as for {@link TrackSegment#getDetectionAtTime(int)}.
+	 * 
+	 * @param ts
+	 *            the track segment.
+	 * @return a new compact track.
+	 */
+	public static CompactTrack of( final TrackSegment ts )
+	{
+		final ArrayList< Detection > detections = ts.getDetectionList();
+		if ( detections.isEmpty() )
+			return new CompactTrack( 0, new double[ 0 ], new double[ 0 ], new double[ 0 ], new byte[ 0 ] );
+
+		int firstT = Integer.MAX_VALUE;
+		int lastT = Integer.MIN_VALUE;
+		for ( final Detection d : detections )
+		{
+			firstT = Math.min( firstT, d.getT() );
+			lastT = Math.max( lastT, d.getT() );
+		}
+		final int n = lastT - firstT + 1;
+		final double[] x = new double[ n ];
+		final double[] y = new double[ n ];
+		final double[] z = new double[ n ];
+		final byte[] type = new byte[ n ];
+		Arrays.fill( x, Double.NaN );
+		Arrays.fill( y, Double.NaN );
+		Arrays.fill( z, Double.NaN );
+		for ( final Detection d : detections )
+		{
+			final int i = d.getT() - firstT;
+			if ( type[ i ] != NO_DETECTION )
+				continue;
+			x[ i ] = d.getX();
+			y[ i ] = d.getY();
+			z[ i ] = d.getZ();
+			type[ i ] = ( byte ) d.getDetectionType();
+		}
+		return new CompactTrack( firstT, x, y, z, type );
+	}
+
+	/**
+	 * Builds a track segment with the detections of this track.
+	 * 
+	 * @return a new track segment.
+	 */
+	public TrackSegment toTrackSegment()
+	{
+		final ArrayList< Detection > detections = new ArrayList<>( type.length );
+		for ( int i = 0; i < type.length; i++ )
+		{
+			if ( type[ i ] == NO_DETECTION )
+				continue;
+			final Detection detection = new Detection( x[ i ], y[ i ], z[ i ], firstT + i );
+			detection.setDetectionType( type[ i ] );
+			detections.add( detection );
+		}
+		return new TrackSegment( detections );
+	}
+
+	/**
+	 * @return <code>true</code> if this track has no time-point.
+	 */
+	public boolean isEmpty()
+	{
+		return type.length == 0;
+	}
+
+	/**
+	 * @return the number of time-points spanned by this track.
+	 */
+	public int size()
+	{
+		return type.length;
+	}
+
+	/**
+	 * @return the first time-point of this track.
+	 */
+	public int getFirstT()
+	{
+		return firstT;
+	}
+
+	/**
+	 * @return the last time-point of this track.
+	 */
+	public int getLastT()
+	{
+		return firstT + type.length - 1;
+	}
+
+	/**
+	 * @return the type of the detection at time t, or {@link #NO_DETECTION}
+	 *         if the track has no detection at this time.
+	 */
+	public int getDetectionType( final int t )
+	{
+		final int i = t - firstT;
+		if ( i < 0 || i >= type.length )
+			return NO_DETECTION;
+		return type[ i ];
+	}
+
+	/**
+	 * @return <code>true</code> if the track has a detection at time t.
+	 */
+	public boolean hasDetectionAtTime( final int t )
+	{
+		return getDetectionType( t ) != NO_DETECTION;
+	}
+
+	/**
+	 * @return the X position of the detection at time t, which must be within
+	 *         the track time span.
+	 */
+	public double getX( final int t )
+	{
+		return x[ t - firstT ];
+	}
+
+	/**
+	 * @return the Y position of the detection at time t, which must be within
+	 *         the track time span.
+	 */
+	public double getY( final int t )
+	{
+		return y[ t - firstT ];
+	}
+
+	/**
+	 * @return the Z position of the detection at time t, which must be within
+	 *         the track time span.
+	 */
+	public double getZ( final int t )
+	{
+		return z[ t - firstT ];
+	}
+
+	/**
+	 * @return the number of detections of the specified type in this track.
+	 */
+	public int countDetections( final int detectionType )
+	{
+		int n = 0;
+		for ( final byte b : type )
+			if ( b == detectionType )
+				n++;
+		return n;
+	}
+}
@@ -33,19 +33,47 @@ package fiji.plugin.trackmate.helper.spt.measure;
  */
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
 public class OneToOneMatcher
 {
 
+	/**
+	 * Relative margin added to the size of the cells of the candidate index,
+	 * so that rounding errors never put two detections closer than the gate
+	 * in non-adjacent cells.
+	 */
+	private static final double GRID_MARGIN = 1e-6;
+
 	private final List< TrackSegment > refTracks;
 
 	private final List< TrackSegment > candidateTracks;
 
+	/**
+	 * Compact representation of the reference tracks, in the same order.
+	 */
+	private final CompactTrack[] compactRefTracks;
+
+	/**
+	 * Compact representation of the candidate tracks, in the same order.
+	 */
+	private final CompactTrack[] compactCandidateTracks;
+
 	private final List< List< TrackPair > > feasiblePairs;
 
+	/**
+	 * Whether candidates are looked up in a spatial index, or all tested.
+	 */
+	private boolean useCandidateIndex = true;
+
 	/**
 	 * @param refTracks
 	 *            the set of reference tracks
@@ -60,6 +88,9 @@ public class OneToOneMatcher
 		this.candidateTracks = new ArrayList< TrackSegment >();
 		this.candidateTracks.addAll( candidateTracks );
 
+		this.compactRefTracks = compact( this.refTracks );
+		this.compactCandidateTracks = compact( this.candidateTracks );
+
 		this.feasiblePairs = new ArrayList< List< TrackPair > >();
 	}
 
@@ -79,11 +110,33 @@ public class OneToOneMatcher
 	 * @throws Exception
 	 */
 	public List< TrackPair > pairTracks( final double maxDist, final DistanceTypes distType, final boolean useNewMethod ) throws Exception
+	{
+		return pairTracks( maxDist, distType, useNewMethod ? SolverTypes.SOLVER_HUNGARIAN_NEW : SolverTypes.SOLVER_HUNGARIAN );
+	}
+
+	/**
+	 * Compute the best pairing
+	 * 
+	 * @param maxDist
+	 *            maximum Euclidian distance between two detections (gate)
+	 * @param distType
+	 *            type of distance that is used for computing the costs of
+	 *            association
+	 * @param solver
+	 *            the solver used for the assignment in each cluster of
+	 *            tracks.
+	 * @return the best pairing between tracks. All the reference tracks are
+	 *         paired (potentially to a dummy track), while some candidate
+	 *         tracks may not be in the list
+	 * @throws Exception
+	 */
+	public List< TrackPair > pairTracks( final double maxDist, final DistanceTypes distType, final SolverTypes solver ) throws Exception
 	{
 		// build the potential track pairs
 		this.feasiblePairs.clear();
-		for ( final TrackSegment ts : refTracks )
-			this.feasiblePairs.add( getFeasiblePairs( ts, candidateTracks, distType, maxDist ) );
+		final CandidateIndex index = new CandidateIndex( compactCandidateTracks, useCandidateIndex ? maxDist : Double.NaN );
+		for ( int i = 0; i < refTracks.size(); i++ )
+			this.feasiblePairs.add( getFeasiblePairs( i, index, distType, maxDist ) );
 
 		// cluster track pairs
 		final List< TrackPairsCluster > clusters = new ArrayList< OneToOneMatcher.TrackPairsCluster >();
@@ -99,12 +152,18 @@ public class OneToOneMatcher
 		final List< TrackPair > assignment = new ArrayList< TrackPair >();
 		for ( final TrackPairsCluster cluster : clusters )
 		{
+			if ( solver == SolverTypes.SOLVER_SPARSE_JV )
+			{
+				assignment.addAll( cluster.getSparseAssignment() );
+				continue;
+			}
+
 			cluster.buildCostMatrix();
 			// use Munkres algorithm to find the best pairing
 			try
 			{
 				boolean[][] matching;
-				if ( useNewMethod )
+				if ( solver == SolverTypes.SOLVER_HUNGARIAN_NEW )
 				{
 					final HungarianMatchingNew matcher = new HungarianMatchingNew( cluster.costs );
 					matching = matcher.compute();
@@ -129,6 +188,39 @@ public class OneToOneMatcher
 		return pairTracks( maxDist, distType, false );
 	}
 
+	/**
+	 * Sets whether the candidate tracks that can be paired with a reference
+	 * track are looked up in a spatial index, or all tested. The index does
+	 * not change the result, this is meant for testing it.
+	 * 
+	 * @param useCandidateIndex
+	 *            whether to use the candidate index.
+	 */
+	void setUseCandidateIndex( final boolean useCandidateIndex )
+	{
+		this.useCandidateIndex = useCandidateIndex;
+	}
+
+	/**
+	 * Returns the feasible pairs computed by the last call to
+	 * <code>pairTracks</code>, one list per reference track, in the order of
+	 * the reference tracks.
+	 * 
+	 * @return the feasible pairs.
+	 */
+	List< List< TrackPair > > getFeasiblePairs()
+	{
+		return feasiblePairs;
+	}
+
+	private static CompactTrack[] compact( final List< TrackSegment > tracks )
+	{
+		final CompactTrack[] compact = new CompactTrack[ tracks.size() ];
+		for ( int i = 0; i < compact.length; i++ )
+			compact[ i ] = CompactTrack.of( tracks.get( i ) );
+		return compact;
+	}
+
 	/**
 	 * Build the clusters of TrackPair objects
 	 * 
@@ -194,10 +286,11 @@ public class OneToOneMatcher
 	 * and dummy tracks. A pair is not feasible if it does not bring improvement
 	 * over the association of the reference track with a dummy track.
 	 * 
-	 * @param ts
-	 *            the reference TrackSegment object
-	 * @param tracks2
-	 *            the set of candidate tracks
+	 * @param refIndex
+	 *            the index of the reference track
+	 * @param index
+	 *            the index of the candidate tracks, that gives the ones that
+	 *            can be feasible
 	 * @param distType
 	 *            type of distance that is used for computing the costs of
 	 *            association
@@ -205,15 +298,19 @@ public class OneToOneMatcher
 	 *            the gate (maximum Euclidian distance) for distance computation
 	 */
 	private List< TrackPair > getFeasiblePairs(
-			final TrackSegment ts,
-			final List< TrackSegment > tracks2,
+			final int refIndex,
+			final CandidateIndex index,
 			final DistanceTypes distType,
 			final double maxDist )
 	{
+		final TrackSegment ts = refTracks.get( refIndex );
+		final CompactTrack compactTs = compactRefTracks[ refIndex ];
 		final ArrayList< TrackPair > feasiblePairs = new ArrayList< TrackPair >();
-		for ( final TrackSegment ts2 : tracks2 )
+		// candidates are visited in the order of the list, as without index
+		for ( final int i : index.candidatesOf( compactTs ) )
 		{
-			final TrackToTrackDistance distance = new TrackToTrackDistance( ts, ts2, distType, maxDist );
+			final TrackSegment ts2 = candidateTracks.get( i );
+			final TrackToTrackDistance distance = new TrackToTrackDistance( compactTs, compactCandidateTracks[ i ], distType, maxDist );
 			if ( distance.isMatching )
 			{
 				final TrackPair pair = new TrackPair(
@@ -226,8 +323,7 @@ public class OneToOneMatcher
 			}
 		}
 		// add a dummy track for representing no association
-		final TrackSegment dummyTrack = new TrackSegment();
-		final TrackToTrackDistance distance = new TrackToTrackDistance( ts, dummyTrack, distType, maxDist );
+		final TrackToTrackDistance distance = new TrackToTrackDistance( compactTs, null, distType, maxDist );
 		final TrackPair pair = new TrackPair(
 				ts,
 				new TrackSegment(),
@@ -238,6 +334,132 @@ public class OneToOneMatcher
 		return feasiblePairs;
 	}
 
+	/**
+	 * Index of the real detections of the candidate tracks by frame and by
+	 * cell of a grid with a cell size equal to the gate. A pair can only be
+	 * feasible if the two tracks have detections closer than the gate in the
+	 * same frame, which are then in the same or adjacent cells. Bucketing by
+	 * frame also restricts the candidates to the tracks that overlap the
+	 * reference track in time. The index returns a superset of the feasible
+	 * candidates, which are then tested exactly.
+	 */
+	private static class CandidateIndex
+	{
+		private final int nCandidates;
+
+		private final double cellSize;
+
+		/**
+		 * Candidate indices per hashed frame and cell. Hash collisions only
+		 * add candidates that are tested and rejected.
+		 */
+		private final TLongObjectHashMap< TIntArrayList > cells;
+
+		/**
+		 * Last query each candidate was returned for, to return it once.
+		 */
+		private final int[] stamps;
+
+		private int stamp = 0;
+
+		private CandidateIndex( final CompactTrack[] candidates, final double maxDist )
+		{
+			this.nCandidates = candidates.length;
+			this.stamps = new int[ nCandidates ];
+			if ( !( maxDist > 0 ) || Double.isInfinite( maxDist ) )
+			{
+				// no usable gate, all candidates are tested
+				this.cellSize = Double.NaN;
+				this.cells = null;
+				return;
+			}
+			this.cellSize = maxDist * ( 1. + GRID_MARGIN );
+			this.cells = new TLongObjectHashMap<>();
+			for ( int i = 0; i < nCandidates; i++ )
+			{
+				final CompactTrack candidate = candidates[ i ];
+				for ( int t = candidate.getFirstT(); t <= candidate.getLastT(); t++ )
+				{
+					// virtual candidate detections never match
+					if ( candidate.getDetectionType( t ) != Detection.DETECTIONTYPE_REAL_DETECTION )
+						continue;
+					final long key = key( t, cell( candidate.getX( t ) ), cell( candidate.getY( t ) ), cell( candidate.getZ( t ) ) );
+					TIntArrayList list = cells.get( key );
+					if ( list == null )
+					{
+						list = new TIntArrayList();
+						cells.put( key, list );
+					}
+					if ( list.isEmpty() || list.get( list.size() - 1 ) != i )
+						list.add( i );
+				}
+			}
+		}
+
+		/**
+		 * Returns the indices of the candidates that can make a feasible pair
+		 * with the specified reference track, in increasing order.
+		 */
+		private int[] candidatesOf( final CompactTrack ref )
+		{
+			if ( cells == null )
+			{
+				final int[] all = new int[ nCandidates ];
+				for ( int i = 0; i < nCandidates; i++ )
+					all[ i ] = i;
+				return all;
+			}
+
+			stamp++;
+			final TIntArrayList out = new TIntArrayList();
+			for ( int t = ref.getFirstT(); t <= ref.getLastT(); t++ )
+			{
+				if ( !ref.hasDetectionAtTime( t ) )
+					continue;
+				final long cx = cell( ref.getX( t ) );
+				final long cy = cell( ref.getY( t ) );
+				final long cz = cell( ref.getZ( t ) );
+				for ( long dx = -1; dx <= 1; dx++ )
+				{
+					for ( long dy = -1; dy <= 1; dy++ )
+					{
+						for ( long dz = -1; dz <= 1; dz++ )
+						{
+							final TIntArrayList list = cells.get( key( t, cx + dx, cy + dy, cz + dz ) );
+							if ( list == null )
+								continue;
+							for ( int k = 0; k < list.size(); k++ )
+							{
+								final int i = list.getQuick( k );
+								if ( stamps[ i ] != stamp )
+								{
+									stamps[ i ] = stamp;
+									out.add( i );
+								}
+							}
+						}
+					}
+				}
+			}
+			out.sort();
+			return out.toArray();
+		}
+
+		private long cell( final double x )
+		{
+			return ( long ) Math.floor( x / cellSize );
+		}
+
+		private static long key( final int t, final long cx, final long cy, final long cz )
+		{
+			long h = t * 0x9E3779B97F4A7C15l;
+			h = ( h ^ cx ) * 0xC2B2AE3D27D4EB4Fl;
+			h = ( h ^ cy ) * 0x165667B19E3779F9l;
+			h = ( h ^ cz ) * 0x27D4EB2F165667C5l;
+			return h ^ ( h >>> 29 );
+		}
+	}
+
 	/**
 	 * cluster of TrackPair objects that share common tracks
 	 */
@@ -291,6 +513,74 @@ public class OneToOneMatcher
 			}
 		}
 
+		/**
+		 * Find the best assignment of the cluster from its feasible pairs
+		 * only, without building the dense cost matrix. The dummy track of
+		 * each reference track guarantees that all of them can be assigned.
+		 * 
+		 * @return the list of TrackPair objects of the best assignment
+		 */
+		private List< TrackPair > getSparseAssignment() throws Exception
+		{
+			final Map< TrackSegment, Integer > rows = new HashMap< TrackSegment, Integer >();
+			final Map< TrackSegment, Integer > cols = new HashMap< TrackSegment, Integer >();
+			final int[] pairRows = new int[ trackPairs.size() ];
+			final int[] rowStart = new int[ usedReferenceTracks.size() + 1 ];
+			for ( int k = 0; k < pairRows.length; k++ )
+			{
+				final TrackPair tp = trackPairs.get( k );
+				Integer row = rows.get( tp.referenceTrack );
+				if ( row == null )
+				{
+					row = Integer.valueOf( rows.size() );
+					rows.put( tp.referenceTrack, row );
+				}
+				if ( !cols.containsKey( tp.candidateTrack ) )
+					cols.put( tp.candidateTrack, Integer.valueOf( cols.size() ) );
+				pairRows[ k ] = row.intValue();
+				rowStart[ row.intValue() + 1 ]++;
+			}
+			for ( int r = 0; r < rows.size(); r++ )
+				rowStart[ r + 1 ] += rowStart[ r ];
+
+			// compressed row storage of the feasible pairs
+			final int[] next = Arrays.copyOf( rowStart, rows.size() );
+			final int[] pairCols = new int[ pairRows.length ];
+			final double[] pairCosts = new double[ pairRows.length ];
+			final TrackPair[] pairs = new TrackPair[ pairRows.length ];
+			for ( int k = 0; k < pairRows.length; k++ )
+			{
+				final TrackPair tp = trackPairs.get( k );
+				final int index = next[ pairRows[ k ] ]++;
+				pairCols[ index ] = cols.get( tp.candidateTrack ).intValue();
+				pairCosts[ index ] = tp.distance;
+				pairs[ index ] = tp;
+			}
+
+			final SparseJVMatching matcher = new SparseJVMatching( rows.size(), cols.size(), rowStart, pairCols, pairCosts );
+			final int[] matching = matcher.compute();
+
+			final List< TrackPair > assignment = new ArrayList< TrackPair >( matching.length );
+			for ( int r = 0; r < matching.length; r++ )
+			{
+				TrackPair found = null;
+				for ( int k = rowStart[ r ]; k < rowStart[ r + 1 ]; k++ )
+				{
+					if ( pairCols[ k ] == matching[ r ] )
+					{
+						found = pairs[ k ];
+						break;
+					}
+				}
+				if ( found == null )
+					throw new Exception( "Track pair not found when building assignment" );
+				found.referenceIndex = r;
+				found.candidateIndex = matching[ r ];
+				assignment.add( found );
+			}
+			return assignment;
+		}
+
 		/**
 		 * Build the list of track pairs that corresponds to a given matching
 		 * matrix
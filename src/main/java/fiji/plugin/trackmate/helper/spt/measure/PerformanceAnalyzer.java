@@ -22,7 +22,9 @@
 package fiji.plugin.trackmate.helper.spt.measure;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Utilities to compute several tracking performance criteria for a given
@@ -43,6 +45,26 @@ public class PerformanceAnalyzer
 
 	private final List< TrackPair > trackPairs;
 
+	/**
+	 * Compact representation of the tracks, built once for all the criteria.
+	 */
+	private final Map< TrackSegment, CompactTrack > compactTracks = new IdentityHashMap<>();
+
+	/**
+	 * First pair of each reference track.
+	 */
+	private final Map< TrackSegment, TrackPair > referencePairs = new IdentityHashMap<>();
+
+	/**
+	 * Index of the first pair of each paired candidate track.
+	 */
+	private final Map< TrackSegment, Integer > candidatePairs = new IdentityHashMap<>();
+
+	/**
+	 * The criteria computed for the last gate.
+	 */
+	private Pass pass;
+
 	/**
 	 * Build the analyzer
 	 * 
@@ -65,6 +87,24 @@ public class PerformanceAnalyzer
 		this.candidateTracks.addAll( candidateTracks );
 		this.trackPairs = new ArrayList< TrackPair >();
 		this.trackPairs.addAll( trackPairs );
+		for ( int i = 0; i < this.trackPairs.size(); i++ )
+		{
+			final TrackPair tp = this.trackPairs.get( i );
+			referencePairs.putIfAbsent( tp.referenceTrack, tp );
+			if ( tp.candidateTrack != null )
+				candidatePairs.putIfAbsent( tp.candidateTrack, Integer.valueOf( i ) );
+		}
+	}
+
+	/**
+	 * Returns the compact representation of the specified track, or
+	 * <code>null</code> if the track is <code>null</code>.
+	 */
+	private CompactTrack compact( final TrackSegment ts )
+	{
+		if ( ts == null )
+			return null;
+		return compactTracks.computeIfAbsent( ts, CompactTrack::of );
 	}
 
 	/**
@@ -111,17 +151,7 @@ public class PerformanceAnalyzer
 	 */
 	public double getPairedTracksDistance( final DistanceTypes distType, final double maxDist )
 	{
-		double distance = 0;
-		for ( final TrackPair tp : trackPairs )
-		{
-			final TrackToTrackDistance d = new TrackToTrackDistance(
-					tp.referenceTrack,
-					tp.candidateTrack,
-					distType,
-					maxDist );
-			distance += d.distance;
-		}
-		return distance;
+		return pass( maxDist ).pairsDistance( distType );
 	}
 
 	/**
@@ -129,23 +159,7 @@ public class PerformanceAnalyzer
 	 */
 	public double getPairedTracksNormalizedDistance( final DistanceTypes distType, final double maxDist )
 	{
-		double distance = 0;
-		for ( final TrackPair tp : trackPairs )
-		{
-			final TrackToTrackDistance d = new TrackToTrackDistance( tp.referenceTrack, tp.candidateTrack, distType, maxDist );
-			distance += d.distance;
-		}
-		/*
-		 * divide now by the maximum distance that corresponds to reference
-		 * tracks with no associated tracks
-		 */
-		double normalization = 0;
-		for ( final TrackSegment ts : referenceTracks )
-		{
-			final TrackToTrackDistance d = new TrackToTrackDistance( ts, null, distType, maxDist );
-			normalization += d.distance;
-		}
-		return 1d - distance / normalization;
+		return pass( maxDist ).alpha( distType );
 	}
 
 	/**
@@ -154,39 +168,7 @@ public class PerformanceAnalyzer
 	 */
 	public double getFullTrackingScore( final DistanceTypes distType, final double maxDist )
 	{
-		double distance = 0;
-		for ( final TrackPair tp : trackPairs )
-		{
-			final TrackToTrackDistance d = new TrackToTrackDistance( tp.referenceTrack, tp.candidateTrack, distType, maxDist );
-			distance += d.distance;
-		}
-		// compute the bound on the distance
-		double bound = 0;
-		for ( final TrackSegment ts : referenceTracks )
-		{
-			final TrackToTrackDistance d = new TrackToTrackDistance( ts, null, distType, maxDist );
-			bound += d.distance;
-		}
-		// compute the penalty for wrong tracks
-		double penalty = 0;
-		for ( final TrackSegment ts : candidateTracks )
-		{
-			boolean found = false;
-			for ( final TrackPair tp : trackPairs )
-			{
-				if ( tp.candidateTrack == ts )
-				{
-					found = true;
-					break;
-				}
-			}
-			if ( !found )
-			{
-				final TrackToTrackDistance d = new TrackToTrackDistance( ts, null, distType, maxDist );
-				penalty += d.distance;
-			}
-		}
-		return ( bound - distance ) / ( bound + penalty );
+		return pass( maxDist ).beta( distType );
 	}
 
 	/**
@@ -196,19 +178,8 @@ public class PerformanceAnalyzer
 	{
 		int numSpuriousTracks = 0;
 		for ( final TrackSegment ts : candidateTracks )
-		{
-			boolean found = false;
-			for ( final TrackPair tp : trackPairs )
-			{
-				if ( tp.candidateTrack == ts )
-				{
-					found = true;
-					break;
-				}
-			}
-			if ( !found )
+			if ( !candidatePairs.containsKey( ts ) )
 				numSpuriousTracks++;
-		}
 		return numSpuriousTracks;
 	}
 
@@ -221,17 +192,8 @@ public class PerformanceAnalyzer
 		int numMissedTrack = 0;
 		for ( final TrackSegment ts : referenceTracks )
 		{
-			boolean found = false;
-			for ( final TrackPair tp : trackPairs )
-			{
-				if ( tp.referenceTrack == ts )
-				{
-					if ( tp.candidateTrack != null && !tp.candidateTrack.getDetectionList().isEmpty() )
-						found = true;
-					break;
-				}
-			}
-			if ( !found )
+			final TrackPair tp = referencePairs.get( ts );
+			if ( tp == null || tp.candidateTrack == null || tp.candidateTrack.getDetectionList().isEmpty() )
 				numMissedTrack++;
 		}
 		return numMissedTrack;
@@ -244,19 +206,8 @@ public class PerformanceAnalyzer
 	{
 		int numCorrectTracks = 0;
 		for ( final TrackSegment ts : candidateTracks )
-		{
-			boolean found = false;
-			for ( final TrackPair tp : trackPairs )
-			{
-				if ( tp.candidateTrack == ts )
-				{
-					found = true;
-					break;
-				}
-			}
-			if ( found )
+			if ( candidatePairs.containsKey( ts ) )
 				numCorrectTracks++;
-		}
 		return numCorrectTracks;
 	}
 
@@ -265,13 +216,7 @@ public class PerformanceAnalyzer
 	 */
 	public int getNumPairedDetections( final double maxDist )
 	{
-		int numRecoveredDetections = 0;
-		for ( final TrackPair tp : trackPairs )
-		{
-			final TrackToTrackDistance d = new TrackToTrackDistance( tp.referenceTrack, tp.candidateTrack, DistanceTypes.DISTANCE_MATCHING, maxDist );
-			numRecoveredDetections += d.numMatchingDetections;
-		}
-		return numRecoveredDetections;
+		return pass( maxDist ).numPairedDetections;
 	}
 
 	/**
@@ -280,13 +225,7 @@ public class PerformanceAnalyzer
 	 */
 	public int getNumMissedDetections( final double maxDist )
 	{
-		int numMissedDetections = 0;
-		for ( final TrackPair tp : trackPairs )
-		{
-			final TrackToTrackDistance d = new TrackToTrackDistance( tp.referenceTrack, tp.candidateTrack, DistanceTypes.DISTANCE_MATCHING, maxDist );
-			numMissedDetections += d.numNonMatchedDetections;
-		}
-		return numMissedDetections;
+		return pass( maxDist ).numMissedDetections;
 	}
 
 	/**
@@ -295,29 +234,36 @@ public class PerformanceAnalyzer
 	 */
 	public int getNumWrongDetections( final double maxDist )
 	{
-		int numSpuriousDetections = 0;
-		for ( final TrackSegment ts : candidateTracks )
-		{
-			boolean found = false;
-			for ( final TrackPair tp : trackPairs )
-			{
-				if ( tp.candidateTrack == ts )
-				{
-					final TrackToTrackDistance d = new TrackToTrackDistance( tp.referenceTrack, tp.candidateTrack, DistanceTypes.DISTANCE_MATCHING, maxDist );
-					numSpuriousDetections += d.numWrongDetections;
-					found = true;
-					break;
-				}
-			}
-			if ( !found )
-			{
-				for ( final Detection d : ts.getDetectionList() )
-					if ( d.getDetectionType() == Detection.DETECTIONTYPE_REAL_DETECTION )
-						numSpuriousDetections++;
-				// Virtual detections are not considered as spurious detections.
-			}
-		}
-		return numSpuriousDetections;
+		return pass( maxDist ).numWrongDetections;
+	}
+
+	/**
+	 * Returns all the ISBI scores, computed from a single pass over the track
+	 * pairs: alpha, beta, JSC, JSCtheta, then the RMSE, min, max and standard
+	 * deviation of the distance between paired detections.
+	 * 
+	 * @param distType
+	 *            the type of distance used for alpha and beta.
+	 * @param maxDist
+	 *            the gate used to pair detections.
+	 * @return a new <code>double[]</code> array of 8 elements.
+	 */
+	public double[] getScores( final DistanceTypes distType, final double maxDist )
+	{
+		final Pass pass = pass( maxDist );
+		final double alpha = pass.alpha( distType );
+		final double beta = pass.beta( distType );
+
+		final int numRecoveredDetections = pass.numPairedDetections;
+		final double jsc = numRecoveredDetections / ( ( double ) numRecoveredDetections + ( double ) pass.numMissedDetections + pass.numWrongDetections );
+
+		final int numSpuriousTracks = getNumSpuriousTracks();
+		final int numMissedTracks = getNumMissedTracks();
+		final int numCorrectTracks = getNumPairedTracks();
+		final double jscTheta = numCorrectTracks / ( ( double ) numCorrectTracks + ( double ) numMissedTracks + numSpuriousTracks );
+
+		final double[] data = pass.distanceDetectionData();
+		return new double[] { alpha, beta, jsc, jscTheta, data[ 0 ], data[ 1 ], data[ 2 ], data[ 3 ] };
 	}
 
 	public List< Double > getDistanceDetectionList( final double maxDist )
@@ -332,33 +278,7 @@ public class PerformanceAnalyzer
 
 	public double[] getDistanceDetectionData( final double maxDist )
 	{
-		double sumDistance = 0;
-		double sumSquareDistance = 0;
-		double minDistance = Double.MAX_VALUE;
-		double maxDistance = 0;
-		int numDetections = 0;
-		for ( final TrackPair tp : trackPairs )
-		{
-			if ( tp.candidateTrack != null && !tp.candidateTrack.getDetectionList().isEmpty() )
-			{
-				final TrackToTrackDistance d = new TrackToTrackDistance( tp.referenceTrack, tp.candidateTrack, DistanceTypes.DISTANCE_MATCHING, maxDist );
-				sumDistance += d.sumDetectionDistance;
-				sumSquareDistance += d.sumSquareDetectionDistance;
-				if ( d.minDetectionDistance < minDistance )
-					minDistance = d.minDetectionDistance;
-				if ( d.maxDetectionDistance > maxDistance )
-					maxDistance = d.maxDetectionDistance;
-				numDetections += d.numMatchingDetections;
-			}
-		}
-		if ( numDetections == 0 )
-			return new double[] { 0, 0, 0, 0 };
-		else
-		{
-			final double rmse = Math.sqrt( sumSquareDistance / numDetections );
-			final double stdDistance = Math.sqrt( sumSquareDistance / numDetections - Math.pow( sumDistance / numDetections, 2 ) );
-			return new double[] { rmse, minDistance, maxDistance, stdDistance };
-		}
+		return pass( maxDist ).distanceDetectionData();
 	}
 
 	public List< Double > getAllPairsDetectionEuclidianDistances()
@@ -375,23 +295,19 @@ public class PerformanceAnalyzer
 		final ArrayList< Double > distanceList = new ArrayList< Double >();
 		if ( ts2 == null || ts2.getDetectionList().isEmpty() )
 			return new ArrayList< Double >();
-		final int t0_1 = ts1.getFirstDetection().getT();
-		final int tend_1 = ts1.getLastDetection().getT();
-		final int t0_2 = ts2.getFirstDetection().getT();
-		final int tend_2 = ts2.getLastDetection().getT();
+		final CompactTrack c1 = compact( ts1 );
+		final CompactTrack c2 = compact( ts2 );
+		final int t0_1 = c1.getFirstT();
+		final int tend_1 = c1.getLastT();
+		final int t0_2 = c2.getFirstT();
+		final int tend_2 = c2.getLastT();
 		// test if there is an intersection between segments
 		if ( ( t0_2 >= t0_1 && t0_2 <= tend_1 ) || ( tend_2 >= t0_1 && tend_2 <= tend_1 ) || ( t0_2 <= t0_1 && tend_2 >= tend_1 ) )
 		{
 			final int firstT = Math.max( t0_1, t0_2 );
 			final int endT = Math.min( tend_1, tend_2 );
 			for ( int t = firstT; t <= endT; t++ )
-			{
-				final Detection d1 = ts1.getDetectionAtTime( t );
-				final Detection d2 = ts2.getDetectionAtTime( t );
-				distanceList.add( Double.valueOf( Math.sqrt( ( d1.getX() - d2.getX() ) * ( d1.getX() - d2.getX() )
-						+ ( d1.getY() - d2.getY() ) * ( d1.getY() - d2.getY() )
-						+ ( d1.getZ() - d2.getZ() ) * ( d1.getZ() - d2.getZ() ) ) ) );
-			}
+				distanceList.add( Double.valueOf( TrackToTrackDistance.detectionDistance( c1, c2, t ) ) );
 		}
 		return distanceList;
 	}
@@ -415,19 +331,18 @@ public class PerformanceAnalyzer
 	protected List< Double > getJumpLengthList( final TrackSegment ts1 )
 	{
 		final List< Double > lengthList = new ArrayList< Double >();
-		final int firstT = ts1.getFirstDetection().getT();
-		final int lastT = ts1.getLastDetection().getT();
+		final CompactTrack c1 = compact( ts1 );
+		final int firstT = c1.getFirstT();
+		final int lastT = c1.getLastT();
 
 		for ( int t = firstT; t < lastT; t++ )
 		{
-			final Detection d1 = ts1.getDetectionAtTime( t );
-			if ( d1 != null )
+			if ( c1.hasDetectionAtTime( t ) && c1.hasDetectionAtTime( t + 1 ) )
 			{
-				final Detection d2 = ts1.getDetectionAtTime( t + 1 );
-				if ( d2 != null )
-					lengthList.add( Double.valueOf( Math.sqrt( ( d1.getX() - d2.getX() ) * ( d1.getX() - d2.getX() )
-							+ ( d1.getY() - d2.getY() ) * ( d1.getY() - d2.getY() )
-							+ ( d1.getZ() - d2.getZ() ) * ( d1.getZ() - d2.getZ() ) ) ) );
+				final double dx = c1.getX( t ) - c1.getX( t + 1 );
+				final double dy = c1.getY( t ) - c1.getY( t + 1 );
+				final double dz = c1.getZ( t ) - c1.getZ( t + 1 );
+				lengthList.add( Double.valueOf( Math.sqrt( dx * dx + dy * dy + dz * dz ) ) );
 			}
 		}
 		return lengthList;
@@ -458,22 +373,20 @@ public class PerformanceAnalyzer
 
 		for ( final TrackSegment ts : tracks )
 		{
+			final CompactTrack c = compact( ts );
+			final int firstT = c.getFirstT();
+			final int lastT = c.getLastT();
 			for ( int tGap = 1; tGap <= maxTGap; tGap++ )
 			{
-				final int firstT = ts.getFirstDetection().getT();
-				final int lastT = ts.getLastDetection().getT();
-
 				for ( int t = firstT; t <= lastT - tGap; t++ )
 				{
-					final Detection d1 = ts.getDetectionAtTime( t );
-					if ( d1 != null )
+					if ( c.hasDetectionAtTime( t ) && c.hasDetectionAtTime( t + tGap ) )
 					{
-						final Detection d2 = ts.getDetectionAtTime( t + tGap );
-						if ( d2 != null )
-						{
-							msds[ tGap - 1 ] += ( d1.getX() - d2.getX() ) * ( d1.getX() - d2.getX() ) + ( d1.getY() - d2.getY() ) * ( d1.getY() - d2.getY() ) + ( d1.getZ() - d2.getZ() ) * ( d1.getZ() - d2.getZ() );
-							numJumps[ tGap - 1 ] += 1;
-						}
+						final double dx = c.getX( t ) - c.getX( t + tGap );
+						final double dy = c.getY( t ) - c.getY( t + tGap );
+						final double dz = c.getZ( t ) - c.getZ( t + tGap );
+						msds[ tGap - 1 ] += dx * dx + dy * dy + dz * dz;
+						numJumps[ tGap - 1 ] += 1;
 					}
 				}
 			}
@@ -485,4 +398,131 @@ public class PerformanceAnalyzer
 		}
 		return msds;
 	}
+
+	/**
+	 * Returns the criteria that depend on the gate, computing them if the gate
+	 * is not the one of the last call.
+	 */
+	private Pass pass( final double maxDist )
+	{
+		if ( pass == null || Double.compare( pass.maxDist, maxDist ) != 0 )
+			pass = new Pass( maxDist );
+		return pass;
+	}
+
+	/**
+	 * The criteria that depend on the gate, computed with a single distance
+	 * computation per track pair, for both distance types.
+	 */
+	private final class Pass
+	{
+
+		private final double maxDist;
+
+		/**
+		 * Distances indexed by distance type.
+		 */
+		private final double[] pairsDistance = new double[ DistanceTypes.values().length ];
+
+		private final double[] bound = new double[ DistanceTypes.values().length ];
+
+		private final double[] penalty = new double[ DistanceTypes.values().length ];
+
+		private int numPairedDetections = 0;
+
+		private int numMissedDetections = 0;
+
+		private int numWrongDetections = 0;
+
+		private double sumDistance = 0;
+
+		private double sumSquareDistance = 0;
+
+		private double minDistance = Double.MAX_VALUE;
+
+		private double maxDistance = 0;
+
+		private int numDetections = 0;
+
+		private Pass( final double maxDist )
+		{
+			this.maxDist = maxDist;
+			final int eucl = DistanceTypes.DISTANCE_EUCLIDIAN.ordinal();
+			final int match = DistanceTypes.DISTANCE_MATCHING.ordinal();
+
+			final int[] wrongDetections = new int[ trackPairs.size() ];
+			for ( int i = 0; i < trackPairs.size(); i++ )
+			{
+				final TrackPair tp = trackPairs.get( i );
+				final TrackToTrackDistance d = new TrackToTrackDistance( compact( tp.referenceTrack ), compact( tp.candidateTrack ), DistanceTypes.DISTANCE_EUCLIDIAN, maxDist );
+				pairsDistance[ eucl ] += d.euclidianDistance;
+				pairsDistance[ match ] += d.matchingDistance;
+				numPairedDetections += d.numMatchingDetections;
+				numMissedDetections += d.numNonMatchedDetections;
+				wrongDetections[ i ] = d.numWrongDetections;
+				if ( tp.candidateTrack != null && !tp.candidateTrack.getDetectionList().isEmpty() )
+				{
+					sumDistance += d.sumDetectionDistance;
+					sumSquareDistance += d.sumSquareDetectionDistance;
+					if ( d.minDetectionDistance < minDistance )
+						minDistance = d.minDetectionDistance;
+					if ( d.maxDetectionDistance > maxDistance )
+						maxDistance = d.maxDetectionDistance;
+					numDetections += d.numMatchingDetections;
+				}
+			}
+
+			// the bound on the distance
+			for ( final TrackSegment ts : referenceTracks )
+			{
+				final TrackToTrackDistance d = new TrackToTrackDistance( compact( ts ), null, DistanceTypes.DISTANCE_EUCLIDIAN, maxDist );
+				bound[ eucl ] += d.euclidianDistance;
+				bound[ match ] += d.matchingDistance;
+			}
+
+			// the penalty and the detections of non-associated tracks
+			for ( final TrackSegment ts : candidateTracks )
+			{
+				final Integer pairIndex = candidatePairs.get( ts );
+				if ( pairIndex != null )
+				{
+					numWrongDetections += wrongDetections[ pairIndex.intValue() ];
+				}
+				else
+				{
+					final TrackToTrackDistance d = new TrackToTrackDistance( compact( ts ), null, DistanceTypes.DISTANCE_EUCLIDIAN, maxDist );
+					penalty[ eucl ] += d.euclidianDistance;
+					penalty[ match ] += d.matchingDistance;
+					// Virtual detections are not considered as spurious
+					// detections.
+					numWrongDetections += compact( ts ).countDetections( Detection.DETECTIONTYPE_REAL_DETECTION );
+				}
+			}
+		}
+
+		private double pairsDistance( final DistanceTypes distType )
+		{
+			return pairsDistance[ distType.ordinal() ];
+		}
+
+		private double alpha( final DistanceTypes distType )
+		{
+			return 1d - pairsDistance[ distType.ordinal() ] / bound[ distType.ordinal() ];
+		}
+
+		private double beta( final DistanceTypes distType )
+		{
+			final int i = distType.ordinal();
+			return ( bound[ i ] - pairsDistance[ i ] ) / ( bound[ i ] + penalty[ i ] );
+		}
+
+		private double[] distanceDetectionData()
+		{
+			if ( numDetections == 0 )
+				return new double[] { 0, 0, 0, 0 };
+			final double rmse = Math.sqrt( sumSquareDistance / numDetections );
+			final double stdDistance = Math.sqrt( sumSquareDistance / numDetections - Math.pow( sumDistance / numDetections, 2 ) );
+			return new double[] { rmse, minDistance, maxDistance, stdDistance };
+		}
+	}
 }
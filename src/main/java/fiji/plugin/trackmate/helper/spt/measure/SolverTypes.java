@@ -0,0 +1,36 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.spt.measure;
+
+/**
+ * Solvers that can be used to find the best one-to-one matching between
+ * reference and candidate tracks. SOLVER_HUNGARIAN and SOLVER_HUNGARIAN_NEW
+ * solve the dense cost matrix of each cluster of tracks with the Munkres
+ * algorithm, in cubic time. SOLVER_SPARSE_JV only considers the feasible
+ * pairs of tracks and scales to large clusters. It finds an assignment of
+ * the same total cost, but not necessarily the same one when there are ties,
+ * so it must be selected explicitly.
+ */
+public enum SolverTypes
+{
+	SOLVER_HUNGARIAN, SOLVER_HUNGARIAN_NEW, SOLVER_SPARSE_JV
+}
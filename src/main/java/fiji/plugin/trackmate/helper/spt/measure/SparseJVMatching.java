@@ -0,0 +1,305 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.spt.measure;
+
+import java.util.Arrays;
+
+/**
+ * Solver for the sparse rectangular assignment problem, based on the shortest
+ * augmenting path method of Jonker and Volgenant.
+ * <p>
+ * Only the feasible associations are given to the solver, in compressed row
+ * storage, so that memory and time scale with the number of feasible
+ * associations instead of the size of the dense cost matrix. Each row is
+ * assigned to exactly one column, and each column to at most one row, so that
+ * the sum of the costs is minimal. The number of rows has to be less or equal
+ * to the number of columns.
+ * 
+ * @author Jean-Yves Tinevez
+ */
+public class SparseJVMatching
+{
+
+	private final int numRows;
+
+	private final int numCols;
+
+	private final int[] rowStart;
+
+	private final int[] cols;
+
+	private final double[] costs;
+
+	/**
+	 * Create the optimizer.
+	 * 
+	 * @param numRows
+	 *            the number of rows.
+	 * @param numCols
+	 *            the number of columns.
+	 * @param rowStart
+	 *            the index of the first feasible association of each row in
+	 *            the <code>cols</code> and <code>costs</code> arrays, followed
+	 *            by the total number of feasible associations (length
+	 *            <code>numRows + 1</code>).
+	 * @param cols
+	 *            the column of each feasible association.
+	 * @param costs
+	 *            the cost of each feasible association.
+	 */
+	public SparseJVMatching( final int numRows, final int numCols, final int[] rowStart, final int[] cols, final double[] costs )
+	{
+		if ( numRows > numCols )
+			throw new IllegalArgumentException( "The number of rows has to be less or equal to the number of columns." );
+		if ( rowStart.length != numRows + 1 || cols.length != costs.length || rowStart[ numRows ] != cols.length )
+			throw new IllegalArgumentException( "Inconsistent sparse cost matrix." );
+		this.numRows = numRows;
+		this.numCols = numCols;
+		this.rowStart = rowStart;
+		this.cols = cols;
+		this.costs = costs;
+	}
+
+	/**
+	 * Compute the optimal assignment.
+	 * 
+	 * @return the column assigned to each row.
+	 * @throws Exception
+	 *             if some rows cannot be assigned with the feasible
+	 *             associations.
+	 */
+	public int[] compute() throws Exception
+	{
+		final double[] u = new double[ numRows ];
+		final double[] v = new double[ numCols ];
+		final int[] colOfRow = new int[ numRows ];
+		final int[] rowOfCol = new int[ numCols ];
+		Arrays.fill( colOfRow, -1 );
+		Arrays.fill( rowOfCol, -1 );
+
+		/*
+		 * Greedy initialization: a row takes its cheapest column if it is
+		 * free. With zero column potentials, the assigned pairs then satisfy
+		 * the optimality conditions.
+		 */
+		for ( int i = 0; i < numRows; i++ )
+		{
+			int best = -1;
+			double bestCost = Double.POSITIVE_INFINITY;
+			for ( int k = rowStart[ i ]; k < rowStart[ i + 1 ]; k++ )
+			{
+				if ( costs[ k ] < bestCost || ( costs[ k ] == bestCost && cols[ k ] < best ) )
+				{
+					bestCost = costs[ k ];
+					best = cols[ k ];
+				}
+			}
+			if ( best < 0 )
+				throw new Exception( "Row " + i + " has no feasible association." );
+			u[ i ] = bestCost;
+			if ( rowOfCol[ best ] < 0 )
+			{
+				colOfRow[ i ] = best;
+				rowOfCol[ best ] = i;
+			}
+		}
+
+		/*
+		 * Augment the free rows along shortest paths in the graph of reduced
+		 * costs. Only the columns reached by a search are touched, so that a
+		 * search costs in proportion to the part of the graph it explores.
+		 */
+		final double[] shortest = new double[ numCols ];
+		Arrays.fill( shortest, Double.POSITIVE_INFINITY );
+		final int[] path = new int[ numCols ];
+		final boolean[] scannedCols = new boolean[ numCols ];
+		final int[] touchedCols = new int[ numCols ];
+		final int[] touchedRows = new int[ numRows ];
+		final Heap heap = new Heap();
+
+		for ( int curRow = 0; curRow < numRows; curRow++ )
+		{
+			if ( colOfRow[ curRow ] >= 0 )
+				continue;
+
+			int nTouchedCols = 0;
+			int nTouchedRows = 0;
+			heap.clear();
+			double minVal = 0.;
+			int i = curRow;
+			int sink = -1;
+			while ( sink < 0 )
+			{
+				touchedRows[ nTouchedRows++ ] = i;
+				for ( int k = rowStart[ i ]; k < rowStart[ i + 1 ]; k++ )
+				{
+					final int j = cols[ k ];
+					if ( scannedCols[ j ] )
+						continue;
+					final double r = minVal + costs[ k ] - u[ i ] - v[ j ];
+					if ( r < shortest[ j ] )
+					{
+						if ( shortest[ j ] == Double.POSITIVE_INFINITY )
+							touchedCols[ nTouchedCols++ ] = j;
+						shortest[ j ] = r;
+						path[ j ] = i;
+						heap.push( j, r );
+					}
+				}
+
+				// closest column not scanned yet
+				int j = -1;
+				while ( !heap.isEmpty() )
+				{
+					final int top = heap.pop();
+					if ( !scannedCols[ top ] )
+					{
+						j = top;
+						break;
+					}
+				}
+				if ( j < 0 )
+					throw new Exception( "No complete assignment exists with the feasible associations." );
+
+				minVal = shortest[ j ];
+				scannedCols[ j ] = true;
+				if ( rowOfCol[ j ] < 0 )
+					sink = j;
+				else
+					i = rowOfCol[ j ];
+			}
+
+			// update the dual variables
+			u[ curRow ] += minVal;
+			for ( int k = 0; k < nTouchedRows; k++ )
+			{
+				final int r = touchedRows[ k ];
+				if ( r != curRow )
+					u[ r ] += minVal - shortest[ colOfRow[ r ] ];
+			}
+			for ( int k = 0; k < nTouchedCols; k++ )
+			{
+				final int c = touchedCols[ k ];
+				if ( scannedCols[ c ] )
+					v[ c ] -= minVal - shortest[ c ];
+			}
+
+			// augment the assignment along the path
+			int j = sink;
+			while ( true )
+			{
+				final int r = path[ j ];
+				rowOfCol[ j ] = r;
+				final int previous = colOfRow[ r ];
+				colOfRow[ r ] = j;
+				if ( r == curRow )
+					break;
+				j = previous;
+			}
+
+			// reset what was touched for the next row
+			for ( int k = 0; k < nTouchedCols; k++ )
+			{
+				final int c = touchedCols[ k ];
+				shortest[ c ] = Double.POSITIVE_INFINITY;
+				scannedCols[ c ] = false;
+			}
+		}
+		return colOfRow;
+	}
+
+	/**
+	 * Binary min-heap of columns keyed by their path length. A column is
+	 * pushed again when its key decreases, and stale entries are skipped when
+	 * popped. Ties are broken by column index so that the result is
+	 * deterministic.
+	 */
+	private static final class Heap
+	{
+
+		private double[] keys = new double[ 16 ];
+
+		private int[] items = new int[ 16 ];
+
+		private int size = 0;
+
+		private void clear()
+		{
+			size = 0;
+		}
+
+		private boolean isEmpty()
+		{
+			return size == 0;
+		}
+
+		private void push( final int item, final double key )
+		{
+			if ( size == keys.length )
+			{
+				keys = Arrays.copyOf( keys, 2 * size );
+				items = Arrays.copyOf( items, 2 * size );
+			}
+			int k = size++;
+			while ( k > 0 )
+			{
+				final int parent = ( k - 1 ) >>> 1;
+				if ( !less( key, item, keys[ parent ], items[ parent ] ) )
+					break;
+				keys[ k ] = keys[ parent ];
+				items[ k ] = items[ parent ];
+				k = parent;
+			}
+			keys[ k ] = key;
+			items[ k ] = item;
+		}
+
+		private int pop()
+		{
+			final int top = items[ 0 ];
+			final double key = keys[ --size ];
+			final int item = items[ size ];
+			int k = 0;
+			while ( true )
+			{
+				int child = 2 * k + 1;
+				if ( child >= size )
+					break;
+				if ( child + 1 < size && less( keys[ child + 1 ], items[ child + 1 ], keys[ child ], items[ child ] ) )
+					child++;
+				if ( !less( keys[ child ], items[ child ], key, item ) )
+					break;
+				keys[ k ] = keys[ child ];
+				items[ k ] = items[ child ];
+				k = child;
+			}
+			keys[ k ] = key;
+			items[ k ] = item;
+			return top;
+		}
+
+		private static boolean less( final double key1, final int item1, final double key2, final int item2 )
+		{
+			return key1 < key2 || ( key1 == key2 && item1 < item2 );
+		}
+	}
+}
@@ -43,6 +43,8 @@ import java.util.ArrayList;
 
 import javax.sound.midi.Sequence;
 
+import gnu.trove.map.hash.TIntObjectHashMap;
+
 public class TrackGroup
 {
 
@@ -54,10 +56,23 @@ public class TrackGroup
 	 */
 	private final ArrayList< TrackSegment > trackSegmentList;
 
+	/**
+	 * The track segments of this group by ID, kept in sync with the
+	 * {@link #trackSegmentList} by the adder and remover. If several segments
+	 * share an ID, the first one added is mapped.
+	 */
+	private final TIntObjectHashMap< TrackSegment > trackSegmentById;
+
+	/**
+	 * Next ID to give to a track segment added to this group.
+	 */
+	private int nextId = 1;
+
 	public TrackGroup( final Sequence sequence )
 	{
 		this.sequence = sequence;
 		trackSegmentList = new ArrayList< TrackSegment >();
+		trackSegmentById = new TIntObjectHashMap< TrackSegment >();
 	}
 
 	/**
@@ -85,7 +100,24 @@ public class TrackGroup
 		// +ts.toString() );
 
 		ts.setOwnerTrackGroup( this );
+		if ( ts.getId() == 0 )
+			ts.setId( nextId++ );
 		trackSegmentList.add( ts );
+		trackSegmentById.putIfAbsent( ts.getId(), ts );
+	}
+
+	/**
+	 * Returns the track segment of this group with the specified ID, or
+	 * <code>null</code> if there is none. The lookup takes constant time. The
+	 * ID of a segment must not be changed after it is added to this group.
+	 *
+	 * @param id
+	 *            the ID of the track segment.
+	 * @return the track segment with this ID, or <code>null</code>.
+	 */
+	public TrackSegment getTrackSegmentById( final int id )
+	{
+		return trackSegmentById.get( id );
 	}
 
 	public TrackSegment getTrackSegmentWithDetection( final Detection detection )
@@ -118,6 +150,16 @@ public class TrackGroup
 		ts.setOwnerTrackGroup( null );
 		ts.removeAllLinks();
 		trackSegmentList.remove( ts );
+		if ( trackSegmentById.get( ts.getId() ) == ts )
+		{
+			trackSegmentById.remove( ts.getId() );
+			for ( final TrackSegment other : trackSegmentList )
+				if ( other.getId() == ts.getId() )
+				{
+					trackSegmentById.put( other.getId(), other );
+					break;
+				}
+		}
 	}
 
 	private String description;
@@ -22,7 +22,10 @@
 package fiji.plugin.trackmate.helper.spt.measure;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Main class for the track processor that computes tracking quality with
@@ -45,6 +48,26 @@ public class TrackProcessorPerformance
 
 	private final ArrayList< TrackSegment > spuriousTracks = new ArrayList< TrackSegment >();
 
+	private SolverTypes solver = SolverTypes.SOLVER_HUNGARIAN_NEW;
+
+	/**
+	 * Sets the solver used to pair tracks. The default is
+	 * {@link SolverTypes#SOLVER_HUNGARIAN_NEW}.
+	 * <p>
+	 * {@link SolverTypes#SOLVER_SPARSE_JV} is much faster on large clusters of
+	 * tracks and finds an assignment of the same total cost. When several
+	 * assignments have this cost, it may pick another one than the Hungarian
+	 * solver, which can change beta, JSC and the counts of paired, missed
+	 * and spurious tracks and detections.
+	 * 
+	 * @param solver
+	 *            the solver.
+	 */
+	public void setSolver( final SolverTypes solver )
+	{
+		this.solver = solver;
+	}
+
 	public void setTrackGroups( final TrackGroup refTG, final TrackGroup candidateTG )
 	{
 		trackPairs.clear();
@@ -59,7 +82,6 @@ public class TrackProcessorPerformance
 			final List< TrackSegment > trackSegmentList2,
 			final double maxDist )
 	{
-		final boolean newMethod = true;
 		final OneToOneMatcher matcher = new OneToOneMatcher( trackSegmentList1, trackSegmentList2 );
 		final DistanceTypes distType = DistanceTypes.DISTANCE_EUCLIDIAN;
 		if ( maxDist < 0 )
@@ -67,7 +89,7 @@ public class TrackProcessorPerformance
 		final ArrayList< TrackPair > pairs = new ArrayList< TrackPair >();
 		try
 		{
-			pairs.addAll( matcher.pairTracks( maxDist, distType, newMethod ) );
+			pairs.addAll( matcher.pairTracks( maxDist, distType, solver ) );
 		}
 		catch ( final Exception e )
 		{
@@ -98,9 +120,11 @@ public class TrackProcessorPerformance
 				correctTracks.add( tp.candidateTrack );
 			}
 		}
+		final Set< TrackSegment > paired = Collections.newSetFromMap( new IdentityHashMap<>() );
+		paired.addAll( correctTracks );
 		for ( final TrackSegment ts : trackSegmentList2 )
 		{
-			if ( !correctTracks.contains( ts ) )
+			if ( !paired.contains( ts ) )
 				spuriousTracks.add( ts );
 		}
 
@@ -40,10 +40,7 @@
 package fiji.plugin.trackmate.helper.spt.measure;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
 
 /**
  * TrackSegment is a pool of consecutive detection.
@@ -55,10 +52,6 @@ import java.util.Random;
 public class TrackSegment implements Cloneable
 {
 
-	protected static Map< TrackSegment, Integer > idHashMapList = new HashMap< TrackSegment, Integer >(); // 1-1
-
-	protected static Map< Integer, TrackSegment > idKeyHashMapList = new HashMap< Integer, TrackSegment >(); // 1-1
-																												// hashmap.
 	private List< Detection > detectionList = new ArrayList< Detection >();
 
 	private List< TrackSegment > previousList = new ArrayList< TrackSegment >();
@@ -67,23 +60,17 @@ public class TrackSegment implements Cloneable
 
 	private TrackGroup ownerTrackGroup = null;
 
+	/**
+	 * ID of the segment, 0 if not assigned. There is no global registry of
+	 * segments: the IDs are assigned by the {@link TrackGroup} the segment is
+	 * added to, or by the importer that created it, so that segments can be
+	 * created concurrently and garbage-collected once scored.
+	 */
 	private int id = 0;
 
-	private static final Random RANDOM = new Random();
-
-	public static TrackSegment getTrackSegmentById( final int id )
-	{
-		synchronized ( idKeyHashMapList )
-		{
-			return idKeyHashMapList.get( Integer.valueOf( id ) );
-		}
-	}
-
 	public TrackSegment()
 	{
 		super();
-
-		generateId();
 	}
 
 	/** Constructor with a list of detection */
@@ -92,7 +79,6 @@ public class TrackSegment implements Cloneable
 		super();
 
 		this.detectionList = detectionList;
-		generateId();
 
 		// FIXME: add a duplicate owner test.
 		// for (Detection detection : detectionList)
@@ -122,77 +108,21 @@ public class TrackSegment implements Cloneable
 		previousList = new ArrayList< TrackSegment >( previousList );
 		nextList = new ArrayList< TrackSegment >( nextList );
 
-		generateId();
+		cloneSegment.id = 0;
 
 		return cloneSegment;
 
 	}
 
-	public void removeId()
-	{
-		synchronized ( idKeyHashMapList )
-		{
-			synchronized ( idHashMapList )
-			{
-				idKeyHashMapList.remove( Integer.valueOf( id ) );
-				idHashMapList.remove( this );
-			}
-		}
-	}
-
+	/** return the ID of this segment, 0 if not assigned */
 	public int getId()
 	{
 		return id;
 	}
 
-	public void generateId()
-	{
-		// just for safety
-		removeId();
-
-		synchronized ( idKeyHashMapList )
-		{
-			synchronized ( idHashMapList )
-			{
-				while ( true )
-				{
-					final Integer key = Integer.valueOf( RANDOM.nextInt() );
-
-					// available ?
-					if ( idKeyHashMapList.get( key ) == null )
-					{
-						idHashMapList.put( this, key );
-						idKeyHashMapList.put( key, this );
-
-						this.id = key.intValue();
-
-						return;
-					}
-				}
-			}
-		}
-	}
-
 	public void setId( final int id )
 	{
-		final Integer key = Integer.valueOf( id );
-
-		synchronized ( idKeyHashMapList )
-		{
-			synchronized ( idHashMapList )
-			{
-				// available ?
-				if ( idKeyHashMapList.get( key ) == null )
-				{
-					idHashMapList.put( this, key );
-					idKeyHashMapList.put( key, this );
-
-					this.id = key.intValue();
-				}
-//				else
-//					System.out.println( "track id already loaded" );
-			}
-		}
+		this.id = id;
 	}
 
 	/** */
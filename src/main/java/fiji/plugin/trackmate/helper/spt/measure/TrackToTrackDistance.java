@@ -34,6 +34,14 @@ public class TrackToTrackDistance
 	
 	double distance;
 
+	/**
+	 * The distance between the tracks for the Euclidian and for the matching
+	 * distance types. {@link #distance} is the one of the requested type.
+	 */
+	double euclidianDistance;
+
+	double matchingDistance;
+
 	boolean isMatching = false;
 
 	int firstMatchingTime = -1;
@@ -70,27 +78,43 @@ public class TrackToTrackDistance
 	 */
 	public TrackToTrackDistance( final TrackSegment ts1, final TrackSegment ts2, final DistanceTypes distanceType, final double maxDist )
 	{
-		if ( ts2 == null || ts2.getDetectionList().isEmpty() )
+		this( CompactTrack.of( ts1 ), ( ts2 == null ) ? null : CompactTrack.of( ts2 ), distanceType, maxDist );
+	}
+
+	/**
+	 * Compute the distance between two compact tracks. Time-points of the
+	 * overlap of the two tracks where one of them has no detection are counted
+	 * as non-matching.
+	 * 
+	 * @param ts1
+	 *            the first track
+	 * @param ts2
+	 *            the track with which to compare the first track
+	 * @param distanceType
+	 *            the type of distance between detections that is used for the
+	 *            computation
+	 * @param maxDist
+	 *            the gate that is used for computing the distance between
+	 *            detections
+	 */
+	public TrackToTrackDistance( final CompactTrack ts1, final CompactTrack ts2, final DistanceTypes distanceType, final double maxDist )
+	{
+		final int length1 = ts1.getLastT() - ts1.getFirstT() + 1;
+		if ( ts2 == null || ts2.isEmpty() )
 		{
 			isMatching = false;
-			switch ( distanceType )
-			{
-			case DISTANCE_EUCLIDIAN:
-				distance = maxDist * ( ts1.getLastDetection().getT() - ts1.getFirstDetection().getT() + 1 );
-				break;
-			case DISTANCE_MATCHING:
-				distance = ( ts1.getLastDetection().getT() - ts1.getFirstDetection().getT() + 1 );
-				break;
-			}
+			euclidianDistance = maxDist * length1;
+			matchingDistance = length1;
+			distance = ( distanceType == DistanceTypes.DISTANCE_EUCLIDIAN ) ? euclidianDistance : matchingDistance;
 			numMatchingDetections = 0;
-			numNonMatchedDetections = ( ts1.getLastDetection().getT() - ts1.getFirstDetection().getT() + 1 );
+			numNonMatchedDetections = length1;
 			numWrongDetections = 0;
 			return;
 		}
-		final int t0_1 = ts1.getFirstDetection().getT();
-		final int tend_1 = ts1.getLastDetection().getT();
-		final int t0_2 = ts2.getFirstDetection().getT();
-		final int tend_2 = ts2.getLastDetection().getT();
+		final int t0_1 = ts1.getFirstT();
+		final int tend_1 = ts1.getLastT();
+		final int t0_2 = ts2.getFirstT();
+		final int tend_2 = ts2.getLastT();
 
 		// test if there is an intersection between segments
 		if ( ( t0_2 >= t0_1 && t0_2 <= tend_1 ) || ( tend_2 >= t0_1 && tend_2 <= tend_1 ) || ( t0_2 <= t0_1 && tend_2 >= tend_1 ) )
@@ -103,102 +127,71 @@ public class TrackToTrackDistance
 
 			final int firstT = Math.max( t0_1, t0_2 );
 			final int endT = Math.min( tend_1, tend_2 );
-			switch ( distanceType )
-			{
-			case DISTANCE_EUCLIDIAN:
+			/*
+			 * Both distance types are computed in the same pass: they only
+			 * differ by the penalty of the time-points that do not match.
+			 */
+			boolean matching = false;
+			euclidianDistance = maxDist * ( Math.abs( t0_2 - t0_1 ) + Math.abs( tend_2 - tend_1 ) );
+			matchingDistance = ( Math.abs( t0_2 - t0_1 ) + Math.abs( tend_2 - tend_1 ) );
+			for ( int t = firstT; t <= endT; t++ )
 			{
-				distance = maxDist * ( Math.abs( t0_2 - t0_1 ) + Math.abs( tend_2 - tend_1 ) );
-				for ( int t = firstT; t <= endT; t++ )
+				final double ed = detectionDistance( ts1, ts2, t );
+				final int type2 = ts2.getDetectionType( t );
+				if ( type2 == Detection.DETECTIONTYPE_REAL_DETECTION && ed < maxDist )
 				{
-					final Detection d1 = ts1.getDetectionAtTime( t );
-					final Detection d2 = ts2.getDetectionAtTime( t );
-					final double ed = Math.sqrt( ( d1.getX() - d2.getX() ) * ( d1.getX() - d2.getX() ) + ( d1.getY() - d2.getY() ) * ( d1.getY() - d2.getY() ) + ( d1.getZ() - d2.getZ() ) * ( d1.getZ() - d2.getZ() ) );
-					if ( d2.getDetectionType() == Detection.DETECTIONTYPE_REAL_DETECTION && ed < maxDist )
-					{
-						if ( !isMatching )
-						{
-							firstMatchingTime = t;
-							isMatching = true;
-						}
-						lastMatchingTime = t;
-						distance += ed;
-						numMatchingDetections++;
-						// distance between detections
-						sumDetectionDistance += ed;
-						sumSquareDetectionDistance += ( ed * ed );
-						if ( ed < minDetectionDistance )
-							minDetectionDistance = ed;
-						else if ( ed > maxDetectionDistance )
-							maxDetectionDistance = ed;
-					}
-					else
+					if ( !matching )
 					{
-						// virtual detections are not considered as spurious
-						// detections
-						if ( d2.getDetectionType() == Detection.DETECTIONTYPE_REAL_DETECTION )
-							numWrongDetections++;
-						numNonMatchedDetections++;
-						distance += maxDist;
+						firstMatchingTime = t;
+						matching = true;
 					}
+					lastMatchingTime = t;
+					// not penalty if matching
+					euclidianDistance += ed;
+					numMatchingDetections++;
+					// distance between detections
+					sumDetectionDistance += ed;
+					sumSquareDetectionDistance += ( ed * ed );
+					if ( ed < minDetectionDistance )
+						minDetectionDistance = ed;
+					else if ( ed > maxDetectionDistance )
+						maxDetectionDistance = ed;
 				}
-				break;
-			}
-			case DISTANCE_MATCHING:
-			{
-				boolean matching = false;
-				distance = ( Math.abs( t0_2 - t0_1 ) + Math.abs( tend_2 - tend_1 ) );
-				for ( int t = firstT; t <= endT; t++ )
+				else
 				{
-					final Detection d1 = ts1.getDetectionAtTime( t );
-					final Detection d2 = ts2.getDetectionAtTime( t );
-					final double ed = Math.sqrt( ( d1.getX() - d2.getX() ) * ( d1.getX() - d2.getX() ) + ( d1.getY() - d2.getY() ) * ( d1.getY() - d2.getY() ) + ( d1.getZ() - d2.getZ() ) * ( d1.getZ() - d2.getZ() ) );
-					if ( d2.getDetectionType() == Detection.DETECTIONTYPE_REAL_DETECTION && ed < maxDist )
-					{
-						if ( !matching )
-						{
-							firstMatchingTime = t;
-							matching = true;
-						}
-						lastMatchingTime = t;
-						// not penalty if matching
-						numMatchingDetections++;
-						// distance between detections
-						sumDetectionDistance += ed;
-						sumSquareDetectionDistance += ( ed * ed );
-						if ( ed < minDetectionDistance )
-							minDetectionDistance = ed;
-						else if ( ed > maxDetectionDistance )
-							maxDetectionDistance = ed;
-					}
-					else
-					{
-						distance++;
-						// virtual detections are not considered as spurious
-						// detections
-						if ( d2.getDetectionType() == Detection.DETECTIONTYPE_REAL_DETECTION )
-							numWrongDetections++;
-						numNonMatchedDetections++;
-					}
+					// virtual detections are not considered as spurious
+					// detections
+					if ( type2 == Detection.DETECTIONTYPE_REAL_DETECTION )
+						numWrongDetections++;
+					numNonMatchedDetections++;
+					euclidianDistance += maxDist;
+					matchingDistance++;
 				}
-				break;
-			}
 			}
+			// as originally, only the Euclidian distance flags matching tracks
+			isMatching = matching && distanceType == DistanceTypes.DISTANCE_EUCLIDIAN;
 		}
 		else
 		{
 			numMatchingDetections = 0;
-			numWrongDetections += ( ts2.getLastDetection().getT() - ts2.getFirstDetection().getT() + 1 );
-			numNonMatchedDetections += ( ts1.getLastDetection().getT() - ts1.getFirstDetection().getT() + 1 );
+			numWrongDetections += ( ts2.getLastT() - ts2.getFirstT() + 1 );
+			numNonMatchedDetections += length1;
 			isMatching = false;
-			switch ( distanceType )
-			{
-			case DISTANCE_EUCLIDIAN:
-				distance = maxDist * ( ts1.getLastDetection().getT() - ts1.getFirstDetection().getT() + 1 );
-				break;
-			case DISTANCE_MATCHING:
-				distance = ( ts1.getLastDetection().getT() - ts1.getFirstDetection().getT() + 1 );
-				break;
-			}
+			euclidianDistance = maxDist * length1;
+			matchingDistance = length1;
 		}
+		distance = ( distanceType == DistanceTypes.DISTANCE_EUCLIDIAN ) ? euclidianDistance : matchingDistance;
+	}
+
+	/**
+	 * Returns the Euclidian distance between the detections of two tracks at
+	 * time t. It is NaN if one of the tracks has no detection at this time.
+	 */
+	static double detectionDistance( final CompactTrack ts1, final CompactTrack ts2, final int t )
+	{
+		final double dx = ts1.getX( t ) - ts2.getX( t );
+		final double dy = ts1.getY( t ) - ts2.getY( t );
+		final double dz = ts1.getZ( t ) - ts2.getZ( t );
+		return Math.sqrt( dx * dx + dy * dy + dz * dz );
 	}
 }
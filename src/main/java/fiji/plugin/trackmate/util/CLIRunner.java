@@ -24,16 +24,25 @@ package fiji.plugin.trackmate.util;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.helper.HelperRunner;
 import fiji.plugin.trackmate.helper.HelperRunner.Builder;
+import fiji.plugin.trackmate.helper.MetricsRunner.ResultsFormat;
+import fiji.plugin.trackmate.helper.PreScreening;
+import fiji.plugin.trackmate.helper.SweepWorkQueue;
 import fiji.plugin.trackmate.helper.TrackingMetricsType;
+import fiji.plugin.trackmate.helper.TrackingMetricsType.MetricValue;
 import fiji.plugin.trackmate.helper.ctc.CTCTrackingMetricsType;
 import fiji.plugin.trackmate.helper.spt.SPTTrackingMetricsType;
 import ij.IJ;
@@ -63,13 +72,147 @@ public class CLIRunner
 		final String taskDefFile = jsonObject.get( "helper_task_definition_path" ).getAsString();
 		final String logFile = jsonObject.get( "log_file" ).getAsString();
 		final double maxDist = jsonObject.get( "spt_max_linking_distance" ).getAsDouble();
+		final int numThreads = jsonObject.has( "num_threads" )
+				? jsonObject.get( "num_threads" ).getAsInt()
+				: 1;
+		final boolean useDetectionCache = jsonObject.has( "detection_cache" )
+				&& jsonObject.get( "detection_cache" ).getAsBoolean();
+		// Model-based search mode: max number of settings to evaluate.
+		final int searchBudget = jsonObject.has( "search_budget" )
+				? jsonObject.get( "search_budget" ).getAsInt()
+				: 0;
+		// Write results every N lines or T seconds.
+		final int flushEveryLines = jsonObject.has( "results_flush_lines" )
+				? jsonObject.get( "results_flush_lines" ).getAsInt()
+				: 1;
+		final double flushEverySeconds = jsonObject.has( "results_flush_seconds" )
+				? jsonObject.get( "results_flush_seconds" ).getAsDouble()
+				: 0.;
+		// Results format: 'csv', 'binary' or 'csv_and_binary'.
+		final ResultsFormat resultsFormat = jsonObject.has( "results_format" )
+				? ResultsFormat.valueOf( jsonObject.get( "results_format" ).getAsString().trim().toUpperCase() )
+				: ResultsFormat.CSV;
+		// Pipeline mode: number of detection, tracking and metrics threads.
+		final int[] pipelineThreads = new int[ 3 ];
+		if ( jsonObject.has( "pipeline_threads" ) )
+		{
+			final JsonArray arr = jsonObject.get( "pipeline_threads" ).getAsJsonArray();
+			for ( int i = 0; i < Math.min( 3, arr.size() ); i++ )
+				pipelineThreads[ i ] = arr.get( i ).getAsInt();
+		}
+
+		// Sharding over several processes: 'i/n', and shared work queue.
+		String shard = jsonObject.has( "shard" )
+				? jsonObject.get( "shard" ).getAsString()
+				: "0/1";
+		boolean useWorkQueue = jsonObject.has( "work_queue" )
+				&& jsonObject.get( "work_queue" ).getAsBoolean();
+		final double claimTimeoutSeconds = jsonObject.has( "claim_timeout_seconds" )
+				? jsonObject.get( "claim_timeout_seconds" ).getAsDouble()
+				: SweepWorkQueue.DEFAULT_CLAIM_TIMEOUT_SECONDS;
+		// Pre-screening thresholds on cheap proxies, e.g. { "max_count_error": 1.0 }.
+		PreScreening preScreening = null;
+		if ( jsonObject.has( "prescreen" ) )
+		{
+			final JsonObject prescreen = jsonObject.get( "prescreen" ).getAsJsonObject();
+			preScreening = new PreScreening();
+			if ( prescreen.has( "max_count_error" ) )
+				preScreening.maxCountError( prescreen.get( "max_count_error" ).getAsDouble() );
+			if ( prescreen.has( "min_detection_f1" ) )
+				preScreening.minDetectionF1( prescreen.get( "min_detection_f1" ).getAsDouble() );
+			if ( prescreen.has( "max_track_count_error" ) )
+				preScreening.maxTrackCountError( prescreen.get( "max_track_count_error" ).getAsDouble() );
+			if ( prescreen.has( "max_track_length_distance" ) )
+				preScreening.maxTrackLengthDistance( prescreen.get( "max_track_length_distance" ).getAsDouble() );
+			if ( prescreen.has( "match_distance" ) )
+				preScreening.matchDistance( prescreen.get( "match_distance" ).getAsDouble() );
+		}
+		// CTC: memory used to keep the ground-truth in memory, in MB.
+		final long gtCacheMB = jsonObject.has( "gt_cache_mb" )
+				? jsonObject.get( "gt_cache_mb" ).getAsLong()
+				: -1l;
+		// CTC: build or load a compact ground-truth index next to it.
+		final boolean gtIndex = !jsonObject.has( "gt_index" )
+				|| jsonObject.get( "gt_index" ).getAsBoolean();
+		// CTC: number of threads to compute the CTC measures concurrently.
+		final int ctcMeasureThreads = jsonObject.has( "ctc_measure_threads" )
+				? jsonObject.get( "ctc_measure_threads" ).getAsInt()
+				: 1;
+		// CTC: export to disk with N threads, and with NIO.
+		final int ctcExportThreads = jsonObject.has( "ctc_export_threads" )
+				? jsonObject.get( "ctc_export_threads" ).getAsInt()
+				: 1;
+		final boolean ctcNIOExport = jsonObject.has( "ctc_nio_export" )
+				&& jsonObject.get( "ctc_nio_export" ).getAsBoolean();
+		// CTC: measure track filter variants from per-track contributions.
+		final boolean ctcTrackFilterDecomposition = jsonObject.has( "ctc_track_filter_decomposition" )
+				&& jsonObject.get( "ctc_track_filter_decomposition" ).getAsBoolean();
+		// CTC: folder where each worker creates its scratch folder.
+		final String ctcScratchFolder = jsonObject.has( "ctc_scratch_folder" )
+				? jsonObject.get( "ctc_scratch_folder" ).getAsString()
+				: null;
+		// Command line options override the task definition file.
+		for ( int i = 1; i < args.length; i++ )
+		{
+			if ( args[ i ].equals( "--shard" ) && i + 1 < args.length )
+				shard = args[ ++i ];
+			else if ( args[ i ].equals( "--work-queue" ) )
+				useWorkQueue = true;
+			else
+				System.err.println( "Ignoring unknown option: " + args[ i ] );
+		}
+		final String[] shardTokens = shard.trim().split( "/" );
+		final int shardIndex;
+		final int shardCount;
+		try
+		{
+			shardIndex = Integer.parseInt( shardTokens[ 0 ].trim() );
+			shardCount = Integer.parseInt( shardTokens[ 1 ].trim() );
+		}
+		catch ( final NumberFormatException | ArrayIndexOutOfBoundsException e )
+		{
+			System.err.println( "Invalid shard specification: " + shard + ". Expected 'i/n'." );
+			return;
+		}
 
 		final ImagePlus imp = IJ.openImage( sourceImagePath );
 		final String units = "image units";
 
-		final TrackingMetricsType type = metrics.trim().equals( "SPT" )
-				? new SPTTrackingMetricsType( maxDist, units )
-				: new CTCTrackingMetricsType();
+		final TrackingMetricsType type;
+		if ( metrics.trim().equals( "SPT" ) )
+		{
+			type = new SPTTrackingMetricsType( maxDist, units );
+		}
+		else
+		{
+			final CTCTrackingMetricsType ctcType = new CTCTrackingMetricsType();
+			if ( gtCacheMB >= 0 )
+				ctcType.setGroundTruthMemoryCap( gtCacheMB * 1024l * 1024l );
+			ctcType.setGroundTruthIndex( gtIndex );
+			ctcType.setMeasureThreads( ctcMeasureThreads );
+			ctcType.setExportOptions( ctcExportThreads, ctcNIOExport );
+			ctcType.setTrackFilterDecomposition( ctcTrackFilterDecomposition );
+			if ( ctcScratchFolder != null )
+				ctcType.setScratchRoot( Paths.get( ctcScratchFolder ) );
+			type = ctcType;
+		}
+
+		// Only compute these metrics, e.g. [ "TRA", "DET" ].
+		if ( jsonObject.has( "metrics_subset" ) )
+		{
+			final List< MetricValue > selection = new ArrayList<>();
+			for ( final JsonElement el : jsonObject.get( "metrics_subset" ).getAsJsonArray() )
+			{
+				final MetricValue metric = type.metric( el.getAsString().trim() );
+				if ( metric == null )
+				{
+					System.err.println( "Unknown metric for " + type.name() + ": " + el.getAsString() );
+					return;
+				}
+				selection.add( metric );
+			}
+			type.setSelectedMetrics( selection );
+		}
 
 		Logger logger;
 		if ( !logFile.isEmpty() && new File( logFile ).canWrite() )
@@ -92,6 +235,15 @@ public class CLIRunner
 				.image( imp )
 				.batchLogger( logger )
 				.sptMetricsMaxPairingDistance( maxDist )
+				.numThreads( numThreads )
+				.useDetectionCache( useDetectionCache )
+				.pipelineThreads( pipelineThreads[ 0 ], pipelineThreads[ 1 ], pipelineThreads[ 2 ] )
+				.searchBudget( searchBudget )
+				.resultsFlushPolicy( flushEveryLines, flushEverySeconds )
+				.resultsFormat( resultsFormat )
+				.shard( shardIndex, shardCount )
+				.workQueue( useWorkQueue, claimTimeoutSeconds )
+				.preScreening( preScreening )
 				.get();
 
 		if ( runner == null )
@@ -0,0 +1,90 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper;
+
+import java.io.File;
+import java.io.IOException;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.helper.HelperRunner.Builder;
+import fiji.plugin.trackmate.helper.spt.SPTTrackingMetricsType;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.plugin.frame.RoiManager;
+
+/**
+ * Runs the model-based search twice on the same results folder, and checks
+ * that every settings evaluated wrote a results line, including the ones
+ * that failed, so that a resumed search does not evaluate them again.
+ */
+public class SearchResumeTestDrive
+{
+
+	private static final int BUDGET = 20;
+
+	public static void main( final String[] args ) throws IOException
+	{
+//		final String rootFolder = "/Users/tinevez/Projects/TSabate/Data/GroundTruth/";
+		final String rootFolder = "D:/Projects/TSabate/Data/GroundTruth";
+		final String sourceImagePath = new File( rootFolder, "20220131-1435_Lv4TetOinCuO-C4_t-000-106_p005.ome_ALN_MarginsCropped-cropped2.tif" ).getAbsolutePath();
+		final File saveFolder = new File( rootFolder, "GT_Halo_search" );
+		final File groundTruthPath = new File( rootFolder, "GT_Halo/20220131-1435_Lv4TetOinCuO-C4_t-000-106_p005_ISBI.xml" );
+		final File modelPath = new File( rootFolder, "GT_Halo/helperrunnersettings.json" );
+		saveFolder.mkdirs();
+
+		final RoiManager roiManager = RoiManager.getRoiManager();
+		roiManager.runCommand( "Open", new File( rootFolder, "ROIs-Halo.zip" ).getAbsolutePath() );
+		final ImagePlus imp = IJ.openImage( sourceImagePath );
+
+		for ( int run = 0; run < 2; run++ )
+		{
+			final TrackingMetricsType type = new SPTTrackingMetricsType( 1., "image units" );
+			final Builder builder = HelperRunner.create();
+			final HelperRunner runner = builder
+					.trackingMetricsType( type )
+					.groundTruth( groundTruthPath.getAbsolutePath() )
+					.savePath( saveFolder.getAbsolutePath() )
+					.runSettings( modelPath.getAbsolutePath() )
+					.image( imp )
+					.searchBudget( BUDGET )
+					.batchLogger( Logger.VOID_LOGGER )
+					.get();
+			if ( runner == null )
+			{
+				System.err.println( builder.getErrorMessage() );
+				return;
+			}
+
+			final ResultsCrawler crawler = runner.getCrawler();
+			final int linesBefore = crawler.count( false );
+			final int validBefore = crawler.count( true );
+			runner.run();
+			crawler.crawl( saveFolder.getAbsolutePath() );
+			crawler.stopWatching();
+
+			final int lines = crawler.count( false ) - linesBefore;
+			final int failed = lines - ( crawler.count( true ) - validBefore );
+			System.out.println( String.format( "Run %d: %d settings evaluated, %d lines written, of which %d failed - %s",
+					run + 1, BUDGET, lines, failed, lines == BUDGET ? "OK" : "MISSING LINES" ) );
+		}
+	}
+}
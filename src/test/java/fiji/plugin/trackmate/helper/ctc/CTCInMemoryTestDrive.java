@@ -0,0 +1,251 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.ctc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotBase;
+import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.action.CTCExporter;
+import fiji.plugin.trackmate.action.CTCExporter.ExportType;
+import fiji.plugin.trackmate.helper.TrackingMetrics;
+import fiji.plugin.trackmate.helper.TrackingMetricsType.MetricValue;
+import fiji.plugin.trackmate.util.TMUtils;
+import ij.IJ;
+import ij.ImagePlus;
+
+/**
+ * Checks that the CTC metrics measured in memory are the ones measured on the
+ * files written by our CTC writer and by the TrackMate CTC exporter, on
+ * synthetic results with gap-closing and split links.
+ */
+public class CTCInMemoryTestDrive
+{
+
+	static final int N_FRAMES = 20;
+
+	static final double RADIUS = 4.;
+
+	/**
+	 * Start position and velocity of the cells. Cell 0 divides into cells 6
+	 * and 7 at {@link #DIVISION_FRAME}.
+	 */
+	private static final double[][] CELLS = new double[][] {
+			{ 20., 20., 1., 0.5 },
+			{ 60., 20., 0.5, 1. },
+			{ 100., 20., -0.5, 1. },
+			{ 20., 100., 1., -0.5 },
+			{ 60., 100., 0., -1. },
+			{ 100., 100., -1., -1. } };
+
+	private static final int DIVISION_FRAME = 10;
+
+	public static void main( final String[] args ) throws IOException
+	{
+		final ImagePlus imp = image();
+		final File root = Files.createTempDirectory( "ctc-testdrive-" ).toFile();
+		final String gtPath = exportGroundTruth( imp, root );
+
+		final TrackMate trackmate = results( imp, new Random( 1l ) );
+		System.out.println( String.format( "Results with %d gap-closing links and %d splits.",
+				countGapClosingLinks( trackmate.getModel() ), countSplits( trackmate.getModel() ) ) );
+
+		// Reference: the TrackMate CTC exporter.
+		final String exportFolder = CTCExporter.getExportTrackingDataPath( root.getAbsolutePath(), 2, ExportType.RESULTS, trackmate );
+		CTCExporter.exportTrackingData( root.getAbsolutePath(), 2, ExportType.RESULTS, trackmate, Logger.VOID_LOGGER );
+		final TrackingMetrics reference = new CTCMetricsProcessor( TMUtils.getContext(), 0 ).process( gtPath, exportFolder );
+
+		final TrackingMetrics inMemory = measure( trackmate, gtPath, root, false );
+		final TrackingMetrics onDisk = measure( trackmate, gtPath, root, true );
+
+		boolean ok = true;
+		System.out.println( String.format( "%6s  %12s  %12s  %12s", "Metric", "Exporter", "In memory", "Our writer" ) );
+		for ( final MetricValue metric : new CTCTrackingMetricsType().metrics() )
+		{
+			final double expected = reference.get( metric );
+			final double a = inMemory.get( metric );
+			final double b = onDisk.get( metric );
+			final boolean same = same( expected, a ) && same( expected, b );
+			ok &= same;
+			System.out.println( String.format( "%6s  %12.6f  %12.6f  %12.6f  %s", metric.key, expected, a, b, same ? "" : "DIFFERENT" ) );
+		}
+		System.out.println( ok ? "OK" : "FAILED" );
+	}
+
+	private static TrackingMetrics measure( final TrackMate trackmate, final String gtPath, final File root, final boolean exportToDisk ) throws IOException
+	{
+		final CTCMetricsRunner runner = new CTCMetricsRunner( gtPath, root.getAbsolutePath(), TMUtils.getContext(), new CTCTrackingMetricsType() );
+		runner.setBatchLogger( Logger.VOID_LOGGER );
+		runner.setExportToDisk( exportToDisk );
+		try
+		{
+			return runner.performMetricsMeasurements( trackmate );
+		}
+		catch ( final Exception e )
+		{
+			throw new IOException( e );
+		}
+		finally
+		{
+			runner.close();
+		}
+	}
+
+	private static boolean same( final double expected, final double actual )
+	{
+		if ( Double.isNaN( expected ) )
+			return Double.isNaN( actual );
+		return Math.abs( expected - actual ) <= 1e-9;
+	}
+
+	/**
+	 * Returns a blank 2D image with {@link #N_FRAMES} frames.
+	 */
+	static ImagePlus image()
+	{
+		final ImagePlus imp = IJ.createImage( "Synthetic", "16-bit black", 128, 128, 1, 1, N_FRAMES );
+		imp.getCalibration().pixelWidth = 1.;
+		imp.getCalibration().pixelHeight = 1.;
+		return imp;
+	}
+
+	/**
+	 * Exports the ground-truth cells to a CTC ground-truth folder.
+	 *
+	 * @return the path to the ground-truth folder.
+	 */
+	static String exportGroundTruth( final ImagePlus imp, final File root ) throws IOException
+	{
+		final TrackMate groundTruth = new TrackMate( model( false, null ), new Settings( imp ) );
+		final String traPath = CTCExporter.getExportTrackingDataPath( root.getAbsolutePath(), 1, ExportType.GOLD_TRUTH, groundTruth );
+		CTCExporter.exportTrackingData( root.getAbsolutePath(), 1, ExportType.GOLD_TRUTH, groundTruth, Logger.VOID_LOGGER );
+		return new File( traPath ).getParent();
+	}
+
+	/**
+	 * Returns tracking results of the ground-truth cells, with jittered
+	 * positions, missing spots bridged by gap-closing links, and a track
+	 * broken in two.
+	 */
+	static TrackMate results( final ImagePlus imp, final Random random )
+	{
+		final Settings settings = new Settings( imp );
+		settings.addAllAnalyzers();
+		final TrackMate trackmate = new TrackMate( model( true, random ), settings );
+		trackmate.computeEdgeFeatures( false );
+		trackmate.computeTrackFeatures( false );
+		return trackmate;
+	}
+
+	private static Model model( final boolean results, final Random random )
+	{
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			final Spot[] last = new Spot[ CELLS.length + 2 ];
+			for ( int t = 0; t < N_FRAMES; t++ )
+			{
+				for ( int c = 0; c < last.length; c++ )
+				{
+					if ( c == 0 && t >= DIVISION_FRAME )
+						continue;
+					if ( c >= CELLS.length && t < DIVISION_FRAME )
+						continue;
+					if ( results && isMissing( c, t ) )
+						continue;
+
+					final double[] position = position( c, t );
+					final double dx = results ? 0.5 * random.nextGaussian() : 0.;
+					final double dy = results ? 0.5 * random.nextGaussian() : 0.;
+					final Spot spot = new SpotBase( position[ 0 ] + dx, position[ 1 ] + dy, 0., RADIUS, 1. );
+					model.addSpotTo( spot, Integer.valueOf( t ) );
+
+					final Spot source = ( c >= CELLS.length && t == DIVISION_FRAME ) ? last[ 0 ] : last[ c ];
+					final boolean broken = results && c == 3 && t == 13;
+					if ( source != null && !broken )
+						model.addEdge( source, spot, 1. );
+					last[ c ] = spot;
+				}
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return model;
+	}
+
+	/**
+	 * Spots missing from the results: cell 1 at frame 5, cell 2 at frames 7
+	 * and 8, and the first daughter just after the division.
+	 */
+	private static boolean isMissing( final int cell, final int frame )
+	{
+		return ( cell == 1 && frame == 5 )
+				|| ( cell == 2 && ( frame == 7 || frame == 8 ) )
+				|| ( cell == CELLS.length && frame == DIVISION_FRAME + 1 );
+	}
+
+	private static double[] position( final int cell, final int frame )
+	{
+		if ( cell < CELLS.length )
+			return new double[] { CELLS[ cell ][ 0 ] + frame * CELLS[ cell ][ 2 ], CELLS[ cell ][ 1 ] + frame * CELLS[ cell ][ 3 ] };
+
+		// Daughters move apart from the mother.
+		final double[] mother = position( 0, DIVISION_FRAME - 1 );
+		final double sign = ( cell == CELLS.length ) ? 1. : -1.;
+		final int age = frame - DIVISION_FRAME + 1;
+		return new double[] { mother[ 0 ] + sign * 2. * age, mother[ 1 ] + 1.5 * age };
+	}
+
+	static int countGapClosingLinks( final Model model )
+	{
+		int n = 0;
+		for ( final DefaultWeightedEdge edge : model.getTrackModel().edgeSet() )
+		{
+			final int source = model.getTrackModel().getEdgeSource( edge ).getFeature( Spot.FRAME ).intValue();
+			final int target = model.getTrackModel().getEdgeTarget( edge ).getFeature( Spot.FRAME ).intValue();
+			if ( Math.abs( target - source ) > 1 )
+				n++;
+		}
+		return n;
+	}
+
+	static int countSplits( final Model model )
+	{
+		int n = 0;
+		for ( final Spot spot : model.getSpots().iterable( false ) )
+			if ( model.getTrackModel().getDirectedNeighborIndex().successorsOf( spot ).size() > 1 )
+				n++;
+		return n;
+	}
+}
@@ -0,0 +1,93 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.ctc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.features.track.TrackBranchingAnalyzer;
+import fiji.plugin.trackmate.helper.TrackingMetrics;
+import fiji.plugin.trackmate.util.TMUtils;
+import ij.ImagePlus;
+
+/**
+ * Checks that the TRA, DET, CT and TF values obtained by summing track
+ * contributions are the ones of the full measurement, for several track
+ * filter thresholds on synthetic results with gap-closing and split links.
+ */
+public class TrackContributionsTestDrive
+{
+
+	private static final double[] THRESHOLDS = new double[] { 0., 8., 15., 19., 25., 40. };
+
+	public static void main( final String[] args ) throws IOException
+	{
+		final ImagePlus imp = CTCInMemoryTestDrive.image();
+		final File root = Files.createTempDirectory( "ctc-testdrive-" ).toFile();
+		final CTCGroundTruth groundTruth = new CTCGroundTruth( CTCInMemoryTestDrive.exportGroundTruth( imp, root ) );
+		final File resultsFolder = new File( root, "res" );
+		resultsFolder.mkdirs();
+
+		final TrackMate trackmate = CTCInMemoryTestDrive.results( imp, new Random( 1l ) );
+		final TrackContributions contributions = TrackContributions.compute( groundTruth, CTCResults.fromTrackMate( trackmate, false ) );
+		if ( contributions == null )
+		{
+			System.out.println( "Spots of different tracks overlap, cannot decompose - FAILED" );
+			return;
+		}
+
+		final CTCMetricsProcessor processor = new CTCMetricsProcessor( TMUtils.getContext(), 0 );
+		final String[] keys = new String[] { "TRA", "DET", "CT", "TF" };
+		boolean ok = true;
+		for ( final double threshold : THRESHOLDS )
+		{
+			trackmate.getSettings().clearTrackFilters();
+			trackmate.getSettings().addTrackFilter( new FeatureFilter( TrackBranchingAnalyzer.NUMBER_SPOTS, threshold, true ) );
+			trackmate.execTrackFiltering( false );
+
+			final double[] summed = contributions.score( trackmate.getModel().getTrackModel().trackIDs( true ) );
+			final TrackingMetrics full = processor.process( groundTruth, CTCResults.fromTrackMate( trackmate ), resultsFolder );
+			final double[] expected = new double[] {
+					full.get( CTCTrackingMetricsType.TRA ),
+					full.get( CTCTrackingMetricsType.DET ),
+					full.get( CTCTrackingMetricsType.CT ),
+					full.get( CTCTrackingMetricsType.TF ) };
+
+			final StringBuilder str = new StringBuilder( String.format( "N spots > %4.1f: %d / %d tracks -",
+					threshold, trackmate.getModel().getTrackModel().nTracks( true ), trackmate.getModel().getTrackModel().nTracks( false ) ) );
+			for ( int i = 0; i < keys.length; i++ )
+			{
+				final boolean same = ( Double.isNaN( expected[ i ] ) && Double.isNaN( summed[ i ] ) )
+						|| Math.abs( expected[ i ] - summed[ i ] ) <= 1e-9;
+				ok &= same;
+				str.append( String.format( " %s %.6f / %.6f%s", keys[ i ], summed[ i ], expected[ i ], same ? "" : " DIFFERENT" ) );
+			}
+			System.out.println( str.toString() );
+		}
+		processor.shutdown();
+		System.out.println( ok ? "OK" : "FAILED" );
+	}
+}
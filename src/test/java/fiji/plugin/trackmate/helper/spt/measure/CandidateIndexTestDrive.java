@@ -0,0 +1,165 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.spt.measure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the candidate index of the {@link OneToOneMatcher} does not
+ * change its results: on synthetic particle fields, the feasible pairs and
+ * the assignments are compared with the ones obtained by testing all the
+ * candidates.
+ */
+public class CandidateIndexTestDrive
+{
+
+	private static final int N_FRAMES = 50;
+
+	private static final double FIELD_SIZE = 30.;
+
+	public static void main( final String[] args ) throws Exception
+	{
+		final Random random = new Random( 1l );
+		System.out.println( String.format( "%8s  %8s  %3s  %10s  %10s  %12s  %12s  %8s",
+				"N tracks", "Gate", "Dim", "Index ms", "All ms", "Feasible", "Assignment", "Result" ) );
+		int nFailed = 0;
+		for ( int nTracks = 50; nTracks <= 800; nTracks *= 2 )
+		{
+			for ( final double maxDist : new double[] { 0.5, 2., 5. } )
+			{
+				for ( final boolean is3D : new boolean[] { false, true } )
+				{
+					final List< TrackSegment > references = new ArrayList<>();
+					final List< TrackSegment > candidates = new ArrayList<>();
+					for ( int i = 0; i < nTracks; i++ )
+					{
+						final TrackSegment reference = randomTrack( random, is3D );
+						references.add( reference );
+						candidates.add( perturb( reference, random ) );
+						// Spurious candidates.
+						if ( random.nextInt( 4 ) == 0 )
+							candidates.add( randomTrack( random, is3D ) );
+					}
+
+					final OneToOneMatcher indexed = new OneToOneMatcher( references, candidates );
+					final long start1 = System.currentTimeMillis();
+					final List< TrackPair > assignment1 = indexed.pairTracks( maxDist, DistanceTypes.DISTANCE_EUCLIDIAN, SolverTypes.SOLVER_HUNGARIAN_NEW );
+					final long end1 = System.currentTimeMillis();
+
+					final OneToOneMatcher all = new OneToOneMatcher( references, candidates );
+					all.setUseCandidateIndex( false );
+					final List< TrackPair > assignment2 = all.pairTracks( maxDist, DistanceTypes.DISTANCE_EUCLIDIAN, SolverTypes.SOLVER_HUNGARIAN_NEW );
+					final long end2 = System.currentTimeMillis();
+
+					final boolean sameFeasible = sameFeasiblePairs( indexed.getFeasiblePairs(), all.getFeasiblePairs() );
+					final boolean sameAssignment = sameAssignment( assignment1, assignment2 );
+					if ( !sameFeasible || !sameAssignment )
+						nFailed++;
+					System.out.println( String.format( "%8d  %8.1f  %3s  %10d  %10d  %12s  %12s  %8s",
+							nTracks, maxDist, is3D ? "3D" : "2D", end1 - start1, end2 - end1,
+							sameFeasible ? "same" : "DIFFERENT", sameAssignment ? "same" : "DIFFERENT",
+							( sameFeasible && sameAssignment ) ? "OK" : "FAILED" ) );
+				}
+			}
+		}
+		System.out.println( nFailed == 0 ? "All OK." : nFailed + " configurations FAILED." );
+	}
+
+	private static boolean sameFeasiblePairs( final List< List< TrackPair > > pairs1, final List< List< TrackPair > > pairs2 )
+	{
+		if ( pairs1.size() != pairs2.size() )
+			return false;
+		for ( int i = 0; i < pairs1.size(); i++ )
+		{
+			final List< TrackPair > l1 = pairs1.get( i );
+			final List< TrackPair > l2 = pairs2.get( i );
+			if ( l1.size() != l2.size() )
+				return false;
+			for ( int j = 0; j < l1.size(); j++ )
+				if ( !samePair( l1.get( j ), l2.get( j ) ) )
+					return false;
+		}
+		return true;
+	}
+
+	private static boolean sameAssignment( final List< TrackPair > assignment1, final List< TrackPair > assignment2 )
+	{
+		if ( assignment1.size() != assignment2.size() )
+			return false;
+		for ( int i = 0; i < assignment1.size(); i++ )
+			if ( !samePair( assignment1.get( i ), assignment2.get( i ) ) )
+				return false;
+		return true;
+	}
+
+	private static boolean samePair( final TrackPair tp1, final TrackPair tp2 )
+	{
+		// dummy tracks are different objects in the two runs
+		final boolean sameCandidate = tp1.candidateTrack == tp2.candidateTrack
+				|| ( tp1.candidateTrack.getDetectionList().isEmpty() && tp2.candidateTrack.getDetectionList().isEmpty() );
+		return tp1.referenceTrack == tp2.referenceTrack
+				&& sameCandidate
+				&& Double.compare( tp1.distance, tp2.distance ) == 0
+				&& tp1.firstMatchingTime == tp2.firstMatchingTime
+				&& tp1.lastMatchingTime == tp2.lastMatchingTime;
+	}
+
+	/**
+	 * A random walk, with some virtual detections.
+	 */
+	static TrackSegment randomTrack( final Random random, final boolean is3D )
+	{
+		final int t0 = random.nextInt( N_FRAMES / 2 );
+		final int length = 1 + random.nextInt( N_FRAMES - t0 );
+		double x = random.nextDouble() * FIELD_SIZE;
+		double y = random.nextDouble() * FIELD_SIZE;
+		double z = is3D ? random.nextDouble() * FIELD_SIZE : 0.;
+		final TrackSegment track = new TrackSegment();
+		for ( int t = t0; t < t0 + length; t++ )
+		{
+			x += random.nextGaussian();
+			y += random.nextGaussian();
+			if ( is3D )
+				z += random.nextGaussian();
+			final Detection detection = new Detection( x, y, z, t );
+			if ( t > t0 && t < t0 + length - 1 && random.nextInt( 10 ) == 0 )
+				detection.setDetectionType( Detection.DETECTIONTYPE_VIRTUAL_DETECTION );
+			track.addDetection( detection );
+		}
+		return track;
+	}
+
+	static TrackSegment perturb( final TrackSegment track, final Random random )
+	{
+		final TrackSegment candidate = new TrackSegment();
+		for ( final Detection d : track.getDetectionList() )
+		{
+			final double z = ( d.getZ() == 0. ) ? 0. : d.getZ() + random.nextGaussian();
+			final Detection detection = new Detection( d.getX() + random.nextGaussian(), d.getY() + random.nextGaussian(), z, d.getT() );
+			detection.setDetectionType( d.getDetectionType() );
+			candidate.addDetection( detection );
+		}
+		return candidate;
+	}
+}
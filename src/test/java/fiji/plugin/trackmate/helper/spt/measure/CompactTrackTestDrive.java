@@ -0,0 +1,113 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.spt.measure;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that {@link CompactTrack} represents a {@link TrackSegment}
+ * exactly, and that the distances between compact tracks computed by
+ * {@link TrackToTrackDistance} are identical to the ones computed on the
+ * detection lists of the tracks.
+ */
+public class CompactTrackTestDrive
+{
+
+	private static final int N_PAIRS = 20000;
+
+	public static void main( final String[] args )
+	{
+		final Random random = new Random( 1l );
+		final double[] gates = new double[] { 0.5, 2., 5. };
+		int nTracksFailed = 0;
+		int nDistancesFailed = 0;
+		int nDistances = 0;
+		for ( int i = 0; i < N_PAIRS; i++ )
+		{
+			final boolean is3D = random.nextBoolean();
+			final TrackSegment reference = CandidateIndexTestDrive.randomTrack( random, is3D );
+			if ( !sameTrack( reference, CompactTrack.of( reference ) ) )
+				nTracksFailed++;
+
+			// Perturbed, unrelated, and no candidate.
+			final TrackSegment[] candidates = new TrackSegment[] {
+					CandidateIndexTestDrive.perturb( reference, random ),
+					CandidateIndexTestDrive.randomTrack( random, is3D ),
+					null };
+			for ( final TrackSegment candidate : candidates )
+			{
+				for ( final double maxDist : gates )
+				{
+					for ( final DistanceTypes distType : DistanceTypes.values() )
+					{
+						final ReferenceTrackToTrackDistance expected = new ReferenceTrackToTrackDistance( reference, candidate, distType, maxDist );
+						final TrackToTrackDistance actual = new TrackToTrackDistance(
+								CompactTrack.of( reference ),
+								( candidate == null ) ? null : CompactTrack.of( candidate ),
+								distType, maxDist );
+						nDistances++;
+						if ( !expected.isSameAs( actual ) )
+							nDistancesFailed++;
+					}
+				}
+			}
+		}
+		System.out.println( String.format( "Tracks: %d tested, %d different - %s",
+				N_PAIRS, nTracksFailed, nTracksFailed == 0 ? "OK" : "FAILED" ) );
+		System.out.println( String.format( "Distances: %d tested, %d different - %s",
+				nDistances, nDistancesFailed, nDistancesFailed == 0 ? "OK" : "FAILED" ) );
+	}
+
+	private static boolean sameTrack( final TrackSegment ts, final CompactTrack ct )
+	{
+		final List< Detection > detections = ts.getDetectionList();
+		if ( ct.getFirstT() != ts.getFirstDetection().getT() || ct.getLastT() != ts.getLastDetection().getT() )
+			return false;
+		if ( ct.size() != detections.size() )
+			return false;
+		for ( final Detection d : detections )
+		{
+			final int t = d.getT();
+			if ( !ct.hasDetectionAtTime( t )
+					|| ct.getDetectionType( t ) != d.getDetectionType()
+					|| Double.compare( ct.getX( t ), d.getX() ) != 0
+					|| Double.compare( ct.getY( t ), d.getY() ) != 0
+					|| Double.compare( ct.getZ( t ), d.getZ() ) != 0 )
+				return false;
+		}
+		final List< Detection > back = ct.toTrackSegment().getDetectionList();
+		if ( back.size() != detections.size() )
+			return false;
+		for ( int i = 0; i < back.size(); i++ )
+		{
+			final Detection d1 = detections.get( i );
+			final Detection d2 = back.get( i );
+			if ( d1.getT() != d2.getT() || d1.getDetectionType() != d2.getDetectionType()
+					|| Double.compare( d1.getX(), d2.getX() ) != 0
+					|| Double.compare( d1.getY(), d2.getY() ) != 0
+					|| Double.compare( d1.getZ(), d2.getZ() ) != 0 )
+				return false;
+		}
+		return true;
+	}
+}
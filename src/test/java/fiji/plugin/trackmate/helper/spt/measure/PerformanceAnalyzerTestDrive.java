@@ -0,0 +1,212 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.spt.measure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the scores computed by {@link PerformanceAnalyzer} in a single
+ * pass over the track pairs are identical to the ones computed criterion by
+ * criterion, each with its own loops over the pairs and the tracks, as the
+ * analyzer did before.
+ */
+public class PerformanceAnalyzerTestDrive
+{
+
+	private static final String[] NAMES = new String[] { "alpha", "beta", "JSC", "JSCtheta", "RMSE", "min", "max", "std" };
+
+	public static void main( final String[] args ) throws Exception
+	{
+		final Random random = new Random( 1l );
+		System.out.println( String.format( "%8s  %6s  %10s  %8s  %-10s", "N tracks", "Gate", "Distance", "Result", "Max diff" ) );
+		int nFailed = 0;
+		for ( int nTracks = 25; nTracks <= 400; nTracks *= 2 )
+		{
+			for ( final double maxDist : new double[] { 0.5, 2., 5. } )
+			{
+				final boolean is3D = random.nextBoolean();
+				final List< TrackSegment > references = new ArrayList<>();
+				final List< TrackSegment > candidates = new ArrayList<>();
+				for ( int i = 0; i < nTracks; i++ )
+				{
+					final TrackSegment reference = CandidateIndexTestDrive.randomTrack( random, is3D );
+					references.add( reference );
+					// Missed tracks.
+					if ( random.nextInt( 5 ) != 0 )
+						candidates.add( CandidateIndexTestDrive.perturb( reference, random ) );
+					// Spurious tracks.
+					if ( random.nextInt( 4 ) == 0 )
+						candidates.add( CandidateIndexTestDrive.randomTrack( random, is3D ) );
+				}
+				final List< TrackPair > pairs = new OneToOneMatcher( references, candidates )
+						.pairTracks( maxDist, DistanceTypes.DISTANCE_EUCLIDIAN, SolverTypes.SOLVER_HUNGARIAN_NEW );
+
+				for ( final DistanceTypes distType : DistanceTypes.values() )
+				{
+					final PerformanceAnalyzer analyzer = new PerformanceAnalyzer( references, candidates, pairs );
+					final double[] actual = analyzer.getScores( distType, maxDist );
+					final double[] expected = referenceScores( references, candidates, pairs, distType, maxDist );
+
+					double maxDiff = 0.;
+					String worst = null;
+					for ( int k = 0; k < expected.length; k++ )
+					{
+						if ( Double.compare( expected[ k ], actual[ k ] ) == 0 )
+							continue;
+						final double diff = Math.abs( expected[ k ] - actual[ k ] );
+						if ( worst == null || diff > maxDiff )
+						{
+							maxDiff = diff;
+							worst = NAMES[ k ];
+						}
+					}
+					final boolean ok = worst == null;
+					if ( !ok )
+						nFailed++;
+					System.out.println( String.format( "%8d  %6.1f  %10s  %8s  %s",
+							nTracks, maxDist, distType == DistanceTypes.DISTANCE_EUCLIDIAN ? "Euclidian" : "Matching",
+							ok ? "OK" : "FAILED", ok ? "0" : String.format( "%g (%s)", maxDiff, worst ) ) );
+				}
+			}
+		}
+		System.out.println( nFailed == 0 ? "All OK." : nFailed + " configurations FAILED." );
+	}
+
+	/**
+	 * The scores computed as before the single pass: alpha, beta, JSC,
+	 * JSCtheta, then the RMSE, min, max and standard deviation of the
+	 * distance between paired detections.
+	 */
+	private static double[] referenceScores(
+			final List< TrackSegment > references,
+			final List< TrackSegment > candidates,
+			final List< TrackPair > pairs,
+			final DistanceTypes distType,
+			final double maxDist )
+	{
+		// alpha and beta.
+		double distance = 0;
+		for ( final TrackPair tp : pairs )
+			distance += new ReferenceTrackToTrackDistance( tp.referenceTrack, tp.candidateTrack, distType, maxDist ).distance;
+		double bound = 0;
+		for ( final TrackSegment ts : references )
+			bound += new ReferenceTrackToTrackDistance( ts, null, distType, maxDist ).distance;
+		double penalty = 0;
+		for ( final TrackSegment ts : candidates )
+			if ( pairOf( pairs, ts ) == null )
+				penalty += new ReferenceTrackToTrackDistance( ts, null, distType, maxDist ).distance;
+		final double alpha = 1d - distance / bound;
+		final double beta = ( bound - distance ) / ( bound + penalty );
+
+		// JSC.
+		int numPaired = 0;
+		int numMissed = 0;
+		for ( final TrackPair tp : pairs )
+		{
+			final ReferenceTrackToTrackDistance d = new ReferenceTrackToTrackDistance( tp.referenceTrack, tp.candidateTrack, DistanceTypes.DISTANCE_MATCHING, maxDist );
+			numPaired += d.numMatchingDetections;
+			numMissed += d.numNonMatchedDetections;
+		}
+		int numWrong = 0;
+		for ( final TrackSegment ts : candidates )
+		{
+			final TrackPair tp = pairOf( pairs, ts );
+			if ( tp != null )
+			{
+				numWrong += new ReferenceTrackToTrackDistance( tp.referenceTrack, tp.candidateTrack, DistanceTypes.DISTANCE_MATCHING, maxDist ).numWrongDetections;
+			}
+			else
+			{
+				for ( final Detection d : ts.getDetectionList() )
+					if ( d.getDetectionType() == Detection.DETECTIONTYPE_REAL_DETECTION )
+						numWrong++;
+			}
+		}
+		final double jsc = numPaired / ( ( double ) numPaired + ( double ) numMissed + numWrong );
+
+		// JSCtheta.
+		int numSpuriousTracks = 0;
+		int numPairedTracks = 0;
+		for ( final TrackSegment ts : candidates )
+		{
+			if ( pairOf( pairs, ts ) == null )
+				numSpuriousTracks++;
+			else
+				numPairedTracks++;
+		}
+		int numMissedTracks = 0;
+		for ( final TrackSegment ts : references )
+		{
+			boolean found = false;
+			for ( final TrackPair tp : pairs )
+			{
+				if ( tp.referenceTrack == ts )
+				{
+					found = tp.candidateTrack != null && !tp.candidateTrack.getDetectionList().isEmpty();
+					break;
+				}
+			}
+			if ( !found )
+				numMissedTracks++;
+		}
+		final double jscTheta = numPairedTracks / ( ( double ) numPairedTracks + ( double ) numMissedTracks + numSpuriousTracks );
+
+		// Distance between paired detections.
+		double sumDistance = 0;
+		double sumSquareDistance = 0;
+		double minDistance = Double.MAX_VALUE;
+		double maxDistance = 0;
+		int numDetections = 0;
+		for ( final TrackPair tp : pairs )
+		{
+			if ( tp.candidateTrack == null || tp.candidateTrack.getDetectionList().isEmpty() )
+				continue;
+			final ReferenceTrackToTrackDistance d = new ReferenceTrackToTrackDistance( tp.referenceTrack, tp.candidateTrack, DistanceTypes.DISTANCE_MATCHING, maxDist );
+			sumDistance += d.sumDetectionDistance;
+			sumSquareDistance += d.sumSquareDetectionDistance;
+			if ( d.minDetectionDistance < minDistance )
+				minDistance = d.minDetectionDistance;
+			if ( d.maxDetectionDistance > maxDistance )
+				maxDistance = d.maxDetectionDistance;
+			numDetections += d.numMatchingDetections;
+		}
+		final double[] data = ( numDetections == 0 )
+				? new double[] { 0, 0, 0, 0 }
+				: new double[] {
+						Math.sqrt( sumSquareDistance / numDetections ),
+						minDistance,
+						maxDistance,
+						Math.sqrt( sumSquareDistance / numDetections - Math.pow( sumDistance / numDetections, 2 ) ) };
+
+		return new double[] { alpha, beta, jsc, jscTheta, data[ 0 ], data[ 1 ], data[ 2 ], data[ 3 ] };
+	}
+
+	private static TrackPair pairOf( final List< TrackPair > pairs, final TrackSegment candidate )
+	{
+		for ( final TrackPair tp : pairs )
+			if ( tp.candidateTrack == candidate )
+				return tp;
+		return null;
+	}
+}
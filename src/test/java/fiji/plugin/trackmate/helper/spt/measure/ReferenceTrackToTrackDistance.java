@@ -0,0 +1,144 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.spt.measure;
+
+/**
+ * The distance between two tracks as computed before {@link CompactTrack}
+ * was introduced, directly on the detection lists of the tracks, and once
+ * per distance type. Used as a reference to check that
+ * {@link TrackToTrackDistance} gives the same results.
+ */
+class ReferenceTrackToTrackDistance
+{
+
+	double distance;
+
+	boolean isMatching = false;
+
+	int firstMatchingTime = -1;
+
+	int lastMatchingTime = -1;
+
+	int numMatchingDetections = 0;
+
+	int numNonMatchedDetections = 0;
+
+	int numWrongDetections = 0;
+
+	double minDetectionDistance = Double.MAX_VALUE;
+
+	double maxDetectionDistance = 0;
+
+	double sumSquareDetectionDistance = 0;
+
+	double sumDetectionDistance = 0;
+
+	ReferenceTrackToTrackDistance( final TrackSegment ts1, final TrackSegment ts2, final DistanceTypes distanceType, final double maxDist )
+	{
+		final int length1 = ts1.getLastDetection().getT() - ts1.getFirstDetection().getT() + 1;
+		final double penalty = ( distanceType == DistanceTypes.DISTANCE_EUCLIDIAN ) ? maxDist : 1.;
+		if ( ts2 == null || ts2.getDetectionList().isEmpty() )
+		{
+			distance = penalty * length1;
+			numNonMatchedDetections = length1;
+			return;
+		}
+		final int t0_1 = ts1.getFirstDetection().getT();
+		final int tend_1 = ts1.getLastDetection().getT();
+		final int t0_2 = ts2.getFirstDetection().getT();
+		final int tend_2 = ts2.getLastDetection().getT();
+
+		// test if there is an intersection between segments
+		if ( ( t0_2 >= t0_1 && t0_2 <= tend_1 ) || ( tend_2 >= t0_1 && tend_2 <= tend_1 ) || ( t0_2 <= t0_1 && tend_2 >= tend_1 ) )
+		{
+			numWrongDetections += Math.max( 0, t0_1 - t0_2 );
+			numWrongDetections += Math.max( 0, tend_2 - tend_1 );
+
+			numNonMatchedDetections += Math.max( 0, t0_2 - t0_1 );
+			numNonMatchedDetections += Math.max( 0, tend_1 - tend_2 );
+
+			final int firstT = Math.max( t0_1, t0_2 );
+			final int endT = Math.min( tend_1, tend_2 );
+			boolean matching = false;
+			distance = penalty * ( Math.abs( t0_2 - t0_1 ) + Math.abs( tend_2 - tend_1 ) );
+			for ( int t = firstT; t <= endT; t++ )
+			{
+				final Detection d1 = ts1.getDetectionAtTime( t );
+				final Detection d2 = ts2.getDetectionAtTime( t );
+				final double ed = Math.sqrt( ( d1.getX() - d2.getX() ) * ( d1.getX() - d2.getX() ) + ( d1.getY() - d2.getY() ) * ( d1.getY() - d2.getY() ) + ( d1.getZ() - d2.getZ() ) * ( d1.getZ() - d2.getZ() ) );
+				if ( d2.getDetectionType() == Detection.DETECTIONTYPE_REAL_DETECTION && ed < maxDist )
+				{
+					if ( !matching )
+					{
+						firstMatchingTime = t;
+						matching = true;
+					}
+					lastMatchingTime = t;
+					if ( distanceType == DistanceTypes.DISTANCE_EUCLIDIAN )
+						distance += ed;
+					numMatchingDetections++;
+					sumDetectionDistance += ed;
+					sumSquareDetectionDistance += ( ed * ed );
+					if ( ed < minDetectionDistance )
+						minDetectionDistance = ed;
+					else if ( ed > maxDetectionDistance )
+						maxDetectionDistance = ed;
+				}
+				else
+				{
+					// virtual detections are not considered as spurious
+					// detections
+					if ( d2.getDetectionType() == Detection.DETECTIONTYPE_REAL_DETECTION )
+						numWrongDetections++;
+					numNonMatchedDetections++;
+					distance += penalty;
+				}
+			}
+			isMatching = matching && distanceType == DistanceTypes.DISTANCE_EUCLIDIAN;
+		}
+		else
+		{
+			numWrongDetections += ( tend_2 - t0_2 + 1 );
+			numNonMatchedDetections += length1;
+			distance = penalty * length1;
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified distance has exactly the
+	 * same values as this one.
+	 */
+	boolean isSameAs( final TrackToTrackDistance d )
+	{
+		return Double.compare( distance, d.distance ) == 0
+				&& isMatching == d.isMatching
+				&& firstMatchingTime == d.firstMatchingTime
+				&& lastMatchingTime == d.lastMatchingTime
+				&& numMatchingDetections == d.numMatchingDetections
+				&& numNonMatchedDetections == d.numNonMatchedDetections
+				&& numWrongDetections == d.numWrongDetections
+				&& Double.compare( minDetectionDistance, d.minDetectionDistance ) == 0
+				&& Double.compare( maxDetectionDistance, d.maxDetectionDistance ) == 0
+				&& Double.compare( sumSquareDetectionDistance, d.sumSquareDetectionDistance ) == 0
+				&& Double.compare( sumDetectionDistance, d.sumDetectionDistance ) == 0;
+	}
+}
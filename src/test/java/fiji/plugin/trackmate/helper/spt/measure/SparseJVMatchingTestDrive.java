@@ -0,0 +1,174 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2021 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.helper.spt.measure;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the Hungarian and the sparse JV solvers of the
+ * {@link OneToOneMatcher} on synthetic particle fields of increasing density,
+ * which give clusters of increasing size, up to several thousands of
+ * reference tracks. The Hungarian solver is skipped for clusters larger than
+ * {@link #MAX_HUNGARIAN_CLUSTER}, where it takes too long.
+ */
+public class SparseJVMatchingTestDrive
+{
+
+	private static final double MAX_DIST = 3.;
+
+	private static final int N_FRAMES = 50;
+
+	/**
+	 * The field is small enough for most tracks to end up in a few large
+	 * clusters as the number of tracks increases.
+	 */
+	private static final double FIELD_SIZE = 15.;
+
+	private static final int MAX_N_TRACKS = 6400;
+
+	private static final int MAX_HUNGARIAN_CLUSTER = 5000;
+
+	public static void main( final String[] args ) throws Exception
+	{
+		final Random random = new Random( 1l );
+		System.out.println( String.format( "%8s  %12s  %12s  %12s  %14s  %14s  %8s",
+				"N tracks", "Max cluster", "Hungarian ms", "Sparse JV ms", "Hungarian cost", "Sparse JV cost", "Same" ) );
+		for ( int nTracks = 50; nTracks <= MAX_N_TRACKS; nTracks *= 2 )
+		{
+			final List< TrackSegment > references = new ArrayList<>();
+			final List< TrackSegment > candidates = new ArrayList<>();
+			for ( int i = 0; i < nTracks; i++ )
+			{
+				final TrackSegment reference = randomTrack( random );
+				references.add( reference );
+				candidates.add( perturb( reference, random ) );
+			}
+
+			final OneToOneMatcher sparseMatcher = new OneToOneMatcher( references, candidates );
+			final long start1 = System.currentTimeMillis();
+			final List< TrackPair > sparse = sparseMatcher.pairTracks( MAX_DIST, DistanceTypes.DISTANCE_EUCLIDIAN, SolverTypes.SOLVER_SPARSE_JV );
+			final long end1 = System.currentTimeMillis();
+			final int maxCluster = maxClusterSize( sparseMatcher.getFeasiblePairs() );
+
+			if ( maxCluster > MAX_HUNGARIAN_CLUSTER )
+			{
+				System.out.println( String.format( "%8d  %12d  %12s  %12d  %14s  %14.6f  %8s",
+						nTracks, maxCluster, "-", end1 - start1, "-", cost( sparse ), "-" ) );
+				continue;
+			}
+
+			final long start2 = System.currentTimeMillis();
+			final List< TrackPair > hungarian = new OneToOneMatcher( references, candidates ).pairTracks( MAX_DIST, DistanceTypes.DISTANCE_EUCLIDIAN, SolverTypes.SOLVER_HUNGARIAN_NEW );
+			final long end2 = System.currentTimeMillis();
+
+			// dummy tracks are different objects in the two runs
+			final Map< TrackSegment, TrackSegment > sparseMatches = new HashMap<>();
+			for ( final TrackPair tp : sparse )
+				sparseMatches.put( tp.referenceTrack, tp.candidateTrack );
+			int same = 0;
+			for ( final TrackPair tp : hungarian )
+			{
+				final TrackSegment match = sparseMatches.get( tp.referenceTrack );
+				if ( match == tp.candidateTrack || ( match.getDetectionList().isEmpty() && tp.candidateTrack.getDetectionList().isEmpty() ) )
+					same++;
+			}
+			System.out.println( String.format( "%8d  %12d  %12d  %12d  %14.6f  %14.6f  %7.1f%%",
+					nTracks, maxCluster, end2 - start2, end1 - start1, cost( hungarian ), cost( sparse ), 100. * same / hungarian.size() ) );
+		}
+	}
+
+	/**
+	 * Returns the number of reference tracks in the largest cluster of
+	 * reference tracks that share candidate tracks.
+	 */
+	private static int maxClusterSize( final List< List< TrackPair > > feasiblePairs )
+	{
+		final int n = feasiblePairs.size();
+		final int[] parent = new int[ n ];
+		for ( int i = 0; i < n; i++ )
+			parent[ i ] = i;
+		final Map< TrackSegment, Integer > firstReference = new IdentityHashMap<>();
+		for ( int i = 0; i < n; i++ )
+		{
+			for ( final TrackPair tp : feasiblePairs.get( i ) )
+			{
+				if ( tp.candidateTrack.getDetectionList().isEmpty() )
+					continue;
+				final Integer j = firstReference.putIfAbsent( tp.candidateTrack, Integer.valueOf( i ) );
+				if ( j != null )
+					parent[ root( parent, i ) ] = root( parent, j.intValue() );
+			}
+		}
+		final int[] sizes = new int[ n ];
+		int max = 0;
+		for ( int i = 0; i < n; i++ )
+			max = Math.max( max, ++sizes[ root( parent, i ) ] );
+		return max;
+	}
+
+	private static int root( final int[] parent, int i )
+	{
+		while ( parent[ i ] != i )
+		{
+			parent[ i ] = parent[ parent[ i ] ];
+			i = parent[ i ];
+		}
+		return i;
+	}
+
+	private static double cost( final List< TrackPair > assignment )
+	{
+		double cost = 0.;
+		for ( final TrackPair tp : assignment )
+			cost += tp.distance;
+		return cost;
+	}
+
+	private static TrackSegment randomTrack( final Random random )
+	{
+		final int t0 = random.nextInt( N_FRAMES / 2 );
+		final int length = 1 + random.nextInt( N_FRAMES - t0 );
+		double x = random.nextDouble() * FIELD_SIZE;
+		double y = random.nextDouble() * FIELD_SIZE;
+		final TrackSegment track = new TrackSegment();
+		for ( int t = t0; t < t0 + length; t++ )
+		{
+			x += random.nextGaussian();
+			y += random.nextGaussian();
+			track.addDetection( new Detection( x, y, 0., t ) );
+		}
+		return track;
+	}
+
+	private static TrackSegment perturb( final TrackSegment track, final Random random )
+	{
+		final TrackSegment candidate = new TrackSegment();
+		for ( final Detection d : track.getDetectionList() )
+			candidate.addDetection( new Detection( d.getX() + random.nextGaussian(), d.getY() + random.nextGaussian(), 0., d.getT() ) );
+		return candidate;
+	}
+}